@@ -59,6 +59,7 @@ import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * A GenomeAnalysisEngine that runs a specified walker.
@@ -222,7 +223,15 @@ public class GenomeAnalysisEngine {
         ShardStrategy shardStrategy = getShardStrategy(readsDataSource,microScheduler.getReference(),intervals);
 
         // execute the microscheduler, storing the results
-        Object result =  microScheduler.execute(this.walker, shardStrategy);
+        Object result;
+        try {
+            result = microScheduler.execute(this.walker, shardStrategy);
+        }
+        finally {
+            // every shard has been created by now, so the indices used to create them can be released
+            if(readsDataSource != null)
+                readsDataSource.close();
+        }
 
         //monitor.stop();
         //logger.info(String.format("Maximum heap size consumed: %d",monitor.getMaxMemoryUsed()));
@@ -897,6 +906,9 @@ public class GenomeAnalysisEngine {
                 refReader,
                 argCollection.defaultBaseQualities,
                 !argCollection.disableLowMemorySharding);
+        if(argCollection.bamScheduleSpillThresholdInMB < 0)
+            throw new UserException.BadArgumentValue("bam_schedule_spill_threshold","must be non-negative");
+        dataSource.setBAMScheduleSpillThreshold(argCollection.bamScheduleSpillThresholdInMB*1024L*1024L);
         return dataSource;
     }
 
@@ -922,21 +934,43 @@ public class GenomeAnalysisEngine {
      * @return A list of reference-ordered data sources.
      */
     private List<ReferenceOrderedDataSource> getReferenceOrderedDataSources(Collection<RMDTriplet> referenceMetaDataFiles,
-                                                                            SAMSequenceDictionary sequenceDictionary,
-                                                                            GenomeLocParser genomeLocParser,
+                                                                            final SAMSequenceDictionary sequenceDictionary,
+                                                                            final GenomeLocParser genomeLocParser,
                                                                             ValidationExclusion.TYPE validationExclusionType) {
-        RMDTrackBuilder builder = new RMDTrackBuilder(sequenceDictionary,genomeLocParser,validationExclusionType);
+        final RMDTrackBuilder builder = new RMDTrackBuilder(sequenceDictionary,genomeLocParser,validationExclusionType);
         // try and make the tracks given their requests
         // create of live instances of the tracks
         List<RMDTrack> tracks = new ArrayList<RMDTrack>();
 
+        // open the tracks concurrently, as loading or creating their indexes can take a while
         List<ReferenceOrderedDataSource> dataSources = new ArrayList<ReferenceOrderedDataSource>();
-        for (RMDTriplet fileDescriptor : referenceMetaDataFiles)
-            dataSources.add(new ReferenceOrderedDataSource(fileDescriptor,
-                                                           builder,
-                                                           sequenceDictionary,
-                                                           genomeLocParser,
-                                                           flashbackData()));
+        List<Future<ReferenceOrderedDataSource>> openedDataSources = new ArrayList<Future<ReferenceOrderedDataSource>>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,Math.min(referenceMetaDataFiles.size(),Runtime.getRuntime().availableProcessors())));
+        try {
+            for (final RMDTriplet fileDescriptor : referenceMetaDataFiles)
+                openedDataSources.add(executor.submit(new Callable<ReferenceOrderedDataSource>() {
+                    public ReferenceOrderedDataSource call() {
+                        return new ReferenceOrderedDataSource(fileDescriptor,
+                                                              builder,
+                                                              sequenceDictionary,
+                                                              genomeLocParser,
+                                                              flashbackData());
+                    }
+                }));
+            for (Future<ReferenceOrderedDataSource> openedDataSource : openedDataSources)
+                dataSources.add(openedDataSource.get());
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ex.getCause();
+            throw new ReviewedStingException("Unable to open reference-ordered data", ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            throw new ReviewedStingException("Interrupted while opening reference-ordered data", ex);
+        }
+        finally {
+            executor.shutdownNow();
+        }
 
         // validation: check to make sure everything the walker needs is present, and that all sequence dictionaries match.
         validateSuppliedReferenceOrderedData(dataSources);
@@ -208,6 +208,11 @@ public class GATKArgumentCollection {
     @Argument(fullName = "num_threads", shortName = "nt", doc = "How many threads should be allocated to running this analysis.", required = false)
     public int numberOfThreads = 1;
 
+    /** Should parallel runs use the work-stealing scheduler? */
+    @Element(required = false)
+    @Argument(fullName = "work_stealing_scheduler", shortName = "wss", doc = "When running with -nt, schedule shard traversals and tree reduces on a work-stealing fork/join pool rather than a fixed thread pool.", required = false)
+    public boolean useWorkStealingScheduler = false;
+
     /** What rule should we use when merging intervals */
     @Element(required = false)
     @Argument(fullName = "interval_merging", shortName = "im", doc = "What interval merging rule should we use.", required = false)
@@ -251,6 +256,11 @@ public class GATKArgumentCollection {
     @Argument(fullName="disable_experimental_low_memory_sharding",doc="Disable experimental low-memory sharding functionality.",required=false)
     public boolean disableLowMemorySharding = false;
 
+    @Element(required = false)
+    @Argument(fullName="bam_schedule_spill_threshold",doc="Keep low-memory sharding schedules of up to this many megabytes in memory; larger schedules are written to the temp directory.  0 to always use the temp directory.",required=false)
+    @Hidden
+    public int bamScheduleSpillThresholdInMB = 32;
+
     // --------------------------------------------------------------------------------------------------------------
     //
     // methods
@@ -398,6 +408,9 @@ public class GATKArgumentCollection {
         if (other.numberOfThreads != this.numberOfThreads) {
             return false;
         }
+        if (other.useWorkStealingScheduler != this.useWorkStealingScheduler) {
+            return false;
+        }
         if (other.intervalMerging != this.intervalMerging) {
             return false;
         }
@@ -440,6 +453,9 @@ public class GATKArgumentCollection {
         if (disableLowMemorySharding != other.disableLowMemorySharding)
             return false;
 
+        if (bamScheduleSpillThresholdInMB != other.bamScheduleSpillThresholdInMB)
+            return false;
+
         return true;
     }
 
@@ -4,6 +4,7 @@ import net.sf.samtools.SAMRecord;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.iterators.GenomeLocusIterator;
 import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
 
 import java.util.Collections;
@@ -32,8 +33,15 @@ public class AllLocusView extends LocusView {
     /**
      * Gets the next position in the view: next call to next() will jump there.
      * Note that both nextPosition and nextLocus are PRE-read and cached.
+     * Positions are packed by GenomeLocParser.packLocus(), and only turned into
+     * GenomeLocs for positions without data.
      */
-    private GenomeLoc nextPosition = null;
+    private long nextPosition;
+
+    /**
+     * Is there a next position?
+     */
+    private boolean hasNextPosition = false;
 
     /**
      * What's the next available context?
@@ -57,13 +65,13 @@ public class AllLocusView extends LocusView {
 
     public boolean hasNext() {
         advance();
-        return nextPosition != null;
+        return hasNextPosition;
     }
 
     public AlignmentContext next() {
         advance();
 
-        if(nextPosition == null)
+        if(!hasNextPosition)
             throw new NoSuchElementException("No next is available in the all locus view");
 
         // Flag to the iterator that no data is waiting in the queue to be processed.
@@ -72,10 +80,10 @@ public class AllLocusView extends LocusView {
         AlignmentContext currentLocus;
 
         // If actual data is present, return it.  Otherwise, return empty data.
-        if( nextLocus != null && nextLocus.getLocation().equals(nextPosition) )
+        if( nextLocus != null && isAt(nextLocus.getLocation(),nextPosition) )
             currentLocus = nextLocus;
         else
-            currentLocus = createEmptyLocus(nextPosition);
+            currentLocus = createEmptyLocus(genomeLocParser.createGenomeLoc(nextPosition));
 
         return currentLocus;
     }
@@ -86,11 +94,11 @@ public class AllLocusView extends LocusView {
             return;
 
         // Out of elements?
-        if(nextPosition == null && !locusIterator.hasNext())
+        if(!hasNextPosition && !locusIterator.hasNext())
             return;        
 
         // If nextLocus has been consumed, clear it out to make room for the next incoming locus.
-        if(nextPosition != null && nextLocus != null && !nextLocus.getLocation().isPast(nextPosition)) {
+        if(hasNextPosition && nextLocus != null && !isPast(nextLocus.getLocation(),nextPosition)) {
             nextLocus = null;
 
             // Determine the next locus. The trick is that we may have more than one alignment context at the same
@@ -100,7 +108,7 @@ public class AllLocusView extends LocusView {
             // position
             if(hasNextLocus()) {
                 nextLocus = nextLocus();
-                if(nextPosition.equals(nextLocus.getLocation())) {
+                if(isAt(nextLocus.getLocation(),nextPosition)) {
                     atNextElement = true;
                     return;
                 }
@@ -109,17 +117,18 @@ public class AllLocusView extends LocusView {
 
         // No elements left in queue?  Clear out the position state tracker and return.
         if(!locusIterator.hasNext()) {
-            nextPosition = null;
+            hasNextPosition = false;
             return;
         }
 
         // Actually fill the next position.
-        nextPosition = locusIterator.next();
+        nextPosition = locusIterator.nextPackedLocus();
+        hasNextPosition = true;
         atNextElement = true;
 
         // Crank the iterator to (if possible) or past the next context.  Be careful not to hold a reference to nextLocus
         // while using the hasNextLocus() / nextLocus() machinery; this will cause us to use more memory than is optimal. 
-        while(nextLocus == null || nextLocus.getLocation().isBefore(nextPosition)) {
+        while(nextLocus == null || isBefore(nextLocus.getLocation(),nextPosition)) {
             nextLocus = null;
             if(!hasNextLocus())
                 break;
@@ -127,6 +136,30 @@ public class AllLocusView extends LocusView {
         }
     }
 
+    /**
+     * Is the location exactly the single base at the packed position?
+     */
+    private static boolean isAt( GenomeLoc location, long position ) {
+        final int pos = GenomeLocParser.getPackedPosition(position);
+        return location.getContigIndex() == GenomeLocParser.getPackedContigIndex(position) && location.getStart() == pos && location.getStop() == pos;
+    }
+
+    /**
+     * Does the location start after the packed position, as GenomeLoc.isPast() would have it?
+     */
+    private static boolean isPast( GenomeLoc location, long position ) {
+        final int contigIndex = GenomeLocParser.getPackedContigIndex(position);
+        return location.getContigIndex() > contigIndex || (location.getContigIndex() == contigIndex && location.getStart() > GenomeLocParser.getPackedPosition(position));
+    }
+
+    /**
+     * Does the location end before the packed position, as GenomeLoc.isBefore() would have it?
+     */
+    private static boolean isBefore( GenomeLoc location, long position ) {
+        final int contigIndex = GenomeLocParser.getPackedContigIndex(position);
+        return location.getContigIndex() < contigIndex || (location.getContigIndex() == contigIndex && location.getStop() < GenomeLocParser.getPackedPosition(position));
+    }
+
     /**
      * Creates a blank locus context at the specified location.
      * @param site Site at which to create the blank locus context.
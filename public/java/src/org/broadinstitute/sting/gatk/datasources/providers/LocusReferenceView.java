@@ -153,14 +153,6 @@ public class LocusReferenceView extends ReferenceView {
         this.referenceSequence = reference.getSubsequenceAt( locus.getContig(), locus.getStart(), locus.getStop() );
     }
 
-    protected GenomeLoc trimToBounds(GenomeLoc l) {
-        int expandedStart = getWindowStart( bounds );
-        int expandedStop  = getWindowStop( bounds );
-        if ( l.getStart() < expandedStart ) l = genomeLocParser.setStart(l, expandedStart);
-        if ( l.getStop() > expandedStop  ) l = genomeLocParser.setStop(l, expandedStop);
-        return l;
-    }
-
     public class Provider implements ReferenceContext.ReferenceContextRefProvider {
         int refStart, len;
 
@@ -185,19 +177,27 @@ public class LocusReferenceView extends ReferenceView {
     public ReferenceContext getReferenceContext( GenomeLoc genomeLoc ) {
         //validateLocation( genomeLoc );
 
-        GenomeLoc window = genomeLocParser.createGenomeLoc( genomeLoc.getContig(), getWindowStart(genomeLoc), getWindowStop(genomeLoc) );
+        int start = getWindowStart(genomeLoc);
+        int stop = getWindowStop(genomeLoc);
 
         int refStart = -1;
         if (bounds != null) {
-            window = trimToBounds(window);
-            refStart = (int)(window.getStart() - getWindowStart(bounds));
+            // trim the window to the bounds
+            int boundsStart = getWindowStart(bounds);
+            start = Math.max(start, boundsStart);
+            stop = Math.min(stop, getWindowStop(bounds));
+            refStart = start - boundsStart;
         }
         else {
             if(referenceSequence == null || referenceSequence.getContigIndex() != genomeLoc.getContigIndex())
                 referenceSequence = reference.getSequence(genomeLoc.getContig());
-            refStart = (int)window.getStart()-1;
+            refStart = start-1;
         }
 
+        // without a window the reference context covers exactly the locus, which can then be shared
+        GenomeLoc window = start == genomeLoc.getStart() && stop == genomeLoc.getStop() ? genomeLoc :
+                genomeLocParser.createGenomeLoc( genomeLoc.getContig(), genomeLoc.getContigIndex(), start, stop );
+
         int len = (int)window.size();
         return new ReferenceContext( genomeLocParser, genomeLoc, window, new Provider(refStart, len));
     }
@@ -3,12 +3,11 @@ package org.broadinstitute.sting.gatk.datasources.providers;
 import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
+import org.broadinstitute.sting.gatk.refdata.utils.RODIntervalIndex;
+import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
 import org.broadinstitute.sting.utils.GenomeLoc;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 /**
  * User: hanna
  * Date: May 21, 2009
@@ -31,13 +30,28 @@ public class ManagingReferenceOrderedView implements ReferenceOrderedView {
      */
     private List<ReferenceOrderedDataState> states = new ArrayList<ReferenceOrderedDataState>();
 
+    /**
+     * The canonical name of each track, shared by every tracker this view creates, and an index of the
+     * track's records in this shard.  If two data sources have the same name, only the last is indexed.
+     */
+    private final String[] trackNames;
+    private final RODIntervalIndex[] trackIndices;
+
     /**
      * Create a new view of reference-ordered data.
      * @param provider
      */
     public ManagingReferenceOrderedView( LocusShardDataProvider provider ) {
-        for( ReferenceOrderedDataSource dataSource: provider.getReferenceOrderedData() )
-            states.add(new ReferenceOrderedDataState(dataSource, dataSource.seek(provider.getLocus())));
+        Map<String,RODIntervalIndex> indices = new LinkedHashMap<String,RODIntervalIndex>();
+        for( ReferenceOrderedDataSource dataSource: provider.getReferenceOrderedData() ) {
+            ReferenceOrderedDataState state = new ReferenceOrderedDataState(dataSource, dataSource.seek(provider.getLocus()));
+            states.add(state);
+            String name = RefMetaDataTracker.canonicalName(dataSource.getName());
+            indices.remove(name);
+            indices.put(name, new RODIntervalIndex(state.iterator, provider.getGenomeLocParser()));
+        }
+        trackNames = indices.keySet().toArray(new String[indices.size()]);
+        trackIndices = indices.values().toArray(new RODIntervalIndex[indices.size()]);
 
         provider.register(this);
     }
@@ -50,10 +64,10 @@ public class ManagingReferenceOrderedView implements ReferenceOrderedView {
      * @return A tracker containing information about this locus.
      */
     public RefMetaDataTracker getReferenceOrderedDataAtLocus( GenomeLoc loc ) {
-        RefMetaDataTracker tracks = new RefMetaDataTracker(states.size());
-        for ( ReferenceOrderedDataState state: states )
-            tracks.bind( state.dataSource.getName(), state.iterator.seekForward(loc) );
-        return tracks;
+        RODRecordList[] bindings = new RODRecordList[trackIndices.length];
+        for ( int i = 0; i < trackIndices.length; i++ )
+            bindings[i] = trackIndices[i].query(loc);
+        return new RefMetaDataTracker(trackNames, bindings);
     }
 
     /**
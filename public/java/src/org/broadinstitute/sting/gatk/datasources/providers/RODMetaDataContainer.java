@@ -53,6 +53,18 @@ public class RODMetaDataContainer {
     // we do allow duplicate class entries, so we need to store pairs of data
     private final List<Pair<Class, GATKFeature>> classMap = new ArrayList<Pair<Class, GATKFeature>>();
 
+    public RODMetaDataContainer() {
+    }
+
+    /**
+     * create a copy of the given container, which won't see entries added to the original afterwards
+     * @param other the container to copy
+     */
+    public RODMetaDataContainer(RODMetaDataContainer other) {
+        nameMap.putAll(other.nameMap);
+        classMap.addAll(other.classMap);
+    }
+
     public void addEntry(GATKFeature data) {
         nameMap.put(data.getName(),data);
         classMap.add(new Pair<Class, GATKFeature>(data.getClass(),data));
@@ -32,10 +32,7 @@ import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODItera
 import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
 import org.broadinstitute.sting.utils.GenomeLoc;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.TreeMap;
+import java.util.*;
 
 /** a ROD view for reads. This provides the Read traversals a way of getting a ReadMetaDataTracker */
 public class ReadBasedReferenceOrderedView implements View {
@@ -59,6 +56,16 @@ public class ReadBasedReferenceOrderedView implements View {
         return window.getTracker(read);
     }
 
+    /**
+     * Gets a tracker for the given read that doesn't share state with this view, so that it can be handed to
+     * another thread while this view moves on to subsequent reads.
+     * @param read the read
+     * @return a ReadMetaDataTracker holding a private copy of the RODs overlapping the read
+     */
+    public ReadMetaDataTracker getReferenceOrderedDataSnapshotForRead(SAMRecord read) {
+        return window.getTrackerSnapshot(read);
+    }
+
     public Collection<Class<? extends View>> getConflictingViews() {
         List<Class<? extends View>> classes = new ArrayList<Class<? extends View>>();
         classes.add(ManagingReferenceOrderedView.class);
@@ -71,14 +78,26 @@ public class ReadBasedReferenceOrderedView implements View {
 }
 
 
-/** stores a window of data, dropping RODs if we've passed the new reads start point. */
+/**
+ * stores a window of data, dropping RODs if we've passed the new reads start point.  The window is keyed by position
+ * on a single contig; when the reads move on to another contig, the window is emptied and the RODs are sought again.
+ */
 class WindowedData {
     // the queue of possibly in-frame RODs; RODs are removed as soon as they are out of scope
     private final TreeMap<Integer, RODMetaDataContainer> mapping = new TreeMap<Integer, RODMetaDataContainer>();
 
+    // the last snapshot handed out, reused by subsequent reads until the mapping changes
+    private TreeMap<Integer, RODMetaDataContainer> snapshot = null;
+
+    // containers in the mapping that no snapshot refers to, and so may still be added to in place
+    private final Set<RODMetaDataContainer> unsharedContainers = Collections.newSetFromMap(new IdentityHashMap<RODMetaDataContainer, Boolean>());
+
     // our current location from the last read we processed
     private GenomeLoc currentLoc;
 
+    // the contig the RODs were sought on, or null if they haven't been sought yet
+    private String windowContig = null;
+
     // a list of the RMDDataState (location->iterators)
     private List<RMDDataState> states;
 
@@ -145,18 +164,48 @@ class WindowedData {
         return new ReadMetaDataTracker(provider.getGenomeLocParser(), rec, mapping);
     }
 
+    /**
+     * create a ReadMetaDataTracker given the current read, holding its own copy of the RODs overlapping the read
+     *
+     * @param rec the read
+     *
+     * @return a ReadMetaDataTracker for the read, unaffected by subsequent calls to getTracker()
+     */
+    public ReadMetaDataTracker getTrackerSnapshot(SAMRecord rec) {
+        updatePosition(rec);
+        // snapshots share containers with the mapping; updatePosition() copies a shared container before adding to it
+        if (snapshot == null) {
+            snapshot = new TreeMap<Integer, RODMetaDataContainer>(mapping);
+            unsharedContainers.clear();
+        }
+        return new ReadMetaDataTracker(provider.getGenomeLocParser(), rec, snapshot);
+    }
+
     /**
      * update the position we're storing
      *
      * @param rec the read to use for start and end
      */
     private void updatePosition(SAMRecord rec) {
-        if (states == null) getStates(this.provider, rec);
+        if (states == null || (provider != null && !rec.getReferenceName().equals(windowContig))) {
+            // positions on the old contig mean nothing on the new one
+            close();
+            mapping.clear();
+            snapshot = null;
+            unsharedContainers.clear();
+            getStates(this.provider, rec);
+            windowContig = rec.getReferenceName();
+        }
         currentLoc = provider.getGenomeLocParser().createGenomeLoc(rec);
 
-        // flush the queue looking for records we've passed over
-        while (mapping.size() > 0 && mapping.firstKey() < currentLoc.getStart())
-            mapping.pollFirstEntry(); // toss away records that we've passed
+        // flush the queue looking for records we've passed over; reads arrive in order of start, so no later read
+        // can need them
+        SortedMap<Integer, RODMetaDataContainer> passed = mapping.headMap(currentLoc.getStart());
+        if (!passed.isEmpty()) {
+            unsharedContainers.removeAll(passed.values());
+            passed.clear();
+            snapshot = null;
+        }
 
         // add new data to the queue
         for (RMDDataState state : states) {
@@ -165,11 +214,17 @@ class WindowedData {
                 state.iterator.next();
             while (state.iterator.hasNext() && state.iterator.peekNextLocation().overlapsP(currentLoc)) {
                 RODRecordList list = state.iterator.next();
-                for (GATKFeature datum : list) {
-                    if (!mapping.containsKey(list.getLocation().getStart()))
-                        mapping.put(list.getLocation().getStart(), new RODMetaDataContainer());
-                    mapping.get(list.getLocation().getStart()).addEntry(datum);
+                if (list.isEmpty())
+                    continue;
+                RODMetaDataContainer container = mapping.get(list.getLocation().getStart());
+                if (container == null || !unsharedContainers.contains(container)) {
+                    container = (container == null) ? new RODMetaDataContainer() : new RODMetaDataContainer(container);
+                    mapping.put(list.getLocation().getStart(), container);
+                    unsharedContainers.add(container);
                 }
+                snapshot = null;
+                for (GATKFeature datum : list)
+                    container.addEntry(datum);
             }
         }
     }
@@ -138,16 +138,40 @@ public class RodLocusView extends LocusView implements ReferenceOrderedView {
     }
 
     private RefMetaDataTracker createTracker( Collection<RODRecordList> allTracksHere ) {
-        RefMetaDataTracker t = new RefMetaDataTracker(allTracksHere.size());
+        String[] names = new String[allTracksHere.size() + (interval != null ? 1 : 0)];
+        RODRecordList[] bindings = new RODRecordList[names.length];
+        int nBindings = 0;
         for ( RODRecordList track : allTracksHere ) {
-            if ( ! t.hasROD(track.getName()) )
-                t.bind(track.getName(), track);
+            String name = RefMetaDataTracker.canonicalName(track.getName());
+            if ( indexOf(names, nBindings, name) == -1 ) {
+                names[nBindings] = name;
+                bindings[nBindings++] = track;
+            }
         }
 
         // special case the interval again -- add it into the ROD
-        if ( interval != null ) { t.bind(interval.getName(), interval); }
+        if ( interval != null ) {
+            String name = RefMetaDataTracker.canonicalName(interval.getName());
+            int i = indexOf(names, nBindings, name);
+            if ( i == -1 ) {
+                i = nBindings++;
+                names[i] = name;
+            }
+            bindings[i] = interval;
+        }
+
+        if ( nBindings < names.length ) {
+            names = Arrays.copyOf(names, nBindings);
+            bindings = Arrays.copyOf(bindings, nBindings);
+        }
+        return new RefMetaDataTracker(names, bindings);
+    }
 
-        return t;
+    private static int indexOf( String[] names, int nNames, String name ) {
+        for ( int i = 0; i < nNames; i++ )
+            if ( names[i].equals(name) )
+                return i;
+        return -1;
     }
 
     private Collection<RODRecordList> getSpanningTracks(RODRecordList marker) {
@@ -42,16 +42,43 @@ import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
- * Writes schedules for a single BAM file to a target output file.
+ * Writes schedules for a single BAM file.  Small schedules are kept in memory; once a schedule grows
+ * beyond the spill threshold, its contents are moved to a temporary file and the rest of the schedule
+ * is written there.
  */
 public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     /**
-     * File in which to store schedule data.
+     * By default, keep schedules of up to this many bytes in memory.
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 32L*1024*1024;
+
+    /**
+     * Initial size of the in-memory schedule buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 64*1024;
+
+    /**
+     * Schedules larger than this number of bytes are written to disk.
+     */
+    private final long spillThreshold;
+
+    /**
+     * In-memory schedule data.  Null once the schedule has been spilled to disk.
+     */
+    private ByteBuffer scheduleBuffer;
+
+    /**
+     * Number of valid bytes in the in-memory schedule.
+     */
+    private int scheduleBufferSize = 0;
+
+    /**
+     * File in which to store schedule data.  Null unless the schedule has been spilled to disk.
      */
     private File scheduleFile;
 
     /**
-     * File channel for the schedule file.
+     * File channel for the schedule file.  Null unless the schedule has been spilled to disk.
      */
     private FileChannel scheduleFileChannel;
 
@@ -83,17 +110,33 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;    
 
     /**
-     * Create a new BAM schedule based on the given index.
+     * Create a new BAM schedule based on the given index, spilling to disk above the default threshold.
      * @param indexFiles Index files.
      * @param intervals List of 
      */
     public BAMSchedule(final Map<SAMReaderID,GATKBAMIndex> indexFiles, final List<GenomeLoc> intervals) {
+        this(indexFiles,intervals,DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Create a new BAM schedule based on the given index.
+     * @param indexFiles Index files.
+     * @param intervals List of intervals to schedule, all on the same contig.
+     * @param spillThreshold Keep the schedule in memory unless it grows beyond this many bytes.  0 to always use disk.
+     */
+    public BAMSchedule(final Map<SAMReaderID,GATKBAMIndex> indexFiles, final List<GenomeLoc> intervals, final long spillThreshold) {
         if(intervals.isEmpty())
             throw new ReviewedStingException("Tried to write schedule for empty interval list.");
+        if(spillThreshold < 0)
+            throw new ReviewedStingException("BAM schedule spill threshold must be non-negative; was " + spillThreshold);
 
         referenceSequence = intervals.get(0).getContigIndex();
+        this.spillThreshold = Math.min(spillThreshold,Integer.MAX_VALUE);
 
-        createScheduleFile();
+        if(this.spillThreshold == 0)
+            createScheduleFile();
+        else
+            scheduleBuffer = allocateByteBuffer((int)Math.min(INITIAL_BUFFER_SIZE,this.spillThreshold));
 
         readerIDs.addAll(indexFiles.keySet());
 
@@ -185,16 +228,28 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     /**
-     * Close down and delete the file.
+     * Close down and delete the file, if the schedule was spilled to disk.
      */
     @Override
     public void close() {
+        scheduleBuffer = null;
+        if(scheduleFileChannel == null)
+            return;
         try {
             scheduleFileChannel.close();
         }
         catch(IOException ex) {
             throw new ReviewedStingException("Unable to close schedule file.");
         }
+        scheduleFile.delete();
+    }
+
+    /**
+     * Is this schedule stored on disk?
+     * @return True if the schedule has been spilled to a temporary file.  False if it is held entirely in memory.
+     */
+    public boolean isOnDisk() {
+        return scheduleFileChannel != null;
     }
 
     /**
@@ -281,10 +336,19 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     /**
-     * Reads the contents at the current position on disk into the given buffer.
+     * Reads the contents at the current position in the schedule into the given buffer.
      * @param buffer buffer to fill.
      */
     private int read(final ByteBuffer buffer) {
+        if(scheduleFileChannel == null) {
+            final int bytesToRead = Math.min(buffer.remaining(),scheduleBufferSize-scheduleBuffer.position());
+            final ByteBuffer source = scheduleBuffer.duplicate();
+            source.limit(source.position()+bytesToRead);
+            buffer.put(source);
+            scheduleBuffer.position(scheduleBuffer.position()+bytesToRead);
+            return bytesToRead;
+        }
+
         try {
             return scheduleFileChannel.read(buffer);
         }
@@ -294,6 +358,18 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     private void write(final ByteBuffer buffer) {
+        if(scheduleFileChannel == null) {
+            final long requiredSize = (long)scheduleBuffer.position() + buffer.remaining();
+            if(requiredSize <= spillThreshold) {
+                if(requiredSize > scheduleBuffer.capacity())
+                    growScheduleBuffer(requiredSize);
+                scheduleBuffer.put(buffer);
+                scheduleBufferSize = Math.max(scheduleBufferSize,scheduleBuffer.position());
+                return;
+            }
+            spillToDisk();
+        }
+
         try {
             scheduleFileChannel.write(buffer);
             if(buffer.remaining() > 0)
@@ -305,10 +381,41 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     /**
-     * Reads the current position from the file channel.
-     * @return Current position within file channel.
+     * Grow the in-memory schedule to hold at least the given number of bytes, doubling where possible.
+     * @param requiredSize Minimum capacity of the new buffer.
+     */
+    private void growScheduleBuffer(final long requiredSize) {
+        final long newCapacity = Math.min(Math.max(requiredSize,2L*scheduleBuffer.capacity()),spillThreshold);
+        final ByteBuffer newBuffer = allocateByteBuffer((int)newCapacity);
+        final int position = scheduleBuffer.position();
+        scheduleBuffer.position(0);
+        scheduleBuffer.limit(scheduleBufferSize);
+        newBuffer.put(scheduleBuffer);
+        newBuffer.position(position);
+        scheduleBuffer = newBuffer;
+    }
+
+    /**
+     * Move the in-memory schedule to a temporary file, leaving the file channel at the same position the
+     * in-memory schedule was at.
+     */
+    private void spillToDisk() {
+        final int position = scheduleBuffer.position();
+        createScheduleFile();
+        scheduleBuffer.position(0);
+        scheduleBuffer.limit(scheduleBufferSize);
+        write(scheduleBuffer);
+        scheduleBuffer = null;
+        position(position);
+    }
+
+    /**
+     * Reads the current position in the schedule.
+     * @return Current position within the schedule.
      */
     private long position() {
+        if(scheduleFileChannel == null)
+            return scheduleBuffer.position();
         try {
             return scheduleFileChannel.position();
         }
@@ -318,10 +425,14 @@ public class BAMSchedule implements CloseableIterator<BAMScheduleEntry> {
     }
 
     /**
-     * Reposition the file channel to the specified offset wrt the start of the file.
+     * Reposition the schedule to the specified offset wrt the start of the schedule.
      * @param position The position.
      */
     private void position(final long position) {
+        if(scheduleFileChannel == null) {
+            scheduleBuffer.position((int)position);
+            return;
+        }
         try {
             scheduleFileChannel.position(position);
         }
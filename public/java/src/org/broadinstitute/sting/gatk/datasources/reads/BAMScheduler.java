@@ -192,7 +192,7 @@ public class BAMScheduler implements Iterator<FilePointer> {
                     lociInContig.add(locus);
             }
 
-            bamScheduleIterator = new PeekableIterator<BAMScheduleEntry>(new BAMSchedule(indices,lociInContig));
+            bamScheduleIterator = new PeekableIterator<BAMScheduleEntry>(new BAMSchedule(indices,lociInContig,dataSource.getBAMScheduleSpillThreshold()));
         }
 
         if(!bamScheduleIterator.hasNext())
@@ -29,16 +29,22 @@ import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
- * A basic interface for querying BAM indices.
- * Very much not thread-safe.
+ * A basic interface for querying BAM indices.  The index file is mapped read-only into memory
+ * once, and reference sequences are decoded lazily, directly out of the mapped buffer, the first
+ * time they are requested.  All reads from the mapped buffer use absolute offsets, so a single
+ * instance can safely be shared between threads.  Index files too large to map in one piece
+ * are read with positional reads from the file instead; such an index holds the file open until
+ * close() is called.
  *
  * @author mhanna
  * @version 0.1
@@ -64,86 +70,191 @@ public class GATKBAMIndex {
      */
     public static final int MAX_BINS = 37450;   // =(8^6-1)/7+1
 
+    /**
+     * Number of low-order bits of a packed bin entry holding the file offset; the bin number sits above them.
+     */
+    protected static final int BIN_ENTRY_OFFSET_BITS = 47;
+
+    /**
+     * Largest index file that will be mapped into memory; a single mapping is limited to 2GB.
+     */
+    private static final long MAX_MAPPED_INDEX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Indices shared across all data sources in this JVM, keyed by absolute path.  Held weakly, so that
+     * an index (and its mapping) is released once no data source refers to it any longer.
+     */
+    private static final Map<File,WeakReference<GATKBAMIndex>> sharedIndices = new HashMap<File,WeakReference<GATKBAMIndex>>();
+
     private final File mFile;
 
+    /**
+     * Size and modification time of the file when it was opened.  Used to detect stale shared indices.
+     */
+    private final long mappedLength;
+    private final long mappedLastModified;
+
+    /**
+     * The contents of the index file.  Read-only, little-endian, and never repositioned.  Null if the
+     * index is too large to map, in which case it's read through indexChannel.
+     */
+    private final ByteBuffer indexBuffer;
+
+    /**
+     * The open index file, for indices which aren't mapped.  Only positional reads are used, so it can
+     * be shared between threads.
+     */
+    private final FileChannel indexChannel;
+
+    /**
+     * How many callers are still using this index: one for its creator, plus one for every other caller
+     * given it by getSharedIndex().  Guarded by sharedIndices.
+     */
+    private int openCount = 1;
+
     /**
      * Number of sequences stored in this index.
      */
     private final int sequenceCount;
 
     /**
-     * A cache of the starting positions of the sequences.
+     * A cache of the starting positions of the sequences.  Guarded by this.
      */
     private final long[] sequenceStartCache;
 
-    private FileInputStream fileStream;
-    private FileChannel fileChannel;
+    /**
+     * Reference sequences which have already been decoded.  Guarded by this.
+     */
+    private final GATKBAMIndexData[] sequenceDataCache;
+
+    /**
+     * Gets the index for the given file, mapping it only if no other caller in this JVM has done so already
+     * or if the file has changed since it was last mapped.  Each caller must close() the index once done with it.
+     * @param file The index file.
+     * @return A shared, thread-safe index.
+     */
+    public static GATKBAMIndex getSharedIndex(final File file) {
+        final File key = file.getAbsoluteFile();
+        synchronized(sharedIndices) {
+            // Forget indices which have already been released.
+            Iterator<WeakReference<GATKBAMIndex>> references = sharedIndices.values().iterator();
+            while(references.hasNext()) {
+                if(references.next().get() == null)
+                    references.remove();
+            }
+
+            WeakReference<GATKBAMIndex> reference = sharedIndices.get(key);
+            GATKBAMIndex index = reference != null ? reference.get() : null;
+            if(index == null || index.isStale()) {
+                index = new GATKBAMIndex(key);
+                sharedIndices.put(key,new WeakReference<GATKBAMIndex>(index));
+            }
+            else
+                index.openCount++;
+            return index;
+        }
+    }
 
     public GATKBAMIndex(final File file) {
+        this(file,file.length() <= MAX_MAPPED_INDEX_SIZE);
+    }
+
+    /**
+     * Opens the given index.
+     * @param file The index file.
+     * @param mapIntoMemory If true, map the file into memory; otherwise, read it with positional reads.
+     */
+    protected GATKBAMIndex(final File file, final boolean mapIntoMemory) {
         mFile = file;
-        // Open the file stream.
-        openIndexFile();
-
-        // Verify the magic number.
-        seek(0);
-        final byte[] buffer = readBytes(4);
-        if (!Arrays.equals(buffer, BAM_INDEX_MAGIC)) {
-            throw new RuntimeException("Invalid file header in BAM index " + mFile +
-                                       ": " + new String(buffer));
+        mappedLength = file.length();
+        mappedLastModified = file.lastModified();
+        if(mapIntoMemory) {
+            indexBuffer = mapIndexFile();
+            indexChannel = null;
+        }
+        else {
+            indexBuffer = null;
+            indexChannel = openIndexFile();
         }
 
-        seek(4);
+        try {
+            // Verify the magic number.
+            if(mappedLength < BAM_INDEX_MAGIC.length + INT_SIZE_IN_BYTES)
+                throw new RuntimeException("Truncated BAM index " + mFile);
+            final byte[] buffer = readBytes(0,BAM_INDEX_MAGIC.length).array();
+            if (!Arrays.equals(buffer, BAM_INDEX_MAGIC)) {
+                throw new RuntimeException("Invalid file header in BAM index " + mFile +
+                                           ": " + new String(buffer));
+            }
 
-        sequenceCount = readInteger();
+            sequenceCount = readInteger(BAM_INDEX_MAGIC.length);
 
-        // Create a cache of the starting position of each sequence.  Initialize it to -1.
-        sequenceStartCache = new long[sequenceCount];
-        for(int i = 1; i < sequenceCount; i++)
-            sequenceStartCache[i] = -1;
+            // Create a cache of the starting position of each sequence.  Initialize it to -1.
+            sequenceStartCache = new long[sequenceCount];
+            for(int i = 1; i < sequenceCount; i++)
+                sequenceStartCache[i] = -1;
 
-        // Seed the first element in the array with the current position.
-        if(sequenceCount > 0)
-            sequenceStartCache[0] = position();
+            // Seed the first element in the array with the position just past the header.
+            if(sequenceCount > 0)
+                sequenceStartCache[0] = BAM_INDEX_MAGIC.length + INT_SIZE_IN_BYTES;
 
-        closeIndexFile();
+            sequenceDataCache = new GATKBAMIndexData[sequenceCount];
+        }
+        catch(RuntimeException ex) {
+            closeIndexFile();
+            throw ex;
+        }
     }
 
-    public GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
-        openIndexFile();
+    /**
+     * Releases this caller's use of the index.  Once every caller that opened or shared the index has
+     * closed it, the index file is closed and the index can no longer be read.
+     */
+    public void close() {
+        synchronized(sharedIndices) {
+            if(openCount == 0 || --openCount > 0)
+                return;
+            WeakReference<GATKBAMIndex> reference = sharedIndices.get(mFile.getAbsoluteFile());
+            if(reference != null && reference.get() == this)
+                sharedIndices.remove(mFile.getAbsoluteFile());
+        }
+        closeIndexFile();
+    }
 
+    /**
+     * Gets the index data for the given reference sequence.  The bin table is decoded on first access;
+     * chunks and linear index entries are read out of the mapped file only when queried.
+     * @param referenceSequence Index of the reference sequence in the sequence dictionary.
+     * @return Index data for the given sequence.
+     */
+    public synchronized GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
         if (referenceSequence >= sequenceCount)
             throw new ReviewedStingException("Invalid sequence number " + referenceSequence);
 
-        skipToSequence(referenceSequence);
+        if(sequenceDataCache[referenceSequence] != null)
+            return sequenceDataCache[referenceSequence];
 
-        int binCount = readInteger();
-        List<GATKBin> bins = new ArrayList<GATKBin>();
-        for (int binNumber = 0; binNumber < binCount; binNumber++) {
-            final int indexBin = readInteger();
-            final int nChunks = readInteger();
-
-            List<GATKChunk> chunks = new ArrayList<GATKChunk>(nChunks);
-            long[] rawChunkData = readLongs(nChunks*2);
-            for (int ci = 0; ci < nChunks; ci++) {
-                final long chunkBegin = rawChunkData[ci*2];
-                final long chunkEnd = rawChunkData[ci*2+1];
-                chunks.add(new GATKChunk(chunkBegin, chunkEnd));
-            }
-            GATKBin bin = new GATKBin(referenceSequence, indexBin);
-            bin.setChunkList(chunks.toArray(new GATKChunk[chunks.size()]));
-            while(indexBin >= bins.size())
-                bins.add(null);
-            bins.set(indexBin,bin);
-        }
+        long position = skipToSequence(referenceSequence);
 
-        final int nLinearBins = readInteger();
-        long[] linearIndexEntries = readLongs(nLinearBins);
+        final int binCount = readInteger(position);
+        position += INT_SIZE_IN_BYTES;
 
-        LinearIndex linearIndex = new LinearIndex(referenceSequence,0,linearIndexEntries);
+        // Pack each bin number together with the offset of its chunk list, then sort by bin number
+        // so that individual bins can be found with a binary search.
+        final long[] binEntries = new long[binCount];
+        for (int binNumber = 0; binNumber < binCount; binNumber++) {
+            final int indexBin = readInteger(position);
+            binEntries[binNumber] = ((long)indexBin << BIN_ENTRY_OFFSET_BITS) | (position + INT_SIZE_IN_BYTES);
+            final int nChunks = readInteger(position + INT_SIZE_IN_BYTES);
+            position += 2*INT_SIZE_IN_BYTES + 2L*LONG_SIZE_IN_BYTES*nChunks;
+        }
+        Arrays.sort(binEntries);
 
-        closeIndexFile();
+        final int nLinearBins = readInteger(position);
+        position += INT_SIZE_IN_BYTES;
 
-        return new GATKBAMIndexData(this,referenceSequence,bins,linearIndex);
+        sequenceDataCache[referenceSequence] = new GATKBAMIndexData(this,referenceSequence,binEntries,position,nLinearBins);
+        return sequenceDataCache[referenceSequence];
     }
 
     /**
@@ -223,7 +334,13 @@ public class GATKBAMIndex {
         return BIN_GENOMIC_SPAN;
     }    
 
-    protected void skipToSequence(final int referenceSequence) {
+    /**
+     * Finds the offset of the given sequence in the index file, filling in the cache of sequence
+     * starts for all sequences between the last known sequence and this one.
+     * @param referenceSequence Sequence to find.
+     * @return Offset of the start of that sequence's data.
+     */
+    private long skipToSequence(final int referenceSequence) {
         // Find the offset in the file of the last sequence whose position has been determined.  Start here
         // when searching the sequence for the next value to read.  (Note that sequenceStartCache[0] will always
         // be present, so no extra stopping condition is necessary.
@@ -232,137 +349,143 @@ public class GATKBAMIndex {
             sequenceIndex--;
 
         // Advance to the most recently found position.
-        seek(sequenceStartCache[sequenceIndex]);
+        long position = sequenceStartCache[sequenceIndex];
 
         for (int i = sequenceIndex; i < referenceSequence; i++) {
-            sequenceStartCache[i] = position();
+            sequenceStartCache[i] = position;
 
-            // System.out.println("# Sequence TID: " + i);
-            final int nBins = readInteger();
-            // System.out.println("# nBins: " + nBins);
+            final int nBins = readInteger(position);
+            position += INT_SIZE_IN_BYTES;
             for (int j = 0; j < nBins; j++) {
-                final int bin = readInteger();
-                final int nChunks = readInteger();
-                // System.out.println("# bin[" + j + "] = " + bin + ", nChunks = " + nChunks);
-                skipBytes(16 * nChunks);
+                final int nChunks = readInteger(position + INT_SIZE_IN_BYTES);
+                position += 2*INT_SIZE_IN_BYTES + 2L*LONG_SIZE_IN_BYTES*nChunks;
             }
-            final int nLinearBins = readInteger();
-            // System.out.println("# nLinearBins: " + nLinearBins);
-            skipBytes(8 * nLinearBins);
+            final int nLinearBins = readInteger(position);
+            position += INT_SIZE_IN_BYTES + (long)LONG_SIZE_IN_BYTES*nLinearBins;
         }
 
-        sequenceStartCache[referenceSequence] = position();
+        sequenceStartCache[referenceSequence] = position;
+        return position;
     }
 
-    private void openIndexFile() {
+    /**
+     * Has the file changed on disk since it was mapped?
+     * @return True if the file should be mapped again.
+     */
+    private boolean isStale() {
+        return mFile.length() != mappedLength || mFile.lastModified() != mappedLastModified;
+    }
+
+    /**
+     * Map the entire index file into memory.  The mapping remains valid after the channel is closed.
+     * @return A read-only, little-endian view of the index file.
+     */
+    private ByteBuffer mapIndexFile() {
+        FileInputStream fileStream = null;
         try {
             fileStream = new FileInputStream(mFile);
-            fileChannel = fileStream.getChannel();
+            final FileChannel fileChannel = fileStream.getChannel();
+            final ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY,0,fileChannel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
         }
         catch (IOException exc) {
-            throw new ReviewedStingException("Unable to open index file " + mFile, exc);            
+            throw new ReviewedStingException("Unable to map index file " + mFile, exc);
+        }
+        finally {
+            try {
+                if(fileStream != null)
+                    fileStream.close();
+            }
+            catch (IOException exc) {
+                throw new ReviewedStingException("Unable to close index file " + mFile, exc);
+            }
         }
     }
 
-    private void closeIndexFile() {
+    /**
+     * Open the index file for positional reads.  The channel stays open until the index is closed.
+     * @return A channel on the index file.
+     */
+    private FileChannel openIndexFile() {
         try {
-            fileChannel.close();
-            fileStream.close();
+            return new FileInputStream(mFile).getChannel();
         }
         catch (IOException exc) {
-            throw new ReviewedStingException("Unable to close index file " + mFile, exc);
+            throw new ReviewedStingException("Unable to open index file " + mFile, exc);
         }
     }
 
-    private static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
-    private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
-
-    private byte[] readBytes(int count) {
-        ByteBuffer buffer = getBuffer(count);
-        read(buffer);
-        buffer.flip();
-        byte[] contents = new byte[count];
-        buffer.get(contents);
-        return contents;
-    }
-
-    private int readInteger() {
-        ByteBuffer buffer = getBuffer(INT_SIZE_IN_BYTES);
-        read(buffer);
-        buffer.flip();
-        return buffer.getInt();
-    }
-
     /**
-     * Reads an array of <count> longs from the file channel, returning the results as an array.
-     * @param count Number of longs to read.
-     * @return An array of longs.  Size of array should match count.
+     * Close the index file, if this index reads from it rather than from a mapping.
      */
-    private long[] readLongs(final int count) {
-        ByteBuffer buffer = getBuffer(count*LONG_SIZE_IN_BYTES);
-        read(buffer);
-        buffer.flip();
-        long[] result = new long[count];
-        for(int i = 0; i < count; i++)
-            result[i] = buffer.getLong();
-        return result;
-    }
-
-    private void read(final ByteBuffer buffer) {
+    private void closeIndexFile() {
+        if(indexChannel == null)
+            return;
         try {
-            fileChannel.read(buffer);
+            indexChannel.close();
         }
-        catch(IOException ex) {
-            throw new ReviewedStingException("Index: unable to read bytes from index file.");
+        catch (IOException exc) {
+            throw new ReviewedStingException("Unable to close index file " + mFile, exc);
         }
     }
 
+    protected static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
+    protected static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
 
     /**
-     * A reusable buffer for use by this index generator.
-     * TODO: Should this be a SoftReference?
+     * Reads an integer at the given absolute offset in the index.
+     * @param position Offset into the index file.
+     * @return The integer stored at that offset.
      */
-    private ByteBuffer buffer = null;
-
-    private ByteBuffer getBuffer(final int size) {
-        if(buffer == null || buffer.capacity() < size) {
-            // Allocate a new byte buffer.  For now, make it indirect to make sure it winds up on the heap for easier debugging.
-            buffer = ByteBuffer.allocate(size);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-        }
-        buffer.clear();
-        buffer.limit(size);
-        return buffer;
-    }
-
-    private void skipBytes(final int count) {
-        try {
-            fileChannel.position(fileChannel.position() + count);
-        }
-        catch(IOException ex) {
-            throw new ReviewedStingException("Index: unable to reposition file channel.");
-        }
+    protected int readInteger(final long position) {
+        checkBounds(position,INT_SIZE_IN_BYTES);
+        if(indexBuffer != null)
+            return indexBuffer.getInt((int)position);
+        return readBytes(position,INT_SIZE_IN_BYTES).getInt(0);
     }
 
-    private void seek(final long position) {
-        try {
-            fileChannel.position(position);
-        }
-        catch(IOException ex) {
-            throw new ReviewedStingException("Index: unable to reposition of file channel.");
-        }
+    /**
+     * Reads a long at the given absolute offset in the index.
+     * @param position Offset into the index file.
+     * @return The long stored at that offset.
+     */
+    protected long readLong(final long position) {
+        checkBounds(position,LONG_SIZE_IN_BYTES);
+        if(indexBuffer != null)
+            return indexBuffer.getLong((int)position);
+        return readBytes(position,LONG_SIZE_IN_BYTES).getLong(0);
     }
 
     /**
-     * Retrieve the position from the current file channel.
-     * @return position of the current file channel.
+     * Reads the given number of bytes at the given absolute offset in the index.
+     * @param position Offset into the index file.
+     * @param size Number of bytes to read.
+     * @return A little-endian buffer holding exactly those bytes.
      */
-    private long position() {
+    private ByteBuffer readBytes(final long position, final int size) {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(indexBuffer != null) {
+            for(int i = 0; i < size; i++)
+                buffer.put(i,indexBuffer.get((int)position+i));
+            return buffer;
+        }
         try {
-            return fileChannel.position();
+            while(buffer.hasRemaining()) {
+                if(indexChannel.read(buffer,position+buffer.position()) < 0)
+                    throw new ReviewedStingException("Index: attempted to read past the end of index file " + mFile);
+            }
         }
         catch (IOException exc) {
-            throw new ReviewedStingException("Unable to read position from index file " + mFile, exc);
+            throw new ReviewedStingException("Unable to read index file " + mFile, exc);
         }
-    }    
+        return buffer;
+    }
+
+    private void checkBounds(final long position, final int size) {
+        final long length = indexBuffer != null ? indexBuffer.limit() : mappedLength;
+        if(position < 0 || position > length - size)
+            throw new ReviewedStingException("Index: attempted to read past the end of index file " + mFile);
+    }
 }
@@ -31,19 +31,30 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Stores and processes a single reference worth of GATK data.
+ * Stores and processes a single reference worth of GATK data.  Chunks and linear index entries
+ * are read straight out of the owning index's mapped file when queried.
  */
 public class GATKBAMIndexData {
     private final GATKBAMIndex index;
     private final int referenceSequence;
-    private final List<GATKBin> bins;
-    private final LinearIndex linearIndex;
 
-    public GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence, final List<GATKBin> bins, final LinearIndex linearIndex) {
+    /**
+     * Bin number in the upper bits, offset of that bin's chunk count in the lower GATKBAMIndex.BIN_ENTRY_OFFSET_BITS bits.  Sorted.
+     */
+    private final long[] binEntries;
+
+    /**
+     * Offset of the first linear index entry, and the number of entries.
+     */
+    private final long linearIndexStart;
+    private final int linearIndexSize;
+
+    public GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence, final long[] binEntries, final long linearIndexStart, final int linearIndexSize) {
         this.index = index;
         this.referenceSequence = referenceSequence;
-        this.bins = bins;
-        this.linearIndex = linearIndex;
+        this.binEntries = binEntries;
+        this.linearIndexStart = linearIndexStart;
+        this.linearIndexSize = linearIndexSize;
     }
 
     public int getReferenceSequence() {
@@ -64,29 +75,73 @@ public class GATKBAMIndexData {
         final int binLevel = index.getLevelForBin(bin);
         final int firstLocusInBin = index.getFirstLocusInBin(bin);
 
-        // Add the specified bin to the tree if it exists.
-        List<GATKBin> binTree = new ArrayList<GATKBin>();
-        if(gatkBin.getBinNumber() < bins.size() && bins.get(gatkBin.getBinNumber()) != null)
-            binTree.add(bins.get(gatkBin.getBinNumber()));
+        // Add the chunks of the specified bin and every bin above it in the tree, if they exist.
+        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
+        addChunks(gatkBin.getBinNumber(),chunkList);
 
         int currentBinLevel = binLevel;
         while(--currentBinLevel >= 0) {
             final int binStart = index.getFirstBinInLevel(currentBinLevel);
             final int binWidth = index.getMaxAddressibleGenomicLocation()/index.getLevelSize(currentBinLevel);
             final int binNumber = firstLocusInBin/binWidth + binStart;
-            if(binNumber < bins.size() && bins.get(binNumber) != null)
-                binTree.add(bins.get(binNumber));
+            addChunks(binNumber,chunkList);
         }
 
-        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
-        for(GATKBin coveringBin: binTree) {
-            for(GATKChunk chunk: coveringBin.getChunkList())
-                chunkList.add(chunk.clone());
+        chunkList = optimizeChunkList(chunkList,getMinimumOffset(firstLocusInBin));
+        return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
+    }
+
+    /**
+     * Decode the chunks of the given bin, if present, and add them to the list.
+     * @param binNumber Bin to look up.
+     * @param chunkList List to which the decoded chunks should be added.
+     */
+    private void addChunks(final int binNumber, final List<GATKChunk> chunkList) {
+        final int binIndex = findBin(binNumber);
+        if(binIndex < 0)
+            return;
+        long position = binEntries[binIndex] & ((1L << GATKBAMIndex.BIN_ENTRY_OFFSET_BITS) - 1);
+        final int nChunks = index.readInteger(position);
+        position += GATKBAMIndex.INT_SIZE_IN_BYTES;
+        for(int ci = 0; ci < nChunks; ci++) {
+            final long chunkBegin = index.readLong(position);
+            final long chunkEnd = index.readLong(position+GATKBAMIndex.LONG_SIZE_IN_BYTES);
+            chunkList.add(new GATKChunk(chunkBegin,chunkEnd));
+            position += 2*GATKBAMIndex.LONG_SIZE_IN_BYTES;
         }
+    }
 
-        final int start = index.getFirstLocusInBin(bin);
-        chunkList = optimizeChunkList(chunkList,linearIndex.getMinimumOffset(start));
-        return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
+    /**
+     * Binary search for the given bin number.
+     * @param binNumber Bin number to find.
+     * @return Index into binEntries, or -1 if the bin is not present in the index.
+     */
+    private int findBin(final int binNumber) {
+        int low = 0;
+        int high = binEntries.length-1;
+        while(low <= high) {
+            final int middle = (low+high) >>> 1;
+            final int middleBin = (int)(binEntries[middle] >>> GATKBAMIndex.BIN_ENTRY_OFFSET_BITS);
+            if(middleBin < binNumber)
+                low = middle+1;
+            else if(middleBin > binNumber)
+                high = middle-1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the smallest file offset at which a read overlapping the given locus could start, according to the linear index.
+     * @param locus 1-based locus.
+     * @return Minimum offset, or 0 if the linear index doesn't cover this locus.
+     */
+    private long getMinimumOffset(final int locus) {
+        final int linearIndexBin = LinearIndex.convertToLinearIndexOffset(locus);
+        if(linearIndexBin >= linearIndexSize)
+            return 0;
+        return index.readLong(linearIndexStart + (long)linearIndexBin*GATKBAMIndex.LONG_SIZE_IN_BYTES);
     }
 
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
@@ -132,6 +132,11 @@ public class SAMDataSource {
      */
     private boolean enableLowMemorySharding = false;
 
+    /**
+     * BAM schedules larger than this many bytes are spilled to disk by the low-memory sharder.
+     */
+    private long bamScheduleSpillThreshold = BAMSchedule.DEFAULT_SPILL_THRESHOLD;
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param samFiles list of reads files.
@@ -291,7 +296,7 @@ public class SAMDataSource {
             for(SAMReaderID id: readerIDs) {
                 File indexFile = findIndexFile(id.samFile);
                 if(indexFile != null)
-                    bamIndices.put(id,new GATKBAMIndex(indexFile));
+                    bamIndices.put(id,GATKBAMIndex.getSharedIndex(indexFile));
             }
         }
 
@@ -321,6 +326,22 @@ public class SAMDataSource {
         return enableLowMemorySharding;
     }
 
+    /**
+     * Sets the size above which BAM schedules are written to a temporary file rather than kept in memory.
+     * @param spillThreshold Threshold, in bytes.  0 to always write schedules to disk.
+     */
+    public void setBAMScheduleSpillThreshold(final long spillThreshold) {
+        bamScheduleSpillThreshold = spillThreshold;
+    }
+
+    /**
+     * Gets the size above which BAM schedules are written to a temporary file rather than kept in memory.
+     * @return Threshold, in bytes.
+     */
+    public long getBAMScheduleSpillThreshold() {
+        return bamScheduleSpillThreshold;
+    }
+
     /**
      * Checks to see whether any reads files are supplying data.
      * @return True if no reads files are supplying data to the traversal; false otherwise.
@@ -436,6 +457,15 @@ public class SAMDataSource {
         }
     }
 
+    /**
+     * Releases the BAM indices used for low-memory sharding.  The indices can't be queried afterward.
+     */
+    public void close() {
+        for(GATKBAMIndex index: bamIndices.values())
+            index.close();
+        bamIndices.clear();
+    }
+
     /**
      * Retrieves the sort order of the readers.
      * @return Sort order.  Can be unsorted, coordinate order, or query name order.
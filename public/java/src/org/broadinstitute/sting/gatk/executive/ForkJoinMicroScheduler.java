@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.executive;
+
+import net.sf.picard.reference.IndexedFastaSequenceFile;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.datasources.reads.SAMDataSource;
+import org.broadinstitute.sting.gatk.datasources.reads.Shard;
+import org.broadinstitute.sting.gatk.datasources.reads.ShardStrategy;
+import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
+import org.broadinstitute.sting.gatk.walkers.TreeReducible;
+import org.broadinstitute.sting.gatk.walkers.Walker;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A microscheduler that runs shard traversals and tree reduces on a work-stealing fork/join pool.
+ * The list of shards is split recursively into halves; each half is a task that idle threads can steal,
+ * and the two halves are combined with the walker's treeReduce() once both have finished.  Splitting stops
+ * early when the current worker already has plenty of queued work for others to steal, in which case the
+ * remaining shards in the range are traversed in place.
+ *
+ * Output semantics match the HierarchicalMicroScheduler: each shard writes to thread-local storage, and
+ * the storage is merged into the final output streams in shard order by the thread that called execute().
+ * As there, no more than MAX_OUTSTANDING_OUTPUT_MERGES shards beyond the next one to be merged may be
+ * traversed, so that merging can't fall arbitrarily far behind; workers waiting for the window to move
+ * are managed blockers, so the pool can keep its other shards running meanwhile.
+ */
+public class ForkJoinMicroScheduler extends HierarchicalMicroScheduler {
+    /**
+     * Once the current worker has more than this many unclaimed tasks in its queue, stop splitting
+     * shard ranges; other workers already have enough to steal.
+     */
+    private static final int SURPLUS_QUEUED_TASK_THRESHOLD = 3;
+
+    /**
+     * Lock guarding the output merge bookkeeping below.  Signalled whenever a shard completes or an error occurs.
+     */
+    private final Object outputMergeLock = new Object();
+
+    /** The shards to traverse, in traversal order. */
+    private List<Shard> shards = new ArrayList<Shard>();
+
+    /** Output waiting to be merged, indexed by shard.  Guarded by outputMergeLock. */
+    private OutputMergeTask[] pendingOutput = new OutputMergeTask[0];
+
+    /** Which shards have finished traversing?  Guarded by outputMergeLock. */
+    private boolean[] traversalComplete = new boolean[0];
+
+    /** Index of the next shard whose output should be merged.  Guarded by outputMergeLock. */
+    private int nextShardToMerge = 0;
+
+    /** How many traversals have completed but not yet been merged?  Guarded by outputMergeLock. */
+    private int unmergedTraversals = 0;
+
+    /** How many shard traversals have been started? */
+    private final AtomicInteger startedTraversals = new AtomicInteger(0);
+
+    /** How many tree reduces are waiting on one of their inputs? */
+    private final AtomicInteger pendingTreeReduces = new AtomicInteger(0);
+
+    /**
+     * Create a new fork/join microscheduler to process the given reads and reference.
+     *
+     * @param walker        the walker used to process the dataset.
+     * @param reads         Reads file(s) to process.
+     * @param reference     Reference for driving the traversal.
+     * @param nThreadsToUse maximum number of threads to use to do the work
+     */
+    protected ForkJoinMicroScheduler(GenomeAnalysisEngine engine, Walker<?,?> walker, SAMDataSource reads, IndexedFastaSequenceFile reference, Collection<ReferenceOrderedDataSource> rods, int nThreadsToUse ) {
+        super(engine, walker, reads, reference, rods, nThreadsToUse);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // the MicroScheduler contract
+    public Object execute( Walker walker, ShardStrategy shardStrategy ) {
+        // Fast fail for walkers not supporting TreeReducible interface.
+        if (!( walker instanceof TreeReducible ))
+            throw new IllegalArgumentException("The GATK can currently run in parallel only with TreeReducible walkers");
+
+        traversalEngine.startTimers();
+        threadUtilization.start();
+        initializeWalker(walker);
+
+        for (Shard shard : shardStrategy)
+            shards.add(shard);
+        pendingOutput = new OutputMergeTask[shards.size()];
+        traversalComplete = new boolean[shards.size()];
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(nThreadsToUse);
+        ShardRangeTask root = new ShardRangeTask(walker,0,shards.size());
+        if(shards.size() > 0)
+            forkJoinPool.execute(root);
+
+        // Merge each shard's output as soon as it and all shards before it have completed.
+        boolean traversalSucceeded = false;
+        try {
+            mergeOutputInShardOrder();
+            traversalSucceeded = !hasTraversalErrorOccurred();
+        }
+        finally {
+            // On failure, cancel the shards still queued or running rather than leaving them to finish.
+            if(traversalSucceeded)
+                forkJoinPool.shutdown();
+            else
+                forkJoinPool.shutdownNow();
+        }
+
+        if(hasTraversalErrorOccurred())
+            throw new ReviewedStingException("An error has occurred during the traversal.",getTraversalError());
+
+        Object result = null;
+        try {
+            result = shards.size() > 0 ? root.get() : walker.reduceInit();
+            notifyTraversalDone(walker,result);
+        }
+        catch (ReviewedStingException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new ReviewedStingException("Unable to retrieve result", ex);
+        }
+
+        // do final cleanup operations
+        outputTracker.close();
+        cleanup();
+
+        return result;
+    }
+
+    /**
+     * Blocks until every shard has been traversed, merging temporary output into the final
+     * output streams strictly in shard order.  Returns early if an error occurs.
+     */
+    private void mergeOutputInShardOrder() {
+        while(true) {
+            OutputMergeTask mergeTask;
+            synchronized(outputMergeLock) {
+                while(nextShardToMerge < traversalComplete.length && !traversalComplete[nextShardToMerge] && !hasTraversalErrorOccurred()) {
+                    try {
+                        outputMergeLock.wait();
+                    }
+                    catch(InterruptedException ex) {
+                        throw new ReviewedStingException("Interrupted while waiting for more output to be finalized.",ex);
+                    }
+                }
+                if(nextShardToMerge >= traversalComplete.length || hasTraversalErrorOccurred())
+                    return;
+                mergeTask = pendingOutput[nextShardToMerge];
+                pendingOutput[nextShardToMerge] = null;
+                nextShardToMerge++;
+                unmergedTraversals--;
+                // the merge window has moved on
+                outputMergeLock.notifyAll();
+            }
+
+            if(mergeTask != null) {
+                long startTime = System.currentTimeMillis();
+                mergeTask.merge();
+                totalOutputMergeTime += System.currentTimeMillis() - startTime;
+            }
+        }
+    }
+
+    /**
+     * Traverse the shard with the given index on the calling thread and queue its output for merging.
+     * @param walker Walker to apply to the shard.
+     * @param shardIndex Index of the shard in the shard list.
+     * @return The reduced result of traversing the shard.
+     */
+    private Object traverseShard( Walker<?,?> walker, int shardIndex ) {
+        waitForOutputMergeWindow(shardIndex);
+        startedTraversals.incrementAndGet();
+        ShardTraverser traverser = new ShardTraverser(this,traversalEngine,walker,shards.get(shardIndex),outputTracker);
+        Object result = traverser.call();
+        synchronized(outputMergeLock) {
+            pendingOutput[shardIndex] = traverser.getOutputMergeTask();
+            traversalComplete[shardIndex] = true;
+            unmergedTraversals++;
+            outputMergeLock.notifyAll();
+        }
+        return result;
+    }
+
+    /**
+     * Blocks until the given shard is within MAX_OUTSTANDING_OUTPUT_MERGES of the next shard to be merged.
+     * The wait is a managed block, so the pool may start a spare worker to keep the earlier shards moving.
+     * @param shardIndex Index of the shard about to be traversed.
+     * @throws ReviewedStingException if an error occurs during the traversal in the meantime.
+     */
+    private void waitForOutputMergeWindow( final int shardIndex ) {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                public boolean block() throws InterruptedException {
+                    synchronized(outputMergeLock) {
+                        while(!isReleasable())
+                            outputMergeLock.wait();
+                    }
+                    return true;
+                }
+
+                public boolean isReleasable() {
+                    synchronized(outputMergeLock) {
+                        return shardIndex < nextShardToMerge + MAX_OUTSTANDING_OUTPUT_MERGES || hasTraversalErrorOccurred();
+                    }
+                }
+            });
+        }
+        catch(InterruptedException ex) {
+            throw new ReviewedStingException("Interrupted while waiting for output to be merged.",ex);
+        }
+        if(hasTraversalErrorOccurred())
+            throw new ReviewedStingException("An error has occurred during the traversal.",getTraversalError());
+    }
+
+    /**
+     * Combine two adjacent results with the walker's tree reduce.
+     * @param walker Walker to use when reducing.
+     * @param lhs Result of the earlier shards.
+     * @param rhs Result of the later shards.
+     * @return treeReduce(lhs,rhs).
+     */
+    @SuppressWarnings("unchecked")
+    private Object treeReduce( Walker<?,?> walker, Object lhs, Object rhs ) {
+        long startTime = System.currentTimeMillis();
+        Object result;
+        try {
+            result = ((TreeReducible<Object>)walker).treeReduce(lhs,rhs);
+        }
+        catch(Throwable t) {
+            notifyOfTraversalError(t);
+            throw new ReviewedStingException("Hierarchical reduce failed", t);
+        }
+        reportTreeReduceTime(System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    /**
+     * Wake the output merger as well as recording the error, so that execute() can fail fast.
+     */
+    @Override
+    protected void notifyOfTraversalError(Throwable error) {
+        super.notifyOfTraversalError(error);
+        synchronized(outputMergeLock) {
+            outputMergeLock.notifyAll();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getTotalNumberOfShards() {
+        return shards.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getRemainingNumberOfShards() {
+        return shards.size() - startedTraversals.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getNumberOfTasksInReduceQueue() {
+        return pendingTreeReduces.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getNumberOfTasksInIOQueue() {
+        synchronized(outputMergeLock) {
+            return unmergedTraversals;
+        }
+    }
+
+    /**
+     * Traverses and reduces a contiguous range of shards, [start,end).
+     */
+    private class ShardRangeTask extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Walker<?,?> walker;
+        private final int start;
+        private final int end;
+
+        public ShardRangeTask( Walker<?,?> walker, int start, int end ) {
+            this.walker = walker;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Object compute() {
+            if(end - start == 1)
+                return traverseShard(walker,start);
+
+            // Other workers already have enough to steal; walk this range in place.
+            if(getSurplusQueuedTaskCount() > SURPLUS_QUEUED_TASK_THRESHOLD) {
+                Object result = traverseShard(walker,start);
+                for(int shardIndex = start+1; shardIndex < end; shardIndex++)
+                    result = treeReduce(walker,result,traverseShard(walker,shardIndex));
+                return result;
+            }
+
+            int middle = (start+end) >>> 1;
+            ShardRangeTask rhsTask = new ShardRangeTask(walker,middle,end);
+            rhsTask.fork();
+
+            // The left half runs on this thread and has closed its output storage before any join below
+            // can cause this thread to pick up another shard.
+            Object lhs = new ShardRangeTask(walker,start,middle).compute();
+
+            pendingTreeReduces.incrementAndGet();
+            try {
+                Object rhs = rhsTask.join();
+                return treeReduce(walker,lhs,rhs);
+            }
+            finally {
+                pendingTreeReduces.decrementAndGet();
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.broadinstitute.sting.gatk.walkers.Walker;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.threading.ThreadPoolMonitor;
+import org.broadinstitute.sting.utils.threading.ThreadUtilizationTracker;
 
 import java.util.Collection;
 import java.util.LinkedList;
@@ -31,7 +32,10 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * How many outstanding output merges are allowed before the scheduler stops
      * allowing new processes and starts merging flat-out.
      */
-    private static final int MAX_OUTSTANDING_OUTPUT_MERGES = 50;
+    protected static final int MAX_OUTSTANDING_OUTPUT_MERGES = 50;
+
+    /** How many threads should be used to process the data? */
+    protected final int nThreadsToUse;
 
     /** Manage currently running threads. */
     private ExecutorService threadPool;
@@ -39,7 +43,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     /**
      * A thread local output tracker for managing output per-thread.
      */
-    private ThreadLocalOutputTracker outputTracker = new ThreadLocalOutputTracker();
+    protected final ThreadLocalOutputTracker outputTracker = new ThreadLocalOutputTracker();
 
     private final Queue<Shard> traverseTasks = new LinkedList<Shard>();
     private final Queue<TreeReduceTask> reduceTasks = new LinkedList<TreeReduceTask>();
@@ -72,7 +76,10 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     private long totalCompletedTreeReduces = 0;
 
     /** What is the total time spent merging output? */
-    private long totalOutputMergeTime = 0;
+    protected long totalOutputMergeTime = 0;
+
+    /** How much time has each worker thread spent doing useful work? */
+    protected final ThreadUtilizationTracker threadUtilization = new ThreadUtilizationTracker();
 
     /**
      * Create a new hierarchical microscheduler to process the given reads and reference.
@@ -85,7 +92,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     protected HierarchicalMicroScheduler(GenomeAnalysisEngine engine, Walker walker, SAMDataSource reads, IndexedFastaSequenceFile reference, Collection<ReferenceOrderedDataSource> rods, int nThreadsToUse ) {
         super(engine, walker, reads, reference, rods);
 
-        this.threadPool = Executors.newFixedThreadPool(nThreadsToUse);
+        this.nThreadsToUse = nThreadsToUse;
 
         if (engine.getArguments().processingTrackerFile != null) {
             throw new UserException.BadArgumentValue("-C", "Distributed GATK calculations currently not supported in multi-threaded mode.  Complain to Mark depristo@broadinstitute.org to implement and test this code path");
@@ -98,6 +105,8 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             throw new IllegalArgumentException("The GATK can currently run in parallel only with TreeReducible walkers");
 
         traversalEngine.startTimers();
+        threadPool = Executors.newFixedThreadPool(nThreadsToUse);
+        threadUtilization.start();
         ReduceTree reduceTree = new ReduceTree(this);
         initializeWalker(walker);
 
@@ -338,11 +347,11 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
      * Detects whether an execution error has occurred.
      * @return True if an error has occurred.  False otherwise.
      */
-    private synchronized boolean hasTraversalErrorOccurred() {
+    protected synchronized boolean hasTraversalErrorOccurred() {
         return error != null;
     }
 
-    private synchronized Throwable getTraversalError() {
+    protected synchronized Throwable getTraversalError() {
         if(!hasTraversalErrorOccurred())
             throw new ReviewedStingException("User has attempted to retrieve a traversal error when none exists");
         return error;
@@ -382,6 +391,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     synchronized void reportShardTraverseTime( long shardTraversalTime ) {
         totalShardTraverseTime += shardTraversalTime;
         totalCompletedTraversals++;
+        threadUtilization.addBusyTime(shardTraversalTime);
     }
 
     /**
@@ -392,7 +402,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     synchronized void reportTreeReduceTime( long treeReduceTime ) {
         totalTreeReduceTime += treeReduceTime;
         totalCompletedTreeReduces++;
-
+        threadUtilization.addBusyTime(treeReduceTime);
     }
 
     /** {@inheritDoc} */
@@ -445,4 +455,19 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     public long getTotalOutputMergeTimeMillis() {
         return totalOutputMergeTime;
     }
+
+    /** {@inheritDoc} */
+    public String[] getWorkerThreadNames() {
+        return threadUtilization.getThreadNames();
+    }
+
+    /** {@inheritDoc} */
+    public long[] getWorkerThreadBusyTimeMillis() {
+        return threadUtilization.getBusyTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    public long[] getWorkerThreadIdleTimeMillis() {
+        return threadUtilization.getIdleTimeMillis();
+    }
 }
@@ -69,5 +69,23 @@ public interface HierarchicalMicroSchedulerMBean extends MicroSchedulerMBean {
      * @return Average time spent running tree reduces; 0 if none have been run.
      */
     public long getAvgTreeReduceTimeMillis();
+
+    /**
+     * What are the names of the worker threads that have done work for this microscheduler?
+     * @return Worker thread names; indices match getWorkerThreadBusyTimeMillis() and getWorkerThreadIdleTimeMillis().
+     */
+    public String[] getWorkerThreadNames();
+
+    /**
+     * How much time has each worker thread spent traversing shards and running tree reduces?
+     * @return Busy time per worker thread.
+     */
+    public long[] getWorkerThreadBusyTimeMillis();
+
+    /**
+     * How much time has each worker thread spent waiting for work since the traversal started?
+     * @return Idle time per worker thread.
+     */
+    public long[] getWorkerThreadIdleTimeMillis();
 }
 
@@ -39,6 +39,7 @@ import org.broadinstitute.sting.gatk.traversals.*;
 import org.broadinstitute.sting.gatk.walkers.*;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.fasta.CachingIndexedFastaSequenceFile;
 import org.broadinstitute.sting.utils.threading.*;
 
 import javax.management.JMException;
@@ -83,6 +84,11 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     private final MBeanServer mBeanServer;
     private final ObjectName mBeanName;
 
+    /**
+     * Name under which the reference cache is registered with JMX, or null if the reference isn't cached.
+     */
+    private final ObjectName referenceMBeanName;
+
     protected GenomeLocProcessingTracker processingTracker;
 
     /**
@@ -103,12 +109,18 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
                 throw new UserException.BadArgumentValue("C", String.format("Distributed GATK processing not enabled for read walkers"));
         }
 
-        if (walker instanceof TreeReducible && nThreadsToUse > 1) {
+        if (walker instanceof ReadWalker && walker instanceof ThreadSafeMap && nThreadsToUse > 1) {
+            logger.info(String.format("Running the GATK with %d concurrent threads mapping reads",nThreadsToUse));
+            return new LinearMicroScheduler(engine, walker, reads, reference, rods);
+        }
+        else if (walker instanceof TreeReducible && nThreadsToUse > 1) {
             if(walker.isReduceByInterval())
                 throw new UserException.BadArgumentValue("nt", String.format("The analysis %s aggregates results by interval.  Due to a current limitation of the GATK, analyses of this type do not currently support parallel execution.  Please run your analysis without the -nt option.", engine.getWalkerName(walker.getClass())));
             if(walker instanceof ReadWalker)
                 throw new UserException.BadArgumentValue("nt", String.format("The analysis %s is a read walker.  Due to a current limitation of the GATK, analyses of this type do not currently support parallel execution.  Please run your analysis without the -nt option.", engine.getWalkerName(walker.getClass())));
             logger.info(String.format("Running the GATK in parallel mode with %d concurrent threads",nThreadsToUse));
+            if(engine.getArguments().useWorkStealingScheduler)
+                return new ForkJoinMicroScheduler(engine, walker, reads, reference, rods, nThreadsToUse);
             return new HierarchicalMicroScheduler(engine, walker, reads, reference, rods, nThreadsToUse);
         } else {
             if(nThreadsToUse > 1)
@@ -153,6 +165,12 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         try {
             mBeanName = new ObjectName("org.broadinstitute.sting.gatk.executive:type=MicroScheduler,instanceNumber="+thisInstance);
             mBeanServer.registerMBean(this, mBeanName);
+            if(reference instanceof CachingIndexedFastaSequenceFile) {
+                referenceMBeanName = new ObjectName("org.broadinstitute.sting.utils.fasta:type=CachingIndexedFastaSequenceFile,instanceNumber="+thisInstance);
+                mBeanServer.registerMBean(reference, referenceMBeanName);
+            }
+            else
+                referenceMBeanName = null;
         }
         catch (JMException ex) {
             throw new ReviewedStingException("Unable to register microscheduler with JMX", ex);
@@ -272,6 +290,8 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void cleanup() {
         try {
             mBeanServer.unregisterMBean(mBeanName);
+            if(referenceMBeanName != null)
+                mBeanServer.unregisterMBean(referenceMBeanName);
         }
         catch (JMException ex) {
             throw new ReviewedStingException("Unable to unregister microscheduler with JMX", ex);
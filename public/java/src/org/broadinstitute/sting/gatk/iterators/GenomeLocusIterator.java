@@ -33,9 +33,9 @@ public class GenomeLocusIterator implements Iterator<GenomeLoc> {
     private GenomeLoc completeLocus;
 
     /**
-     * The current position in the traversal.
+     * The current position in the traversal, packed by GenomeLocParser.packLocus().
      */
-    private GenomeLoc currentLocus;
+    private long currentLocus;
 
     /**
      * Creates an iterator that can traverse over the entire
@@ -46,7 +46,7 @@ public class GenomeLocusIterator implements Iterator<GenomeLoc> {
     public GenomeLocusIterator( GenomeLocParser parser, GenomeLoc completeLocus ) {
         this.parser = parser;
         this.completeLocus = completeLocus;
-        this.currentLocus = parser.createGenomeLoc(completeLocus.getContig(),completeLocus.getStart());
+        this.currentLocus = GenomeLocParser.packLocus(completeLocus);
     }
 
     /**
@@ -54,7 +54,7 @@ public class GenomeLocusIterator implements Iterator<GenomeLoc> {
      * @return True if the iterator has more elements.  False otherwise. 
      */
     public boolean hasNext() {
-        return !currentLocus.isPast(completeLocus);    
+        return GenomeLocParser.getPackedPosition(currentLocus) <= completeLocus.getStop();
     }
 
     /**
@@ -62,11 +62,17 @@ public class GenomeLocusIterator implements Iterator<GenomeLoc> {
      * @return GenomeLoc representing the next single-base locus context.
      */
     public GenomeLoc next() {
+        return parser.createGenomeLoc(nextPackedLocus());
+    }
+
+    /**
+     * Get the next single-base locus bounded by the iterator, without creating a GenomeLoc for it.
+     * @return The next locus, packed by GenomeLocParser.packLocus().
+     */
+    public long nextPackedLocus() {
         if( !hasNext() )
             throw new NoSuchElementException("No elements remaining in bounded reference region.");
-        GenomeLoc toReturn = currentLocus;
-        currentLocus = parser.incPos(currentLocus);
-        return toReturn;
+        return currentLocus++;
     }
 
     public void remove() {
@@ -41,11 +41,13 @@ import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.MathUtils;
 import org.broadinstitute.sting.utils.ReservoirDownsampler;
+import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.pileup.ExtendedEventPileupElement;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedExtendedEventPileupImpl;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.pileup2.MultiSamplePileup;
+import org.broadinstitute.sting.utils.pileup2.SamplePileup;
 import org.broadinstitute.sting.utils.sam.ReadUtils;
 
 import java.util.*;
@@ -105,6 +107,12 @@ public class LocusIteratorByState extends LocusIterator {
         // event, or -1 if alignment starts with an insertion); this one is easy to recompute on the fly,
         // we cache it here mainly for convenience
 
+        // The adaptor boundaries and the deletion pileup element only depend on the read, so they're worked out
+        // once per read rather than once per read per locus.
+        final boolean hasAdaptorBoundaries;
+        final int adaptorStart;
+        final int adaptorEnd;
+        PileupElement deletionElement = null;
 
         public SAMRecordState(SAMRecord read, boolean extended) {
             this.read = read;
@@ -112,6 +120,11 @@ public class LocusIteratorByState extends LocusIterator {
             nCigarElements = cigar.numCigarElements();
             generateExtendedEvents = extended;
 
+            Pair<Integer,Integer> adaptorBoundaries = ReadUtils.getAdaptorBoundaries(read);
+            hasAdaptorBoundaries = adaptorBoundaries != null;
+            adaptorStart = hasAdaptorBoundaries ? adaptorBoundaries.first : 0;
+            adaptorEnd = hasAdaptorBoundaries ? adaptorBoundaries.second : 0;
+
             //System.out.printf("Creating a SAMRecordState: %s%n", this);
         }
 
@@ -155,6 +168,26 @@ public class LocusIteratorByState extends LocusIterator {
 
         public int getReadEventStartOffset() { return eventStart; }
 
+        /**
+         * Is the given position in the adaptor sequence of this read, in the sense of ReadUtils.readPairBaseOverlapType()?
+         * @param pos position on the reference.
+         * @return true if the base at pos should be filtered as adaptor.
+         */
+        public boolean isInAdaptor(long pos) {
+            return hasAdaptorBoundaries && pos >= adaptorStart && pos <= adaptorEnd;
+        }
+
+        /**
+         * Gets the pileup element representing a deletion in this read.  Pileup elements are immutable, so the same
+         * one is shared by every locus the deletion spans.
+         * @return a pileup element with offset -1.
+         */
+        public PileupElement getDeletionElement() {
+            if ( deletionElement == null )
+                deletionElement = new PileupElement(read, -1);
+            return deletionElement;
+        }
+
         public String toString() {
             return String.format("%s ro=%d go=%d co=%d cec=%d %s", read.getReadName(), readOffset, genomeOffset, cigarOffset, cigarElementCounter, curElement);
         }
@@ -304,10 +337,10 @@ public class LocusIteratorByState extends LocusIterator {
     }
 
     public void printState() {
-        for(Sample sample: samples) {
-            Iterator<SAMRecordState> iterator = readStates.iterator(sample);
-            while(iterator.hasNext()) {
-                SAMRecordState state = iterator.next();
+        for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            PerSampleReadStateManager states = readStates.getReadStates(sampleIndex);
+            for(int i = 0; i < states.size(); i++) {
+                SAMRecordState state = states.get(i);
                 logger.debug(String.format("printState():"));
                 SAMRecord read = state.getRead();
                 int offset = state.getReadOffset();
@@ -362,10 +395,10 @@ public class LocusIteratorByState extends LocusIterator {
                 GenomeLoc loc = genomeLocParser.incPos(getLocation(),-1);
 
                 boolean hasBeenSampled = false;
-                for(Sample sample: samples) {
-                    Iterator<SAMRecordState> iterator = readStates.iterator(sample);
-                    List<ExtendedEventPileupElement> indelPile = new ArrayList<ExtendedEventPileupElement>(readStates.size(sample));
-                    hasBeenSampled |= loc.getStart() <= readStates.getDownsamplingExtent(sample);
+                for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+                    PerSampleReadStateManager states = readStates.getReadStates(sampleIndex);
+                    List<ExtendedEventPileupElement> indelPile = new ArrayList<ExtendedEventPileupElement>(states.size());
+                    hasBeenSampled |= loc.getStart() <= states.getDownsamplingExtent();
 
                     size = 0;
                     nDeletions = 0;
@@ -373,8 +406,8 @@ public class LocusIteratorByState extends LocusIterator {
                     nMQ0Reads = 0;
                     int maxDeletionLength = 0;
 
-                    while(iterator.hasNext()) {
-                        SAMRecordState state = iterator.next();
+                    for(int i = 0; i < states.size(); i++) {
+                        SAMRecordState state = states.get(i);
                         if ( state.hadIndel() ) {
                             size++;
                             if ( state.getEventBases() == null ) {
@@ -418,7 +451,7 @@ public class LocusIteratorByState extends LocusIterator {
                             nMQ0Reads++;
                         }
                     }
-                    if( indelPile.size() != 0 ) fullExtendedEventPileup.put(sample,new ReadBackedExtendedEventPileupImpl(loc,indelPile,size,maxDeletionLength,nInsertions,nDeletions,nMQ0Reads));
+                    if( indelPile.size() != 0 ) fullExtendedEventPileup.put(samples.get(sampleIndex),new ReadBackedExtendedEventPileupImpl(loc,indelPile,size,maxDeletionLength,nInsertions,nDeletions,nMQ0Reads));
                 }
                 hasExtendedEvents = false; // we are done with extended events prior to current ref base
 //                System.out.println("Indel(s) at "+loc);
@@ -426,22 +459,22 @@ public class LocusIteratorByState extends LocusIterator {
                 nextAlignmentContext = new AlignmentContext(loc, new ReadBackedExtendedEventPileupImpl(loc, fullExtendedEventPileup), hasBeenSampled);
             }  else {
                 GenomeLoc location = getLocation();
-                Map<Sample,ReadBackedPileupImpl> fullPileup = new HashMap<Sample,ReadBackedPileupImpl>();
+                Map<Sample,SamplePileup> fullPileup = new HashMap<Sample,SamplePileup>();
 
                 boolean hasBeenSampled = false;
-                for(Sample sample: samples) {
-                    Iterator<SAMRecordState> iterator = readStates.iterator(sample);
-                    List<PileupElement> pile = new ArrayList<PileupElement>(readStates.size(sample));
-                    hasBeenSampled |= location.getStart() <= readStates.getDownsamplingExtent(sample);
+                for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+                    PerSampleReadStateManager states = readStates.getReadStates(sampleIndex);
+                    List<PileupElement> pile = new ArrayList<PileupElement>(states.size());
+                    hasBeenSampled |= location.getStart() <= states.getDownsamplingExtent();
 
                     size = 0;
                     nDeletions = 0;
                     nMQ0Reads = 0;
 
-                    while(iterator.hasNext()) {
-                        SAMRecordState state = iterator.next();
+                    for(int i = 0; i < states.size(); i++) {
+                        SAMRecordState state = states.get(i);
                         if ( state.getCurrentCigarOperator() != CigarOperator.D && state.getCurrentCigarOperator() != CigarOperator.N ) {
-                            if ( filterBaseInRead(state.getRead(), location.getStart()) ) {
+                            if ( filterBaseInRead(state, location.getStart()) ) {
                                 //discarded_bases++;
                                 //printStatus("Adaptor bases", discarded_adaptor_bases);
                                 continue;
@@ -452,7 +485,7 @@ public class LocusIteratorByState extends LocusIterator {
                             }
                         } else if ( readInfo.includeReadsWithDeletionAtLoci() && state.getCurrentCigarOperator() != CigarOperator.N ) {
                             size++;
-                            pile.add(new PileupElement(state.getRead(), -1));
+                            pile.add(state.getDeletionElement());
                             nDeletions++;
                         }
 
@@ -462,12 +495,12 @@ public class LocusIteratorByState extends LocusIterator {
                     }
 
                     if( pile.size() != 0 )
-                        fullPileup.put(sample,new ReadBackedPileupImpl(location,pile,size,nDeletions,nMQ0Reads));
+                        fullPileup.put(samples.get(sampleIndex),new SamplePileup(location,samples.get(sampleIndex),pile,size,nDeletions,nMQ0Reads));
                 }
 
                 updateReadStates(); // critical - must be called after we get the current state offsets and location
                 // if we got reads with non-D/N over the current position, we are done
-                if ( !fullPileup.isEmpty() ) nextAlignmentContext = new AlignmentContext(location, new ReadBackedPileupImpl(location,fullPileup),hasBeenSampled);
+                if ( !fullPileup.isEmpty() ) nextAlignmentContext = new AlignmentContext(location, new MultiSamplePileup(location,fullPileup.values()),hasBeenSampled);
             }
         }
     }
@@ -486,32 +519,16 @@ public class LocusIteratorByState extends LocusIterator {
     /**
      * Generic place to put per-base filters appropriate to LocusIteratorByState
      *
-     * @param rec
+     * @param state
      * @param pos
      * @return
      */
-    private static boolean filterBaseInRead(SAMRecord rec, long pos) {
-        return ReadUtils.readPairBaseOverlapType(rec, pos) == ReadUtils.OverlapType.IN_ADAPTOR;
+    private static boolean filterBaseInRead(SAMRecordState state, long pos) {
+        return state.isInAdaptor(pos); // same as ReadUtils.readPairBaseOverlapType(rec, pos) == IN_ADAPTOR
     }
 
     private void updateReadStates() {
-        for(Sample sample: samples) {
-            Iterator<SAMRecordState> it = readStates.iterator(sample);
-            while ( it.hasNext() ) {
-                SAMRecordState state = it.next();
-                CigarOperator op = state.stepForwardOnGenome();
-                if ( state.hadIndel() && readInfo.generateExtendedEvents() ) hasExtendedEvents = true;
-                else {
-                    // we discard the read only when we are past its end AND indel at the end of the read (if any) was
-                    // already processed. Keeping the read state that retunred null upon stepForwardOnGenome() is safe
-                    // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
-                    if ( op == null ) { // we've stepped off the end of the object
-                        //if (DEBUG) logger.debug(String.format("   removing read %s at %d", state.getRead().getReadName(), state.getRead().getAlignmentStart()));
-                        it.remove();
-                    }
-                }
-            }
-        }
+        readStates.stepForwardOnGenome();
     }
 
     public void remove() {
@@ -522,7 +539,7 @@ public class LocusIteratorByState extends LocusIterator {
         private final PeekableIterator<SAMRecord> iterator;
         private final DownsamplingMethod downsamplingMethod;
         private final SamplePartitioner samplePartitioner;
-        private final Map<Sample,PerSampleReadStateManager> readStatesBySample = new HashMap<Sample,PerSampleReadStateManager>();
+        private final PerSampleReadStateManager[] readStatesBySample; // indexed in the same order as samples
         private final int targetCoverage;
         private int totalReadStates = 0;
 
@@ -539,38 +556,23 @@ public class LocusIteratorByState extends LocusIterator {
                     this.targetCoverage = Integer.MAX_VALUE;
             }
 
+            readStatesBySample = new PerSampleReadStateManager[samples.size()];
             Map<String,ReadSelector> readSelectors = new HashMap<String,ReadSelector>();
-            for(Sample sample: samples) {
-                readStatesBySample.put(sample,new PerSampleReadStateManager());
-                readSelectors.put(sample.getId(),downsamplingMethod.type == DownsampleType.BY_SAMPLE ? new NRandomReadSelector(null,targetCoverage) : new AllReadsSelector());
+            for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+                readStatesBySample[sampleIndex] = new PerSampleReadStateManager();
+                readSelectors.put(samples.get(sampleIndex).getId(),downsamplingMethod.type == DownsampleType.BY_SAMPLE ? new NRandomReadSelector(null,targetCoverage) : new AllReadsSelector());
             }
 
             samplePartitioner = new SamplePartitioner(readSelectors);
         }
 
         /**
-         * Returns a iterator over all the reads associated with the given sample.  Note that remove() is implemented
-         * for this iterator; if present, total read states will be decremented.
-         * @param sample The sample.
-         * @return Iterator over the reads associated with that sample.
+         * Gets the read states associated with the given sample.
+         * @param sampleIndex Index of the sample in the list of samples.
+         * @return The read states of that sample, in order of alignment start.
          */
-        public Iterator<SAMRecordState> iterator(final Sample sample) {
-            return new Iterator<SAMRecordState>() {
-                private Iterator<SAMRecordState> wrappedIterator = readStatesBySample.get(sample).iterator();
-
-                public boolean hasNext() {
-                    return wrappedIterator.hasNext();
-                }
-
-                public SAMRecordState next() {
-                    return wrappedIterator.next();
-                }
-
-                public void remove() {
-                    wrappedIterator.remove();
-                    totalReadStates--;
-                }
-            };
+        public PerSampleReadStateManager getReadStates(final int sampleIndex) {
+            return readStatesBySample[sampleIndex];
         }
 
         public boolean isEmpty() {
@@ -585,28 +587,8 @@ public class LocusIteratorByState extends LocusIterator {
             return totalReadStates;
         }
 
-        /**
-         * Retrieves the total number of reads in the manager in the given sample.
-         * @param sample The sample.
-         * @return Total number of reads in the given sample.
-         */
-        public int size(final Sample sample) {
-            return readStatesBySample.get(sample).size();
-        }
-
-        /**
-         * The extent of downsampling; basically, the furthest base out which has 'fallen
-         * victim' to the downsampler.
-         * @param sample Sample, downsampled independently.
-         * @return Integer stop of the furthest undownsampled region.
-         */
-        public int getDownsamplingExtent(final Sample sample) {
-            return readStatesBySample.get(sample).getDownsamplingExtent();
-        }
-
         public SAMRecordState getFirst() {
-            for(Sample sample: samples) {
-                PerSampleReadStateManager reads = readStatesBySample.get(sample);
+            for(PerSampleReadStateManager reads: readStatesBySample) {
                 if(!reads.isEmpty())
                     return reads.peek();
             }
@@ -617,6 +599,14 @@ public class LocusIteratorByState extends LocusIterator {
             return totalReadStates > 0 || iterator.hasNext();
         }
 
+        /**
+         * Steps every read state forward by one base on the genome, dropping the states of reads we've moved past.
+         */
+        public void stepForwardOnGenome() {
+            for(PerSampleReadStateManager reads: readStatesBySample)
+                totalReadStates -= reads.stepForwardOnGenome();
+        }
+
         public void collectPendingReads() {
             if(!iterator.hasNext())
                 return;
@@ -639,12 +629,13 @@ public class LocusIteratorByState extends LocusIterator {
             }
             samplePartitioner.complete();
 
-            for(Sample sample: samples) {
-                ReadSelector aggregator = samplePartitioner.getSelectedReads(sample.getId());
+            for(int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+                ReadSelector aggregator = samplePartitioner.getSelectedReads(samples.get(sampleIndex).getId());
 
-                Collection<SAMRecord> newReads = new ArrayList<SAMRecord>(aggregator.getSelectedReads());
+                // The selector isn't reset until every sample has been processed, so its reads can be used in place.
+                Collection<SAMRecord> newReads = aggregator.getSelectedReads();
 
-                PerSampleReadStateManager statesBySample = readStatesBySample.get(sample);
+                PerSampleReadStateManager statesBySample = readStatesBySample[sampleIndex];
                 int numReads = statesBySample.size();
                 int downsamplingExtent = aggregator.getDownsamplingExtent();
 
@@ -687,8 +678,10 @@ public class LocusIteratorByState extends LocusIterator {
 
                         readOffset += counts[i];
                     }
+                    int sizeBeforePurge = statesBySample.size();
                     downsamplingExtent = Math.max(downsamplingExtent,statesBySample.purge(toPurge));
-                    
+                    totalReadStates -= sizeBeforePurge - statesBySample.size();
+
                     addReadsToSample(statesBySample,newReads,targetCoverage-numReads);
                     statesBySample.specifyNewDownsamplingExtent(downsamplingExtent);
                 }
@@ -706,148 +699,205 @@ public class LocusIteratorByState extends LocusIterator {
             if(reads.isEmpty())
                 return;
 
-            Collection<SAMRecordState> newReadStates = new LinkedList<SAMRecordState>();
             int readCount = 0;
             for(SAMRecord read: reads) {
                 if(readCount < maxReads) {
                     SAMRecordState state = new SAMRecordState(read, readInfo.generateExtendedEvents());
                     state.stepForwardOnGenome();
-                    newReadStates.add(state);
+                    readStates.add(state);
                     // TODO: What if we downsample the extended events away?
                     if (state.hadIndel()) hasExtendedEvents = true;
                     readCount++;
                 }
             }
-            readStates.addStatesAtNextAlignmentStart(newReadStates);
+            readStates.completeAlignmentStart(readCount);
+            totalReadStates += readCount;
         }
+    }
 
-        private class PerSampleReadStateManager implements Iterable<SAMRecordState> {
-            private final Queue<SAMRecordState> readStates = new LinkedList<SAMRecordState>();
-            private final Deque<Counter> readStateCounter = new LinkedList<Counter>();
-            private int downsamplingExtent = 0;
-
-            public void addStatesAtNextAlignmentStart(Collection<SAMRecordState> states) {
-                readStates.addAll(states);
-                readStateCounter.add(new Counter(states.size()));
-                totalReadStates += states.size();
-            }
+    /**
+     * The read states of a single sample, in order of alignment start.  The states are kept in an array which is
+     * compacted in place as reads are left behind, and the number of states added at each alignment start is kept
+     * in a ring buffer of ints; both only grow, so once the iterator has reached its working depth, advancing from
+     * locus to locus doesn't allocate.
+     */
+    private class PerSampleReadStateManager {
+        private static final int INITIAL_CAPACITY = 16;
 
-            public boolean isEmpty() {
-                return readStates.isEmpty();
-            }
+        private SAMRecordState[] readStates = new SAMRecordState[INITIAL_CAPACITY];
+        private int size = 0;
 
-            public SAMRecordState peek() {
-                return readStates.peek();
-            }
+        /**
+         * Ring buffer holding the number of read states added at each alignment start, oldest first.  Length is always a
+         * power of two.  Removing a read state by stepping past its end decrements the oldest count, as the list-based
+         * implementation this replaces did.
+         */
+        private int[] readStateCounts = new int[INITIAL_CAPACITY];
+        private int firstCount = 0;
+        private int numCounts = 0;
 
-            public int size() {
-                return readStates.size();
-            }
+        private int downsamplingExtent = 0;
 
-            public void specifyNewDownsamplingExtent(int downsamplingExtent) {
-                this.downsamplingExtent = Math.max(this.downsamplingExtent,downsamplingExtent);
-            }
-
-            public int getDownsamplingExtent() {
-                return downsamplingExtent;
-            }
+        public boolean isEmpty() {
+            return size == 0;
+        }
 
-            public int[] getCountsPerAlignmentStart() {
-                int[] counts = new int[readStateCounter.size()];
-                int index = 0;
-                for(Counter counter: readStateCounter)
-                    counts[index++] = counter.getCount();
-                return counts;
-            }
+        public SAMRecordState peek() {
+            return size > 0 ? readStates[0] : null;
+        }
 
-            public Iterator<SAMRecordState> iterator() {
-                return new Iterator<SAMRecordState>() {
-                    private Iterator<SAMRecordState> wrappedIterator = readStates.iterator();
+        public int size() {
+            return size;
+        }
 
-                    public boolean hasNext() {
-                        return wrappedIterator.hasNext();
-                    }
+        public SAMRecordState get(final int index) {
+            return readStates[index];
+        }
 
-                    public SAMRecordState next() {
-                        return wrappedIterator.next();
-                    }
+        /**
+         * Adds a read state to the group of states at the next alignment start.
+         * @param state The new state.
+         */
+        public void add(final SAMRecordState state) {
+            if(size == readStates.length)
+                readStates = Arrays.copyOf(readStates,readStates.length*2);
+            readStates[size++] = state;
+        }
 
-                    public void remove() {
-                        wrappedIterator.remove();
-                        Counter counter = readStateCounter.peek();
-                        counter.decrement();
-                        if(counter.getCount() == 0)
-                            readStateCounter.remove();
-                    }
-                };
+        /**
+         * Marks the end of the group of states at the next alignment start.
+         * @param count Number of states added with add() since the last call.
+         */
+        public void completeAlignmentStart(final int count) {
+            if(numCounts == readStateCounts.length) {
+                int[] counts = new int[readStateCounts.length*2];
+                for(int i = 0; i < numCounts; i++)
+                    counts[i] = getCount(i);
+                readStateCounts = counts;
+                firstCount = 0;
             }
+            setCount(numCounts++,count);
+        }
 
-            /**
-             * Purge the given elements from the bitset.  If an element in the bitset is true, purge
-             * the corresponding read state.
-             * @param elements bits from the set to purge.
-             * @return the extent of the final downsampled read.
-             */
-            public int purge(final BitSet elements) {
-                int downsamplingExtent = 0;
-
-                if(elements.isEmpty() || readStates.isEmpty()) return downsamplingExtent;
-
-                Iterator<SAMRecordState> readStateIterator = readStates.iterator();
-
-                Iterator<Counter> counterIterator = readStateCounter.iterator();
-                Counter currentCounter = counterIterator.next();
-
-                int readIndex = 0;
-                long alignmentStartCounter = currentCounter.getCount();
+        public void specifyNewDownsamplingExtent(int downsamplingExtent) {
+            this.downsamplingExtent = Math.max(this.downsamplingExtent,downsamplingExtent);
+        }
 
-                int toPurge = elements.nextSetBit(0);
-                int removedCount = 0;
+        public int getDownsamplingExtent() {
+            return downsamplingExtent;
+        }
 
-                while(readStateIterator.hasNext() && toPurge >= 0) {
-                    SAMRecordState state = readStateIterator.next();
-                    downsamplingExtent = Math.max(downsamplingExtent,state.getRead().getAlignmentEnd());
+        public int[] getCountsPerAlignmentStart() {
+            int[] counts = new int[numCounts];
+            for(int i = 0; i < numCounts; i++)
+                counts[i] = getCount(i);
+            return counts;
+        }
 
-                    if(readIndex == toPurge) {
-                        readStateIterator.remove();
-                        currentCounter.decrement();
-                        if(currentCounter.getCount() == 0)
-                            counterIterator.remove();
-                        removedCount++;
-                        toPurge = elements.nextSetBit(toPurge+1);
+        /**
+         * Steps every read state forward on the genome, removing the states of reads which have been stepped past.
+         * @return The number of read states removed.
+         */
+        public int stepForwardOnGenome() {
+            int kept = 0;
+            for(int i = 0; i < size; i++) {
+                SAMRecordState state = readStates[i];
+                CigarOperator op = state.stepForwardOnGenome();
+                if ( state.hadIndel() && readInfo.generateExtendedEvents() ) hasExtendedEvents = true;
+                else {
+                    // we discard the read only when we are past its end AND indel at the end of the read (if any) was
+                    // already processed. Keeping the read state that retunred null upon stepForwardOnGenome() is safe
+                    // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
+                    if ( op == null ) { // we've stepped off the end of the object
+                        decrementFirstCount();
+                        continue;
                     }
+                }
+                readStates[kept++] = state;
+            }
+            return truncate(kept);
+        }
 
-                    readIndex++;
-                    alignmentStartCounter--;
-                    if(alignmentStartCounter == 0 && counterIterator.hasNext()) {
-                        currentCounter = counterIterator.next();
-                        alignmentStartCounter = currentCounter.getCount();
-                    }
+        /**
+         * Purge the given elements from the bitset.  If an element in the bitset is true, purge
+         * the corresponding read state.
+         * @param elements bits from the set to purge.
+         * @return the extent of the final downsampled read.
+         */
+        public int purge(final BitSet elements) {
+            int downsamplingExtent = 0;
+
+            if(elements.isEmpty() || size == 0) return downsamplingExtent;
+
+            // Counts are compacted in place: counts before countWrite are kept, the count at countRead is current.
+            int countRead = 0;
+            int countWrite = 0;
+            int currentCount = getCount(countRead);
+            boolean currentCountRemoved = false;
+            long alignmentStartCounter = currentCount;
+
+            int toPurge = elements.nextSetBit(0);
+            int readIndex = 0;
+            int kept = 0;
+
+            while(readIndex < size && toPurge >= 0) {
+                SAMRecordState state = readStates[readIndex];
+                downsamplingExtent = Math.max(downsamplingExtent,state.getRead().getAlignmentEnd());
+
+                if(readIndex == toPurge) {
+                    currentCount--;
+                    if(currentCount == 0)
+                        currentCountRemoved = true;
+                    toPurge = elements.nextSetBit(toPurge+1);
                 }
+                else
+                    readStates[kept++] = state;
+
+                readIndex++;
+                alignmentStartCounter--;
+                if(alignmentStartCounter == 0 && countRead+1 < numCounts) {
+                    if(!currentCountRemoved)
+                        setCount(countWrite++,currentCount);
+                    currentCount = getCount(++countRead);
+                    currentCountRemoved = false;
+                    alignmentStartCounter = currentCount;
+                }
+            }
 
-                totalReadStates -= removedCount;
+            // Keep everything after the last purged element.
+            while(readIndex < size)
+                readStates[kept++] = readStates[readIndex++];
+            truncate(kept);
 
-                return downsamplingExtent;
-            }
+            if(!currentCountRemoved)
+                setCount(countWrite++,currentCount);
+            while(++countRead < numCounts)
+                setCount(countWrite++,getCount(countRead));
+            numCounts = countWrite;
+
+            return downsamplingExtent;
         }
-    }
 
-    /**
-     * Note: assuming that, whenever we downsample, we downsample to an integer capacity.
-     */
-    static private class Counter {
-        private int count;
+        private int truncate(final int newSize) {
+            Arrays.fill(readStates,newSize,size,null);
+            int removed = size - newSize;
+            size = newSize;
+            return removed;
+        }
 
-        public Counter(int count) {
-            this.count = count;
+        private void decrementFirstCount() {
+            if(--readStateCounts[firstCount] == 0) {
+                firstCount = (firstCount+1) & (readStateCounts.length-1);
+                numCounts--;
+            }
         }
 
-        public int getCount() {
-            return count;
+        private int getCount(final int index) {
+            return readStateCounts[(firstCount+index) & (readStateCounts.length-1)];
         }
 
-        public void decrement() {
-            count--;
+        private void setCount(final int index, final int count) {
+            readStateCounts[(firstCount+index) & (readStateCounts.length-1)] = count;
         }
     }
 }
@@ -77,17 +77,16 @@ public class ReadMetaDataTracker {
         Map<Integer, Collection<GATKFeature>> ret = new LinkedHashMap<Integer, Collection<GATKFeature>>();
         GenomeLoc location = genomeLocParser.createGenomeLoc(record);
         int length = record.getReadLength();
-        for (Integer loc : queue.keySet()) {
-            Integer position = loc - location.getStart();
-            if (position >= 0 && position < length) {
-                Collection<GATKFeature> set;
-                if (cl != null)
-                    set = queue.get(loc).getSet(cl);
-                else
-                    set = queue.get(loc).getSet(name);
-                if (set != null && set.size() > 0)
-                    ret.put(position, set);
-            }
+        if (length == 0) return ret;
+        // only look at the part of the queue the read covers, rather than scanning the whole thing
+        for (Map.Entry<Integer, RODMetaDataContainer> entry : queue.subMap(location.getStart(), true, location.getStart() + length - 1, true).entrySet()) {
+            Collection<GATKFeature> set;
+            if (cl != null)
+                set = entry.getValue().getSet(cl);
+            else
+                set = entry.getValue().getSet(name);
+            if (set != null && set.size() > 0)
+                ret.put(entry.getKey() - location.getStart(), set);
         }
         return ret;
 
@@ -102,12 +101,12 @@ public class ReadMetaDataTracker {
         Map<Integer, Collection<GATKFeature>> ret = new LinkedHashMap<Integer, Collection<GATKFeature>>();
         int start = record.getAlignmentStart();
         int stop = record.getAlignmentEnd();
-        for (Integer location : mapping.keySet()) {
-            if (location >= start && location <= stop)
-                if (cl != null)
-                    ret.put(location, mapping.get(location).getSet(cl));
-                else
-                    ret.put(location, mapping.get(location).getSet(name));
+        if (stop < start) return ret;
+        for (Map.Entry<Integer, RODMetaDataContainer> entry : mapping.subMap(start, true, stop, true).entrySet()) {
+            if (cl != null)
+                ret.put(entry.getKey(), entry.getValue().getSet(cl));
+            else
+                ret.put(entry.getKey(), entry.getValue().getSet(name));
         }
         return ret;
     }
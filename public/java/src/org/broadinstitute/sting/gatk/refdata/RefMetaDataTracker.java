@@ -28,14 +28,37 @@ Genotype * Traversal calls tracker.bind(name, RMD) for each RMDs in RMDs
  * Time: 3:05:23 PM
  */
 public class RefMetaDataTracker {
-    final Map<String, RODRecordList> map;
+    /**
+     * The canonical names of the bound tracks, and the records bound to each, in binding order.  Only the first
+     * nBindings entries are used.  The names array may be shared with other trackers until bind() is called.
+     */
+    private String[] names;
+    private RODRecordList[] bindings;
+    private int nBindings = 0;
+    private boolean namesShared = false;
+
     protected static Logger logger = Logger.getLogger(RefMetaDataTracker.class);
 
     public RefMetaDataTracker(int nBindings) {
-        if ( nBindings == 0 )
-            map = Collections.emptyMap();
-        else
-            map = new HashMap<String, RODRecordList>(nBindings);
+        names = new String[nBindings];
+        bindings = new RODRecordList[nBindings];
+    }
+
+    /**
+     * Creates a tracker with all of its tracks already bound.  Used by the traversal system, which knows the
+     * tracks in a shard up front: the names array is shared by every tracker created for the shard rather than
+     * being copied, so it must not be modified afterwards.
+     *
+     * @param canonicalNames the canonical names of the tracks (see canonicalName()), without duplicates.
+     * @param bindings the records bound to each track at this site, or null where a track has no records here.
+     */
+    public RefMetaDataTracker(final String[] canonicalNames, final RODRecordList[] bindings) {
+        if ( canonicalNames.length != bindings.length )
+            throw new ReviewedStingException("Tracker was given " + canonicalNames.length + " track names but " + bindings.length + " bindings");
+        this.names = canonicalNames;
+        this.bindings = bindings;
+        this.nBindings = bindings.length;
+        this.namesShared = true;
     }
 
     /**
@@ -44,15 +67,11 @@ public class RefMetaDataTracker {
      * @return a list of objects, representing the underlying objects that the tracks produce.  I.e. for a
      *         dbSNP RMD this will be a RodDbSNP, etc.
      *
-     * Important: The list returned by this function is guaranteed not to be null, but may be empty!
+     * Important: The list returned by this function is guaranteed not to be null, but may be empty!  It is a
+     * read-only view of the records bound here, not a copy.
      */
     public List<Object> getReferenceMetaData(final String name) {
-        RODRecordList list = getTrackDataByName(name, true);
-        List<Object> objects = new ArrayList<Object>();
-        if (list == null) return objects;
-        for (GATKFeature feature : list)
-            objects.add(feature.getUnderlyingObject());
-        return objects;
+        return getReferenceMetaData(name, true);
     }
 
     /**
@@ -63,14 +82,42 @@ public class RefMetaDataTracker {
      * @return a list of objects, representing the underlying objects that the tracks produce.  I.e. for a
      *         dbSNP rod this will be a RodDbSNP, etc.
      *
-     * Important: The list returned by this function is guaranteed not to be null, but may be empty!
+     * Important: The list returned by this function is guaranteed not to be null, but may be empty!  It is a
+     * read-only view of the records bound here, not a copy.
      */
     public List<Object> getReferenceMetaData(final String name, boolean requireExactMatch) {
         RODRecordList list = getTrackDataByName(name, requireExactMatch);
-        List<Object> objects = new ArrayList<Object>();
-        if (list == null) return objects;
+        if (list == null || list.isEmpty()) return Collections.emptyList();
+        return new UnderlyingObjectView<Object>(list);
+    }
+
+    /**
+     * get all the reference meta data of a given type associated with a track name.  Records of any other type
+     * are skipped.
+     * @param name the name of the track we're looking for; must match exactly
+     * @param type the type of the underlying objects to return
+     * @param <T> the type to parameterize on, matching the type argument
+     * @return a list of the underlying objects of the given type.
+     *
+     * Important: The list returned by this function is guaranteed not to be null, but may be empty!  It is a
+     * read-only view of the records bound here unless some of them have to be skipped.
+     */
+    public <T> List<T> getReferenceMetaData(final String name, final Class<T> type) {
+        RODRecordList list = getTrackDataByName(name, true);
+        if (list == null || list.isEmpty()) return Collections.emptyList();
+
+        int nOfType = 0;
+        for (int i = 0; i < list.size(); i++)
+            if (type.isInstance(list.get(i).getUnderlyingObject()))
+                nOfType++;
+
+        if (nOfType == list.size())
+            return new UnderlyingObjectView<T>(list);
+
+        List<T> objects = new ArrayList<T>(nOfType);
         for (GATKFeature feature : list)
-            objects.add(feature.getUnderlyingObject());
+            if (type.isInstance(feature.getUnderlyingObject()))
+                objects.add(type.cast(feature.getUnderlyingObject()));
         return objects;
     }
 
@@ -126,7 +173,7 @@ public class RefMetaDataTracker {
      * @return true if it has the rod
      */
     public boolean hasROD(final String name) {
-        return map.containsKey(canonicalName(name));
+        return indexOf(canonicalName(name)) != -1;
     }
 
 
@@ -138,7 +185,8 @@ public class RefMetaDataTracker {
      */
     public Collection<GATKFeature> getAllRods() {
         List<GATKFeature> l = new ArrayList<GATKFeature>();
-        for ( RODRecordList rl : map.values() ) {
+        for ( int i = 0; i < nBindings; i++ ) {
+            final RODRecordList rl = bindings[i];
             if ( rl == null ) continue; // how do we get null value stored for a track? shouldn't the track be missing from the map alltogether?
             l.addAll(rl);
         }
@@ -153,10 +201,10 @@ public class RefMetaDataTracker {
      * @return collection of all tracks
      */
     public Collection<RODRecordList> getBoundRodTracks() {
-        LinkedList<RODRecordList> bound = new LinkedList<RODRecordList>();
+        List<RODRecordList> bound = new ArrayList<RODRecordList>(nBindings);
 
-        for ( RODRecordList value : map.values() ) {
-            if ( value != null && value.size() != 0 ) bound.add(value);
+        for ( int i = 0; i < nBindings; i++ ) {
+            if ( bindings[i] != null && bindings[i].size() != 0 ) bound.add(bindings[i]);
         }
 
         return bound;
@@ -173,7 +221,8 @@ public class RefMetaDataTracker {
         final String exclude = excludeIn == null ? null : canonicalName(excludeIn);
 
         int n = 0;
-        for ( RODRecordList value : map.values() ) {
+        for ( int i = 0; i < nBindings; i++ ) {
+            final RODRecordList value = bindings[i];
             if ( value != null && ! value.isEmpty() ) {
                 if ( exclude == null || ! value.getName().equals(exclude) )
                     n++;
@@ -193,7 +242,19 @@ public class RefMetaDataTracker {
      */
     public void bind(final String name, RODRecordList rod) {
         //logger.debug(String.format("Binding %s to %s", name, rod));
-        map.put(canonicalName(name), rod);
+        final String luName = canonicalName(name);
+        int i = indexOf(luName);
+        if ( i == -1 ) {
+            i = nBindings++;
+            if ( i == names.length || namesShared ) {
+                final int capacity = Math.max(nBindings, 2 * names.length);
+                names = Arrays.copyOf(names, capacity);
+                bindings = Arrays.copyOf(bindings, capacity);
+                namesShared = false;
+            }
+            names[i] = luName;
+        }
+        bindings[i] = rod;
     }
 
 
@@ -377,27 +438,62 @@ public class RefMetaDataTracker {
         RODRecordList trackData = null;
 
         if ( requireExactMatch ) {
-            if ( map.containsKey(luName) )
-                trackData = map.get(luName);
+            final int i = indexOf(luName);
+            if ( i != -1 )
+                trackData = bindings[i];
         } else {
-            for ( Map.Entry<String, RODRecordList> datum : map.entrySet() ) {
-                final String rodName = datum.getKey();
-                if ( datum.getValue() != null && rodName.startsWith(luName) ) {
+            for ( int i = 0; i < nBindings; i++ ) {
+                final String rodName = names[i];
+                if ( bindings[i] != null && rodName.startsWith(luName) ) {
                     if ( trackData == null ) trackData = new RODRecordListImpl(name);
-                    //System.out.printf("Adding bindings from %s to %s at %s%n", rodName, name, datum.getValue().getLocation());
-                    ((RODRecordListImpl)trackData).add(datum.getValue(), true);
+                    //System.out.printf("Adding bindings from %s to %s at %s%n", rodName, name, bindings[i].getLocation());
+                    ((RODRecordListImpl)trackData).add(bindings[i], true);
                 }
             }
         }
         return trackData;
     }
 
+    /**
+     * Finds the binding of a track.  There are only ever a handful of tracks, so a linear scan beats hashing.
+     * @param luName the canonical name of the track
+     * @return the index of the track's binding, or -1 if the track isn't bound
+     */
+    private int indexOf(final String luName) {
+        for ( int i = 0; i < nBindings; i++ )
+            if ( names[i].equals(luName) )
+                return i;
+        return -1;
+    }
+
     /**
      * Returns the canonical name of the rod name (lowercases it)
      * @param name the name of the rod
      * @return canonical name of the rod
      */
-    private final String canonicalName(final String name) {
+    public static String canonicalName(final String name) {
         return name.toLowerCase();
     }
+
+    /**
+     * A read-only view of the underlying objects of a list of records.
+     */
+    private static class UnderlyingObjectView<T> extends AbstractList<T> implements RandomAccess {
+        private final RODRecordList records;
+
+        public UnderlyingObjectView(final RODRecordList records) {
+            this.records = records;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(final int index) {
+            return (T)records.get(index).getUnderlyingObject();
+        }
+
+        @Override
+        public int size() {
+            return records.size();
+        }
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.refdata.indexer;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.sting.commandline.Argument;
+import org.broadinstitute.sting.commandline.CommandLineProgram;
+import org.broadinstitute.sting.commandline.Input;
+import org.broadinstitute.sting.utils.codecs.vcf.VariantCacheWriter;
+
+import java.io.File;
+
+/**
+ * a utility class that writes the variant cache of a VCF file: a binary, columnar copy of its records, which the GATK
+ * reads in place of the VCF whenever it finds an up to date one next to it (<inputFile>.vcache).  Walkers that look at
+ * only a few INFO fields then read and decode only those columns.
+ */
+public class VariantCacheIndexer extends CommandLineProgram {
+    @Input(shortName="in", fullName="inputFile", doc="The VCF (version 4) file to cache", required = true)
+    File inputFileSource = null;
+
+    @Argument(shortName = "c", fullName = "cacheFile", doc = "Where to write the cache to, if not supplied we write to <inputFile>.vcache", required = false)
+    public File cacheFile = null;
+
+    private static Logger logger = Logger.getLogger(VariantCacheIndexer.class);
+
+    @Override
+    protected int execute() throws Exception {
+        if (!inputFileSource.canRead())
+            throw new IllegalArgumentException("We can't read the input file: "
+                + inputFileSource + ", check that it exists, and that you have permissions to read it");
+
+        // set the cache file to the default name if they didn't specify a file
+        if (cacheFile == null)
+            cacheFile = VariantCacheWriter.cacheFile(inputFileSource);
+
+        logger.info(String.format("attempting to cache file:   %s", inputFileSource));
+        logger.info(String.format("writing to location:        %s", cacheFile.getAbsolutePath()));
+
+        long currentTime = System.currentTimeMillis();
+        VariantCacheWriter.createCache(inputFileSource, cacheFile);
+
+        // report and exit
+        logger.info("Successfully wrote the variant cache to location: " + cacheFile + " in " + ((System.currentTimeMillis() - currentTime)/1000) + " seconds");
+        return 0;  // return successfully
+    }
+
+    /**
+     * the generic call execute main
+     * @param argv the arguments from the command line
+     */
+    public static void main(String[] argv) {
+        try {
+            VariantCacheIndexer instance = new VariantCacheIndexer();
+            start(instance, argv);
+            System.exit(CommandLineProgram.result);
+        } catch (Exception e) {
+            exitSystemWithError(e);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.refdata.tracks.builders;
+
+import org.broad.tribble.Feature;
+import org.broad.tribble.FeatureCodec;
+import org.broad.tribble.index.DynamicIndexCreator;
+import org.broad.tribble.index.Index;
+import org.broad.tribble.index.IndexCreator;
+import org.broad.tribble.index.IndexFactory;
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.utils.codecs.vcf.AbstractVCFCodec;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Creates the Tribble index of a large VCF file on several threads.  The records are cut into chunks of whole
+ * lines which are parsed concurrently, each thread with its own codec; the features of each chunk are then fed,
+ * in file order, to a single DynamicIndexCreator, so the index is exactly the one IndexFactory.createIndex()
+ * would build.  Only a few chunks are held in memory at once.
+ */
+public class ParallelIndexFactory {
+    /** Files smaller than this are indexed on a single thread; there's too little parsing to share out. */
+    public static final long MIN_PARALLEL_FILE_SIZE = 64L * 1024 * 1024;
+
+    /** Number of bytes of the file parsed by each task. */
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Is it worth indexing the given file in parallel, and can its codec be used that way?
+     * @param inputFile the file to index.
+     * @param codec the codec for the file.
+     * @param nThreads the number of threads available.
+     * @return true if createIndex() should be used in place of IndexFactory.createIndex().
+     */
+    public static boolean canIndexInParallel(File inputFile, FeatureCodec<?> codec, int nThreads) {
+        // VCF records stand alone: any line can be decoded by any codec which has read the header
+        return nThreads > 1 && codec instanceof AbstractVCFCodec && inputFile.length() >= MIN_PARALLEL_FILE_SIZE;
+    }
+
+    /**
+     * Creates the index of the given file.
+     * @param inputFile the file to index.
+     * @param codec the codec for the file, whose class must have a no-argument constructor.
+     * @param approach the index balancing approach to take.
+     * @param nThreads the number of threads to parse the file on.
+     * @return the index.
+     */
+    public static Index createIndex(File inputFile, FeatureCodec<?> codec, IndexFactory.IndexBalanceApproach approach, int nThreads) {
+        return createIndex(inputFile, codec, approach, nThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    static Index createIndex(final File inputFile, final FeatureCodec<?> codec, IndexFactory.IndexBalanceApproach approach, int nThreads, int chunkSize) {
+        final long headerEnd = readHeader(inputFile, codec);
+        final long fileLength = inputFile.length();
+
+        // each thread parses with its own codec
+        final ThreadLocal<FeatureCodec<?>> codecs = new ThreadLocal<FeatureCodec<?>>() {
+            @Override
+            protected FeatureCodec<?> initialValue() {
+                try {
+                    FeatureCodec<?> threadCodec = codec.getClass().newInstance();
+                    readHeader(inputFile, threadCodec);
+                    return threadCodec;
+                }
+                catch ( InstantiationException e ) {
+                    throw new ReviewedStingException("Unable to create a " + codec.getClass().getSimpleName() + " to index " + inputFile, e);
+                }
+                catch ( IllegalAccessException e ) {
+                    throw new ReviewedStingException("Unable to create a " + codec.getClass().getSimpleName() + " to index " + inputFile, e);
+                }
+            }
+        };
+
+        IndexCreator creator = new DynamicIndexCreator(approach);
+        creator.initialize(inputFile, creator.defaultBinSize());
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            Queue<Future<Chunk>> chunks = new LinkedList<Future<Chunk>>();
+            long nextChunkStart = headerEnd;
+            while ( nextChunkStart < fileLength || !chunks.isEmpty() ) {
+                // keep every thread busy, without reading too far ahead of the index creator
+                while ( nextChunkStart < fileLength && chunks.size() < 2 * nThreads ) {
+                    final long start = nextChunkStart;
+                    final long end = Math.min(start + chunkSize, fileLength);
+                    chunks.add(executor.submit(new Callable<Chunk>() {
+                        public Chunk call() throws IOException {
+                            return parseChunk(inputFile, codecs.get(), start, start == headerEnd, end);
+                        }
+                    }));
+                    nextChunkStart = end;
+                }
+
+                Chunk chunk = chunks.remove().get();
+                for ( int i = 0; i < chunk.size; i++ )
+                    creator.addFeature(new LocFeature(chunk.contigs[i], chunk.starts[i], chunk.ends[i]), chunk.positions[i]);
+            }
+        }
+        catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            if ( e.getCause() instanceof IOException )
+                throw new UserException.CouldNotReadInputFile(inputFile, (IOException)e.getCause());
+            throw new ReviewedStingException("Unable to index " + inputFile, e.getCause());
+        }
+        catch ( InterruptedException e ) {
+            throw new ReviewedStingException("Interrupted while indexing " + inputFile, e);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        return creator.finalizeIndex(fileLength);
+    }
+
+    /**
+     * Reads the header of the file into the codec.
+     * @return the offset of the first line after the header.
+     */
+    private static long readHeader(File inputFile, FeatureCodec<?> codec) {
+        try {
+            AsciiLineReader reader = new AsciiLineReader(new FileInputStream(inputFile));
+            try {
+                codec.readHeader(reader);
+                return reader.getPosition();
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(inputFile, e);
+        }
+    }
+
+    /**
+     * Decodes the lines starting within [start, end).
+     * @param atLineStart true if start is known to be the start of a line; otherwise parsing begins with the next line.
+     */
+    private static Chunk parseChunk(File inputFile, FeatureCodec<?> codec, long start, boolean atLineStart, long end) throws IOException {
+        FileInputStream stream = new FileInputStream(inputFile);
+        try {
+            long base = atLineStart ? start : start - 1;
+            stream.getChannel().position(base);
+            AsciiLineReader reader = new AsciiLineReader(stream);
+            if ( !atLineStart )
+                reader.readLine(); // the end of a line belonging to the previous chunk, or just the newline before start
+
+            Chunk chunk = new Chunk();
+            long position;
+            String line;
+            while ( (position = base + reader.getPosition()) < end && (line = reader.readLine()) != null ) {
+                Feature feature = codec.decodeLoc(line);
+                if ( feature != null )
+                    chunk.add(feature, position);
+            }
+            return chunk;
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * The locations and file positions of the features of one chunk of the file.
+     */
+    private static class Chunk {
+        String[] contigs = new String[1024];
+        int[] starts = new int[1024];
+        int[] ends = new int[1024];
+        long[] positions = new long[1024];
+        int size = 0;
+
+        void add(Feature feature, long position) {
+            if ( size == starts.length ) {
+                int capacity = 2 * size;
+                contigs = Arrays.copyOf(contigs, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            // share one contig string between consecutive features
+            contigs[size] = size > 0 && contigs[size-1].equals(feature.getChr()) ? contigs[size-1] : feature.getChr();
+            starts[size] = feature.getStart();
+            ends[size] = feature.getEnd();
+            positions[size] = position;
+            size++;
+        }
+    }
+
+    private static class LocFeature implements Feature {
+        private final String contig;
+        private final int start;
+        private final int end;
+
+        LocFeature(String contig, int start, int end) {
+            this.contig = contig;
+            this.start = start;
+            this.end = end;
+        }
+
+        public String getChr() { return contig; }
+        public int getStart() { return start; }
+        public int getEnd() { return end; }
+    }
+}
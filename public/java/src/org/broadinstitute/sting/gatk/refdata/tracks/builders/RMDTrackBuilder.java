@@ -43,6 +43,9 @@ import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet.RMDStorageType;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.SequenceDictionaryUtils;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFCodec;
+import org.broadinstitute.sting.utils.codecs.vcf.VariantCacheFeatureSource;
+import org.broadinstitute.sting.utils.codecs.vcf.VariantCacheWriter;
 import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
@@ -54,6 +57,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 
@@ -76,6 +80,13 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
     // a constant we use for marking sequence dictionary entries in the Tribble index property list
     public static final String SequenceDictionaryPropertyPredicate = "DICT:";
 
+    /**
+     * Every index this builder has loaded or created, shared by the data pools and threads that use the builder and
+     * let go with it.  Keyed by the absolute path, modification time and length of the indexed file, so a file which
+     * changes is indexed afresh.
+     */
+    private final ConcurrentMap<String, FutureTask<Index>> indexCache = new ConcurrentHashMap<String, FutureTask<Index>>();
+
     private Map<String, Class> classes = null;
 
     // private sequence dictionary we use to set our tracks with
@@ -121,7 +132,7 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
     public Map<String, Class> getAvailableTrackNamesAndRecordTypes() {
         HashMap classToRecord = new HashMap<String, Class>();
         for (String name: this.getPluginsByName().keySet()) {
-            FeatureCodec codec = this.createByName(name);
+            FeatureCodec<?> codec = this.createByName(name);
             classToRecord.put(name, codec.getFeatureType());
         }
         return classToRecord;
@@ -145,7 +156,7 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
             throw new UserException.BadArgumentValue("-B",fileDescriptor.getType());
 
         // return a feature reader track
-        Pair<FeatureSource, SAMSequenceDictionary> pair;
+        Pair<FeatureSource<?>, SAMSequenceDictionary> pair;
         if (inputFile.getAbsolutePath().endsWith(".gz"))
             pair = createTabixIndexedFeatureSource(featureCodecClass, name, inputFile);
         else
@@ -184,11 +195,11 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
      * @param inputFile the file to load
      * @return a feature reader implementation
      */
-    private Pair<FeatureSource, SAMSequenceDictionary> createTabixIndexedFeatureSource(Class targetClass, String name, File inputFile) {
+    private Pair<FeatureSource<?>, SAMSequenceDictionary> createTabixIndexedFeatureSource(Class targetClass, String name, File inputFile) {
         // we might not know the index type, try loading with the default reader constructor
         logger.info("Attempting to blindly load " + inputFile + " as a tabix indexed file");
         try {
-            return new Pair<FeatureSource, SAMSequenceDictionary>(BasicFeatureSource.getFeatureSource(inputFile.getAbsolutePath(), createCodec(targetClass, name)),null);
+            return new Pair<FeatureSource<?>, SAMSequenceDictionary>(BasicFeatureSource.getFeatureSource(inputFile.getAbsolutePath(), createCodec(targetClass, name)),null);
         } catch (TribbleException e) {
             throw new UserException(e.getMessage(), e);
         }
@@ -200,8 +211,8 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
      * @param name the name to assign this codec
      * @return the feature codec itself
      */
-    public FeatureCodec createCodec(Class targetClass, String name) {
-        FeatureCodec codex = this.createByType(targetClass);
+    public FeatureCodec<?> createCodec(Class targetClass, String name) {
+        FeatureCodec<?> codex = this.createByType(targetClass);
         if ( codex instanceof NameAwareCodec )
             ((NameAwareCodec)codex).setName(name);
         if(codex instanceof ReferenceDependentFeatureCodec)
@@ -217,9 +228,9 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
      * @param storageType How the RMD is streamed into the input file.
      * @return the input file as a FeatureReader
      */
-    private Pair<FeatureSource, SAMSequenceDictionary> getFeatureSource(Class targetClass, String name, File inputFile, RMDStorageType storageType) {
+    private Pair<FeatureSource<?>, SAMSequenceDictionary> getFeatureSource(Class targetClass, String name, File inputFile, RMDStorageType storageType) {
         // Feature source and sequence dictionary to use as the ultimate reference
-        FeatureSource featureSource = null;
+        FeatureSource<?> featureSource = null;
         SAMSequenceDictionary sequenceDictionary = null;
 
         // Detect whether or not this source should be indexed.
@@ -233,14 +244,7 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
 
                 sequenceDictionary = getSequenceDictionaryFromProperties(index);
 
-                // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
-                if (sequenceDictionary.size() == 0 && dict != null) {
-                    File indexFile = Tribble.indexFile(inputFile);
-                    setIndexSequenceDictionary(inputFile,index,dict,indexFile,true);
-                    sequenceDictionary = getSequenceDictionaryFromProperties(index);
-                }
-
-                featureSource = new BasicFeatureSource(inputFile.getAbsolutePath(), index, createCodec(targetClass, name));
+                featureSource = createIndexedFeatureSource(inputFile, index, createCodec(targetClass, name));
             }
             catch (TribbleException e) {
                 throw new UserException(e.getMessage());
@@ -253,17 +257,87 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
             featureSource = BasicFeatureSource.getFeatureSource(inputFile.getAbsolutePath(),createCodec(targetClass, name),false);
         }
 
-        return new Pair<FeatureSource,SAMSequenceDictionary>(featureSource,sequenceDictionary);
+        return new Pair<FeatureSource<?>,SAMSequenceDictionary>(featureSource,sequenceDictionary);
+    }
+
+    /**
+     * create a feature source for an indexed file, reading VCFs from their variant cache (see VariantCacheIndexer)
+     * when they have an up to date one
+     * @param inputFile the input file
+     * @param index its index
+     * @param codec the codec to use
+     * @return the input file as a FeatureSource
+     * @throws IOException if we cannot read the variant cache
+     */
+    private FeatureSource<?> createIndexedFeatureSource(File inputFile, Index index, FeatureCodec<?> codec) throws IOException {
+        if (codec.getClass() == VCFCodec.class) {
+            File cacheFile = VariantCacheWriter.cacheFile(inputFile);
+            if (VariantCacheFeatureSource.isCurrent(inputFile, cacheFile)) {
+                logger.info("Reading " + inputFile + " from its variant cache " + cacheFile);
+                return new VariantCacheFeatureSource(cacheFile, (VCFCodec)codec);
+            }
+            else if (cacheFile.exists())
+                logger.warn("Variant cache " + cacheFile + " is out of date (older than, or not made from, the input file), ignoring it");
+        }
+        return new BasicFeatureSource<Feature>(inputFile.getAbsolutePath(), index, codec);
     }
 
     /**
-     * create an index for the input file
+     * create an index for the input file, or fetch it from this builder's index cache if it's already been loaded.
+     * Different files are indexed concurrently; callers asking for the same file wait for the first to load it.
      * @param inputFile the input file
      * @param codec the codec to use
      * @return a linear index for the specified type
      * @throws IOException if we cannot write the index file
      */
-    public synchronized Index loadIndex(File inputFile, FeatureCodec codec) throws IOException {
+    public Index loadIndex(final File inputFile, final FeatureCodec<?> codec) throws IOException {
+        String key = inputFile.getAbsolutePath() + ":" + inputFile.lastModified() + ":" + inputFile.length();
+        FutureTask<Index> load = new FutureTask<Index>(new Callable<Index>() {
+            public Index call() throws IOException {
+                return loadIndexFromDiskOrCreate(inputFile, codec);
+            }
+        });
+        FutureTask<Index> cached = indexCache.putIfAbsent(key, load);
+        if (cached == null) {
+            cached = load;
+            load.run();
+        }
+
+        try {
+            return cached.get();
+        }
+        catch (ExecutionException e) {
+            // don't remember the failure; the next caller gets to try again
+            indexCache.remove(key, cached);
+            if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            if (e.getCause() instanceof Error) throw (Error)e.getCause();
+            throw new ReviewedStingException("Unable to load the index for " + inputFile, e.getCause());
+        }
+        catch (InterruptedException e) {
+            throw new ReviewedStingException("Interrupted while waiting for the index of " + inputFile, e);
+        }
+    }
+
+    /**
+     * load the index for the input file from disk, or create it if it's missing or out of date.  The index is ready
+     * to be shared when this returns: it is never modified afterwards.
+     * @param inputFile the input file
+     * @param codec the codec to use
+     * @return the index
+     * @throws IOException if we cannot write the index file
+     */
+    private Index loadIndexFromDiskOrCreate(File inputFile, FeatureCodec<?> codec) throws IOException {
+        Index index = readOrCreateIndex(inputFile, codec);
+
+        // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
+        if (getSequenceDictionaryFromProperties(index).size() == 0 && dict != null)
+            setIndexSequenceDictionary(inputFile,index,dict,Tribble.indexFile(inputFile),true);
+
+        return index;
+    }
+
+    private Index readOrCreateIndex(File inputFile, FeatureCodec<?> codec) throws IOException {
         // create the index file name, locking on the index file name
         File indexFile = Tribble.indexFile(inputFile);
         FSLockWithShared lock = new FSLockWithShared(indexFile);
@@ -289,7 +363,7 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
      * @return an index, or null if we couldn't load one
      * @throws IOException if we fail for FS issues
      */
-    protected Index attemptIndexFromDisk(File inputFile, FeatureCodec codec, File indexFile, FSLockWithShared lock) throws IOException {
+    protected Index attemptIndexFromDisk(File inputFile, FeatureCodec<?> codec, File indexFile, FSLockWithShared lock) throws IOException {
         boolean locked;
         try {
             locked = lock.sharedLock();
@@ -377,10 +451,15 @@ public class RMDTrackBuilder extends PluginManager<FeatureCodec> {
      * @return a LinearIndex, given the file location
      * @throws IOException when unable to create the index in memory
      */
-    private Index createIndexInMemory(File inputFile, FeatureCodec codec) {
+    private Index createIndexInMemory(File inputFile, FeatureCodec<?> codec) {
         // this can take a while, let them know what we're doing
         logger.info("Creating Tribble index in memory for file " + inputFile);
-        Index idx = IndexFactory.createIndex(inputFile, codec, IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME);
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        Index idx;
+        if (ParallelIndexFactory.canIndexInParallel(inputFile, codec, nThreads))
+            idx = ParallelIndexFactory.createIndex(inputFile, codec, IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME, nThreads);
+        else
+            idx = IndexFactory.createIndex(inputFile, codec, IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME);
         setIndexSequenceDictionary(inputFile, idx, dict, null, false);
         return idx;
     }
@@ -25,10 +25,7 @@ package org.broadinstitute.sting.gatk.refdata.utils;
 
 import net.sf.samtools.SAMSequenceDictionary;
 import org.broadinstitute.sting.utils.GenomeLoc;
-import org.broadinstitute.sting.utils.HasGenomeLocation;
-
-import java.util.Comparator;
-import java.util.LinkedList;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 
 
 /**
@@ -43,19 +40,44 @@ import java.util.LinkedList;
  * is needed for using ROD's in read traversals, because between shards we sometimes
  * (actually often) need to go back to before the current iterators location and
  * get RODs that overlap the current read.
+ *
+ * The buffer is a fixed-size ring of the most recent non-empty record lists, in the order they were read, so its
+ * memory is bounded no matter how dense the track is.  Flashing back finds its place in the ring by binary search;
+ * records flashed back over are replayed from the ring before any more are read from the wrapped iterator.
  */
 public class FlashBackIterator implements LocationAwareSeekableRODIterator {
+    /** The number of record lists buffered unless otherwise specified. */
+    public static final int DEFAULT_BUFFER_SIZE = 200;
+
     private LocationAwareSeekableRODIterator iterator;
-    private LinkedList<ComparableList> pastQueue = new LinkedList<ComparableList>();
-    private LinkedList<ComparableList> aheadQueue = new LinkedList<ComparableList>();
-    private int MAX_QUEUE = 200;
+
+    // the ring buffer of record lists and their locations; the oldest is at index 'oldest'
+    private final RODRecordList[] buffer;
+    private final GenomeLoc[] locations;
+    private int oldest = 0;
+    private int buffered = 0;
+
+    // how many of the buffered lists, counting back from the newest, have been flashed back over and not yet replayed
+    private int ahead = 0;
 
     /**
      * create a flashback iterator
      * @param iterator given a LocationAwareSeekableRODIterator
      */
     public FlashBackIterator(LocationAwareSeekableRODIterator iterator) {
+        this(iterator, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * create a flashback iterator which can flash back over at most the given number of record lists
+     * @param iterator given a LocationAwareSeekableRODIterator
+     * @param bufferSize the number of record lists to keep
+     */
+    public FlashBackIterator(LocationAwareSeekableRODIterator iterator, int bufferSize) {
+        if (bufferSize < 1) throw new ReviewedStingException("FlashBackIterator buffer size must be positive; was " + bufferSize);
         this.iterator = iterator;
+        this.buffer = new RODRecordList[bufferSize];
+        this.locations = new GenomeLoc[bufferSize];
     }
 
     /**
@@ -83,7 +105,7 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      */
     @Override
     public GenomeLoc peekNextLocation() {
-        return (aheadQueue.size() > 0) ? aheadQueue.getFirst().getLocation() : iterator.peekNextLocation();
+        return (ahead > 0) ? locations[slot(buffered - ahead)] : iterator.peekNextLocation();
     }
 
     /**
@@ -92,17 +114,17 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      */
     @Override
     public GenomeLoc position() {
-        return (aheadQueue.size() > 0) ? aheadQueue.getFirst().getLocation() : iterator.position();
+        return (ahead > 0) ? locations[slot(buffered - ahead)] : iterator.position();
     }
 
     /**
-     * seek forward on the iterator
+     * seek forward on the iterator.  Any records flashed back over are dropped, as the seek goes past them.
      * @param interval the interval to seek to
      * @return a RODRecordList at that location, null otherwise
      */
     @Override
     public RODRecordList seekForward(GenomeLoc interval) {
-
+        dropAhead();
         RODRecordList lt = iterator.seekForward(interval);
         createPastRecord(lt);
         return lt;
@@ -114,7 +136,7 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      */
     @Override
     public boolean hasNext() {
-        return (aheadQueue.size() > 0 ||  iterator.hasNext());
+        return (ahead > 0 ||  iterator.hasNext());
     }
 
     /**
@@ -135,14 +157,12 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
     }
 
     /**
-     * get the next record, either from the queue or from the iterator
+     * get the next record, either from the buffer or from the iterator
      * @return a RODRecordList
      */
     private RODRecordList getNext() {
-        if (aheadQueue.size() > 0) {
-            RODRecordList ret = aheadQueue.getFirst().getList();
-            aheadQueue.removeFirst();
-            return ret;
+        if (ahead > 0) {
+            return buffer[slot(buffered - ahead--)];
         } else {
             RODRecordList ret = iterator.next();
             createPastRecord(ret);
@@ -150,10 +170,41 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
         }
     }
 
+    /**
+     * remember a record list read from the iterator, overwriting the oldest one if the buffer is full
+     * @param ret the record list
+     */
     private void createPastRecord(RODRecordList ret) {
-        ComparableList rec = new ComparableList(ret);
-        if (rec.getLocation() != null) pastQueue.addLast(new ComparableList(ret));
-        if (pastQueue.size() > this.MAX_QUEUE) pastQueue.removeFirst();
+        if (ret == null || ret.size() == 0 || ret.getLocation() == null) return;
+        int newest;
+        if (buffered < buffer.length) {
+            newest = slot(buffered++);
+        } else {
+            newest = oldest;
+            oldest = slot(1);
+        }
+        buffer[newest] = ret;
+        locations[newest] = ret.getLocation();
+    }
+
+    /**
+     * forget the record lists which were flashed back over, so that the iterator resumes where it left off
+     */
+    private void dropAhead() {
+        while (ahead > 0) {
+            int newest = slot(--buffered);
+            buffer[newest] = null;
+            locations[newest] = null;
+            ahead--;
+        }
+    }
+
+    /**
+     * @param i the age of a buffered record list, 0 being the oldest
+     * @return its index in the ring
+     */
+    private int slot(int i) {
+        return (oldest + i) % buffer.length;
     }
 
     /**
@@ -164,7 +215,7 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      * @return true if we can, false otherwise
      */
     public boolean canFlashBackTo(GenomeLoc location) {
-        GenomeLoc farthestBack = (pastQueue.size() > 0) ? pastQueue.getFirst().getLocation() : iterator.peekNextLocation();
+        GenomeLoc farthestBack = (buffered > 0) ? locations[oldest] : iterator.peekNextLocation();
         return (!farthestBack.isPast(location));
     }
 
@@ -175,45 +226,27 @@ public class FlashBackIterator implements LocationAwareSeekableRODIterator {
      */
     public void flashBackTo(GenomeLoc location) {
         if (!canFlashBackTo(location)) throw new UnsupportedOperationException("we can't flash back to " + location);
-        if (pastQueue.size()==0) return; // the iterator can do it alone
-        while (pastQueue.size() > 0 && !pastQueue.getLast().getLocation().isBefore(location)) {
-            aheadQueue.addFirst(pastQueue.getLast());
-            pastQueue.removeLast();
+        if (buffered == 0) return; // the iterator can do it alone
+
+        // binary search for the oldest buffered list which isn't before the location; everything from there on is replayed
+        int low = 0, high = buffered;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (locations[slot(mid)].isBefore(location))
+                low = mid + 1;
+            else
+                high = mid;
         }
+        ahead = Math.max(ahead, buffered - low);
     }
 
     public void close() {
-        this.aheadQueue.clear();
-        this.pastQueue.clear();
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = null;
+            locations[i] = null;
+        }
+        oldest = 0;
+        buffered = 0;
+        ahead = 0;
     }
 }
-
-/**
- * a list that buffers the location for this rod
- */
-class ComparableList implements Comparator<ComparableList>, HasGenomeLocation {
-    private RODRecordList list;
-    private GenomeLoc location = null;
-    public ComparableList(RODRecordList list) {
-        this.list = list;
-        if (list != null && list.size() != 0)
-            location = list.getLocation();
-    }
-
-    @Override
-    public int compare(ComparableList list1, ComparableList list2) {
-        if (list1.location == null && list2.location == null)
-            return 0;
-        if (list1.location == null) return 1;
-        if (list2.location == null) return -1;
-        return (list1.location.compareTo(list2.location));
-    }
-
-    public GenomeLoc getLocation() {
-        return location;
-    }
-
-    public RODRecordList getList() {
-        return list;
-    }
-}
\ No newline at end of file
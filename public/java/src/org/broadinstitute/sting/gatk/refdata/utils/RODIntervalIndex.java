@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.refdata.utils;
+
+import org.broadinstitute.sting.gatk.refdata.RODRecordListImpl;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An array index of the records of one ROD track, answering "which records overlap this location?" without
+ * walking linked lists or allocating anything for locations no record overlaps.
+ *
+ * The records are read from a seekable ROD iterator a window at a time: every record overlapping the window is
+ * copied into arrays of starts and stops, sorted by start.  Queries which move forward through the window (the
+ * usual case for locus traversals) are answered by a sweep line which only ever looks at each record twice, once
+ * when it starts and once when it ends; a query which moves backward within the window rewinds the sweep.  Once a
+ * query leaves the window, the next window is loaded from the iterator, which can only move forward.
+ *
+ * Not thread-safe.
+ */
+public class RODIntervalIndex {
+    /** The number of bases loaded at a time, unless the query needs more. */
+    public static final int DEFAULT_WINDOW_SIZE = 16 * 1024;
+
+    /** Orders records by their start alone. */
+    private static final Comparator<GATKFeature> START_ORDER = new Comparator<GATKFeature>() {
+        public int compare(GATKFeature a, GATKFeature b) {
+            return a.getLocation().getStart() < b.getLocation().getStart() ? -1 : (a.getLocation().getStart() == b.getLocation().getStart() ? 0 : 1);
+        }
+    };
+
+    private final LocationAwareSeekableRODIterator iterator;
+    private final GenomeLocParser parser;
+    private final int windowSize;
+
+    /** The window currently loaded, or null if nothing has been loaded yet. */
+    private GenomeLoc window = null;
+
+    /** The name of the track, or null if the window is empty. */
+    private String name = null;
+
+    /** The records overlapping the window, sorted by start, with their starts and stops.  Only the first nRecords are used. */
+    private GATKFeature[] records = new GATKFeature[0];
+    private int[] starts = new int[0];
+    private int[] stops = new int[0];
+    private int nRecords = 0;
+
+    /** The sweep line: records before nextRecord have been seen; active holds the indices of those which overlap the last query, in order. */
+    private int nextRecord = 0;
+    private int[] active = new int[0];
+    private int nActive = 0;
+    private int lastQueryStart = -1;
+    private int lastQueryStop = -1;
+
+    /**
+     * Create an index over the given iterator, loading DEFAULT_WINDOW_SIZE bases at a time.
+     * @param iterator the iterator to read records from.  It is only ever moved with seekForward().
+     * @param parser the parser used to create windows.
+     */
+    public RODIntervalIndex(LocationAwareSeekableRODIterator iterator, GenomeLocParser parser) {
+        this(iterator,parser,DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create an index over the given iterator.
+     * @param iterator the iterator to read records from.  It is only ever moved with seekForward().
+     * @param parser the parser used to create windows.
+     * @param windowSize the number of bases to load at a time.
+     */
+    public RODIntervalIndex(LocationAwareSeekableRODIterator iterator, GenomeLocParser parser, int windowSize) {
+        this.iterator = iterator;
+        this.parser = parser;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Gets the records overlapping the given location.  The location may not start before the start of any
+     * earlier query which loaded a window.
+     * @param loc the location to query.
+     * @return the overlapping records, in the order they appear in the track, as a list located at loc; or null
+     *         if no record overlaps loc.
+     */
+    public RODRecordList query(GenomeLoc loc) {
+        if ( window == null || ! window.containsP(loc) )
+            loadWindow(loc);
+
+        if ( loc.getStart() < lastQueryStart || loc.getStop() < lastQueryStop ) {
+            nextRecord = 0;
+            nActive = 0;
+        }
+        lastQueryStart = loc.getStart();
+        lastQueryStop = loc.getStop();
+
+        // retire the records which end before this location, keeping the rest in order
+        int kept = 0;
+        for ( int i = 0; i < nActive; i++ ) {
+            if ( stops[active[i]] >= loc.getStart() )
+                active[kept++] = active[i];
+        }
+        nActive = kept;
+
+        // and take on the records which start within it
+        while ( nextRecord < nRecords && starts[nextRecord] <= loc.getStop() ) {
+            if ( stops[nextRecord] >= loc.getStart() )
+                active[nActive++] = nextRecord;
+            nextRecord++;
+        }
+
+        if ( nActive == 0 )
+            return null;
+
+        RODRecordListImpl overlapping = new RODRecordListImpl(name,null,loc);
+        for ( int i = 0; i < nActive; i++ )
+            overlapping.add(records[active[i]]);
+        return overlapping;
+    }
+
+    /**
+     * Replaces the loaded records with those overlapping the window starting at the given location.
+     * @param loc the location which must fit in the new window.
+     */
+    private void loadWindow(GenomeLoc loc) {
+        final int contigLength = parser.getContigInfo(loc.getContig()).getSequenceLength();
+        final int stop = Math.max(loc.getStop(),Math.min(loc.getStart()+windowSize-1,contigLength));
+        window = parser.createGenomeLoc(loc.getContig(),loc.getStart(),stop);
+
+        RODRecordList overlapping = iterator.seekForward(window);
+        Arrays.fill(records,0,nRecords,null);
+        nRecords = overlapping != null ? overlapping.size() : 0;
+        name = overlapping != null ? overlapping.getName() : null;
+        if ( nRecords > records.length ) {
+            records = new GATKFeature[nRecords];
+            starts = new int[nRecords];
+            stops = new int[nRecords];
+            active = new int[nRecords];
+        }
+
+        boolean sorted = true;
+        for ( int i = 0; i < nRecords; i++ ) {
+            records[i] = overlapping.get(i);
+            sorted &= i == 0 || records[i-1].getLocation().getStart() <= records[i].getLocation().getStart();
+        }
+        if ( ! sorted )
+            Arrays.sort(records,0,nRecords,START_ORDER);  // stable, so ties stay in track order
+        for ( int i = 0; i < nRecords; i++ ) {
+            starts[i] = records[i].getLocation().getStart();
+            stops[i] = records[i].getLocation().getStop();
+        }
+
+        nextRecord = 0;
+        nActive = 0;
+        lastQueryStart = -1;
+        lastQueryStop = -1;
+    }
+}
@@ -2,6 +2,7 @@ package org.broadinstitute.sting.gatk.traversals;
 
 import net.sf.samtools.SAMRecord;
 import org.apache.log4j.Logger;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.gatk.ReadMetrics;
 import org.broadinstitute.sting.gatk.WalkerManager;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
@@ -12,7 +13,15 @@ import org.broadinstitute.sting.gatk.datasources.providers.ReadView;
 import org.broadinstitute.sting.gatk.refdata.ReadMetaDataTracker;
 import org.broadinstitute.sting.gatk.walkers.DataSource;
 import org.broadinstitute.sting.gatk.walkers.ReadWalker;
+import org.broadinstitute.sting.gatk.walkers.ThreadSafeMap;
 import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
 
 /*
  * Copyright (c) 2009 The Broad Institute
@@ -52,11 +61,53 @@ public class TraverseReads<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,Read
     /** our log, which we want to capture anything from this class */
     protected static Logger logger = Logger.getLogger(TraverseReads.class);
 
+    /** How many reads are handed to a map thread at once? */
+    private static final int READS_PER_MAP_BATCH = 1000;
+
+    /**
+     * How many batches per map thread may be waiting to be reduced?  Bounds the memory used by the reorder
+     * buffer when a slow batch holds up the reduce of later batches that have already been mapped.
+     */
+    private static final int MAP_BATCHES_IN_FLIGHT_PER_THREAD = 4;
+
+    /** How many threads should run map() for ThreadSafeMap walkers? */
+    private int nMapThreads = 1;
+
+    /** The threads running map() in parallel; created on first use. */
+    private ExecutorService mapThreadPool = null;
+
     @Override
     protected String getTraversalType() {
         return "reads";
     }
 
+    @Override
+    public void initialize(GenomeAnalysisEngine engine) {
+        super.initialize(engine);
+        if ( engine.getArguments() != null )
+            nMapThreads = engine.getArguments().numberOfThreads;
+    }
+
+    @Override
+    public void printOnTraversalDone() {
+        shutdownMapThreadPool(false);
+        super.printOnTraversalDone();
+    }
+
+    /**
+     * Stop the map threads, if any are running.
+     * @param cancelPendingBatches if true, interrupt running batches and drop those not yet started
+     */
+    private void shutdownMapThreadPool(boolean cancelPendingBatches) {
+        if ( mapThreadPool != null ) {
+            if ( cancelPendingBatches )
+                mapThreadPool.shutdownNow();
+            else
+                mapThreadPool.shutdown();
+            mapThreadPool = null;
+        }
+    }
+
     /**
      * Traverse by reads, given the data and the walker
      *
@@ -74,6 +125,9 @@ public class TraverseReads<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,Read
         if( !dataProvider.hasReads() )
             throw new IllegalArgumentException("Unable to traverse reads; no read data is available.");
 
+        if ( nMapThreads > 1 && walker instanceof ThreadSafeMap )
+            return traverseWithParallelMap(walker, dataProvider, sum);
+
         boolean needsReferenceBasesP = WalkerManager.isRequired(walker, DataSource.REFERENCE_BASES);
 
         ReadView reads = new ReadView(dataProvider);
@@ -109,4 +163,138 @@ public class TraverseReads<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,Read
         }
         return sum;
     }
+
+    /**
+     * Traverse by reads, calling map() on a pool of threads.  Reads are read, filtered and reduced on the calling
+     * thread in their original order; mapped batches wait in a bounded FIFO reorder buffer until every batch
+     * submitted before them has been reduced, so reduce() (and any output it writes) sees the same sequence it would
+     * in a single-threaded traversal.
+     *
+     * @param walker the walker to traverse with; must be a ThreadSafeMap
+     * @param dataProvider the provider of the reads data
+     * @param sum the value of type T, specified by the walker, to feed to the walkers reduce function
+     * @return the reduce variable of the read walker
+     */
+    private T traverseWithParallelMap(ReadWalker<M,T> walker,
+                                      ReadShardDataProvider dataProvider,
+                                      T sum) {
+        if ( mapThreadPool == null ) {
+            mapThreadPool = Executors.newFixedThreadPool(nMapThreads, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "TraverseReads-map");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        final int maxBatchesInFlight = nMapThreads * MAP_BATCHES_IN_FLIGHT_PER_THREAD;
+
+        // if anything goes wrong, don't leave map threads working on batches nobody will reduce
+        boolean completed = false;
+        try {
+            boolean needsReferenceBasesP = WalkerManager.isRequired(walker, DataSource.REFERENCE_BASES);
+
+            ReadView reads = new ReadView(dataProvider);
+            ReadReferenceView reference = new ReadReferenceView(dataProvider);
+            ReadBasedReferenceOrderedView rodView = new ReadBasedReferenceOrderedView(dataProvider);
+
+            Queue<Future<List<M>>> reorderBuffer = new LinkedList<Future<List<M>>>();
+            List<MapInput> batch = new ArrayList<MapInput>(READS_PER_MAP_BATCH);
+
+            for (SAMRecord read : reads) {
+                ReferenceContext refContext = null;
+                if (needsReferenceBasesP && !read.getReadUnmappedFlag() && dataProvider.hasReference())
+                    refContext = reference.getReferenceContext(read);
+
+                ReadMetrics readMetrics = dataProvider.getShard().getReadMetrics();
+                readMetrics.incrementNumIterations();
+
+                if (walker.filter(refContext, read)) {
+                    // The views move on with the next read, so the map thread needs its own copy of the bases and its own ROD snapshot.
+                    if (refContext != null)
+                        refContext.getBases();
+                    ReadMetaDataTracker tracker = (read.getReferenceIndex() >= 0) ? rodView.getReferenceOrderedDataSnapshotForRead(read) : null;
+                    batch.add(new MapInput(refContext, read, tracker));
+
+                    if (batch.size() == READS_PER_MAP_BATCH) {
+                        if (reorderBuffer.size() >= maxBatchesInFlight)
+                            sum = reduceBatch(walker, reorderBuffer.remove(), sum);
+                        reorderBuffer.add(mapThreadPool.submit(new MapBatch(walker, batch)));
+                        batch = new ArrayList<MapInput>(READS_PER_MAP_BATCH);
+                    }
+                }
+
+                GenomeLoc locus = read.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ? null : engine.getGenomeLocParser().createGenomeLoc(read.getReferenceName(),read.getAlignmentStart());
+                printProgress(dataProvider.getShard(),locus);
+            }
+
+            if (!batch.isEmpty())
+                reorderBuffer.add(mapThreadPool.submit(new MapBatch(walker, batch)));
+            while (!reorderBuffer.isEmpty())
+                sum = reduceBatch(walker, reorderBuffer.remove(), sum);
+
+            completed = true;
+            return sum;
+        }
+        finally {
+            if ( !completed )
+                shutdownMapThreadPool(true);
+        }
+    }
+
+    /**
+     * Wait for the given batch to be mapped, then reduce its results in order.
+     * @param walker the walker to reduce with
+     * @param mappedBatch the pending map results
+     * @param sum the running reduce
+     * @return the reduce variable after all results in the batch have been reduced
+     */
+    private T reduceBatch(ReadWalker<M,T> walker, Future<List<M>> mappedBatch, T sum) {
+        List<M> mapResults;
+        try {
+            mapResults = mappedBatch.get();
+        }
+        catch (InterruptedException ex) {
+            throw new ReviewedStingException("Interrupted while waiting for map results", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException)ex.getCause();
+            throw new ReviewedStingException("Unable to map reads", ex.getCause());
+        }
+        for (M x : mapResults)
+            sum = walker.reduce(x, sum);
+        return sum;
+    }
+
+    /** Everything map() needs to process a single read away from the traversal thread. */
+    private static class MapInput {
+        public final ReferenceContext refContext;
+        public final SAMRecord read;
+        public final ReadMetaDataTracker tracker;
+
+        public MapInput(ReferenceContext refContext, SAMRecord read, ReadMetaDataTracker tracker) {
+            this.refContext = refContext;
+            this.read = read;
+            this.tracker = tracker;
+        }
+    }
+
+    /** Maps a batch of reads, returning the results in the same order as the reads. */
+    private class MapBatch implements Callable<List<M>> {
+        private final ReadWalker<M,T> walker;
+        private final List<MapInput> inputs;
+
+        public MapBatch(ReadWalker<M,T> walker, List<MapInput> inputs) {
+            this.walker = walker;
+            this.inputs = inputs;
+        }
+
+        public List<M> call() {
+            List<M> results = new ArrayList<M>(inputs.size());
+            for (MapInput input : inputs)
+                results.add(walker.map(input.refContext, input.read, input.tracker));
+            return results;
+        }
+    }
 }
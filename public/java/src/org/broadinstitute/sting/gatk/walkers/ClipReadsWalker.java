@@ -54,7 +54,7 @@ import java.util.regex.Pattern;
  * with poor quality scores, that match particular sequences, or that were generated by particular machine cycles.
  */
 @Requires({DataSource.READS})
-public class ClipReadsWalker extends ReadWalker<ReadClipper, ClipReadsWalker.ClippingData> {
+public class ClipReadsWalker extends ReadWalker<ReadClipper, ClipReadsWalker.ClippingData> implements ThreadSafeMap {
     @Output
     PrintStream out;
 
@@ -48,7 +48,7 @@ import org.broadinstitute.sting.gatk.refdata.ReadMetaDataTracker;
  */
 @BAQMode(QualityMode = BAQ.QualityMode.ADD_TAG, ApplicationTime = BAQ.ApplicationTime.ON_OUTPUT)
 @Requires({DataSource.READS, DataSource.REFERENCE})
-public class PrintReadsWalker extends ReadWalker<SAMRecord, SAMFileWriter> {
+public class PrintReadsWalker extends ReadWalker<SAMRecord, SAMFileWriter> implements ThreadSafeMap {
     /** an optional argument to dump the reads out to a BAM file */
     @Output(doc="Write output to this BAM filename instead of STDOUT")
     SAMFileWriter out;
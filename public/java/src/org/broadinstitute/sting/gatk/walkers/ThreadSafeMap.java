@@ -0,0 +1,12 @@
+package org.broadinstitute.sting.gatk.walkers;
+
+/**
+ * Indicates that a walker's map() function may safely be called from several
+ * threads at once.  When running with -nt, the engine calls filter() and reduce()
+ * on a single thread in the original order of the data, but spreads calls to map()
+ * across a pool of threads.  Walkers need not be TreeReducible to take advantage
+ * of this; reduce() sees exactly the same sequence of map results as it would in
+ * a single-threaded run.
+ */
+public interface ThreadSafeMap {
+}
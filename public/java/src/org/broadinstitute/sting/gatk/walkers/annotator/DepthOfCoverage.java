@@ -3,7 +3,7 @@ package org.broadinstitute.sting.gatk.walkers.annotator;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
-import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.InfoFieldAnnotation;
+import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.PileupStatisticsAnnotation;
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.StandardAnnotation;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
@@ -16,17 +16,18 @@ import java.util.List;
 import java.util.Map;
 
 
-public class DepthOfCoverage implements InfoFieldAnnotation, StandardAnnotation {
+public class DepthOfCoverage implements PileupStatisticsAnnotation, StandardAnnotation {
 
     public Map<String, Object> annotate(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc) {
+        return annotate(tracker, ref, stratifiedContexts, vc, new SitePileupStatistics(stratifiedContexts));
+    }
+
+    public Map<String, Object> annotate(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc, SitePileupStatistics statistics) {
         if ( stratifiedContexts.size() == 0 )
             return null;
 
-        int depth = 0;
-        for ( Map.Entry<String, AlignmentContext> sample : stratifiedContexts.entrySet() )
-            depth += sample.getValue().size();
         Map<String, Object> map = new HashMap<String, Object>();
-        map.put(getKeyNames().get(0), String.format("%d", depth));
+        map.put(getKeyNames().get(0), String.format("%d", statistics.getDepth()));
         return map;
     }
 
@@ -28,7 +28,7 @@ import cern.jet.math.Arithmetic;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
-import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.InfoFieldAnnotation;
+import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.PileupStatisticsAnnotation;
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.StandardAnnotation;
 import org.broadinstitute.sting.gatk.walkers.genotyper.IndelGenotypeLikelihoodsCalculationModel;
 import org.broadinstitute.sting.utils.QualityUtils;
@@ -42,18 +42,25 @@ import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 import java.util.*;
 
 
-public class FisherStrand implements InfoFieldAnnotation, StandardAnnotation {
+public class FisherStrand implements PileupStatisticsAnnotation, StandardAnnotation {
     private static final String FS = "FS";
     private static final double MIN_PVALUE = 1E-320;
 
     public Map<String, Object> annotate(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc) {
+        return annotate(tracker, ref, stratifiedContexts, vc, new SitePileupStatistics(stratifiedContexts));
+    }
+
+    public Map<String, Object> annotate(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc, SitePileupStatistics statistics) {
         if ( ! vc.isVariant() || vc.isFiltered() )
             return null;
 
         int[][] table;
 
-        if (vc.isBiallelic() && vc.isSNP())
-            table = getSNPContingencyTable(stratifiedContexts, vc.getReference(), vc.getAlternateAllele(0));
+        if (vc.isBiallelic() && vc.isSNP()) {
+            table = statistics.getSNPContingencyTable(vc.getReference(), vc.getAlternateAllele(0));
+            if (table == null) // the shared statistics can't build the table for unusual alleles or pileups
+                table = getSNPContingencyTable(stratifiedContexts, vc.getReference(), vc.getAlternateAllele(0));
+        }
         else if (vc.isIndel() || vc.isMixed()) {
             table = getIndelContingencyTable(stratifiedContexts, vc);
             if (table == null)
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.annotator;
+
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.QualityUtils;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+
+import java.util.Map;
+
+/**
+ * Statistics over the reads at a site which several annotations need: depth, deletions, mapping qualities and
+ * per-strand base counts.  The pileup counts are summed up the first time they're asked for, and the statistics
+ * of the reads themselves are collected from every sample's pileup in a single pass the first time any of them is.
+ *
+ * As in the annotations themselves, a sample's extended event pileup is used in preference to its base pileup.
+ */
+public class SitePileupStatistics {
+    /** Reads below this mapping quality, or bases below this quality, don't count towards the strand table. */
+    public static final int MIN_STRAND_TABLE_QUAL = 20;
+
+    private final Map<String, AlignmentContext> stratifiedContexts;
+    private boolean countsCollected = false;
+    private boolean readsCollected = false;
+
+    private int depth = 0;
+    private int deletions = 0;
+
+    private int mappingQualityZeroReads = 0;
+    private long sumOfSquaredMappingQualities = 0;
+
+    /** Counts of each base by strand (forward, then reverse); only meaningful if all the pileups are base pileups. */
+    private final int[][] baseCountsByStrand = new int[BaseUtils.BASES.length][2];
+    private boolean hasExtendedEventPileups = false;
+
+    /**
+     * @param stratifiedContexts  the contexts at the site, split by sample
+     */
+    public SitePileupStatistics(Map<String, AlignmentContext> stratifiedContexts) {
+        this.stratifiedContexts = stratifiedContexts;
+    }
+
+    /**
+     * @return the total number of reads at the site
+     */
+    public int getDepth() {
+        collectCounts();
+        return depth;
+    }
+
+    /**
+     * @return the total number of deletions at the site
+     */
+    public int getNumberOfDeletions() {
+        collectCounts();
+        return deletions;
+    }
+
+    /**
+     * @return the number of reads at the site with a mapping quality of zero
+     */
+    public int getNumberOfMappingQualityZeroReads() {
+        collectReads();
+        return mappingQualityZeroReads;
+    }
+
+    /**
+     * Reads without a mapping quality are counted as if it were zero.
+     * @return the root mean square of the mapping qualities of the reads at the site
+     */
+    public double getRMSMappingQuality() {
+        collectCounts();
+        collectReads();
+        return depth == 0 ? 0.0 : Math.sqrt((double)sumOfSquaredMappingQualities / depth);
+    }
+
+    /**
+     * Gets the 2x2 strand contingency table of the reference and alternate bases.  In the end, it'll look something like this:
+     *             fw      rc
+     *   allele1   #       #
+     *   allele2   #       #
+     * Only non-deleted bases of at least MIN_STRAND_TABLE_QUAL, from reads of at least that mapping quality, count.
+     *
+     * @param ref  the reference allele
+     * @param alt  the alternate allele
+     * @return a new 2x2 contingency table, or null if either allele isn't a single regular base or if there are
+     *         extended event pileups at the site
+     */
+    public int[][] getSNPContingencyTable(Allele ref, Allele alt) {
+        collectReads();
+        final int refIndex = alleleToBaseIndex(ref);
+        final int altIndex = alleleToBaseIndex(alt);
+        if ( refIndex == -1 || altIndex == -1 || hasExtendedEventPileups )
+            return null;
+
+        int[][] table = new int[2][2];
+        for ( int column = 0; column < 2; column++ ) {
+            table[0][column] = baseCountsByStrand[refIndex][column];
+            table[1][column] = baseCountsByStrand[altIndex][column];
+        }
+        return table;
+    }
+
+    private void collectCounts() {
+        if ( countsCollected )
+            return;
+        countsCollected = true;
+
+        for ( AlignmentContext context : stratifiedContexts.values() ) {
+            depth += context.size();
+            ReadBackedPileup pileup = getPileup(context);
+            if ( pileup != null )
+                deletions += pileup.getNumberOfDeletions();
+        }
+    }
+
+    private void collectReads() {
+        if ( readsCollected )
+            return;
+        readsCollected = true;
+
+        for ( AlignmentContext context : stratifiedContexts.values() ) {
+            ReadBackedPileup pileup = getPileup(context);
+            if ( pileup == null )
+                continue;
+
+            hasExtendedEventPileups |= context.hasExtendedEventPileup();
+
+            for ( PileupElement p : pileup ) {
+                final int mappingQual = p.getMappingQual();
+                if ( mappingQual == 0 )
+                    mappingQualityZeroReads++;
+                if ( mappingQual != QualityUtils.MAPPING_QUALITY_UNAVAILABLE )
+                    sumOfSquaredMappingQualities += mappingQual * mappingQual;
+
+                if ( p.isDeletion() || mappingQual < MIN_STRAND_TABLE_QUAL || p.getQual() < MIN_STRAND_TABLE_QUAL )
+                    continue;
+
+                final int baseIndex = regularBaseToBaseIndex(p.getBase());
+                if ( baseIndex != -1 )
+                    baseCountsByStrand[baseIndex][p.getRead().getReadNegativeStrandFlag() ? 1 : 0]++;
+            }
+        }
+    }
+
+    private static ReadBackedPileup getPileup(AlignmentContext context) {
+        ReadBackedPileup pileup = null;
+        if (context.hasExtendedEventPileup())
+            pileup = context.getExtendedEventPileup();
+        else if (context.hasBasePileup())
+            pileup = context.getBasePileup();
+        return pileup;
+    }
+
+    private static int alleleToBaseIndex(Allele allele) {
+        return allele.length() == 1 && !allele.isSymbolic() ? regularBaseToBaseIndex(allele.getBases()[0]) : -1;
+    }
+
+    // unlike BaseUtils.simpleBaseToBaseIndex(), the '*' wildcard isn't an A here
+    private static int regularBaseToBaseIndex(byte base) {
+        return base == '*' ? -1 : BaseUtils.simpleBaseToBaseIndex(base);
+    }
+}
@@ -36,6 +36,7 @@ import org.broadinstitute.sting.gatk.walkers.annotator.genomicannotator.JoinTabl
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.AnnotationInterfaceManager;
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.GenotypeAnnotation;
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.InfoFieldAnnotation;
+import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.PileupStatisticsAnnotation;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLine;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
@@ -155,10 +156,15 @@ public class VariantAnnotatorEngine {
         infoAnnotationOutputsList.add(new LinkedHashMap<String, Object>(vc.getAttributes())); //keep the existing info-field annotations. After this infoAnnotationOutputsList.size() == 1, which means the output VCF file has 1 additional line.
         infoAnnotationOutputsList.get(0).putAll(infoAnnotations);  // put the DB membership info in
 
+        // the pileup statistics are shared by all of the annotations which need them, so that the reads are only walked once
+        SitePileupStatistics statistics = new SitePileupStatistics(stratifiedContexts);
+
         // go through all the requested info annotationTypes
         for ( InfoFieldAnnotation annotationType : requestedInfoAnnotations )
         {
-            Map<String, Object> annotationsFromCurrentType = annotationType.annotate(tracker, ref, stratifiedContexts, vc);
+            Map<String, Object> annotationsFromCurrentType = annotationType instanceof PileupStatisticsAnnotation ?
+                    ((PileupStatisticsAnnotation)annotationType).annotate(tracker, ref, stratifiedContexts, vc, statistics) :
+                    annotationType.annotate(tracker, ref, stratifiedContexts, vc);
             if ( annotationsFromCurrentType == null ) {
                 continue;
             }
@@ -0,0 +1,20 @@
+package org.broadinstitute.sting.gatk.walkers.annotator.interfaces;
+
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.walkers.annotator.SitePileupStatistics;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.util.Map;
+
+/**
+ * An InfoFieldAnnotation which only needs the per-site pileup statistics shared with other annotations.  The
+ * VariantAnnotatorEngine collects them once per site, however many of these annotations are requested.
+ */
+public interface PileupStatisticsAnnotation extends InfoFieldAnnotation {
+
+    // return annotations for the given contexts split by sample, using the statistics already collected from them
+    public Map<String, Object> annotate(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc, SitePileupStatistics statistics);
+
+}
@@ -35,6 +35,10 @@ import org.broadinstitute.sting.utils.pileup.FragmentPileup;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import static java.lang.Math.log10;
 import static java.lang.Math.pow;
 
@@ -73,12 +77,9 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
     public final static double DEFAULT_PCR_ERROR_RATE = 1e-4;
 
     protected final static int FIXED_PLOIDY = 2;
-    protected final static int MAX_PLOIDY = FIXED_PLOIDY + 1;
     protected final static double ploidyAdjustment = log10(FIXED_PLOIDY);
     protected final static double log10_3 = log10(3.0);
 
-    protected boolean VERBOSE = false;
-
     //
     // The fundamental data arrays associated with a Genotype Likelhoods object
     //
@@ -87,9 +88,8 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
 
     protected DiploidSNPGenotypePriors priors = null;
 
-    // TODO: don't calculate this each time through
-    protected double log10_PCR_error_3;
-    protected double log10_1_minus_PCR_error;
+    /** Precomputed likelihoods of every observation, for our PCR error rate. */
+    private final LikelihoodKernel kernel;
 
     /**
      * Create a new GenotypeLikelhoods object with flat priors for each diploid genotype
@@ -97,8 +97,7 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      */
     public DiploidSNPGenotypeLikelihoods() {
         this.priors = new DiploidSNPGenotypePriors();
-        log10_PCR_error_3 = log10(DEFAULT_PCR_ERROR_RATE) - log10_3;
-        log10_1_minus_PCR_error = log10(1.0 - DEFAULT_PCR_ERROR_RATE);
+        this.kernel = getKernel(DEFAULT_PCR_ERROR_RATE);
         setToZero();
     }
 
@@ -110,8 +109,7 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      */
     public DiploidSNPGenotypeLikelihoods(DiploidSNPGenotypePriors priors, double PCR_error_rate) {
         this.priors = priors;
-        log10_PCR_error_3 = log10(PCR_error_rate) - log10_3;
-        log10_1_minus_PCR_error = log10(1.0 - PCR_error_rate);
+        this.kernel = getKernel(PCR_error_rate);
         setToZero();
     }
 
@@ -257,36 +255,65 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      * @return the number of good bases found in the pileup
      */
     public int add(ReadBackedPileup pileup, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual) {
+        return add(pileup, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, log10Likelihoods, log10Posteriors);
+    }
+
+    /**
+     * Adds the log10 likelihoods of the observations in the pileup to the given array, without touching the
+     * likelihoods or posteriors of this object.  Nothing is allocated per observation, so a caller looping over
+     * many samples can reuse one array, zeroing it between samples.
+     *
+     * @param pileup                    read pileup
+     * @param ignoreBadBases            should we ignore bad bases?
+     * @param capBaseQualsAtMappingQual should we cap a base's quality by its read's mapping quality?
+     * @param minBaseQual               the minimum base quality at which to consider a base valid
+     * @param log10Likelihoods          array of log10 likelihoods indexed by DiploidGenotype.ordinal() to add to
+     * @return the number of good bases found in the pileup
+     */
+    public int add(ReadBackedPileup pileup, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual, double[] log10Likelihoods) {
+        return add(pileup, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, log10Likelihoods, null);
+    }
+
+    private int add(ReadBackedPileup pileup, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual, double[] likelihoods, double[] posteriors) {
         int n = 0;
 
         // for each fragment, add to the likelihoods
         FragmentPileup fpile = new FragmentPileup(pileup);
 
         for ( PileupElement p : fpile.getOneReadPileup() )
-            n += add(p, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+            n += add(p, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, likelihoods, posteriors);
 
         for ( FragmentPileup.TwoReadPileupElement twoRead : fpile.getTwoReadPileup() )
-            n += add(twoRead, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+            n += add(twoRead, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, likelihoods, posteriors);
 
         return n;
     }
+
     public int add(PileupElement elt, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual) {
+        return add(elt, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, log10Likelihoods, log10Posteriors);
+    }
+
+    private int add(PileupElement elt, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual, double[] likelihoods, double[] posteriors) {
         byte obsBase = elt.getBase();
 
         if ( elt.isReducedRead() ) {
             // reduced read representation
             byte qual = elt.getReducedQual();
             for ( int i = 0; i < elt.getReducedCount(); i++ ) {
-                add(obsBase, qual, (byte)0, (byte)0);
+                kernel.add(obsBase, qual, (byte)0, (byte)0, likelihoods, posteriors);
             }
             return elt.getQual();
         } else {
             byte qual = qualToUse(elt, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
-            return qual > 0 ? add(obsBase, qual, (byte)0, (byte)0) : 0;
+            return qual > 0 ? kernel.add(obsBase, qual, (byte)0, (byte)0, likelihoods, posteriors) : 0;
         }
     }
 
     public int add(FragmentPileup.TwoReadPileupElement twoRead, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual) {
+        return add(twoRead, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual, log10Likelihoods, log10Posteriors);
+    }
+
+    private int add(FragmentPileup.TwoReadPileupElement twoRead, boolean ignoreBadBases, boolean capBaseQualsAtMappingQual, int minBaseQual, double[] likelihoods, double[] posteriors) {
         final byte observedBase1 = twoRead.getFirst().getBase();
         final byte qualityScore1 = qualToUse(twoRead.getFirst(), ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
         final byte observedBase2 = twoRead.getSecond().getBase();
@@ -296,200 +323,186 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
             if ( qualityScore2 == 0 ) // abort early if we didn't see any good bases
                 return 0;
             else {
-                return add(observedBase2, qualityScore2, (byte)0, (byte)0);
+                return kernel.add(observedBase2, qualityScore2, (byte)0, (byte)0, likelihoods, posteriors);
             }
         } else {
-            return add(observedBase1, qualityScore1, observedBase2, qualityScore2);
-        }
-    }
-
-    /**
-     *
-     * @param obsBase1
-     * @param qual1
-     * @param obsBase2
-     * @param qual2 can be 0, indicating no second base was observed for this fragment
-     * @return
-     */
-    private int add(byte obsBase1, byte qual1, byte obsBase2, byte qual2) {
-        // TODO-- Right now we assume that there are at most 2 reads per fragment.  This assumption is fine
-        // TODO--   given the current state of next-gen sequencing, but may need to be fixed in the future.
-        // TODO--   However, when that happens, we'll need to be a lot smarter about the caching we do here.
-
-        // Just look up the cached result if it's available, or compute and store it
-        DiploidSNPGenotypeLikelihoods gl;
-        if ( ! inCache(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY) ) {
-            gl = calculateCachedGenotypeLikelihoods(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY);
-        } else {
-            gl = getCachedGenotypeLikelihoods(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY);
-        }
-
-        // for bad bases, there are no likelihoods
-        if ( gl == null )
-            return 0;
-
-        double[] likelihoods = gl.getLikelihoods();
-
-        for ( DiploidGenotype g : DiploidGenotype.values() ) {
-            double likelihood = likelihoods[g.ordinal()];
-            
-            //if ( VERBOSE ) {
-            //    System.out.printf("  L(%c | G=%s, Q=%d, S=%s) = %f / %f%n",
-            //            observedBase, g, qualityScore, pow(10,likelihood) * 100, likelihood);
-            //}
-
-            log10Likelihoods[g.ordinal()] += likelihood;
-            log10Posteriors[g.ordinal()] += likelihood;
+            return kernel.add(observedBase1, qualityScore1, observedBase2, qualityScore2, likelihoods, posteriors);
         }
-
-        return 1;
     }
 
     // -------------------------------------------------------------------------------------
     //
-    // Dealing with the cache routines
+    // The likelihood kernel
     //
     // -------------------------------------------------------------------------------------
 
-    static DiploidSNPGenotypeLikelihoods[][][][][] CACHE = new DiploidSNPGenotypeLikelihoods[BaseUtils.BASES.length][QualityUtils.MAX_QUAL_SCORE+1][BaseUtils.BASES.length+1][QualityUtils.MAX_QUAL_SCORE+1][MAX_PLOIDY];
+    private final static int N_BASES = BaseUtils.BASES.length;
+    private final static int N_QUALS = QualityUtils.MAX_QUAL_SCORE + 1;
+    private final static int N_GENOTYPES = DiploidGenotype.values().length;
 
-    protected boolean inCache(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        return getCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy) != null;
-    }
+    /** The base indices of the two alleles of each genotype, indexed by DiploidGenotype.ordinal(). */
+    private final static int[] genotypeBase1 = new int[N_GENOTYPES];
+    private final static int[] genotypeBase2 = new int[N_GENOTYPES];
 
-    protected DiploidSNPGenotypeLikelihoods getCachedGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        DiploidSNPGenotypeLikelihoods gl = getCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy);
-        if ( gl == null )
-            throw new RuntimeException(String.format("BUG: trying to fetch an unset cached genotype likelihood at base1=%c, qual1=%d, base2=%c, qual2=%d, ploidy=%d",
-                    observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy));
-        return gl;
+    static {
+        for ( DiploidGenotype g : DiploidGenotype.values() ) {
+            genotypeBase1[g.ordinal()] = BaseUtils.simpleBaseToBaseIndex(g.base1);
+            genotypeBase2[g.ordinal()] = BaseUtils.simpleBaseToBaseIndex(g.base2);
+        }
     }
 
-    protected DiploidSNPGenotypeLikelihoods calculateCachedGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        DiploidSNPGenotypeLikelihoods gl = calculateGenotypeLikelihoods(observedBase1, qualityScore1, observedBase2, qualityScore2);
-        setCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy, gl);
-        return gl;
+    /** One kernel per PCR error rate; in practice there is only ever one. */
+    private final static ConcurrentMap<Double, LikelihoodKernel> KERNELS = new ConcurrentHashMap<Double, LikelihoodKernel>();
+
+    private static LikelihoodKernel getKernel(double PCR_error_rate) {
+        LikelihoodKernel kernel = KERNELS.get(PCR_error_rate);
+        if ( kernel == null ) {
+            kernel = new LikelihoodKernel(PCR_error_rate);
+            LikelihoodKernel existing = KERNELS.putIfAbsent(PCR_error_rate, kernel);
+            if ( existing != null )
+                kernel = existing;
+        }
+        return kernel;
     }
 
-    protected void setCache( DiploidSNPGenotypeLikelihoods[][][][][] cache,
-                             byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy,
-                             DiploidSNPGenotypeLikelihoods val ) {
-        int i = BaseUtils.simpleBaseToBaseIndex(observedBase1);
-        int j = qualityScore1;
-        int k = qualityScore2 != 0 ? BaseUtils.simpleBaseToBaseIndex(observedBase2) : BaseUtils.BASES.length;
-        int l = qualityScore2;
-        int m = ploidy;
+    /**
+     * The genotype likelihoods of every fragment observation, for a given PCR error rate, in flat tables of
+     * N_GENOTYPES doubles per observation.
+     *
+     * Fragments seen by a single read, the vast majority, are looked up in a table of every (base, qual)
+     * computed up front.  Fragments seen by both reads of a pair are looked up in a row of every (base2, qual2)
+     * for the first read's (base1, qual1), and each row is only computed the first time its (base1, qual1) is
+     * seen.  Once stored a row never changes, so the tables can be shared between threads.
+     */
+    private static final class LikelihoodKernel {
+        private final double log10_PCR_error_3;
+        private final double log10_1_minus_PCR_error;
 
-        cache[i][j][k][l][m] = val;
-    }
+        /** log10 P(observed base | chromosome base) for each qual, when the bases match and when they don't. */
+        private final double[] log10PMatch = new double[N_QUALS];
+        private final double[] log10PMismatch = new double[N_QUALS];
 
-    protected DiploidSNPGenotypeLikelihoods getCache(DiploidSNPGenotypeLikelihoods[][][][][] cache,
-                                            byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        int i = BaseUtils.simpleBaseToBaseIndex(observedBase1);
-        int j = qualityScore1;
-        int k = qualityScore2 != 0 ? BaseUtils.simpleBaseToBaseIndex(observedBase2) : BaseUtils.BASES.length;
-        int l = qualityScore2;
-        int m = ploidy;
-        return cache[i][j][k][l][m];
-    }
+        /** Likelihoods of a single read fragment, at ((base * N_QUALS) + qual) * N_GENOTYPES. */
+        private final double[] singleReadTable = new double[N_BASES * N_QUALS * N_GENOTYPES];
 
-    protected DiploidSNPGenotypeLikelihoods calculateGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2) {
-        double[] log10FourBaseLikelihoods = computeLog10Likelihoods(observedBase1, qualityScore1, observedBase2, qualityScore2);
+        /** Rows of likelihoods for two read fragments by (base1 * N_QUALS) + qual1, each laid out like singleReadTable. */
+        private final AtomicReferenceArray<double[]> twoReadTable = new AtomicReferenceArray<double[]>(N_BASES * N_QUALS);
 
-        try {
+        private LikelihoodKernel(double PCR_error_rate) {
+            log10_PCR_error_3 = log10(PCR_error_rate) - log10_3;
+            log10_1_minus_PCR_error = log10(1.0 - PCR_error_rate);
 
-            DiploidSNPGenotypeLikelihoods gl = (DiploidSNPGenotypeLikelihoods)this.clone();
-            gl.setToZero();
+            for ( int qual = 0; qual < N_QUALS; qual++ ) {
+                // the base is consistent with the chromosome -- it's 1 - e
+                log10PMatch[qual] = log10(1.0 - pow(10, (qual / -10.0)));
+                // the base is inconsistent with the chromosome -- it's e * P(chromBase | observedBase is an error)
+                log10PMismatch[qual] = qual / -10.0 + (-log10_3);
+            }
 
-            // we need to adjust for ploidy.  We take the raw p(obs | chrom) / ploidy, which is -log10(ploidy) in log space
-            for ( DiploidGenotype g : DiploidGenotype.values() ) {
+            for ( int base = 0; base < N_BASES; base++ )
+                for ( int qual = 0; qual < N_QUALS; qual++ )
+                    computeGenotypeLikelihoods(base, qual, -1, 0, singleReadTable, (base * N_QUALS + qual) * N_GENOTYPES);
+        }
 
-                // todo assumes ploidy is 2 -- should be generalized.  Obviously the below code can be turned into a loop
-                double p_base = 0.0;
-                p_base += pow(10, log10FourBaseLikelihoods[BaseUtils.simpleBaseToBaseIndex(g.base1)] - ploidyAdjustment);
-                p_base += pow(10, log10FourBaseLikelihoods[BaseUtils.simpleBaseToBaseIndex(g.base2)] - ploidyAdjustment);
-                double likelihood = log10(p_base);
+        /**
+         * Adds the likelihoods of a fragment observation to the given arrays.
+         *
+         * @param observedBase1  the base observed on the 1st read of the fragment
+         * @param qualityScore1  the qual of the base on the 1st read of the fragment
+         * @param observedBase2  the base observed on the 2nd read of the fragment
+         * @param qualityScore2  the qual of the base on the 2nd read of the fragment, or zero if NA
+         * @param likelihoods    array to add the likelihoods to
+         * @param posteriors     another array to add the likelihoods to, or null
+         * @return 1 if the observation was added, or 0 if it wasn't good enough ('N', for example)
+         */
+        public int add(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, double[] likelihoods, double[] posteriors) {
+            // TODO-- Right now we assume that there are at most 2 reads per fragment.  This assumption is fine
+            // TODO--   given the current state of next-gen sequencing, but may need to be fixed in the future.
+            final int base1 = BaseUtils.simpleBaseToBaseIndex(observedBase1);
+            if ( base1 < 0 )
+                return 0;
 
-                gl.log10Likelihoods[g.ordinal()] += likelihood;
-                gl.log10Posteriors[g.ordinal()] += likelihood;
+            final double[] table;
+            int offset;
+            if ( qualityScore2 == 0 ) {
+                table = singleReadTable;
+                offset = (base1 * N_QUALS + qualityScore1) * N_GENOTYPES;
+            } else {
+                final int base2 = BaseUtils.simpleBaseToBaseIndex(observedBase2);
+                if ( base2 < 0 )
+                    return 0;
+                table = getTwoReadRow(base1, qualityScore1);
+                offset = (base2 * N_QUALS + qualityScore2) * N_GENOTYPES;
             }
 
-            if ( VERBOSE ) {
-                for ( DiploidGenotype g : DiploidGenotype.values() ) { System.out.printf("%s\t", g); }
-                System.out.println();
-                for ( DiploidGenotype g : DiploidGenotype.values() ) { System.out.printf("%.2f\t", gl.log10Likelihoods[g.ordinal()]); }
-                System.out.println();
+            for ( int i = 0; i < N_GENOTYPES; i++, offset++ )
+                likelihoods[i] += table[offset];
+            if ( posteriors != null ) {
+                offset -= N_GENOTYPES;
+                for ( int i = 0; i < N_GENOTYPES; i++, offset++ )
+                    posteriors[i] += table[offset];
             }
 
-            return gl;
+            return 1;
+        }
 
-         } catch ( CloneNotSupportedException e ) {
-             throw new RuntimeException(e);
-         }
-    }
+        private double[] getTwoReadRow(int base1, int qual1) {
+            final int index = base1 * N_QUALS + qual1;
+            double[] row = twoReadTable.get(index);
+            if ( row == null ) {
+                // racing threads compute identical rows, so it doesn't matter whose is kept
+                row = new double[N_BASES * N_QUALS * N_GENOTYPES];
+                for ( int base2 = 0; base2 < N_BASES; base2++ )
+                    for ( int qual2 = 1; qual2 < N_QUALS; qual2++ )
+                        computeGenotypeLikelihoods(base1, qual1, base2, qual2, row, (base2 * N_QUALS + qual2) * N_GENOTYPES);
+                twoReadTable.set(index, row);
+            }
+            return row;
+        }
 
-    /**
-     * Updates likelihoods and posteriors to reflect an additional observation of observedBase with
-     * qualityScore.
-     *
-     * @param observedBase1  the base observed on the 1st read of the fragment
-     * @param qualityScore1  the qual of the base on the 1st read of the fragment, or zero if NA
-     * @param observedBase2  the base observed on the 2nd read of the fragment
-     * @param qualityScore2  the qual of the base on the 2nd read of the fragment, or zero if NA
-     * @return likelihoods for this observation or null if the base was not considered good enough to add to the likelihoods (Q0 or 'N', for example)
-     */
-    protected double[] computeLog10Likelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2) {
-        double[] log10FourBaseLikelihoods = baseZeros.clone();
+        /**
+         * Computes the genotype likelihoods of a fragment observation into the given table.
+         *
+         * @param base1   the index of the base observed on the 1st read of the fragment
+         * @param qual1   the qual of the base on the 1st read of the fragment, or zero if NA
+         * @param base2   the index of the base observed on the 2nd read of the fragment
+         * @param qual2   the qual of the base on the 2nd read of the fragment, or zero if NA
+         * @param table   the table to store the likelihoods in
+         * @param offset  where in the table to store the likelihoods
+         */
+        private void computeGenotypeLikelihoods(int base1, int qual1, int base2, int qual2, double[] table, int offset) {
+            // we need to adjust for ploidy.  We take the raw p(obs | chrom) / ploidy, which is -log10(ploidy) in log space
+            final double[] pBaseGivenChromosome = new double[N_BASES];
+            for ( int trueBase = 0; trueBase < N_BASES; trueBase++ )
+                pBaseGivenChromosome[trueBase] = pow(10, computeLog10Likelihood(trueBase, base1, qual1, base2, qual2) - ploidyAdjustment);
 
-        for ( byte trueBase : BaseUtils.BASES ) {
+            // todo assumes ploidy is 2 -- should be generalized
+            for ( int g = 0; g < N_GENOTYPES; g++ ) {
+                double p_base = 0.0;
+                p_base += pBaseGivenChromosome[genotypeBase1[g]];
+                p_base += pBaseGivenChromosome[genotypeBase2[g]];
+                table[offset + g] = log10(p_base);
+            }
+        }
+
+        /**
+         * @return log10 likelihood of the fragment observation given the true base on the chromosome
+         */
+        private double computeLog10Likelihood(int trueBase, int base1, int qual1, int base2, int qual2) {
             double likelihood = 0.0;
 
-            for ( byte fragmentBase : BaseUtils.BASES ) {
+            for ( int fragmentBase = 0; fragmentBase < N_BASES; fragmentBase++ ) {
                 double log10FragmentLikelihood = (trueBase == fragmentBase ? log10_1_minus_PCR_error : log10_PCR_error_3);
-                if ( qualityScore1 != 0 ) {
-                    log10FragmentLikelihood += log10PofObservingBaseGivenChromosome(observedBase1, fragmentBase, qualityScore1);
-                }
-                if ( qualityScore2 != 0 ) {
-                    log10FragmentLikelihood += log10PofObservingBaseGivenChromosome(observedBase2, fragmentBase, qualityScore2);
-                }
-
-                //if ( VERBOSE ) {
-                //    System.out.printf("  L(%c | b=%s, Q=%d) = %f / %f%n",
-                //            observedBase, trueBase, qualityScore, pow(10,likelihood) * 100, likelihood);
-                //}
+                if ( qual1 != 0 )
+                    log10FragmentLikelihood += (base1 == fragmentBase ? log10PMatch[qual1] : log10PMismatch[qual1]);
+                if ( qual2 != 0 )
+                    log10FragmentLikelihood += (base2 == fragmentBase ? log10PMatch[qual2] : log10PMismatch[qual2]);
 
                 likelihood += pow(10, log10FragmentLikelihood);
             }
 
-            log10FourBaseLikelihoods[BaseUtils.simpleBaseToBaseIndex(trueBase)] = log10(likelihood);
+            return log10(likelihood);
         }
-
-        return log10FourBaseLikelihoods;
-    }
-
-    /**
-     *
-     * @param observedBase observed base
-     * @param chromBase    target base
-     * @param qual         base quality
-     * @return log10 likelihood
-     */
-    protected double log10PofObservingBaseGivenChromosome(byte observedBase, byte chromBase, byte qual) {
-
-        double logP;
-
-        if ( observedBase == chromBase ) {
-            // the base is consistent with the chromosome -- it's 1 - e
-            //logP = oneMinusData[qual];
-            double e = pow(10, (qual / -10.0));
-            logP = log10(1.0 - e);
-        } else {
-            // the base is inconsistent with the chromosome -- it's e * P(chromBase | observedBase is an error)
-            logP = qual / -10.0 + (-log10_3);
-        }
-
-        //System.out.printf("%c %c %d => %f%n", observedBase, chromBase, qual, logP);
-        return logP;
     }
 
     /**
@@ -588,14 +601,10 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
     // Constant static data
     //
     private final static double[] genotypeZeros = new double[DiploidGenotype.values().length];
-    private final static double[] baseZeros = new double[BaseUtils.BASES.length];
 
     static {
         for ( DiploidGenotype g : DiploidGenotype.values() ) {
             genotypeZeros[g.ordinal()] = 0.0;
         }
-        for ( byte base : BaseUtils.BASES ) {
-            baseZeros[BaseUtils.simpleBaseToBaseIndex(base)] = 0.0;
-        }
     }
 }
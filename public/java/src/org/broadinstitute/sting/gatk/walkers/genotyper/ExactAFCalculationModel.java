@@ -31,6 +31,7 @@ import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.utils.MathUtils;
 import org.broadinstitute.sting.utils.SimpleTimer;
 import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.Genotype;
@@ -39,9 +40,15 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class ExactAFCalculationModel extends AlleleFrequencyCalculationModel {
     //
@@ -66,9 +73,22 @@ public class ExactAFCalculationModel extends AlleleFrequencyCalculationModel {
 
 
     final private ExactCalculation calcToUse;
+
+    /** Pool for the blocked calculation, or null to run it in the calling thread.  Owned by whoever created the model. */
+    final private ForkJoinPool pool;
+
     protected ExactAFCalculationModel(UnifiedArgumentCollection UAC, int N, Logger logger, PrintStream verboseWriter) {
+        this(UAC, N, logger, verboseWriter, null);
+    }
+
+    /**
+     * @param pool pool on which to run the blocked calculation, or null to run it in the calling thread.  The pool
+     *             may be shared between models, and is shut down by its owner once no model will use it again.
+     */
+    protected ExactAFCalculationModel(UnifiedArgumentCollection UAC, int N, Logger logger, PrintStream verboseWriter, ForkJoinPool pool) {
         super(UAC, N, logger, verboseWriter);
         calcToUse = UAC.EXACT_CALCULATION_TYPE;
+        this.pool = pool;
     }
 
     public void getLog10PNonRef(RefMetaDataTracker tracker,
@@ -136,7 +156,10 @@ public class ExactAFCalculationModel extends AlleleFrequencyCalculationModel {
                     lastK = gdaN2GoldStandard(GLs, log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors, idxAA, idxAB, idxBB);
                     break;
                 case LINEAR_EXPERIMENTAL:
-                    lastK = linearExact(GLs, log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors, idxAA, idxAB, idxBB);
+                    if ( GLs.size() >= MIN_SAMPLES_TO_BLOCK )
+                        lastK = linearExactBlocked(GLs, log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors, idxAA, idxAB, idxBB, pool);
+                    else
+                        lastK = linearExact(GLs, log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors, idxAA, idxAB, idxBB);
                     break;
             }
             if (numAlleles > 2) {
@@ -384,6 +407,256 @@ public class ExactAFCalculationModel extends AlleleFrequencyCalculationModel {
         return lastK;
     }
 
+    // -------------------------------------------------------------------------------------
+    //
+    // Blocked implementation of linearExact() for large cohorts.
+    //
+    // -------------------------------------------------------------------------------------
+
+    /** Cohorts with at least this many samples use linearExactBlocked() in place of linearExact(). */
+    protected final static int MIN_SAMPLES_TO_BLOCK = 256;
+
+    /** Number of AC values (rows of the recurrence) computed together in a block. */
+    private final static int BLOCK_ROWS = 8;
+
+    /** Number of samples (columns of the recurrence) computed together in a block. */
+    private final static int BLOCK_SAMPLES = 512;
+
+    /**
+     * Computes exactly what linearExact() computes, down to the last bit and including when to stop early, but
+     * in blocks of BLOCK_ROWS AC values by BLOCK_SAMPLES samples so that a block's share of the recurrence
+     * stays in cache.  A block depends only on the block to its left (same ACs, earlier samples) and the block
+     * above it (lower ACs, same samples), so with a pool the blocks are run as a wavefront: the next band of ACs
+     * gets going on the first samples while the current band is still working through the last ones.  Only a
+     * few bands are allowed ahead of the last band to finish, which bounds both the memory used and the work
+     * wasted computing ACs beyond the point where the calculation stops early.
+     *
+     * @param GLs                             genotype likelihoods of each sample
+     * @param log10AlleleFrequencyPriors      priors of each AC
+     * @param log10AlleleFrequencyPosteriors  posteriors of each AC, filled in up to the returned AC
+     * @param idxAA                           index of the hom-ref likelihood in each sample's vector
+     * @param idxAB                           index of the het likelihood in each sample's vector
+     * @param idxBB                           index of the hom-var likelihood in each sample's vector
+     * @param pool                            pool on which to run the blocks, or null to run them in this thread
+     * @return the last AC computed
+     */
+    public int linearExactBlocked(Map<String, Genotype> GLs,
+                                  double[] log10AlleleFrequencyPriors,
+                                  double[] log10AlleleFrequencyPosteriors, int idxAA, int idxAB, int idxBB,
+                                  ForkJoinPool pool) {
+        final BlockedExactCalculation calculation = new BlockedExactCalculation(getGLs(GLs), idxAA, idxAB, idxBB,
+                log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors, pool == null ? 1 : 2*pool.getParallelism());
+        return pool == null ? calculation.run() : calculation.run(pool);
+    }
+
+    private final static class BlockedExactCalculation {
+        final int numSamples, numChr;
+        final int nBands, nBlocks;
+
+        /** Genotype likelihoods laid out flat, indexed by sample from 1 like getGLs(). */
+        final double[] glAA, glAB, glBB;
+
+        final double[] log10AlleleFrequencyPriors, log10AlleleFrequencyPosteriors;
+
+        /** L(j,k) for each AC k with a band in flight; null for ACs not yet started or no longer needed. */
+        final double[][] rows;
+
+        /** Number of bands which may be in flight at once. */
+        final int lookahead;
+
+        /** Number of blocks each block is waiting on; see dependencyCount(). */
+        final AtomicIntegerArray pending;
+
+        // stopping state, only touched as each band completes, and bands complete in order
+        double maxLog10L = Double.NEGATIVE_INFINITY;
+        int lastK = -1;
+        volatile boolean done = false;
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile Throwable failure = null;
+        ForkJoinPool pool;
+
+        BlockedExactCalculation(double[][] genotypeLikelihoods, int idxAA, int idxAB, int idxBB,
+                                double[] log10AlleleFrequencyPriors, double[] log10AlleleFrequencyPosteriors, int lookahead) {
+            numSamples = genotypeLikelihoods.length - 1;
+            numChr = 2*numSamples;
+            nBands = (numChr + BLOCK_ROWS) / BLOCK_ROWS;
+            nBlocks = Math.max((numSamples + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES, 1);
+            this.log10AlleleFrequencyPriors = log10AlleleFrequencyPriors;
+            this.log10AlleleFrequencyPosteriors = log10AlleleFrequencyPosteriors;
+            this.lookahead = lookahead;
+
+            glAA = new double[numSamples+1];
+            glAB = new double[numSamples+1];
+            glBB = new double[numSamples+1];
+            for ( int j = 1; j <= numSamples; j++ ) {
+                glAA[j] = genotypeLikelihoods[j][idxAA];
+                glAB[j] = genotypeLikelihoods[j][idxAB];
+                glBB[j] = genotypeLikelihoods[j][idxBB];
+            }
+
+            rows = new double[numChr+1][];
+            pending = new AtomicIntegerArray(nBands * nBlocks);
+        }
+
+        /**
+         * Runs every block in order in this thread.
+         * @return the last AC computed
+         */
+        int run() {
+            for ( int band = 0; band < nBands && ! done; band++ )
+                for ( int block = 0; block < nBlocks; block++ )
+                    computeBlock(band, block);
+            return lastK;
+        }
+
+        /**
+         * Runs the blocks as a wavefront on the given pool, waiting for the calculation to stop.
+         * @return the last AC computed
+         */
+        int run(ForkJoinPool pool) {
+            this.pool = pool;
+            for ( int band = 0; band < nBands; band++ )
+                for ( int block = 0; block < nBlocks; block++ )
+                    pending.set(band * nBlocks + block, dependencyCount(band, block));
+
+            pool.execute(new BlockTask(0, 0));
+            try {
+                finished.await();
+            } catch ( InterruptedException e ) {
+                throw new ReviewedStingException("Interrupted while waiting for the exact calculation", e);
+            }
+            if ( failure != null )
+                throw failure instanceof RuntimeException ? (RuntimeException)failure : new ReviewedStingException("Exact calculation failed", failure);
+            return lastK;
+        }
+
+        /**
+         * A block waits on the block to its left and the block above it.  The first block of a band also waits
+         * for the band lookahead bands earlier to finish.
+         */
+        private int dependencyCount(int band, int block) {
+            int count = 0;
+            if ( block > 0 ) count++;
+            if ( band > 0 ) count++;
+            if ( block == 0 && band >= lookahead ) count++;
+            return count;
+        }
+
+        private void release(int band, int block) {
+            if ( band < nBands && block < nBlocks && pending.decrementAndGet(band * nBlocks + block) == 0 ) {
+                final BlockTask task = new BlockTask(band, block);
+                if ( ForkJoinTask.getPool() == pool )
+                    task.fork();
+                else
+                    pool.execute(task);
+            }
+        }
+
+        private final class BlockTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            final int band, block;
+
+            BlockTask(int band, int block) {
+                this.band = band;
+                this.block = block;
+            }
+
+            @Override
+            protected void compute() {
+                if ( done )
+                    return;
+                try {
+                    computeBlock(band, block);
+                    if ( block == nBlocks-1 && (done || band == nBands-1) ) {
+                        done = true;
+                        finished.countDown();
+                        return;
+                    }
+                    release(band, block+1);
+                    release(band+1, block);
+                    if ( block == nBlocks-1 )
+                        release(band+lookahead, 0);
+                } catch ( Throwable t ) {
+                    failure = t;
+                    done = true;
+                    finished.countDown();
+                }
+            }
+        }
+
+        /**
+         * Computes L(j,k) for the ACs of the given band and the samples of the given block, exactly as
+         * linearExact() does.  The last block of a band also updates the posteriors of its ACs, and
+         * decides whether to stop.
+         */
+        void computeBlock(int band, int block) {
+            final int kStart = band * BLOCK_ROWS;
+            final int kStop = Math.min(kStart + BLOCK_ROWS, numChr + 1);
+            final int jStart = block * BLOCK_SAMPLES + 1;
+            final int jStop = Math.min(jStart + BLOCK_SAMPLES, numSamples + 1);
+            final double[] log10Cache = MathUtils.log10Cache;
+
+            for ( int k = kStart; k < kStop; k++ ) {
+                if ( block == 0 )
+                    rows[k] = new double[numSamples+1]; // L(0,k) is left at 0.0, as in linearExact()
+                final double[] kMinus0 = rows[k];
+
+                if ( k == 0 ) { // special case for k = 0
+                    for ( int j = jStart; j < jStop; j++ )
+                        kMinus0[j] = kMinus0[j-1] + glAA[j];
+                } else { // k > 0
+                    final double[] kMinus1 = rows[k-1];
+                    final double[] kMinus2 = k > 1 ? rows[k-2] : null;
+
+                    for ( int j = jStart; j < jStop; j++ ) {
+                        final double logDenominator = log10Cache[2*j] + log10Cache[2*j-1];
+
+                        double aa = Double.NEGATIVE_INFINITY;
+                        double ab = Double.NEGATIVE_INFINITY;
+                        if (k < 2*j-1)
+                            aa = log10Cache[2*j-k] + log10Cache[2*j-k-1] + kMinus0[j-1] + glAA[j];
+
+                        if (k < 2*j)
+                            ab = log10Cache[2*k] + log10Cache[2*j-k]+ kMinus1[j-1] + glAB[j];
+
+                        double log10Max;
+                        if (k > 1) {
+                            final double bb = log10Cache[k] + log10Cache[k-1] + kMinus2[j-1] + glBB[j];
+                            log10Max = approximateLog10SumLog10(aa, ab, bb);
+                        } else {
+                            log10Max = approximateLog10SumLog10(aa, ab);
+                        }
+
+                        kMinus0[j] = log10Max - logDenominator;
+                    }
+                }
+            }
+
+            if ( block == nBlocks-1 )
+                finishBand(band, kStart, kStop);
+        }
+
+        private void finishBand(int band, int kStart, int kStop) {
+            for ( int k = kStart; k < kStop && ! done; k++ ) {
+                // update the posteriors vector
+                final double log10LofK = rows[k][numSamples];
+                log10AlleleFrequencyPosteriors[k] = log10LofK + log10AlleleFrequencyPriors[k];
+
+                // can we abort early?
+                lastK = k;
+                maxLog10L = Math.max(maxLog10L, log10LofK);
+                if ( log10LofK < maxLog10L - MAX_LOG10_ERROR_TO_STOP_EARLY )
+                    done = true;
+            }
+
+            // the next band only looks back two ACs, all in this band, so the previous band can go
+            if ( band > 0 )
+                Arrays.fill(rows, (band-1) * BLOCK_ROWS, band * BLOCK_ROWS, null);
+        }
+    }
+
     final static double approximateLog10SumLog10(double a, double b, double c) {
         //return softMax(new double[]{a, b, c});
         return approximateLog10SumLog10(approximateLog10SumLog10(a, b), c);
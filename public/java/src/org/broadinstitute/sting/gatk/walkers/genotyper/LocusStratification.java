@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.genotyper;
+
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContextUtils;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The reads at a locus split by sample, along with the other per-sample views of them that the
+ * UnifiedGenotyperEngine needs.  Each view is computed at most once, however many likelihood passes,
+ * strand passes and annotations ask for it.
+ *
+ * Not thread-safe; a stratification belongs to a single locus being called by a single thread.
+ */
+public class LocusStratification {
+    private final AlignmentContext rawContext;
+    private final String assumedSingleSample;
+
+    /** The filtered per-sample contexts used for calling, or null if the locus can't be called. */
+    private final Map<String, AlignmentContext> contexts;
+
+    /** Are the calling contexts simply the raw context split by sample? */
+    private final boolean contextsAreUnfiltered;
+
+    private final Map<AlignmentContextUtils.ReadOrientation, Map<String, AlignmentContext>> contextsByOrientation =
+            new EnumMap<AlignmentContextUtils.ReadOrientation, Map<String, AlignmentContext>>(AlignmentContextUtils.ReadOrientation.class);
+
+    private Map<String, AlignmentContext> unfilteredContexts = null;
+
+    /**
+     * @param rawContext             all the reads at the locus
+     * @param contexts               the per-sample contexts to call with, or null if the locus can't be called
+     * @param contextsAreUnfiltered  true if contexts is exactly the pileup of rawContext split by sample
+     * @param assumedSingleSample    the sample to assign reads without a read group to, or null
+     */
+    public LocusStratification(AlignmentContext rawContext, Map<String, AlignmentContext> contexts, boolean contextsAreUnfiltered, String assumedSingleSample) {
+        this.rawContext = rawContext;
+        this.contexts = contexts;
+        this.contextsAreUnfiltered = contextsAreUnfiltered && contexts != null;
+        this.assumedSingleSample = assumedSingleSample;
+        if ( contexts != null )
+            contextsByOrientation.put(AlignmentContextUtils.ReadOrientation.COMPLETE, contexts);
+    }
+
+    public AlignmentContext getRawContext() {
+        return rawContext;
+    }
+
+    /**
+     * @return the per-sample contexts to call with, or null if the locus can't be called
+     */
+    public Map<String, AlignmentContext> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * Gets the per-sample contexts to call with, restricted to reads of the given orientation.
+     * @param orientation  which reads to keep
+     * @return the per-sample contexts, or null if the locus can't be called
+     */
+    public Map<String, AlignmentContext> getContexts(AlignmentContextUtils.ReadOrientation orientation) {
+        if ( contexts == null )
+            return null;
+
+        Map<String, AlignmentContext> stratified = contextsByOrientation.get(orientation);
+        if ( stratified == null ) {
+            stratified = new HashMap<String, AlignmentContext>();
+            for ( Map.Entry<String, AlignmentContext> sample : contexts.entrySet() )
+                stratified.put(sample.getKey(), AlignmentContextUtils.stratify(sample.getValue(), orientation));
+            contextsByOrientation.put(orientation, stratified);
+        }
+        return stratified;
+    }
+
+    /**
+     * Gets the *unfiltered* and *unBAQed* per-sample contexts, as used for annotations.
+     * @return the pileup of the raw context (extended events if present) split by sample
+     */
+    public Map<String, AlignmentContext> getUnfilteredContexts() {
+        if ( unfilteredContexts == null ) {
+            if ( contextsAreUnfiltered ) {
+                unfilteredContexts = contexts;
+            } else {
+                ReadBackedPileup pileup = null;
+                if (rawContext.hasExtendedEventPileup())
+                    pileup = rawContext.getExtendedEventPileup();
+                else if (rawContext.hasBasePileup())
+                    pileup = rawContext.getBasePileup();
+                unfilteredContexts = AlignmentContextUtils.splitContextBySampleName(pileup, assumedSingleSample);
+            }
+        }
+        return unfilteredContexts;
+    }
+}
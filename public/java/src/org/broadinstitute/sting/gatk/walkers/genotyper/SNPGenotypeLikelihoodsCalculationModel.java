@@ -42,6 +42,9 @@ import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -91,6 +94,13 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
         byte refBase = ref.getBase();
         Allele refAllele = Allele.create(refBase, true);
 
+        // the (BAQed) pileups are built once and shared by the alternate allele search and the likelihoods below
+        Map<String, ReadBackedPileup> pileups = new LinkedHashMap<String, ReadBackedPileup>(contexts.size() * 2);
+        for ( Map.Entry<String, AlignmentContext> sample : contexts.entrySet() ) {
+            ReadBackedPileup pileup = AlignmentContextUtils.stratify(sample.getValue(), contextType).getBasePileup();
+            pileups.put(sample.getKey(), useBAQedPileup ? createBAQedPileup(pileup) : pileup);
+        }
+
         // find the alternate allele with the largest sum of quality scores
         if ( alternateAlleleToUse != null ) {
             bestAlternateAllele = alternateAlleleToUse.getBases()[0];
@@ -103,12 +113,12 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
 
             if ( !vc.isBiallelic() ) {
                 // for multi-allelic sites go back to the reads and find the most likely alternate allele
-                initializeBestAlternateAllele(refBase, contexts, useBAQedPileup);
+                initializeBestAlternateAllele(refBase, pileups.values());
             } else {
                 bestAlternateAllele = vc.getAlternateAllele(0).getBases()[0];
             }
         } else {
-            initializeBestAlternateAllele(refBase, contexts, useBAQedPileup);
+            initializeBestAlternateAllele(refBase, pileups.values());
         }
 
         // if there are no non-ref bases...
@@ -123,21 +133,22 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
 
         Allele altAllele = Allele.create(bestAlternateAllele, false);
 
-        for ( Map.Entry<String, AlignmentContext> sample : contexts.entrySet() ) {
-            ReadBackedPileup pileup = AlignmentContextUtils.stratify(sample.getValue(), contextType).getBasePileup();
-            if( useBAQedPileup ) { pileup = createBAQedPileup( pileup ); }
+        DiploidGenotype refGenotype = DiploidGenotype.createHomGenotype(refBase);
+        DiploidGenotype hetGenotype = DiploidGenotype.createDiploidGenotype(refBase, bestAlternateAllele);
+        DiploidGenotype homGenotype = DiploidGenotype.createHomGenotype(bestAlternateAllele);
 
-            // create the GenotypeLikelihoods object
-            DiploidSNPGenotypeLikelihoods GL = new DiploidSNPGenotypeLikelihoods((DiploidSNPGenotypePriors)priors, UAC.PCR_error);
-            int nGoodBases = GL.add(pileup, true, true, UAC.MIN_BASE_QUALTY_SCORE);
+        // one GenotypeLikelihoods object and one likelihoods array serve every sample
+        DiploidSNPGenotypeLikelihoods GL = new DiploidSNPGenotypeLikelihoods((DiploidSNPGenotypePriors)priors, UAC.PCR_error);
+        double[] likelihoods = new double[DiploidGenotype.values().length];
+
+        for ( Map.Entry<String, ReadBackedPileup> sample : pileups.entrySet() ) {
+            ReadBackedPileup pileup = sample.getValue();
+
+            Arrays.fill(likelihoods, 0.0);
+            int nGoodBases = GL.add(pileup, true, true, UAC.MIN_BASE_QUALTY_SCORE, likelihoods);
             if ( nGoodBases == 0 )
                 continue;
 
-            double[] likelihoods = GL.getLikelihoods();
-
-            DiploidGenotype refGenotype = DiploidGenotype.createHomGenotype(refBase);
-            DiploidGenotype hetGenotype = DiploidGenotype.createDiploidGenotype(refBase, bestAlternateAllele);
-            DiploidGenotype homGenotype = DiploidGenotype.createHomGenotype(bestAlternateAllele);
             ArrayList<Allele> aList = new ArrayList<Allele>();
             aList.add(refAllele);
             aList.add(altAllele);
@@ -149,12 +160,11 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
         return refAllele;
     }
 
-    protected void initializeBestAlternateAllele(byte ref, Map<String, AlignmentContext> contexts, boolean useBAQedPileup) {
+    protected void initializeBestAlternateAllele(byte ref, Collection<ReadBackedPileup> pileups) {
         int[] qualCounts = new int[4];
 
-        for ( Map.Entry<String, AlignmentContext> sample : contexts.entrySet() ) {
+        for ( ReadBackedPileup pileup : pileups ) {
             // calculate the sum of quality scores for each base
-            ReadBackedPileup pileup = useBAQedPileup ? createBAQedPileup( sample.getValue().getBasePileup() ) : sample.getValue().getBasePileup();
             for ( PileupElement p : pileup ) {
                 // ignore deletions
                 if ( p.isDeletion() || (! p.isReducedRead() && p.getQual() < UAC.MIN_BASE_QUALTY_SCORE ))
@@ -181,6 +191,34 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
         }
     }
 
+    /**
+     * A cheap first pass over the reads at a locus: could initializeBestAlternateAllele() find an alternate allele
+     * there?  This errs on the side of yes.  When the BAQed qualities are going to be used we can't know them without
+     * calculating them, so any non-reference base at all counts as evidence.
+     *
+     * @param ref                   the reference base
+     * @param pileup                all the reads at the locus
+     * @param minBaseQual           the minimum quality for a base to be considered
+     * @param useBAQedPileup        true if the alternate allele will be chosen from BAQed qualities
+     * @return false only if there is certainly no alternate allele at the locus
+     */
+    public static boolean hasAlternateAlleleEvidence(byte ref, ReadBackedPileup pileup, int minBaseQual, boolean useBAQedPileup) {
+        for ( PileupElement p : pileup ) {
+            if ( p.isDeletion() )
+                continue;
+
+            final int index = BaseUtils.simpleBaseToBaseIndex(p.getBase());
+            if ( index < 0 || BaseUtils.BASES[index] == ref )
+                continue;
+
+            // exactly the bases which would add to the quality sums in initializeBestAlternateAllele()
+            if ( useBAQedPileup || (p.getQual() > 0 && (p.isReducedRead() || p.getQual() >= minBaseQual)) )
+                return true;
+        }
+
+        return false;
+    }
+
     public ReadBackedPileup createBAQedPileup( final ReadBackedPileup pileup ) {
         final List<PileupElement> BAQedElements = new ArrayList<PileupElement>();
         for( final PileupElement PE : pileup ) {
@@ -191,12 +229,24 @@ public class SNPGenotypeLikelihoodsCalculationModel extends GenotypeLikelihoodsC
     }
 
     public class BAQedPileupElement extends PileupElement {
+        // the BAQ quality is asked for several times per element, so it's only calculated the first time
+        private boolean hasBAQQual = false;
+        private byte BAQQual;
+
         public BAQedPileupElement( final PileupElement PE ) {
             super(PE.getRead(), PE.getOffset());
         }
 
         @Override
-        public byte getQual( final int offset ) { return BAQ.calcBAQFromTag(getRead(), offset, true); }
+        public byte getQual( final int offset ) {
+            if ( offset != this.offset )
+                return BAQ.calcBAQFromTag(getRead(), offset, true);
+            if ( !hasBAQQual ) {
+                BAQQual = BAQ.calcBAQFromTag(getRead(), offset, true);
+                hasBAQQual = true;
+            }
+            return BAQQual;
+        }
     }
 
 }
\ No newline at end of file
@@ -117,5 +117,6 @@ public class UGCalcLikelihoods extends LocusWalker<VariantCallContext, Integer>
 
     public void onTraversalDone(Integer sum) {
         logger.info(String.format("Visited bases: %d", sum));
+        UG_engine.close();
     }
 }
@@ -126,6 +126,7 @@ public class UGCallVariants extends RodWalker<VariantCallContext, Integer> {
 
     public void onTraversalDone(Integer result) {
         logger.info(String.format("Visited sites: %d", result));
+        UG_engine.close();
     }
 
     private static VariantContext mergeVCsWithGLs(List<VariantContext> VCs) {
@@ -27,6 +27,7 @@ package org.broadinstitute.sting.gatk.walkers.genotyper;
 
 import org.broadinstitute.sting.commandline.Argument;
 import org.broadinstitute.sting.commandline.Hidden;
+import org.broadinstitute.sting.gatk.walkers.indels.PairHMM;
 
 import java.io.File;
 
@@ -115,6 +116,10 @@ public class UnifiedArgumentCollection {
     @Argument(fullName="indel_recal_file", shortName="recalFile", required=false, doc="Filename for the input covariates table recalibration .csv file - EXPERIMENTAL, DO NO USE")
     public File INDEL_RECAL_FILE = new File("indel.recal_data.csv");
 
+    @Hidden
+    @Argument(fullName = "indelLikelihoodKernel", shortName = "indelKernel", doc = "Arithmetic used to compute indel read likelihoods - EXPERIMENTAL", required = false)
+    public PairHMM.Kernel INDEL_LIKELIHOOD_KERNEL = PairHMM.Kernel.LOG_JACOBIAN;
+
     @Hidden
     @Argument(fullName = "indelDebug", shortName = "indelDebug", doc = "Output indel debug info", required = false)
     public boolean OUTPUT_DEBUG_INDEL_INFO = false;
@@ -129,6 +134,10 @@ public class UnifiedArgumentCollection {
     @Argument(fullName = "exactCalculation", shortName = "exactCalculation", doc = "expt", required = false)
     public ExactAFCalculationModel.ExactCalculation EXACT_CALCULATION_TYPE = ExactAFCalculationModel.ExactCalculation.LINEAR_EXPERIMENTAL;
 
+    @Hidden
+    @Argument(fullName = "exact_calculation_threads", shortName = "exactThreads", doc = "Number of threads with which to run the exact calculation for large cohorts", required = false)
+    public int EXACT_CALCULATION_THREADS = 1;
+
     @Hidden
      @Argument(fullName = "ignoreSNPAlleles", shortName = "ignoreSNPAlleles", doc = "expt", required = false)
     public boolean IGNORE_SNP_ALLELES = false;
@@ -150,6 +159,7 @@ public class UnifiedArgumentCollection {
         uac.GLmodel = GLmodel;
         uac.AFmodel = AFmodel;
         uac.EXACT_CALCULATION_TYPE = EXACT_CALCULATION_TYPE;
+        uac.EXACT_CALCULATION_THREADS = EXACT_CALCULATION_THREADS;
         uac.heterozygosity = heterozygosity;
         uac.PCR_error = PCR_error;
         uac.GenotypingMode = GenotypingMode;
@@ -171,6 +181,7 @@ public class UnifiedArgumentCollection {
 
         uac.GET_GAP_PENALTIES_FROM_DATA = GET_GAP_PENALTIES_FROM_DATA;
         uac.INDEL_RECAL_FILE = INDEL_RECAL_FILE;
+        uac.INDEL_LIKELIHOOD_KERNEL = INDEL_LIKELIHOOD_KERNEL;
         // todo- arguments to remove
         uac.COVERAGE_AT_WHICH_TO_ABORT = COVERAGE_AT_WHICH_TO_ABORT;
         uac.dovit = dovit;
@@ -236,6 +236,8 @@ public class UnifiedGenotyper extends LocusWalker<VariantCallContext, UnifiedGen
     }
 
     public void onTraversalDone(UGStatistics sum) {
+        UG_engine.close();
+
         logger.info(String.format("Visited bases                                %d", sum.nBasesVisited));
         logger.info(String.format("Callable bases                               %d", sum.nBasesCallable));
         logger.info(String.format("Confidently called bases                     %d", sum.nBasesCalledConfidently));
@@ -36,7 +36,6 @@ import org.broadinstitute.sting.gatk.walkers.annotator.VariantAnnotatorEngine;
 import org.broadinstitute.sting.utils.*;
 import org.broadinstitute.sting.utils.baq.BAQ;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedExtendedEventPileup;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
@@ -46,6 +45,7 @@ import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class UnifiedGenotyperEngine {
     public static final String LOW_QUAL_FILTER_NAME = "LowQual";
@@ -68,6 +68,9 @@ public class UnifiedGenotyperEngine {
     // the model used for calculating p(non-ref)
     private ThreadLocal<AlleleFrequencyCalculationModel> afcm = new ThreadLocal<AlleleFrequencyCalculationModel>();
 
+    // the pool shared by every thread's exact model, or null if the exact calculation runs in the calling thread
+    private final ForkJoinPool exactPool;
+
     // because the allele frequency priors are constant for a given i, we cache the results to avoid having to recompute everything
     private final double[] log10AlleleFrequencyPriorsSNPs;
     private final double[] log10AlleleFrequencyPriorsIndels;
@@ -94,6 +97,10 @@ public class UnifiedGenotyperEngine {
 
     private final boolean BAQEnabledOnCMDLine;
 
+    // when only emitting variants, a SNP locus without any evidence of an alternate allele can only ever end up
+    //  with a reference confidence, so we can go straight there without calculating any likelihoods
+    private final boolean skipLociWithoutAlternateAlleles;
+
 
 
     // ---------------------------------------------------------------------------------------------------------
@@ -118,6 +125,8 @@ public class UnifiedGenotyperEngine {
         // note that, because we cap the base quality by the mapping quality, minMQ cannot be less than minBQ
         this.UAC = UAC.clone();
         this.UAC.MIN_MAPPING_QUALTY_SCORE = Math.max(UAC.MIN_MAPPING_QUALTY_SCORE, UAC.MIN_BASE_QUALTY_SCORE);
+        this.skipLociWithoutAlternateAlleles = UAC.OutputMode == OUTPUT_MODE.EMIT_VARIANTS_ONLY &&
+                UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.DISCOVERY;
 
         this.logger = logger;
         this.verboseWriter = verboseWriter;
@@ -130,10 +139,21 @@ public class UnifiedGenotyperEngine {
         computeAlleleFrequencyPriors(N, log10AlleleFrequencyPriorsIndels, GenotypeLikelihoodsCalculationModel.Model.INDEL);
         genotypePriorsSNPs = createGenotypePriors(GenotypeLikelihoodsCalculationModel.Model.SNP);
         genotypePriorsIndels = createGenotypePriors(GenotypeLikelihoodsCalculationModel.Model.INDEL);
+
+        exactPool = UAC.EXACT_CALCULATION_THREADS > 1 ? new ForkJoinPool(UAC.EXACT_CALCULATION_THREADS) : null;
         
         filter.add(LOW_QUAL_FILTER_NAME);
     }
 
+    /**
+     * Releases the threads used by the exact calculation.  Must only be called once no more calls will be made,
+     * e.g. from the walker's onTraversalDone().
+     */
+    public void close() {
+        if ( exactPool != null )
+            exactPool.shutdown();
+    }
+
     /**
      * Compute full calls at a given locus. Entry point for engine calls from the UnifiedGenotyper.
      *
@@ -148,20 +168,27 @@ public class UnifiedGenotyperEngine {
 
         final GenotypeLikelihoodsCalculationModel.Model model = getCurrentGLModel(tracker, refContext, rawContext );
         if( model == null ) {
-            return (UAC.OutputMode == OUTPUT_MODE.EMIT_ALL_SITES && UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES ? generateEmptyContext(tracker, refContext, null, rawContext) : null);
+            return (UAC.OutputMode == OUTPUT_MODE.EMIT_ALL_SITES && UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES ? generateEmptyContext(tracker, refContext, new LocusStratification(rawContext, null, false, UAC.ASSUME_SINGLE_SAMPLE)) : null);
         }
 
-        Map<String, AlignmentContext> stratifiedContexts = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model);
-        if ( stratifiedContexts == null ) {
-            return (UAC.OutputMode == OUTPUT_MODE.EMIT_ALL_SITES && UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES ? generateEmptyContext(tracker, refContext, stratifiedContexts, rawContext) : null);
+        LocusStratification stratification = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model);
+        if ( stratification.getContexts() == null ) {
+            return (UAC.OutputMode == OUTPUT_MODE.EMIT_ALL_SITES && UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES ? generateEmptyContext(tracker, refContext, stratification) : null);
+        }
+
+        // the vast majority of loci show no sign of variation at all; this is what the GL model and calculateGenotypes() would make of them
+        if ( skipLociWithoutAlternateAlleles && model == GenotypeLikelihoodsCalculationModel.Model.SNP &&
+                !SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence(refContext.getBase(), rawContext.getBasePileup(), UAC.MIN_BASE_QUALTY_SCORE, BAQEnabledOnCMDLine) ) {
+            VariantContext refVC = createVariantContextFromLikelihoods(refContext, Allele.create(refContext.getBase(), true), new HashMap<String, MultiallelicGenotypeLikelihoods>());
+            return estimateReferenceConfidence(refVC, stratification.getContexts(), getGenotypePriors(model).getHeterozygosity(), false, 1.0);
         }
-        
-        VariantContext vc = calculateLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.COMPLETE, null, true, model);
+
+        VariantContext vc = calculateLikelihoods(tracker, refContext, stratification.getContexts(), null, true, model);
 
         if ( vc == null )
             return null;
 
-        return calculateGenotypes(tracker, refContext, rawContext, stratifiedContexts, vc, model);
+        return calculateGenotypes(tracker, refContext, stratification, vc, model);
     }
 
     /**
@@ -177,11 +204,11 @@ public class UnifiedGenotyperEngine {
         if( model == null )
             return null;
 
-        Map<String, AlignmentContext> stratifiedContexts = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model);
+        Map<String, AlignmentContext> stratifiedContexts = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model).getContexts();
         if ( stratifiedContexts == null )
             return null;
 
-        return calculateLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.COMPLETE, null, true, model);
+        return calculateLikelihoods(tracker, refContext, stratifiedContexts, null, true, model);
     }
 
     /**
@@ -198,8 +225,8 @@ public class UnifiedGenotyperEngine {
         if( model == null ) {
             return null;
         }
-        Map<String, AlignmentContext> stratifiedContexts = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model);
-        return calculateGenotypes(tracker, refContext, rawContext, stratifiedContexts, vc, model);
+        LocusStratification stratification = getFilteredAndStratifiedContexts(UAC, refContext, rawContext, model);
+        return calculateGenotypes(tracker, refContext, stratification, vc, model);
     }
 
 
@@ -211,8 +238,9 @@ public class UnifiedGenotyperEngine {
     //
     // ---------------------------------------------------------------------------------------------------------
 
-    // private method called by both UnifiedGenotyper and UGCalcLikelihoods entry points into the engine
-    private VariantContext calculateLikelihoods(RefMetaDataTracker tracker, ReferenceContext refContext, Map<String, AlignmentContext> stratifiedContexts, AlignmentContextUtils.ReadOrientation type, Allele alternateAlleleToUse, boolean useBAQedPileup, final GenotypeLikelihoodsCalculationModel.Model model) {
+    // private method called by both UnifiedGenotyper and UGCalcLikelihoods entry points into the engine.
+    // Strand-specific passes hand in contexts already restricted to that strand by the LocusStratification.
+    private VariantContext calculateLikelihoods(RefMetaDataTracker tracker, ReferenceContext refContext, Map<String, AlignmentContext> stratifiedContexts, Allele alternateAlleleToUse, boolean useBAQedPileup, final GenotypeLikelihoodsCalculationModel.Model model) {
 
         // initialize the data for this thread if that hasn't been done yet
         if ( glcm.get() == null ) {
@@ -221,7 +249,7 @@ public class UnifiedGenotyperEngine {
 
         Map<String, MultiallelicGenotypeLikelihoods> GLs = new HashMap<String, MultiallelicGenotypeLikelihoods>();
 
-        Allele refAllele = glcm.get().get(model).getLikelihoods(tracker, refContext, stratifiedContexts, type, getGenotypePriors(model), GLs, alternateAlleleToUse, useBAQedPileup && BAQEnabledOnCMDLine);
+        Allele refAllele = glcm.get().get(model).getLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.COMPLETE, getGenotypePriors(model), GLs, alternateAlleleToUse, useBAQedPileup && BAQEnabledOnCMDLine);
 
         if ( refAllele != null )
             return createVariantContextFromLikelihoods(refContext, refAllele, GLs);
@@ -229,7 +257,7 @@ public class UnifiedGenotyperEngine {
             return null;
     }
 
-    private VariantCallContext generateEmptyContext(RefMetaDataTracker tracker, ReferenceContext ref, Map<String, AlignmentContext> stratifiedContexts, AlignmentContext rawContext) {
+    private VariantCallContext generateEmptyContext(RefMetaDataTracker tracker, ReferenceContext ref, LocusStratification stratification) {
         VariantContext vc;
         if ( UAC.GenotypingMode == GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES ) {
             VariantContext vcInput = SNPGenotypeLikelihoodsCalculationModel.getSNPVCFromAllelesRod(tracker, ref, false, logger);
@@ -248,14 +276,7 @@ public class UnifiedGenotyperEngine {
         
         if ( annotationEngine != null ) {
             // we want to use the *unfiltered* and *unBAQed* context for the annotations
-            ReadBackedPileup pileup = null;
-            if (rawContext.hasExtendedEventPileup())
-                pileup = rawContext.getExtendedEventPileup();
-            else if (rawContext.hasBasePileup())
-                pileup = rawContext.getBasePileup();
-            stratifiedContexts = AlignmentContextUtils.splitContextBySampleName(pileup, UAC.ASSUME_SINGLE_SAMPLE);
-
-            vc = annotationEngine.annotateContext(tracker, ref, stratifiedContexts, vc).iterator().next();
+            vc = annotationEngine.annotateContext(tracker, ref, stratification.getUnfilteredContexts(), vc).iterator().next();
         }
 
         return new VariantCallContext(vc, ref.getBase(), false);
@@ -304,19 +325,21 @@ public class UnifiedGenotyperEngine {
     }
 
     // private method called by both UnifiedGenotyper and UGCallVariants entry points into the engine
-    private VariantCallContext calculateGenotypes(RefMetaDataTracker tracker, ReferenceContext refContext, AlignmentContext rawContext, Map<String, AlignmentContext> stratifiedContexts, VariantContext vc, final GenotypeLikelihoodsCalculationModel.Model model) {
+    private VariantCallContext calculateGenotypes(RefMetaDataTracker tracker, ReferenceContext refContext, LocusStratification stratification, VariantContext vc, final GenotypeLikelihoodsCalculationModel.Model model) {
+        final AlignmentContext rawContext = stratification.getRawContext();
+        final Map<String, AlignmentContext> stratifiedContexts = stratification.getContexts();
 
         // initialize the data for this thread if that hasn't been done yet
         if ( afcm.get() == null ) {
             log10AlleleFrequencyPosteriors.set(new double[N+1]);
-            afcm.set(getAlleleFrequencyCalculationObject(N, logger, verboseWriter, UAC));
+            afcm.set(getAlleleFrequencyCalculationObject(N, logger, verboseWriter, UAC, exactPool));
         }
 
         // estimate our confidence in a reference call and return
         if ( vc.getNSamples() == 0 )
             return (UAC.OutputMode != OUTPUT_MODE.EMIT_ALL_SITES ?
                     estimateReferenceConfidence(vc, stratifiedContexts, getGenotypePriors(model).getHeterozygosity(), false, 1.0) :
-                    generateEmptyContext(tracker, refContext, stratifiedContexts, rawContext));
+                    generateEmptyContext(tracker, refContext, stratification));
 
         // 'zero' out the AFs (so that we don't have to worry if not all samples have reads at this position)
         clearAFarray(log10AlleleFrequencyPosteriors.get());
@@ -376,15 +399,19 @@ public class UnifiedGenotyperEngine {
             final boolean DEBUG_SLOD = false;
 
             // the overall lod
-            VariantContext vcOverall = calculateLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.COMPLETE, vc.getAlternateAllele(0), false, model);
-            clearAFarray(log10AlleleFrequencyPosteriors.get());
-            afcm.get().getLog10PNonRef(tracker, refContext, vcOverall.getGenotypes(), vc.getAlleles(), getAlleleFrequencyPriors(model), log10AlleleFrequencyPosteriors.get());
+            // without BAQ, the SNP likelihoods for the site's own alternate allele are exactly those we've just
+            //  computed the posteriors from, so there's no need to compute them all over again
+            if ( model != GenotypeLikelihoodsCalculationModel.Model.SNP || BAQEnabledOnCMDLine ) {
+                VariantContext vcOverall = calculateLikelihoods(tracker, refContext, stratifiedContexts, vc.getAlternateAllele(0), false, model);
+                clearAFarray(log10AlleleFrequencyPosteriors.get());
+                afcm.get().getLog10PNonRef(tracker, refContext, vcOverall.getGenotypes(), vc.getAlleles(), getAlleleFrequencyPriors(model), log10AlleleFrequencyPosteriors.get());
+            }
             //double overallLog10PofNull = log10AlleleFrequencyPosteriors.get()[0];
             double overallLog10PofF = MathUtils.log10sumLog10(log10AlleleFrequencyPosteriors.get(), 1);
             if ( DEBUG_SLOD ) System.out.println("overallLog10PofF=" + overallLog10PofF);
 
             // the forward lod
-            VariantContext vcForward = calculateLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.FORWARD, vc.getAlternateAllele(0), false, model);
+            VariantContext vcForward = calculateLikelihoods(tracker, refContext, stratification.getContexts(AlignmentContextUtils.ReadOrientation.FORWARD), vc.getAlternateAllele(0), false, model);
             clearAFarray(log10AlleleFrequencyPosteriors.get());
             afcm.get().getLog10PNonRef(tracker, refContext, vcForward.getGenotypes(), vc.getAlleles(), getAlleleFrequencyPriors(model), log10AlleleFrequencyPosteriors.get());
             //double[] normalizedLog10Posteriors = MathUtils.normalizeFromLog10(log10AlleleFrequencyPosteriors.get(), true);
@@ -393,7 +420,7 @@ public class UnifiedGenotyperEngine {
             if ( DEBUG_SLOD ) System.out.println("forwardLog10PofNull=" + forwardLog10PofNull + ", forwardLog10PofF=" + forwardLog10PofF);
 
             // the reverse lod
-            VariantContext vcReverse = calculateLikelihoods(tracker, refContext, stratifiedContexts, AlignmentContextUtils.ReadOrientation.REVERSE, vc.getAlternateAllele(0), false, model);
+            VariantContext vcReverse = calculateLikelihoods(tracker, refContext, stratification.getContexts(AlignmentContextUtils.ReadOrientation.REVERSE), vc.getAlternateAllele(0), false, model);
             clearAFarray(log10AlleleFrequencyPosteriors.get());
             afcm.get().getLog10PNonRef(tracker, refContext, vcReverse.getGenotypes(), vc.getAlleles(), getAlleleFrequencyPriors(model), log10AlleleFrequencyPosteriors.get());
             //normalizedLog10Posteriors = MathUtils.normalizeFromLog10(log10AlleleFrequencyPosteriors.get(), true);
@@ -429,14 +456,7 @@ public class UnifiedGenotyperEngine {
 
         if ( annotationEngine != null ) {
             // first off, we want to use the *unfiltered* and *unBAQed* context for the annotations
-            ReadBackedPileup pileup = null;
-            if (rawContext.hasExtendedEventPileup())
-                pileup = rawContext.getExtendedEventPileup();
-            else if (rawContext.hasBasePileup())
-                pileup = rawContext.getBasePileup();
-            stratifiedContexts = AlignmentContextUtils.splitContextBySampleName(pileup, UAC.ASSUME_SINGLE_SAMPLE);
-
-            Collection<VariantContext> variantContexts = annotationEngine.annotateContext(tracker, refContext, stratifiedContexts, vcCall);
+            Collection<VariantContext> variantContexts = annotationEngine.annotateContext(tracker, refContext, stratification.getUnfilteredContexts(), vcCall);
             vcCall = variantContexts.iterator().next(); // we know the collection will always have exactly 1 element.
         }
 
@@ -481,7 +501,19 @@ public class UnifiedGenotyperEngine {
         return endLoc;
     }
 
-    private Map<String, AlignmentContext> getFilteredAndStratifiedContexts(UnifiedArgumentCollection UAC, ReferenceContext refContext, AlignmentContext rawContext, final GenotypeLikelihoodsCalculationModel.Model model) {
+    /**
+     * Filters and stratifies the raw context for the given model, wrapping the result up so that the strand-specific
+     * and unfiltered views needed later on are only computed once for the locus.
+     *
+     * @return the stratification of the locus; its contexts are null if the locus shouldn't be called.
+     */
+    private LocusStratification getFilteredAndStratifiedContexts(UnifiedArgumentCollection UAC, ReferenceContext refContext, AlignmentContext rawContext, final GenotypeLikelihoodsCalculationModel.Model model) {
+        // the SNP contexts are cut straight from the raw base pileup, so they double as the unfiltered ones
+        return new LocusStratification(rawContext, filterAndStratifyContexts(UAC, refContext, rawContext, model),
+                model == GenotypeLikelihoodsCalculationModel.Model.SNP, UAC.ASSUME_SINGLE_SAMPLE);
+    }
+
+    private Map<String, AlignmentContext> filterAndStratifyContexts(UnifiedArgumentCollection UAC, ReferenceContext refContext, AlignmentContext rawContext, final GenotypeLikelihoodsCalculationModel.Model model) {
 
         Map<String, AlignmentContext> stratifiedContexts = null;
 
@@ -524,11 +556,8 @@ public class UnifiedGenotyperEngine {
             stratifiedContexts = AlignmentContextUtils.splitContextBySampleName(rawContext.getBasePileup(), UAC.ASSUME_SINGLE_SAMPLE);
 
             if( !(UAC.OutputMode == OUTPUT_MODE.EMIT_ALL_SITES && UAC.GenotypingMode != GenotypeLikelihoodsCalculationModel.GENOTYPING_MODE.GENOTYPE_GIVEN_ALLELES) ) {
-                int numDeletions = 0;
-                for( final PileupElement p : rawContext.getBasePileup() ) {
-                    if( p.isDeletion() ) { numDeletions++; }
-                }
-                if( ((double) numDeletions) / ((double) rawContext.getBasePileup().size()) > UAC.MAX_DELETION_FRACTION ) {
+                final ReadBackedPileup pileup = rawContext.getBasePileup();
+                if( ((double) pileup.getNumberOfDeletions()) / ((double) pileup.size()) > UAC.MAX_DELETION_FRACTION ) {
                     return null;
                 }
             }
@@ -725,11 +754,11 @@ public class UnifiedGenotyperEngine {
         return glcm;
     }
 
-    private static AlleleFrequencyCalculationModel getAlleleFrequencyCalculationObject(int N, Logger logger, PrintStream verboseWriter, UnifiedArgumentCollection UAC) {
+    private static AlleleFrequencyCalculationModel getAlleleFrequencyCalculationObject(int N, Logger logger, PrintStream verboseWriter, UnifiedArgumentCollection UAC, ForkJoinPool exactPool) {
         AlleleFrequencyCalculationModel afcm;
         switch ( UAC.AFmodel ) {
             case EXACT:
-                afcm = new ExactAFCalculationModel(UAC, N, logger, verboseWriter);
+                afcm = new ExactAFCalculationModel(UAC, N, logger, verboseWriter, exactPool);
                 break;
             case GRID_SEARCH:
                 afcm = new GridSearchAFEstimation(UAC, N, logger, verboseWriter);
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.indels;
+
+import org.broadinstitute.sting.utils.MathUtils;
+
+/**
+ * Computes the likelihood of a read given a haplotype with the affine gap pair HMM used by PairHMMIndelErrorModel.
+ *
+ * The match, insertion and deletion matrices are allocated once and only grown, so an engine allocates nothing
+ * in the steady state.  The matrices are filled one haplotype position (column) at a time; when the same read is
+ * scored against several haplotypes in a row, the columns covering the prefix a haplotype shares with the previous
+ * one are kept rather than recomputed.
+ *
+ * Two kernels are available.  LOG_JACOBIAN works in log10 space and approximates each sum with a Jacobian
+ * logarithm table lookup, giving exactly the results PairHMMIndelErrorModel always has.  SCALED_PROBABILITY sums
+ * exact probabilities, scaled up so that they don't underflow for any realistic read; if the result underflows
+ * anyway, the read is rescored in log10 space.  Viterbi scoring always uses log10 space.
+ *
+ * Not thread-safe: use one engine per thread.
+ */
+public class PairHMM {
+    public enum Kernel {
+        /** log10 space, with sums approximated by Jacobian logarithm table lookups. */
+        LOG_JACOBIAN,
+        /** Exact sums of scaled probabilities, falling back to log10 space on underflow. */
+        SCALED_PROBABILITY
+    }
+
+    private static final int MAX_CACHED_QUAL = 127;
+
+    /** log10 cost of each base of a gap at either end of the haplotype or read. */
+    private static final double END_GAP_COST = -Math.log10(2.0);
+
+    private static final double[] LOG_BASE_MATCH = new double[MAX_CACHED_QUAL+1];
+    private static final double[] LOG_BASE_MISMATCH = new double[MAX_CACHED_QUAL+1];
+    private static final double[] BASE_MATCH = new double[MAX_CACHED_QUAL+1];
+    private static final double[] BASE_MISMATCH = new double[MAX_CACHED_QUAL+1];
+
+    /**
+     * Probability-space values are multiplied by 2^SCALE_EXPONENT.  Leaves enough headroom below
+     * Double.MAX_VALUE for the small amount by which cell values can grow along the matrix.
+     */
+    private static final int SCALE_EXPONENT = 1000;
+    private static final double LOG10_SCALE = SCALE_EXPONENT * Math.log10(2.0);
+
+    static {
+        for (int k=1; k <= MAX_CACHED_QUAL; k++) {
+            double baseProb = Math.pow(10, -k/10.);
+            LOG_BASE_MATCH[k] = Math.log10(1-baseProb);
+            LOG_BASE_MISMATCH[k] = Math.log10(baseProb);
+            BASE_MATCH[k] = 1-baseProb;
+            BASE_MISMATCH[k] = baseProb;
+        }
+    }
+
+    private final Kernel kernel;
+    private final boolean doViterbi;
+
+    /** Match, insertion (X) and deletion (Y) matrices, column-major: cell (i,j) is at j*rowCapacity+i. */
+    private double[] matchMatrix = new double[0];
+    private double[] xMatrix = new double[0];
+    private double[] yMatrix = new double[0];
+    private int rowCapacity = 0;
+    private int columnCapacity = 0;
+
+    // Inputs to the last computation, used to work out how many leading columns are still valid.
+    private byte[] lastReadBases = null;
+    private byte[] lastReadQuals = null;
+    private byte[] lastHaplotypeBases = null;
+    private double[] lastGapOpen = null;
+    private double[] lastGapContinuation = null;
+    private int lastHaplotypeStart = 0;
+    private int lastColumns = 0;
+    private boolean lastFilledInLogSpace = false;
+
+    /**
+     * Create a new engine.
+     * @param kernel How to sum over alignments.
+     * @param doViterbi If true, score only the best alignment rather than summing over all of them.
+     */
+    public PairHMM(Kernel kernel, boolean doViterbi) {
+        this.kernel = kernel;
+        this.doViterbi = doViterbi;
+    }
+
+    /**
+     * Computes log10 of the likelihood of the read given haplotypeBases[haplotypeStart,haplotypeStop).  No array is
+     * copied.  When scoring the same read against several haplotypes, pass the same read arrays each time and don't
+     * modify them in between, so that the engine can recognize the read and reuse work.
+     *
+     * @param haplotypeBases Bases of the haplotype.
+     * @param haplotypeStart First haplotype base to score against.
+     * @param haplotypeStop One past the last haplotype base to score against.
+     * @param readBases Bases of the read.
+     * @param readQuals Base qualities of the read.
+     * @param gapOpen log10 gap open probability at each haplotype position; indexed like haplotypeBases.
+     * @param gapContinuation log10 gap continuation probability at each haplotype position; indexed like haplotypeBases.
+     * @return log10 Pr(read | haplotype).
+     */
+    public double computeReadLikelihoodGivenHaplotype(final byte[] haplotypeBases, final int haplotypeStart, final int haplotypeStop,
+                                                      final byte[] readBases, final byte[] readQuals,
+                                                      final double[] gapOpen, final double[] gapContinuation) {
+        if (haplotypeStart > haplotypeStop)
+            throw new IllegalArgumentException(haplotypeStart + " > " + haplotypeStop);
+
+        final int rows = readBases.length+1;
+        final int columns = haplotypeStop-haplotypeStart+1;
+        final boolean logSpace = doViterbi || kernel == Kernel.LOG_JACOBIAN;
+
+        int firstColumn = 1;
+        if (!ensureCapacity(rows,columns) && logSpace == lastFilledInLogSpace && readBases == lastReadBases && readQuals == lastReadQuals)
+            firstColumn = countReusableColumns(haplotypeBases,haplotypeStart,gapOpen,gapContinuation,columns)+1;
+
+        // Forget the last inputs until the matrices are consistent with the new ones.
+        lastReadBases = null;
+
+        double result;
+        if (logSpace)
+            result = fillLogSpace(haplotypeBases,haplotypeStart,readBases,readQuals,gapOpen,gapContinuation,rows,columns,firstColumn);
+        else {
+            result = fillProbabilitySpace(haplotypeBases,haplotypeStart,readBases,readQuals,gapOpen,gapContinuation,rows,columns,firstColumn);
+            if (result >= Double.MIN_NORMAL)
+                result = Math.log10(result) - LOG10_SCALE;
+            else
+                result = fillLogSpace(haplotypeBases,haplotypeStart,readBases,readQuals,gapOpen,gapContinuation,rows,columns,1);
+        }
+
+        lastReadBases = readBases;
+        lastReadQuals = readQuals;
+        lastHaplotypeBases = haplotypeBases;
+        lastHaplotypeStart = haplotypeStart;
+        lastGapOpen = gapOpen;
+        lastGapContinuation = gapContinuation;
+        lastColumns = columns;
+
+        return result;
+    }
+
+    /**
+     * Makes sure the matrices can hold the given number of rows and columns.
+     * @return true if the matrices had to be reallocated, losing their contents.
+     */
+    private boolean ensureCapacity(final int rows, final int columns) {
+        if (rows <= rowCapacity && columns <= columnCapacity)
+            return false;
+        rowCapacity = Math.max(rows,rowCapacity);
+        columnCapacity = Math.max(columns,columnCapacity);
+        matchMatrix = new double[rowCapacity*columnCapacity];
+        xMatrix = new double[rowCapacity*columnCapacity];
+        yMatrix = new double[rowCapacity*columnCapacity];
+        return true;
+    }
+
+    /**
+     * Counts the leading columns computed for the last haplotype which are also valid for this one.  Column j
+     * depends only on the read and on haplotype positions before j, except that the last column of each haplotype
+     * is scored with end gap costs.
+     */
+    private int countReusableColumns(final byte[] haplotypeBases, final int haplotypeStart,
+                                     final double[] gapOpen, final double[] gapContinuation, final int columns) {
+        final int maxReusable = Math.min(columns,lastColumns)-2;
+        int reusable = 0;
+        while (reusable < maxReusable &&
+                haplotypeBases[haplotypeStart+reusable] == lastHaplotypeBases[lastHaplotypeStart+reusable] &&
+                gapOpen[haplotypeStart+reusable] == lastGapOpen[lastHaplotypeStart+reusable] &&
+                gapContinuation[haplotypeStart+reusable] == lastGapContinuation[lastHaplotypeStart+reusable])
+            reusable++;
+        return reusable;
+    }
+
+    private static int capQual(byte qual) {
+        // workaround for reads whose bases quality = 0,
+        if (qual < 1)
+            return 1;
+        return qual > MAX_CACHED_QUAL ? MAX_CACHED_QUAL : qual;
+    }
+
+    private double fillLogSpace(final byte[] haplotypeBases, final int haplotypeStart, final byte[] readBases, final byte[] readQuals,
+                                final double[] gapOpen, final double[] gapContinuation,
+                                final int rows, final int columns, final int firstColumn) {
+        final double[] M = matchMatrix, X = xMatrix, Y = yMatrix;
+        final int lastRow = rows-1;
+
+        if (firstColumn == 1) {
+            M[0] = END_GAP_COST;
+            X[0] = 0.0;
+            Y[0] = 0.0;
+            for (int i = 1; i < rows; i++) {
+                M[i] = Double.NEGATIVE_INFINITY;
+                X[i] = END_GAP_COST*(i);
+                Y[i] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        for (int j = firstColumn; j < columns; j++) {
+            final int column = j*rowCapacity;
+            final int previousColumn = column-rowCapacity;
+            final byte y = haplotypeBases[haplotypeStart+j-1];
+            final double gop = gapOpen[haplotypeStart+j-1];
+            final double gcp = gapContinuation[haplotypeStart+j-1];
+            final double xOpen = j == columns-1 ? END_GAP_COST : gop;
+            final double xContinue = j == columns-1 ? END_GAP_COST : gcp;
+
+            M[column] = Double.NEGATIVE_INFINITY;
+            X[column] = Double.NEGATIVE_INFINITY;
+            Y[column] = END_GAP_COST*(j);
+
+            for (int i = 1; i < rows; i++) {
+                final int qual = capQual(readQuals[i-1]);
+                final double pBaseRead = (readBases[i-1] == y) ? LOG_BASE_MATCH[qual] : LOG_BASE_MISMATCH[qual];
+                final double yOpen = i == lastRow ? END_GAP_COST : gop;
+                final double yContinue = i == lastRow ? END_GAP_COST : gcp;
+                final int cell = column+i;
+                final int diagonal = previousColumn+i-1;
+
+                if (doViterbi) {
+                    M[cell] = MathUtils.max(M[diagonal] + pBaseRead, X[diagonal] + pBaseRead, Y[diagonal] + pBaseRead);
+                    X[cell] = Math.max(M[cell-1] + xOpen, X[cell-1] + xContinue);
+                    Y[cell] = Math.max(M[previousColumn+i] + yOpen, Y[previousColumn+i] + yContinue);
+                }
+                else {
+                    M[cell] = MathUtils.softMax(M[diagonal] + pBaseRead, X[diagonal] + pBaseRead, Y[diagonal] + pBaseRead);
+                    X[cell] = MathUtils.softMax(M[cell-1] + xOpen, X[cell-1] + xContinue);
+                    Y[cell] = MathUtils.softMax(M[previousColumn+i] + yOpen, Y[previousColumn+i] + yContinue);
+                }
+            }
+        }
+
+        lastFilledInLogSpace = true;
+
+        final int last = (columns-1)*rowCapacity+lastRow;
+        if (doViterbi)
+            return MathUtils.max(M[last],X[last],Y[last]);
+        else
+            return MathUtils.softMax(M[last],X[last],Y[last]);
+    }
+
+    /**
+     * Fills the matrices with probabilities scaled by 2^SCALE_EXPONENT.
+     * @return The scaled likelihood; less than Double.MIN_NORMAL if precision has been lost to underflow.
+     */
+    private double fillProbabilitySpace(final byte[] haplotypeBases, final int haplotypeStart, final byte[] readBases, final byte[] readQuals,
+                                        final double[] gapOpen, final double[] gapContinuation,
+                                        final int rows, final int columns, final int firstColumn) {
+        final double[] M = matchMatrix, X = xMatrix, Y = yMatrix;
+        final int lastRow = rows-1;
+        final double endGap = 0.5;
+
+        if (firstColumn == 1) {
+            M[0] = Math.scalb(endGap,SCALE_EXPONENT);
+            X[0] = Math.scalb(1.0,SCALE_EXPONENT);
+            Y[0] = Math.scalb(1.0,SCALE_EXPONENT);
+            for (int i = 1; i < rows; i++) {
+                M[i] = 0.0;
+                X[i] = Math.scalb(1.0,SCALE_EXPONENT-i);
+                Y[i] = 0.0;
+            }
+        }
+
+        for (int j = firstColumn; j < columns; j++) {
+            final int column = j*rowCapacity;
+            final int previousColumn = column-rowCapacity;
+            final byte y = haplotypeBases[haplotypeStart+j-1];
+            final double gop = Math.pow(10.0,gapOpen[haplotypeStart+j-1]);
+            final double gcp = Math.pow(10.0,gapContinuation[haplotypeStart+j-1]);
+            final double xOpen = j == columns-1 ? endGap : gop;
+            final double xContinue = j == columns-1 ? endGap : gcp;
+
+            M[column] = 0.0;
+            X[column] = 0.0;
+            Y[column] = Math.scalb(1.0,SCALE_EXPONENT-j);
+
+            for (int i = 1; i < lastRow; i++) {
+                final int qual = capQual(readQuals[i-1]);
+                final double pBaseRead = (readBases[i-1] == y) ? BASE_MATCH[qual] : BASE_MISMATCH[qual];
+                final int cell = column+i;
+                final int diagonal = previousColumn+i-1;
+                M[cell] = (M[diagonal] + X[diagonal] + Y[diagonal]) * pBaseRead;
+                X[cell] = M[cell-1] * xOpen + X[cell-1] * xContinue;
+                Y[cell] = M[previousColumn+i] * gop + Y[previousColumn+i] * gcp;
+            }
+
+            // The last row is scored with end gap costs
+            if (lastRow > 0) {
+                final int qual = capQual(readQuals[lastRow-1]);
+                final double pBaseRead = (readBases[lastRow-1] == y) ? BASE_MATCH[qual] : BASE_MISMATCH[qual];
+                final int cell = column+lastRow;
+                final int diagonal = previousColumn+lastRow-1;
+                M[cell] = (M[diagonal] + X[diagonal] + Y[diagonal]) * pBaseRead;
+                X[cell] = M[cell-1] * xOpen + X[cell-1] * xContinue;
+                Y[cell] = M[previousColumn+lastRow] * endGap + Y[previousColumn+lastRow] * endGap;
+            }
+        }
+
+        lastFilledInLogSpace = false;
+
+        final int last = (columns-1)*rowCapacity+lastRow;
+        return M[last] + X[last] + Y[last];
+    }
+}
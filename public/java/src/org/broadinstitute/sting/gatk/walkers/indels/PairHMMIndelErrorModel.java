@@ -111,6 +111,16 @@ public class PairHMMIndelErrorModel {
 
     private boolean getGapPenaltiesFromFile = false;
 
+    private PairHMM.Kernel kernel = PairHMM.Kernel.LOG_JACOBIAN;
+
+    /**
+     * Scores reads against haplotypes, reusing its matrices between calls.  Created on first use, once the
+     * constructors have settled the kernel.  Not synchronized: the UnifiedGenotyperEngine is shared by all -nt
+     * threads, but each thread gets its own IndelGenotypeLikelihoodsCalculationModel, and so its own copy of this
+     * model, through the engine's ThreadLocal glcm.  Sharing this model between threads would need locking here.
+     */
+    private PairHMM pairHMM = null;
+
     private int SMOOTHING = 1;
     private int MAX_QUALITY_SCORE = 50;
     private int PRESERVE_QSCORES_LESS_THAN = 5;
@@ -145,6 +155,11 @@ public class PairHMMIndelErrorModel {
         }
     }
 
+    public  PairHMMIndelErrorModel(double indelGOP, double indelGCP, boolean deb, boolean doCDP, boolean dovit,boolean gpf, File RECAL_FILE, PairHMM.Kernel kernel) {
+        this(indelGOP, indelGCP, deb, doCDP, dovit, gpf, RECAL_FILE);
+        this.kernel = kernel;
+    }
+
     public  PairHMMIndelErrorModel(double indelGOP, double indelGCP, boolean deb, boolean doCDP, boolean dovit,boolean gpf, File RECAL_FILE) {
 
         this(indelGOP, indelGCP, deb, doCDP, dovit);
@@ -706,13 +721,13 @@ public class PairHMMIndelErrorModel {
             }
         }
     }
-    public synchronized double[] computeReadHaplotypeLikelihoods(ReadBackedPileup pileup, LinkedHashMap<Allele,Haplotype> haplotypeMap,
+    public double[] computeReadHaplotypeLikelihoods(ReadBackedPileup pileup, LinkedHashMap<Allele,Haplotype> haplotypeMap,
                                                                    ReferenceContext ref, int eventLength,
                                                                    HashMap<PileupElement, LinkedHashMap<Allele,Double>> indelLikelihoodMap){
 
         int numHaplotypes = haplotypeMap.size();
         double[][] haplotypeLikehoodMatrix = new double[numHaplotypes][numHaplotypes];
-        double readLikelihoods[][] = new double[pileup.getReads().size()][numHaplotypes];
+        double readLikelihoods[][] = new double[pileup.size()][numHaplotypes];
         int readIdx=0;
 
         LinkedHashMap<Allele,double[]> gapOpenProbabilityMap = new LinkedHashMap<Allele,double[]>();
@@ -963,15 +978,12 @@ public class PairHMMIndelErrorModel {
                         long indStart = start - haplotype.getStartPosition();
                         long indStop =  stop - haplotype.getStartPosition();
 
-                        byte[] haplotypeBases = Arrays.copyOfRange(haplotype.getBasesAsBytes(),
-                                (int)indStart, (int)indStop);
-
                         if (DEBUG) {
                             System.out.println("Haplotype to test:");
-                            System.out.println(new String(haplotypeBases));
+                            System.out.println(new String(Arrays.copyOfRange(haplotype.getBasesAsBytes(), (int)indStart, (int)indStop)));
                         }
 
-                        Double readLikelihood = 0.0;
+                        double readLikelihood = 0.0;
                         if (useAffineGapModel) {
 
                             double[] currentContextGOP = null;
@@ -980,18 +992,26 @@ public class PairHMMIndelErrorModel {
                             if (doContextDependentPenalties) {
 
                                if (getGapPenaltiesFromFile) {
+                                   byte[] haplotypeBases = Arrays.copyOfRange(haplotype.getBasesAsBytes(), (int)indStart, (int)indStop);
                                    readLikelihood = computeReadLikelihoodGivenHaplotypeAffineGaps(haplotypeBases, readBases, readQuals, recalCDP, null);
 
-                               }  else {
+                               }  else if (DEBUG) {
+                                   // the standalone implementation can print the traceback
+                                   byte[] haplotypeBases = Arrays.copyOfRange(haplotype.getBasesAsBytes(), (int)indStart, (int)indStop);
                                    currentContextGOP = Arrays.copyOfRange(gapOpenProbabilityMap.get(a), (int)indStart, (int)indStop);
                                    currentContextGCP = Arrays.copyOfRange(gapContProbabilityMap.get(a), (int)indStart, (int)indStop);
                                    readLikelihood = computeReadLikelihoodGivenHaplotypeAffineGaps(haplotypeBases, readBases, readQuals, currentContextGOP, currentContextGCP);
+                               }  else {
+                                   if (pairHMM == null)
+                                       pairHMM = new PairHMM(kernel,doViterbi);
+                                   readLikelihood = pairHMM.computeReadLikelihoodGivenHaplotype(haplotype.getBasesAsBytes(), (int)indStart, (int)indStop,
+                                           readBases, readQuals, gapOpenProbabilityMap.get(a), gapContProbabilityMap.get(a));
                                }
                             }
 
                         }
                         else
-                            readLikelihood = computeReadLikelihoodGivenHaplotype(haplotypeBases, readBases, readQuals);
+                            readLikelihood = computeReadLikelihoodGivenHaplotype(Arrays.copyOfRange(haplotype.getBasesAsBytes(), (int)indStart, (int)indStop), readBases, readQuals);
 
                         readEl.put(a,readLikelihood);
                         readLikelihoods[readIdx][j++] = readLikelihood;
@@ -1004,7 +1024,7 @@ public class PairHMMIndelErrorModel {
 
         if (DEBUG) {
             System.out.println("\nLikelihood summary");
-            for (readIdx=0; readIdx < pileup.getReads().size(); readIdx++) {
+            for (readIdx=0; readIdx < pileup.size(); readIdx++) {
                 System.out.format("Read Index: %d ",readIdx);
                 for (int i=0; i < readLikelihoods[readIdx].length; i++)
                     System.out.format("L%d: %f ",i,readLikelihoods[readIdx][i]);
@@ -1017,7 +1037,7 @@ public class PairHMMIndelErrorModel {
                 // combine likelihoods of haplotypeLikelihoods[i], haplotypeLikelihoods[j]
                 // L(Hi, Hj) = sum_reads ( Pr(R|Hi)/2 + Pr(R|Hj)/2)
                 //readLikelihoods[k][j] has log10(Pr(R_k) | H[j] )
-                 for (readIdx=0; readIdx < pileup.getReads().size(); readIdx++) {
+                 for (readIdx=0; readIdx < pileup.size(); readIdx++) {
 
                     // Compute log10(10^x1/2 + 10^x2/2) = log10(10^x1+10^x2)-log10(2)
                     // First term is approximated by Jacobian log with table lookup.
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import java.util.Arrays;
+
+/**
+ * A recalibration table in which some of the covariates have been collapsed, as used by the sequential calculation in
+ * TableRecalibrationWalker.  Besides the counts, each row holds the estimated reported quality and the empirical
+ * quality of its bin, mirroring the fields of RecalDatum.
+ */
+public class CollapsedRecalDataTable extends RecalDataTable {
+
+    private double[] estimatedQReported = new double[0]; // estimated reported quality score based on combined data's individual q-reporteds and number of observations
+    private double[] empiricalQuality = new double[0]; // the empirical quality for datums that have been collapsed together
+
+    public CollapsedRecalDataTable( final int numCovariates ) {
+        super( numCovariates );
+    }
+
+    @Override
+    protected void ensureRowCapacity( final int rowCapacity ) {
+        super.ensureRowCapacity( rowCapacity );
+        estimatedQReported = Arrays.copyOf( estimatedQReported, rowCapacity );
+        empiricalQuality = Arrays.copyOf( empiricalQuality, rowCapacity );
+    }
+
+    //---------------------------------------------------------------------------------------------------------------
+    //
+    // increment methods
+    //
+    //---------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Add the given datum into the row with the given key.  A new row takes its estimated reported quality from the datum;
+     * the reported quality of an existing row is left alone.  See RecalDatum.increment().
+     * @param key The collapsed covariate keys
+     * @param datum The datum to add
+     */
+    public final void increment( final int[] key, final RecalDatum datum ) {
+        final int sizeBefore = size();
+        final int row = increment( key, datum.getNumObservations(), datum.getNumMismatches() );
+        if( size() != sizeBefore ) {
+            estimatedQReported[row] = datum.getEstimatedQReported();
+        }
+    }
+
+    /**
+     * Add the given datum into the row with the given key, updating the aggregate reported quality of the row to account
+     * for the expected errors of both.  See RecalDatum.combine().
+     * @param key The collapsed covariate keys
+     * @param datum The datum to add
+     */
+    public final void combine( final int[] key, final RecalDatum datum ) {
+        final int row = find( key );
+        if( row < 0 ) {
+            increment( key, datum );
+            return;
+        }
+        final double sumErrors = calcExpectedErrors( getNumObservations(row), estimatedQReported[row] ) +
+                                 calcExpectedErrors( datum.getNumObservations(), datum.getEstimatedQReported() );
+        incrementRow( row, datum.getNumObservations(), datum.getNumMismatches() );
+        estimatedQReported[row] = -10 * Math.log10(sumErrors / (double)getNumObservations(row));
+    }
+
+    /**
+     * Copy a row of another table into this one
+     * @param other The source table
+     * @param otherRow The row to copy
+     */
+    public final void copyRow( final CollapsedRecalDataTable other, final int otherRow ) {
+        final int row = increment( other.getTuple(otherRow, new int[getTupleLength()]), other.getNumObservations(otherRow), other.getNumMismatches(otherRow) );
+        estimatedQReported[row] = other.estimatedQReported[otherRow];
+        empiricalQuality[row] = other.empiricalQuality[otherRow];
+    }
+
+    //---------------------------------------------------------------------------------------------------------------
+    //
+    // methods to derive empirical quality score
+    //
+    //---------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Turn the counts in every row into an empirical quality score
+     * @param smoothing The smoothing parameter that goes into empirical quality score calculation
+     * @param maxQual At which value to cap the quality scores
+     */
+    public final void calcCombinedEmpiricalQualities( final int smoothing, final int maxQual ) {
+        for( int row = 0; row < size(); row++ ) {
+            empiricalQuality[row] = RecalDatumOptimized.empiricalQualDouble( getNumObservations(row), getNumMismatches(row), smoothing, maxQual );
+        }
+    }
+
+    //---------------------------------------------------------------------------------------------------------------
+    //
+    // misc. methods
+    //
+    //---------------------------------------------------------------------------------------------------------------
+
+    public final double getEstimatedQReported( final int row ) {
+        return estimatedQReported[row];
+    }
+
+    public final double getEmpiricalQuality( final int row ) {
+        return empiricalQuality[row];
+    }
+
+    private static double calcExpectedErrors( final long numObservations, final double estimatedQReported ) {
+        return (double)numObservations * Math.pow(10.0, estimatedQReported / -10.0);
+    }
+}
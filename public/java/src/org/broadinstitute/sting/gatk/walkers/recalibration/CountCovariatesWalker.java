@@ -40,22 +40,19 @@ import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
 import org.broadinstitute.sting.gatk.walkers.*;
 import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.baq.BAQ;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
 import org.broadinstitute.sting.utils.codecs.vcf.VCF3Codec;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFCodec;
-import org.broadinstitute.sting.utils.collections.NestedHashMap;
 import org.broadinstitute.sting.utils.exceptions.DynamicClassResolutionException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * This walker is designed to work as the first pass in a two-pass processing step.
@@ -122,10 +119,17 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
     /////////////////////////////
     // Private Member Variables
     /////////////////////////////
-    private final RecalDataManager dataManager = new RecalDataManager(); // Holds the data HashMap, mostly used by TableRecalibrationWalker to create collapsed data hashmaps
+    private RecalDataManager dataManager; // Holds the data tables, one per thread
     private final ArrayList<Covariate> requestedCovariates = new ArrayList<Covariate>(); // A list to hold the covariate objects that were requested
     private static final double DBSNP_VS_NOVEL_MISMATCH_RATE = 2.0;        // rate at which dbSNP sites (on an individual level) mismatch relative to novel sites (determined by looking at NA12878)
     private static int DBSNP_VALIDATION_CHECK_FREQUENCY = 1000000;                // how often to validate dbsnp mismatch rate (in terms of loci seen)
+    // Hands out the covariate keys of each read, reusing those of reads the traversal has moved past.  One per thread, since map() may run in parallel.
+    private final ThreadLocal<ReadCovariateKeysRecycler> readCovariateKeys = new ThreadLocal<ReadCovariateKeysRecycler>() {
+        @Override
+        protected ReadCovariateKeysRecycler initialValue() {
+            return new ReadCovariateKeysRecycler( requestedCovariates );
+        }
+    };
 
     public static class CountedData {
         private long countedSites = 0; // Number of loci used in the calculations, used for reporting in the output file
@@ -158,6 +162,50 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
         }
     }
 
+    /**
+     * The covariate keys of a read are stored on the read while it's in the pileup.  Once the traversal has moved past
+     * the end of the read, no later locus can see it again, so its keys are taken back and reused for a new read.
+     */
+    private static class ReadCovariateKeysRecycler {
+        private final List<Covariate> requestedCovariates;
+        private final PriorityQueue<GATKSAMRecord> readsWithKeys = new PriorityQueue<GATKSAMRecord>( 64, new Comparator<GATKSAMRecord>() {
+            public int compare( final GATKSAMRecord read1, final GATKSAMRecord read2 ) {
+                return read1.getAlignmentEnd() < read2.getAlignmentEnd() ? -1 : (read1.getAlignmentEnd() == read2.getAlignmentEnd() ? 0 : 1);
+            }
+        });
+        private final ArrayDeque<ReadCovariateKeys> unusedKeys = new ArrayDeque<ReadCovariateKeys>();
+        private String currentContig = null;
+
+        public ReadCovariateKeysRecycler( final List<Covariate> requestedCovariates ) {
+            this.requestedCovariates = requestedCovariates;
+        }
+
+        /**
+         * Take back the keys of every read that ends before the given locus
+         * @param locus The locus the traversal has reached
+         */
+        public void releaseReadsBefore( final GenomeLoc locus ) {
+            final boolean newContig = !locus.getContig().equals( currentContig );
+            while( !readsWithKeys.isEmpty() && (newContig || readsWithKeys.peek().getAlignmentEnd() < locus.getStart()) ) {
+                final GATKSAMRecord read = readsWithKeys.poll();
+                unusedKeys.push( (ReadCovariateKeys) read.removeTemporaryAttribute( COVARS_ATTRIBUTE ) );
+                read.removeTemporaryAttribute( SEEN_ATTRIBUTE ); // should the read ever turn up again, compute its keys afresh
+            }
+            currentContig = locus.getContig();
+        }
+
+        /**
+         * Compute the covariate keys of the read and store them on it
+         * @param read The read
+         */
+        public void computeKeys( final GATKSAMRecord read ) {
+            final ReadCovariateKeys readKeys = unusedKeys.isEmpty() ? new ReadCovariateKeys( requestedCovariates ) : unusedKeys.pop();
+            readKeys.computeKeys( read );
+            read.setTemporaryAttribute( COVARS_ATTRIBUTE, readKeys );
+            readsWithKeys.add( read );
+        }
+    }
+
     //---------------------------------------------------------------------------------------------------------------
     //
     // initialize
@@ -166,7 +214,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
 
     /**
      * Parse the -cov arguments and create a list of covariates to be used here
-     * Based on the covariates' estimates for initial capacity allocate the data hashmap
+     * Allocate the data tables keyed by those covariates
      */
     public void initialize() {
 
@@ -266,6 +314,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
             logger.info( "\t" + cov.getClass().getSimpleName() );
             cov.initialize( RAC ); // Initialize any covariate member variables using the shared argument collection
         }
+        dataManager = new RecalDataManager( false, requestedCovariates.size() );
 
 //        try {
 //            stream = new PrintStream( RAC.RECAL_FILE );
@@ -303,6 +352,8 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
         // Only use data from non-dbsnp sites
         // Assume every mismatch at a non-dbsnp site is indicative of poor quality
         CountedData counter = new CountedData();
+        final ReadCovariateKeysRecycler readKeysRecycler = readCovariateKeys.get();
+        readKeysRecycler.releaseReadsBefore( context.getLocation() );
         if( !isSNP ) {
             // For each read at this locus
             for( PileupElement p : context.getBasePileup() ) {
@@ -325,8 +376,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
                     }
 
                     RecalDataManager.parseColorSpace( gatkRead );
-                    gatkRead.setTemporaryAttribute( COVARS_ATTRIBUTE,
-                            RecalDataManager.computeCovariates( gatkRead, requestedCovariates ));
+                    readKeysRecycler.computeKeys( gatkRead );
                 }
 
 
@@ -343,7 +393,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
                         if( !gatkRead.getReadGroup().getPlatform().toUpperCase().contains("SOLID") || RAC.SOLID_RECAL_MODE == RecalDataManager.SOLID_RECAL_MODE.DO_NOTHING ||
                             !RecalDataManager.isInconsistentColorSpace( gatkRead, offset ) ) {
 
-                            // This base finally passed all the checks for a good base, so add it to the big data hashmap
+                            // This base finally passed all the checks for a good base, so add it to the big data table
                             updateDataFromRead( counter, gatkRead, offset, refBase );
 
                         } else { // calculate SOLID reference insertion rate
@@ -392,7 +442,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
     /**
      * Major workhorse routine for this walker.
      * Loop through the list of requested covariates and pick out the value from the read, offset, and reference
-     * Using the list of covariate values as a key, pick out the RecalDatum and increment,
+     * Using the list of covariate keys as a key, pick out the row of the data table and increment it,
      *   adding one to the number of observations and potentially one to the number of mismatches
      * Lots of things are passed as parameters to this method as a strategy for optimizing the covariate.getValue calls
      *   because pulling things out of the SAMRecord is an expensive operation.
@@ -402,26 +452,17 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
      * @param refBase The reference base at this locus
      */
     private void updateDataFromRead(CountedData counter, final GATKSAMRecord gatkRead, final int offset, final byte refBase) {
-        final Object[][] covars = (Comparable[][]) gatkRead.getTemporaryAttribute(COVARS_ATTRIBUTE);
-        final Object[] key = covars[offset];
-
-        // Using the list of covariate values as a key, pick out the RecalDatum from the data HashMap
-        final NestedHashMap data = dataManager.data; //optimization - create local reference
-        RecalDatumOptimized datum = (RecalDatumOptimized) data.get( key );
-        if( datum == null ) { // key doesn't exist yet in the map so make a new bucket and add it
-            // initialized with zeros, will be incremented at end of method
-            datum = (RecalDatumOptimized)data.put( new RecalDatumOptimized(), true, (Object[])key );
-        }
+        final ReadCovariateKeys readKeys = (ReadCovariateKeys) gatkRead.getTemporaryAttribute(COVARS_ATTRIBUTE);
 
         // Need the bases to determine whether or not we have a mismatch
         final byte base = gatkRead.getReadBases()[offset];
-        final long curMismatches = datum.getNumMismatches();
 
-        // Add one to the number of observations and potentially one to the number of mismatches
-        datum.incrementBaseCounts( base, refBase );
+        // Using the list of covariate keys as a key, add one to the number of observations and potentially one to the number of mismatches
+        // Each thread counts into its own table, so no locking is needed here
+        final int mismatch = dataManager.getDataTable().incrementBaseCounts( readKeys.getKeys(), readKeys.getKeyStart(offset), base, refBase );
         counter.countedBases++;
         counter.novelCountsBases++;
-        counter.novelCountsMM += datum.getNumMismatches() - curMismatches; // For sanity check to ensure novel mismatch rate vs dnsnp mismatch rate is reasonable
+        counter.novelCountsMM += mismatch; // For sanity check to ensure novel mismatch rate vs dnsnp mismatch rate is reasonable
     }
 
 
@@ -477,7 +518,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
     }
 
     /**
-     * Write out the full data hashmap to disk in CSV format
+     * Write out the full data table to disk in CSV format
      * @param sum The CountedData to write out to RECAL_FILE
      */
     public void onTraversalDone( CountedData sum ) {
@@ -487,7 +528,7 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
     }
 
     /**
-     * For each entry (key-value pair) in the data hashmap output the Covariate's values as well as the RecalDatum's data in CSV format
+     * For each row in the data table output the Covariate's values as well as the counts in CSV format
      * @param recalTableStream The PrintStream to write out to
      */
     private void outputToCSV( CountedData sum, final PrintStream recalTableStream ) {
@@ -507,57 +548,45 @@ public class CountCovariatesWalker extends LocusWalker<CountCovariatesWalker.Cou
         }
         recalTableStream.println("nObservations,nMismatches,Qempirical");
 
-        if( DONT_SORT_OUTPUT ) {
-            printMappings(recalTableStream, 0, new Object[requestedCovariates.size()], dataManager.data.data);
-        } else {
-            printMappingsSorted(recalTableStream, 0, new Object[requestedCovariates.size()], dataManager.data.data);
+        final RecalDataTable data = dataManager.getMergedDataTable();
+        final Integer[] rows = new Integer[data.size()];
+        for( int row = 0; row < rows.length; row++ ) {
+            rows[row] = row;
         }
-
-        // print out an EOF marker
-        recalTableStream.println(TableRecalibrationWalker.EOF_MARKER);
-    }
-
-    private void printMappingsSorted( final PrintStream recalTableStream, final int curPos, final Object[] key, final Map data) {
-        final ArrayList<Comparable> keyList = new ArrayList<Comparable>();
-        for( Object comp : data.keySet() ) {
-            keyList.add((Comparable) comp);
+        if( !DONT_SORT_OUTPUT ) {
+            sortRows( data, rows );
         }
 
-        Collections.sort(keyList);
-
-        for( Comparable comp : keyList ) {
-            key[curPos] = comp;
-            final Object val = data.get(comp);
-            if( val instanceof RecalDatumOptimized ) { // We are at the end of the nested hash maps
-                // For each Covariate in the key
-                for( Object compToPrint : key ) {
-                    // Output the Covariate's value
-                    recalTableStream.print( compToPrint + "," );
-                }
-                // Output the RecalDatum entry
-                recalTableStream.println( ((RecalDatumOptimized)val).outputToCSV() );
-            } else { // Another layer in the nested hash map
-                printMappingsSorted( recalTableStream, curPos + 1, key, (Map) val );
+        for( int row : rows ) {
+            // For each Covariate in the key
+            for( int iii = 0; iii < requestedCovariates.size(); iii++ ) {
+                // Output the Covariate's value
+                recalTableStream.print( requestedCovariates.get(iii).keyToString(data.get(row, iii)) + "," );
             }
+            // Output the counts
+            recalTableStream.println( data.outputToCSV(row) );
         }
+
+        // print out an EOF marker
+        recalTableStream.println(TableRecalibrationWalker.EOF_MARKER);
     }
 
-    private void printMappings( final PrintStream recalTableStream, final int curPos, final Object[] key, final Map data) {
-        for( Object comp : data.keySet() ) {
-            key[curPos] = comp;
-            final Object val = data.get(comp);
-            if( val instanceof RecalDatumOptimized ) { // We are at the end of the nested hash maps
-                // For each Covariate in the key
-                for( Object compToPrint : key ) {
-                    // Output the Covariate's value
-                    recalTableStream.print( compToPrint + "," );
+    /**
+     * Sort the rows of the data table by their covariate values, comparing first by read group, then by quality score, and so on
+     * @param data The full data table
+     * @param rows The rows to sort
+     */
+    private void sortRows( final RecalDataTable data, final Integer[] rows ) {
+        Arrays.sort(rows, new Comparator<Integer>() {
+            public int compare( final Integer lhs, final Integer rhs ) {
+                for( int iii = 0; iii < requestedCovariates.size(); iii++ ) {
+                    final int comparison = requestedCovariates.get(iii).compareKeys( data.get(lhs, iii), data.get(rhs, iii) );
+                    if( comparison != 0 ) {
+                        return comparison;
+                    }
                 }
-                // Output the RecalDatum entry
-                recalTableStream.println( ((RecalDatumOptimized)val).outputToCSV() );
-            } else { // Another layer in the nested hash map
-                printMappings( recalTableStream, curPos + 1, key, (Map) val );
+                return 0;
             }
-        }
+        });
     }
 }
-
@@ -38,11 +38,19 @@ import net.sf.samtools.SAMRecord;
  */
 
 public interface Covariate {
+    public static final int NULL_KEY = Integer.MIN_VALUE; // The int-encoded key of a covariate value of null
+
     public void initialize( RecalibrationArgumentCollection RAC ); // Initialize any member variables using the command-line arguments passed to the walkers
     public Comparable getValue( String str ); // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public void getValues( SAMRecord read, Comparable[] comparable ); //Takes an array of size (at least) read.getReadLength() and fills it with covariate
+    public void getValues( SAMRecord read, Comparable<?>[] comparable ); //Takes an array of size (at least) read.getReadLength() and fills it with covariate
         //values for each position in the read. This method was created as an optimization over calling getValue( read, offset ) for each offset and allows
         //read-specific calculations to be done just once rather than for each offset.
+
+    // The recalibration walkers work with int-encoded covariate values (keys) rather than Comparables so that nothing needs to be allocated per base.
+    public void getKeys( SAMRecord read, int[] keys ); // Same as getValues(), but fills an array of size (at least) read.getReadLength() with the keys of the values
+    public int keyFromString( String str ); // Used to get the key of the covariate's value from input csv file in TableRecalibrationWalker, NULL_KEY when getValue() would give null
+    public String keyToString( int key ); // Used to write the value with the given key to the output csv file in CountCovariatesWalker
+    public int compareKeys( int key1, int key2 ); // Orders keys in the same way as the Comparable values they stand for
 }
 
 interface RequiredCovariate extends Covariate {
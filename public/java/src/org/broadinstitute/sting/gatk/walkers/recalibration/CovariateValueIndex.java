@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a small, dense int id to every distinct value of a covariate whose values aren't naturally ints, such as
+ * the read group, so that the covariate can hand out int keys.  Id 0 is reserved for the null value; other ids are
+ * handed out in order of first appearance.
+ *
+ * Lookups of known values don't lock, so one index can be shared by all the threads of a parallel traversal.
+ */
+public class CovariateValueIndex<T extends Comparable<T>> {
+    public static final int NULL_VALUE_ID = 0;
+
+    private final ConcurrentHashMap<T,Integer> idsByValue = new ConcurrentHashMap<T,Integer>();
+
+    /** Values indexed by id.  Replaced rather than modified once published, so it can be read without locking. */
+    private volatile Object[] values = new Object[16];
+
+    /** Number of ids handed out so far, including the id for null.  Guarded by this. */
+    private int size = 1;
+
+    /**
+     * Gets the id of the given value, assigning a new one if the value hasn't been seen before.
+     * @param value The covariate value.  May be null.
+     * @return The id of the value.
+     */
+    public int getId( final T value ) {
+        if( value == null ) {
+            return NULL_VALUE_ID;
+        }
+        final Integer id = idsByValue.get( value );
+        return id != null ? id : addValue( value );
+    }
+
+    /**
+     * Gets the value with the given id.
+     * @param id An id previously returned by getId().
+     * @return The value with that id.
+     */
+    @SuppressWarnings("unchecked") // only values of type T are ever stored
+    public T getValue( final int id ) {
+        return (T) values[id];
+    }
+
+    /**
+     * Gets the number of ids assigned so far, including the id reserved for null.
+     * @return One more than the largest assigned id.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int addValue( final T value ) {
+        final Integer existingId = idsByValue.get( value );
+        if( existingId != null ) {
+            return existingId;
+        }
+        final int id = size++;
+        Object[] newValues = values;
+        if( id >= newValues.length ) {
+            newValues = Arrays.copyOf( newValues, newValues.length * 2 );
+        }
+        newValues[id] = value;
+        values = newValues; // publish the value before its id becomes visible
+        idsByValue.put( value, id );
+        return id;
+    }
+}
@@ -45,7 +45,7 @@ import java.util.List;
  *  For SOLiD the cycle is a more complicated mixture of ligation cycle and primer round
  */
 
-public class CycleCovariate implements StandardCovariate {
+public class CycleCovariate extends IntegerCovariate implements StandardCovariate {
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
         if( RAC.DEFAULT_PLATFORM != null ) {
@@ -172,8 +172,24 @@ public class CycleCovariate implements StandardCovariate {
         return false;
     }
 
-    // Used to pick out the covariate's value from attributes of the read
-    public void getValues(SAMRecord read, Comparable[] comparable) {
+    // Used to pick out the covariate's value from attributes of the read.  The cycle depends on the whole read, so it's
+    // computed for every offset at once.
+    public final int getValue( final SAMRecord read, final int offset ) {
+        final int[] keys = new int[read.getReadLength()];
+        getKeys(read, keys);
+        return keys[offset];
+    }
+
+    public void getValues(SAMRecord read, Comparable<?>[] comparable) {
+        final int[] keys = new int[read.getReadLength()];
+        getKeys(read, keys);
+        for(int i = 0; i < keys.length; i++) {
+            comparable[i] = box( keys[i] );
+        }
+    }
+
+    // The cycle is its own key
+    public void getKeys(SAMRecord read, int[] keys) {
 
         //-----------------------------
         // ILLUMINA and SOLID
@@ -218,7 +234,7 @@ public class CycleCovariate implements StandardCovariate {
 
             int cycle = init;
             for(int i = 0; i < read.getReadLength(); i++) {
-                comparable[i] = cycle;
+                keys[i] = cycle;
                 cycle += increment;
             }
         }
@@ -243,24 +259,24 @@ public class CycleCovariate implements StandardCovariate {
                 int iii = 0;
                 while( iii < readLength )
                 {
-                    while( iii < readLength && bases[iii] == (byte)'T' ) { comparable[iii] = cycle; iii++; }
-                    while( iii < readLength && bases[iii] == (byte)'A' ) { comparable[iii] = cycle; iii++; }
-                    while( iii < readLength && bases[iii] == (byte)'C' ) { comparable[iii] = cycle; iii++; }
-                    while( iii < readLength && bases[iii] == (byte)'G' ) { comparable[iii] = cycle; iii++; }
+                    while( iii < readLength && bases[iii] == (byte)'T' ) { keys[iii] = cycle; iii++; }
+                    while( iii < readLength && bases[iii] == (byte)'A' ) { keys[iii] = cycle; iii++; }
+                    while( iii < readLength && bases[iii] == (byte)'C' ) { keys[iii] = cycle; iii++; }
+                    while( iii < readLength && bases[iii] == (byte)'G' ) { keys[iii] = cycle; iii++; }
                     if( iii < readLength ) { if (multiplyByNegative1) cycle--; else cycle++; }
-                    if( iii < readLength && !BaseUtils.isRegularBase(bases[iii]) ) { comparable[iii] = cycle; iii++; }
+                    if( iii < readLength && !BaseUtils.isRegularBase(bases[iii]) ) { keys[iii] = cycle; iii++; }
 
                 }
             } else { // Negative direction
                 int iii = readLength-1;
                 while( iii >= 0 )
                 {
-                    while( iii >= 0 && bases[iii] == (byte)'T' ) { comparable[iii] = cycle; iii--; }
-                    while( iii >= 0 && bases[iii] == (byte)'A' ) { comparable[iii] = cycle; iii--; }
-                    while( iii >= 0 && bases[iii] == (byte)'C' ) { comparable[iii] = cycle; iii--; }
-                    while( iii >= 0 && bases[iii] == (byte)'G' ) { comparable[iii] = cycle; iii--; }
+                    while( iii >= 0 && bases[iii] == (byte)'T' ) { keys[iii] = cycle; iii--; }
+                    while( iii >= 0 && bases[iii] == (byte)'A' ) { keys[iii] = cycle; iii--; }
+                    while( iii >= 0 && bases[iii] == (byte)'C' ) { keys[iii] = cycle; iii--; }
+                    while( iii >= 0 && bases[iii] == (byte)'G' ) { keys[iii] = cycle; iii--; }
                     if( iii >= 0 ) { if (multiplyByNegative1) cycle--; else cycle++; }
-                    if( iii >= 0 && !BaseUtils.isRegularBase(bases[iii]) ) { comparable[iii] = cycle; iii--; }
+                    if( iii >= 0 && !BaseUtils.isRegularBase(bases[iii]) ) { keys[iii] = cycle; iii--; }
                 }
             }
         }
@@ -270,9 +286,4 @@ public class CycleCovariate implements StandardCovariate {
 
 
     }
-
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
 }
\ No newline at end of file
@@ -44,9 +44,16 @@ public class DinucCovariate implements StandardCovariate {
 
     private static final byte NO_CALL = (byte)'N';
     private static final Dinuc NO_DINUC = new Dinuc(NO_CALL, NO_CALL);
+    private static final int NO_DINUC_KEY = dinucKey(NO_CALL, NO_CALL);
 
     private HashMap<Integer, Dinuc> dinucHashMap;
 
+    // Dinuc.hashBytes(prevBase, base) only depends on prevBase and the low 5 bits of (8 + base), since it shifts prevBase by 8 + base.
+    // So the key of the Dinuc that dinucHashMap holds for any two bases can be read straight out of a table indexed by those two.
+    private static final int SHIFT_BITS = 5;
+    private static final int SHIFT_MASK = (1 << SHIFT_BITS) - 1;
+    private int[] dinucKeyTable; // indexed by (prevBase & 0xff) << SHIFT_BITS | ((8 + base) & SHIFT_MASK)
+
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
         final byte[] BASES = { (byte)'A', (byte)'C', (byte)'G', (byte)'T' };
@@ -58,6 +65,20 @@ public class DinucCovariate implements StandardCovariate {
         }
         // Add the "no dinuc" entry too
         dinucHashMap.put( Dinuc.hashBytes(NO_CALL, NO_CALL), NO_DINUC );
+
+        // Mirror the hash map in a primitive table so that keys can be looked up without boxing
+        final HashMap<Integer, Integer> keysByHash = new HashMap<Integer, Integer>();
+        for( final Dinuc dinuc : dinucHashMap.values() ) {
+            final byte[] bytes = dinuc.toString().getBytes();
+            keysByHash.put( Dinuc.hashBytes(bytes[0], bytes[1]), dinucKey(bytes[0], bytes[1]) );
+        }
+        dinucKeyTable = new int[256 << SHIFT_BITS];
+        for( int prevBase = 0; prevBase < 256; prevBase++ ) {
+            for( int shift = 0; shift <= SHIFT_MASK; shift++ ) {
+                final Integer key = keysByHash.get( Dinuc.hashBytes( (byte)prevBase, (byte)(shift - 8) ) );
+                dinucKeyTable[prevBase << SHIFT_BITS | shift] = key != null ? key : NULL_KEY;
+            }
+        }
     }
 
     /*
@@ -133,6 +154,33 @@ public class DinucCovariate implements StandardCovariate {
         }
     }
 
+    /**
+     * Same as getValues(), but fills the array with the keys of the dinucs. The reverse complement of a negative strand read is walked in place
+     * rather than copied.
+     */
+    public void getKeys( SAMRecord read, int[] keys ) {
+        final int readLength = read.getReadLength();
+        final byte[] bases = read.getReadBases();
+        if( readLength == 0 ) {
+            return;
+        }
+
+        if( !read.getReadNegativeStrandFlag() ) {
+            keys[0] = NO_DINUC_KEY; // No dinuc at the beginning of the read
+            for( int offset = 1; offset < readLength; offset++ ) {
+                // Note: We are using the previous base in the read, not the previous base in the reference.
+                final byte prevBase = bases[offset - 1];
+                keys[offset] = BaseUtils.isRegularBase( prevBase ) ? lookupKey( prevBase, bases[offset] ) : NO_DINUC_KEY;
+            }
+        } else {
+            keys[readLength - 1] = NO_DINUC_KEY; // No dinuc at the beginning of the reverse complemented read
+            for( int offset = readLength - 2; offset >= 0; offset-- ) {
+                final byte prevBase = BaseUtils.simpleComplement( bases[offset + 1] );
+                keys[offset] = BaseUtils.isRegularBase( prevBase ) ? lookupKey( prevBase, BaseUtils.simpleComplement( bases[offset] ) ) : NO_DINUC_KEY;
+            }
+        }
+    }
+
     // Used to get the covariate's value from input csv file in TableRecalibrationWalker
     public final Comparable getValue( final String str ) {
         byte[] bytes = str.getBytes();
@@ -143,6 +191,38 @@ public class DinucCovariate implements StandardCovariate {
         return returnDinuc;
     }
 
+    // Used to get the key of the covariate's value from input csv file in TableRecalibrationWalker
+    public final int keyFromString( final String str ) {
+        final byte[] bytes = str.getBytes();
+        final int key = lookupKey( bytes[0], bytes[1] );
+        return key == NO_DINUC_KEY ? NULL_KEY : key;
+    }
+
+    // Used to write the covariate's value to the output csv file in CountCovariatesWalker
+    public final String keyToString( final int key ) {
+        if( key == NULL_KEY ) {
+            return "null";
+        }
+        return new String( new byte[]{ (byte)(key >> 8), (byte)key } );
+    }
+
+    // Keys order by first base, then second base, just like Dinucs do
+    public final int compareKeys( final int key1, final int key2 ) {
+        return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+    }
+
+    /**
+     * Find the key of the dinuc that getValues() would have looked up in dinucHashMap for these two bases
+     * @return The key, or NULL_KEY if the hash map has no such entry
+     */
+    private int lookupKey( final byte prevBase, final byte base ) {
+        return dinucKeyTable[(prevBase & 0xff) << SHIFT_BITS | ((8 + base) & SHIFT_MASK)];
+    }
+
+    private static int dinucKey( final byte first, final byte second ) {
+        return (first << 8) | second;
+    }
+
 
     /**
      * Reverses the given array in place.
@@ -36,7 +36,7 @@ import net.sf.samtools.SAMRecord;
  * Only valid for Illumina reads. Otherwise return -1.
  */
 
-public class GCContentCovariate implements ExperimentalCovariate {
+public class GCContentCovariate extends IntegerCovariate implements ExperimentalCovariate {
 
     int numBack = 7;
 
@@ -46,7 +46,7 @@ public class GCContentCovariate implements ExperimentalCovariate {
     }
 
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
+    public final int getValue( final SAMRecord read, final int offset ) {
 
         // ATTGCCCCGTAAAAAAAGAGAA
         // 0000123456654321001122
@@ -76,17 +76,6 @@ public class GCContentCovariate implements ExperimentalCovariate {
         }
     }
     
-    public void getValues(SAMRecord read, Comparable[] comparable) {
-        for(int iii = 0; iii < read.getReadLength(); iii++) {
-            comparable[iii] = getValue(read, iii); // BUGBUG: this can be optimized
-        }
-    }
-
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
-
 
 
 }
\ No newline at end of file
@@ -38,7 +38,7 @@ import net.sf.samtools.SAMRecord;
  * 001001230001234567800
  */
 
-public class HomopolymerCovariate implements ExperimentalCovariate {
+public class HomopolymerCovariate extends IntegerCovariate implements ExperimentalCovariate {
 
     int numBack = 7;
 
@@ -48,7 +48,7 @@ public class HomopolymerCovariate implements ExperimentalCovariate {
     }
 
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
+    public final int getValue( final SAMRecord read, final int offset ) {
 
         // This block of code is for if you don't want to only count consecutive bases
         // ATTGCCCCGTAAAAAAAAATA
@@ -90,15 +90,4 @@ public class HomopolymerCovariate implements ExperimentalCovariate {
         return numAgree;
     }
 
-    public void getValues(SAMRecord read, Comparable[] comparable) {
-        for(int iii = 0; iii < read.getReadLength(); iii++) {
-            comparable[iii] = getValue(read, iii); // BUGBUG: this can be optimized
-        }
-    }
-
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
-
 }
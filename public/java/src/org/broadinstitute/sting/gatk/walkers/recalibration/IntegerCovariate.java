@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * A covariate whose values are ints, each of which serves as its own key.  Subclasses say what the value is at a given
+ * offset in the read; those whose values are cheaper to compute for the whole read at once also override getKeys() and
+ * getValues().
+ */
+public abstract class IntegerCovariate implements Covariate {
+
+    // The boxed values from -MAX_SHARED_VALUE to MAX_SHARED_VALUE, which covers the values of most covariates, so that getValues() needn't allocate them
+    private static final int MAX_SHARED_VALUE = 1024;
+    private static final Integer[] SHARED_VALUES = new Integer[2 * MAX_SHARED_VALUE + 1];
+    static {
+        for( int iii = 0; iii < SHARED_VALUES.length; iii++ ) {
+            SHARED_VALUES[iii] = iii - MAX_SHARED_VALUE;
+        }
+    }
+
+    // Used to pick out the covariate's value from attributes of the read
+    public abstract int getValue( final SAMRecord read, final int offset );
+
+    public void getValues( final SAMRecord read, final Comparable<?>[] comparable ) {
+        for( int iii = 0; iii < read.getReadLength(); iii++ ) {
+            comparable[iii] = box( getValue(read, iii) );
+        }
+    }
+
+    public void getKeys( final SAMRecord read, final int[] keys ) {
+        for( int iii = 0; iii < read.getReadLength(); iii++ ) {
+            keys[iii] = getValue(read, iii);
+        }
+    }
+
+    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
+    public final Comparable<Integer> getValue( final String str ) {
+        return Integer.parseInt( str );
+    }
+
+    // Used to get the key of the covariate's value from input csv file in TableRecalibrationWalker
+    public final int keyFromString( final String str ) {
+        return Integer.parseInt( str );
+    }
+
+    // Used to write the covariate's value to the output csv file in CountCovariatesWalker
+    public final String keyToString( final int key ) {
+        return Integer.toString( key );
+    }
+
+    // The key is the value itself
+    public final int compareKeys( final int key1, final int key2 ) {
+        return key1 < key2 ? -1 : (key1 == key2 ? 0 : 1);
+    }
+
+    /**
+     * Boxes the given value, reusing a shared Integer if there is one
+     * @param value The value
+     * @return The boxed value
+     */
+    protected static Integer box( final int value ) {
+        return value >= -MAX_SHARED_VALUE && value <= MAX_SHARED_VALUE ? SHARED_VALUES[value + MAX_SHARED_VALUE] : Integer.valueOf( value );
+    }
+}
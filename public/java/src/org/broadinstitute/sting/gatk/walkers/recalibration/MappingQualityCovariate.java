@@ -35,26 +35,15 @@ import net.sf.samtools.SAMRecord;
  * The Mapping Quality covariate.
  */
 
-public class MappingQualityCovariate implements ExperimentalCovariate {
+public class MappingQualityCovariate extends IntegerCovariate implements ExperimentalCovariate {
 
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
     }
 
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
+    public final int getValue( final SAMRecord read, final int offset ) {
         return read.getMappingQuality();
     }
 
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
-
-    public void getValues(SAMRecord read, Comparable[] comparable) {
-        for(int iii = 0; iii < read.getReadLength(); iii++) {
-            comparable[iii] = getValue(read, iii); // BUGBUG: this can be optimized
-        }
-    }
-
 }
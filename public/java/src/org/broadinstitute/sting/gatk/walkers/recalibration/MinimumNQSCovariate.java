@@ -36,7 +36,7 @@ import net.sf.samtools.SAMRecord;
  * This covariate is the minimum base quality score in the read in a small window around the current base.
  */
 
-public class MinimumNQSCovariate implements ExperimentalCovariate {
+public class MinimumNQSCovariate extends IntegerCovariate implements ExperimentalCovariate {
 
     private int windowReach; // How far in each direction from the current base to look
 
@@ -46,7 +46,7 @@ public class MinimumNQSCovariate implements ExperimentalCovariate {
     }
 
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
+    public final int getValue( final SAMRecord read, final int offset ) {
 
         // Loop over the list of base quality scores in the window and find the minimum
         final byte[] quals = read.getBaseQualities();
@@ -60,15 +60,4 @@ public class MinimumNQSCovariate implements ExperimentalCovariate {
         }
         return minQual;
     }
-
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
-
-    public void getValues(SAMRecord read, Comparable[] comparable) {
-        for(int iii = 0; iii < read.getReadLength(); iii++) {
-            comparable[iii] = getValue(read, iii); // BUGBUG: this can be optimized
-        }
-    }
 }
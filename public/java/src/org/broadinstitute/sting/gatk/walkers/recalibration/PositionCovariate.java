@@ -36,14 +36,14 @@ import net.sf.samtools.SAMRecord;
  * This is the Solexa definition of machine cycle and the covariate that was always being used in the original version of the recalibrator.
  */
 
-public class PositionCovariate implements ExperimentalCovariate {
+public class PositionCovariate extends IntegerCovariate implements ExperimentalCovariate {
 
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
     }
 
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
+    public final int getValue( final SAMRecord read, final int offset ) {
         int cycle = offset;
         if( read.getReadNegativeStrandFlag() ) {
             cycle = read.getReadLength() - (offset + 1);
@@ -51,15 +51,4 @@ public class PositionCovariate implements ExperimentalCovariate {
         return cycle;
     }
 
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
-    }
-
-    public void getValues(SAMRecord read, Comparable[] comparable) {
-        for(int iii = 0; iii < read.getReadLength(); iii++) {
-            comparable[iii] = getValue(read, iii); // BUGBUG: this can be optimized
-        }
-    }
-
 }
\ No newline at end of file
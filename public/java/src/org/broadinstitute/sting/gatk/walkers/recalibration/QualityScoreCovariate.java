@@ -35,29 +35,29 @@ import net.sf.samtools.SAMRecord;
  * The Reported Quality Score covariate.
  */
 
-public class QualityScoreCovariate implements RequiredCovariate {
+public class QualityScoreCovariate extends IntegerCovariate implements RequiredCovariate {
 
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
     }
 
-    /*
     // Used to pick out the covariate's value from attributes of the read
-    public final Comparable getValue( final SAMRecord read, final int offset ) {
-        return (int)(read.getBaseQualities()[offset]);
+    public final int getValue( final SAMRecord read, final int offset ) {
+        return read.getBaseQualities()[offset];
     }
-    */
 
-    public void getValues(SAMRecord read, Comparable[] comparable) {
+    public void getValues(SAMRecord read, Comparable<?>[] comparable) {
         byte[] baseQualities = read.getBaseQualities();
         for(int i = 0; i < read.getReadLength(); i++) {
-            comparable[i] = (int) baseQualities[i];
+            comparable[i] = box( baseQualities[i] );
         }
     }
 
-    // Used to get the covariate's value from input csv file in TableRecalibrationWalker
-    public final Comparable getValue( final String str ) {
-        return Integer.parseInt( str );
+    public void getKeys(SAMRecord read, int[] keys) {
+        byte[] baseQualities = read.getBaseQualities();
+        for(int i = 0; i < read.getReadLength(); i++) {
+            keys[i] = baseQualities[i];
+        }
     }
 
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import net.sf.samtools.SAMRecord;
+
+import java.util.List;
+
+/**
+ * The keys of all the requested covariates for every base of a read, laid out base by base so that the full key of
+ * each base is a contiguous run of getKeys().  Instances can be reused from read to read; the buffers only grow.
+ */
+public class ReadCovariateKeys {
+    private final List<Covariate> requestedCovariates;
+    private final int numCovariates;
+    private int[] keys = new int[0]; // keys[offset * numCovariates + covariate]
+    private int[] covariateKeys = new int[0]; // the keys of a single covariate, before they're interleaved into keys
+    private int readLength = 0;
+
+    public ReadCovariateKeys( final List<Covariate> requestedCovariates ) {
+        this.requestedCovariates = requestedCovariates;
+        this.numCovariates = requestedCovariates.size();
+    }
+
+    /**
+     * Compute the keys of all the requested covariates for every base in the read, replacing those of the previous read
+     * @param read The read
+     */
+    public void computeKeys( final SAMRecord read ) {
+        readLength = read.getReadLength();
+        if( keys.length < readLength * numCovariates ) {
+            keys = new int[readLength * numCovariates];
+            covariateKeys = new int[readLength];
+        }
+
+        for( int iii = 0; iii < numCovariates; iii++ ) {
+            requestedCovariates.get(iii).getKeys( read, covariateKeys );
+            for( int offset = 0, keyIndex = iii; offset < readLength; offset++, keyIndex += numCovariates ) {
+                keys[keyIndex] = covariateKeys[offset];
+            }
+        }
+    }
+
+    /**
+     * @return The keys of every base in the read, numCovariates at a time. May be longer than the read needs.
+     */
+    public int[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * @param offset The offset of a base in the read
+     * @return The index in getKeys() of the first covariate key of that base
+     */
+    public int getKeyStart( final int offset ) {
+        return offset * numCovariates;
+    }
+
+    public int getReadLength() {
+        return readLength;
+    }
+}
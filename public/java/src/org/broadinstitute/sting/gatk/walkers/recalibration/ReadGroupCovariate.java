@@ -39,6 +39,8 @@ public class ReadGroupCovariate implements RequiredCovariate{
 
     public static final String defaultReadGroup = "DefaultReadGroup";
 
+    private final CovariateValueIndex<String> readGroupKeys = new CovariateValueIndex<String>(); // Read group ids are numbered in order of appearance
+
     // Initialize any member variables using the command-line arguments passed to the walkers
     public void initialize( final RecalibrationArgumentCollection RAC ) {
     }
@@ -57,11 +59,33 @@ public class ReadGroupCovariate implements RequiredCovariate{
         }
     }
 
+    public void getKeys(SAMRecord read, int[] keys) {
+        final int readGroupKey = readGroupKeys.getId( read.getReadGroup().getReadGroupId() );
+        for(int i = 0; i < read.getReadLength(); i++) {
+            keys[i] = readGroupKey;
+        }
+    }
+
     // Used to get the covariate's value from input csv file in TableRecalibrationWalker
     public final Comparable getValue( final String str ) {
         return str;
     }
 
+    // Used to get the key of the covariate's value from input csv file in TableRecalibrationWalker
+    public final int keyFromString( final String str ) {
+        return readGroupKeys.getId( str );
+    }
+
+    // Used to write the covariate's value to the output csv file in CountCovariatesWalker
+    public final String keyToString( final int key ) {
+        return readGroupKeys.getValue( key );
+    }
+
+    // Keys are handed out in order of appearance, so compare the read group ids themselves
+    public final int compareKeys( final int key1, final int key2 ) {
+        return keyToString( key1 ).compareTo( keyToString( key2 ) );
+    }
+
 }
 
 
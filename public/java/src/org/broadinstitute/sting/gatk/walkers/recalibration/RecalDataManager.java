@@ -31,7 +31,7 @@ import net.sf.samtools.SAMUtils;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.utils.BaseUtils;
 import org.broadinstitute.sting.utils.Utils;
-import org.broadinstitute.sting.utils.collections.NestedHashMap;
+import org.broadinstitute.sting.utils.collections.IntTupleIndex;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.sam.AlignmentUtils;
@@ -39,24 +39,25 @@ import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by IntelliJ IDEA.
  * User: rpoplin
  * Date: Nov 6, 2009
  *
- * This helper class holds the data HashMap as well as submaps that represent the marginal distributions collapsed over all needed dimensions.
+ * This helper class holds the full data table as well as collapsed tables that represent the marginal distributions collapsed over all needed dimensions.
  * It also has static methods that are used to perform the various solid recalibration modes that attempt to correct the reference bias.
  * This class holds the parsing methods that are shared between CountCovariates and TableRecalibration.
  */
 
 public class RecalDataManager {
 
-    public final NestedHashMap data; // The full dataset
-    private final NestedHashMap dataCollapsedReadGroup; // Table where everything except read group has been collapsed
-    private final NestedHashMap dataCollapsedQualityScore; // Table where everything except read group and quality score has been collapsed
-    private final ArrayList<NestedHashMap> dataCollapsedByCovariate; // Tables where everything except read group, quality score, and given covariate has been collapsed
+    private final int numCovariates; // The width of the keys in the full dataset
+    private final List<RecalDataTable> dataByThread; // The full dataset, split up by the thread which counted it
+    private final ThreadLocal<RecalDataTable> data; // The calling thread's share of the full dataset
+    private final CollapsedRecalDataTable dataCollapsedReadGroup; // Table where everything except read group has been collapsed
+    private final CollapsedRecalDataTable dataCollapsedQualityScore; // Table where everything except read group and quality score has been collapsed
+    private final ArrayList<CollapsedRecalDataTable> dataCollapsedByCovariate; // Tables where everything except read group, quality score, and given covariate has been collapsed
 
     public final static String ORIGINAL_QUAL_ATTRIBUTE_TAG = "OQ"; // The tag that holds the original quality scores
     public final static String COLOR_SPACE_QUAL_ATTRIBUTE_TAG = "CQ"; // The tag that holds the color space quality scores for SOLID bams
@@ -78,24 +79,30 @@ public class RecalDataManager {
         PURGE_READ
     }
 
-    RecalDataManager() {
-        data = new NestedHashMap();
-        dataCollapsedReadGroup = null;
-        dataCollapsedQualityScore = null;
-        dataCollapsedByCovariate = null;
-    }
-
     RecalDataManager( final boolean createCollapsedTables, final int numCovariates ) {
+        this.numCovariates = numCovariates;
+
         if( createCollapsedTables ) { // Initialize all the collapsed tables, only used by TableRecalibrationWalker
+            dataByThread = null;
             data = null;
-            dataCollapsedReadGroup = new NestedHashMap();
-            dataCollapsedQualityScore = new NestedHashMap();
-            dataCollapsedByCovariate = new ArrayList<NestedHashMap>();
+            dataCollapsedReadGroup = new CollapsedRecalDataTable( 1 );
+            dataCollapsedQualityScore = new CollapsedRecalDataTable( 2 );
+            dataCollapsedByCovariate = new ArrayList<CollapsedRecalDataTable>();
             for( int iii = 0; iii < numCovariates - 2; iii++ ) { // readGroup and QualityScore aren't counted here, their tables are separate
-                dataCollapsedByCovariate.add( new NestedHashMap() );
+                dataCollapsedByCovariate.add( new CollapsedRecalDataTable( 3 ) );
             }
         } else {
-            data = new NestedHashMap();
+            dataByThread = new ArrayList<RecalDataTable>();
+            data = new ThreadLocal<RecalDataTable>() {
+                @Override
+                protected RecalDataTable initialValue() {
+                    final RecalDataTable table = new RecalDataTable( numCovariates );
+                    synchronized( dataByThread ) {
+                        dataByThread.add( table );
+                    }
+                    return table;
+                }
+            };
             dataCollapsedReadGroup = null;
             dataCollapsedQualityScore = null;
             dataCollapsedByCovariate = null;
@@ -103,109 +110,118 @@ public class RecalDataManager {
     }
 
     /**
-     * Add the given mapping to all of the collapsed hash tables
-     * @param key The list of comparables that is the key for this mapping
+     * Get the calling thread's share of the full dataset, used by CountCovariatesWalker to count bases
+     * @return A table which only the calling thread updates
+     */
+    public final RecalDataTable getDataTable() {
+        return data.get();
+    }
+
+    /**
+     * Add up the tables counted by all the threads. Must only be called once counting has finished.
+     * @return The full dataset
+     */
+    public final RecalDataTable getMergedDataTable() {
+        synchronized( dataByThread ) {
+            if( dataByThread.size() == 1 ) {
+                return dataByThread.get(0);
+            }
+            final RecalDataTable mergedData = new RecalDataTable( numCovariates );
+            for( RecalDataTable threadData : dataByThread ) {
+                mergedData.increment( threadData );
+            }
+            return mergedData;
+        }
+    }
+
+    /**
+     * Add the given mapping to all of the collapsed tables
+     * @param fullKey The covariate keys, one per covariate, for this mapping
      * @param fullDatum The RecalDatum which is the data for this mapping
      * @param PRESERVE_QSCORES_LESS_THAN The threshold in report quality for adding to the aggregate collapsed table
      */
-    public final void addToAllTables( final Object[] key, final RecalDatum fullDatum, final int PRESERVE_QSCORES_LESS_THAN ) {
+    public final void addToAllTables( final int[] fullKey, final RecalDatum fullDatum, final int PRESERVE_QSCORES_LESS_THAN ) {
 
-        // The full dataset isn't actually ever used for anything because of the sequential calculation so no need to keep the full data HashMap around
-        //data.put(key, thisDatum); // add the mapping to the main table
+        // The full dataset isn't actually ever used for anything because of the sequential calculation so no need to keep the full data table around
 
-        final int qualityScore = Integer.parseInt( key[1].toString() );
-        final Object[] readGroupCollapsedKey = new Object[1];
-        final Object[] qualityScoreCollapsedKey = new Object[2];
-        final Object[] covariateCollapsedKey = new Object[3];
-        RecalDatum collapsedDatum;
+        final int qualityScore = fullKey[1]; // The quality score covariate's key is the quality score itself
+        final int[] readGroupCollapsedKey = new int[1];
+        final int[] qualityScoreCollapsedKey = new int[2];
+        final int[] covariateCollapsedKey = new int[3];
 
         // Create dataCollapsedReadGroup, the table where everything except read group has been collapsed
         if( qualityScore >= PRESERVE_QSCORES_LESS_THAN ) {
-            readGroupCollapsedKey[0] = key[0]; // Make a new key with just the read group
-            collapsedDatum = (RecalDatum) dataCollapsedReadGroup.get( readGroupCollapsedKey );
-            if( collapsedDatum == null ) {
-                dataCollapsedReadGroup.put( new RecalDatum(fullDatum), readGroupCollapsedKey );
-            } else {
-                collapsedDatum.combine( fullDatum ); // using combine instead of increment in order to calculate overall aggregateQReported
-            }
+            readGroupCollapsedKey[0] = fullKey[0]; // Make a new key with just the read group
+            dataCollapsedReadGroup.combine( readGroupCollapsedKey, fullDatum ); // using combine instead of increment in order to calculate overall aggregateQReported
         }
 
         // Create dataCollapsedQuality, the table where everything except read group and quality score has been collapsed
-        qualityScoreCollapsedKey[0] = key[0]; // Make a new key with the read group ...
-        qualityScoreCollapsedKey[1] = key[1]; //                                    and quality score
-        collapsedDatum = (RecalDatum) dataCollapsedQualityScore.get( qualityScoreCollapsedKey );
-        if( collapsedDatum == null ) {
-            dataCollapsedQualityScore.put( new RecalDatum(fullDatum), qualityScoreCollapsedKey );
-        } else {
-            collapsedDatum.increment( fullDatum );
-        }
+        qualityScoreCollapsedKey[0] = fullKey[0]; // Make a new key with the read group ...
+        qualityScoreCollapsedKey[1] = fullKey[1]; //                                    and quality score
+        dataCollapsedQualityScore.increment( qualityScoreCollapsedKey, fullDatum );
 
         // Create dataCollapsedByCovariate's, the tables where everything except read group, quality score, and given covariate has been collapsed
         for( int iii = 0; iii < dataCollapsedByCovariate.size(); iii++ ) {
-            covariateCollapsedKey[0] = key[0]; // Make a new key with the read group ...
-            covariateCollapsedKey[1] = key[1]; //                                    and quality score ...
-            final Object theCovariateElement = key[iii + 2]; //                                        and the given covariate
-            if( theCovariateElement != null ) {
+            covariateCollapsedKey[0] = fullKey[0]; // Make a new key with the read group ...
+            covariateCollapsedKey[1] = fullKey[1]; //                                    and quality score ...
+            final int theCovariateElement = fullKey[iii + 2]; //                                        and the given covariate
+            if( theCovariateElement != Covariate.NULL_KEY ) {
                 covariateCollapsedKey[2] = theCovariateElement;
-                collapsedDatum = (RecalDatum) dataCollapsedByCovariate.get(iii).get( covariateCollapsedKey );
-                if( collapsedDatum == null ) {
-                    dataCollapsedByCovariate.get(iii).put( new RecalDatum(fullDatum), covariateCollapsedKey );
-                } else {
-                    collapsedDatum.increment( fullDatum );
-                }
+                dataCollapsedByCovariate.get(iii).increment( covariateCollapsedKey, fullDatum );
             }
         }
     }
 
     /**
-     * Loop over all the collapsed tables and turn the recalDatums found there into an empirical quality score
+     * Loop over all the collapsed tables and turn the counts found there into an empirical quality score
      *   that will be used in the sequential calculation in TableRecalibrationWalker
      * @param smoothing The smoothing parameter that goes into empirical quality score calculation
      * @param maxQual At which value to cap the quality scores
      */
     public final void generateEmpiricalQualities( final int smoothing, final int maxQual ) {
 
-        recursivelyGenerateEmpiricalQualities(dataCollapsedReadGroup.data, smoothing, maxQual);
-        recursivelyGenerateEmpiricalQualities(dataCollapsedQualityScore.data, smoothing, maxQual);
-        for( NestedHashMap map : dataCollapsedByCovariate ) {
-            recursivelyGenerateEmpiricalQualities(map.data, smoothing, maxQual);
-            checkForSingletons(map.data);
+        dataCollapsedReadGroup.calcCombinedEmpiricalQualities(smoothing, maxQual);
+        dataCollapsedQualityScore.calcCombinedEmpiricalQualities(smoothing, maxQual);
+        for( int iii = 0; iii < dataCollapsedByCovariate.size(); iii++ ) {
+            final CollapsedRecalDataTable table = removeSingletons( dataCollapsedByCovariate.get(iii) );
+            table.calcCombinedEmpiricalQualities(smoothing, maxQual);
+            dataCollapsedByCovariate.set(iii, table);
         }
     }
 
-    private void recursivelyGenerateEmpiricalQualities( final Map data, final int smoothing, final int maxQual ) {
-
-        for( Object comp : data.keySet() ) {
-            final Object val = data.get(comp);
-            if( val instanceof RecalDatum ) { // We are at the end of the nested hash maps
-                ((RecalDatum)val).calcCombinedEmpiricalQuality(smoothing, maxQual);
-            } else { // Another layer in the nested hash map
-                recursivelyGenerateEmpiricalQualities( (Map) val, smoothing, maxQual);
-            }
+    /**
+     * Don't TableRecalibrate a non-required covariate if it only has one element for a given read group and quality score
+     *   because that correction has already been done in a previous step of the sequential calculation model
+     * @param table A table collapsed down to read group, quality score, and one other covariate
+     * @return The table with all such singleton rows removed
+     */
+    private static CollapsedRecalDataTable removeSingletons( final CollapsedRecalDataTable table ) {
+        final IntTupleIndex readGroupAndQuality = new IntTupleIndex( 2 );
+        final int[] groupOfRow = new int[table.size()];
+        final int[] key = new int[3];
+        for( int row = 0; row < table.size(); row++ ) {
+            groupOfRow[row] = readGroupAndQuality.findOrAdd( table.getTuple(row, key) );
+        }
+        final int[] rowsInGroup = new int[readGroupAndQuality.size()];
+        for( int row = 0; row < table.size(); row++ ) {
+            rowsInGroup[groupOfRow[row]]++;
         }
-    }
 
-    private void checkForSingletons( final Map data ) {
-        // todo -- this looks like it's better just as a data.valueSet() call?
-        for( Object comp : data.keySet() ) {
-            final Object val = data.get(comp);
-            if( val instanceof RecalDatum ) { // We are at the end of the nested hash maps
-                if( data.keySet().size() == 1) {
-                    data.clear(); // don't TableRecalibrate a non-required covariate if it only has one element because that correction has already been done ...
-                                                                                                    // in a previous step of the sequential calculation model
-                }
-            } else { // Another layer in the nested hash map
-                checkForSingletons( (Map) val );
+        final CollapsedRecalDataTable tableWithoutSingletons = new CollapsedRecalDataTable( 3 );
+        for( int row = 0; row < table.size(); row++ ) {
+            if( rowsInGroup[groupOfRow[row]] > 1 ) {
+                tableWithoutSingletons.copyRow( table, row );
             }
         }
+        return tableWithoutSingletons;
     }
 
     /**
      * Get the appropriate collapsed table out of the set of all the tables held by this Object
-     * @param covariate Which covariate indexes the desired collapsed HashMap
-     * @return The desired collapsed HashMap
+     * @param covariate Which covariate indexes the desired collapsed table
+     * @return The desired collapsed table
      */
-    public final NestedHashMap getCollapsedTable( final int covariate ) {
+    public final CollapsedRecalDataTable getCollapsedTable( final int covariate ) {
         if( covariate == 0) {
             return dataCollapsedReadGroup; // Table where everything except read group has been collapsed
         } else if( covariate == 1 ) {
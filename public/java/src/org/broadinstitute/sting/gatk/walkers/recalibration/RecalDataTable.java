@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.collections.IntTupleIndex;
+
+import java.util.Arrays;
+
+/**
+ * The recalibration counts for every combination of covariate values seen, keyed by the tuple of covariate keys
+ * (see Covariate.getKeys()).  Each row plays the part of a RecalDatumOptimized, but the number of observations and
+ * the number of mismatches are kept in flat arrays indexed by row rather than in one object per bin.
+ *
+ * Not thread-safe; CountCovariates keeps one table per thread and adds them together at the end of the traversal.
+ */
+public class RecalDataTable extends IntTupleIndex {
+
+    private long[] numObservations = new long[0]; // number of bases seen in total, by row
+    private long[] numMismatches = new long[0]; // number of bases seen that didn't match the reference, by row
+
+    public RecalDataTable( final int numCovariates ) {
+        super( numCovariates );
+    }
+
+    @Override
+    protected void ensureRowCapacity( final int rowCapacity ) {
+        numObservations = Arrays.copyOf( numObservations, rowCapacity );
+        numMismatches = Arrays.copyOf( numMismatches, rowCapacity );
+    }
+
+    //---------------------------------------------------------------------------------------------------------------
+    //
+    // increment methods
+    //
+    //---------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Add the given counts to the row with the given key, creating the row if necessary
+     * @param key The covariate keys
+     * @param incObservations Number of observations to add
+     * @param incMismatches Number of mismatches to add
+     * @return The row which was incremented
+     */
+    public final int increment( final int[] key, final long incObservations, final long incMismatches ) {
+        final int row = findOrAdd( key );
+        incrementRow( row, incObservations, incMismatches );
+        return row;
+    }
+
+    /**
+     * Add the given counts to an existing row
+     * @param row The row to increment
+     * @param incObservations Number of observations to add
+     * @param incMismatches Number of mismatches to add
+     */
+    protected final void incrementRow( final int row, final long incObservations, final long incMismatches ) {
+        numObservations[row] += incObservations;
+        numMismatches[row] += incMismatches;
+    }
+
+    /**
+     * Count one more observation of the given base in the row with the given key
+     * @param key The covariate keys
+     * @param curBase The base in the read
+     * @param refBase The reference base
+     * @return 1 if the base mismatched the reference, 0 otherwise
+     */
+    public final int incrementBaseCounts( final int[] key, final byte curBase, final byte refBase ) {
+        return incrementBaseCounts( key, 0, curBase, refBase );
+    }
+
+    /**
+     * Count one more observation of the given base in the row whose key is stored at the given position of a larger array
+     * @param keys Array holding the covariate keys, for example the keys of every base in a read
+     * @param start Index of the first covariate key
+     * @param curBase The base in the read
+     * @param refBase The reference base
+     * @return 1 if the base mismatched the reference, 0 otherwise
+     */
+    public final int incrementBaseCounts( final int[] keys, final int start, final byte curBase, final byte refBase ) {
+        final int mismatch = BaseUtils.simpleBaseToBaseIndex(curBase) == BaseUtils.simpleBaseToBaseIndex(refBase) ? 0 : 1;
+        incrementRow( findOrAdd( keys, start ), 1, mismatch );
+        return mismatch;
+    }
+
+    /**
+     * Add all the counts in the other table into this one
+     * @param other A table over the same covariates, keyed by the same covariate keys
+     */
+    public final void increment( final RecalDataTable other ) {
+        final int[] key = new int[getTupleLength()];
+        for( int row = 0; row < other.size(); row++ ) {
+            increment( other.getTuple(row, key), other.numObservations[row], other.numMismatches[row] );
+        }
+    }
+
+    //---------------------------------------------------------------------------------------------------------------
+    //
+    // misc. methods
+    //
+    //---------------------------------------------------------------------------------------------------------------
+
+    public final long getNumObservations( final int row ) {
+        return numObservations[row];
+    }
+
+    public final long getNumMismatches( final int row ) {
+        return numMismatches[row];
+    }
+
+    public final String outputToCSV( final int row ) {
+        return String.format( "%d,%d,%d", numObservations[row], numMismatches[row], (int)RecalDatumOptimized.empiricalQualByte(numObservations[row], numMismatches[row], 0) );
+    }
+}
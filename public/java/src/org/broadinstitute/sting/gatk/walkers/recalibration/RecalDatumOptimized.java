@@ -97,15 +97,23 @@ public class RecalDatumOptimized {
     //---------------------------------------------------------------------------------------------------------------
 
     public final double empiricalQualDouble( final int smoothing, final double maxQual ) {
+        return empiricalQualDouble( numObservations, numMismatches, smoothing, maxQual );
+    }
+    public final double empiricalQualDouble() { return empiricalQualDouble( 0, QualityUtils.MAX_REASONABLE_Q_SCORE ); } // 'default' behavior is to use smoothing value of zero
+
+    public static double empiricalQualDouble( final long numObservations, final long numMismatches, final int smoothing, final double maxQual ) {
         final double doubleMismatches = (double) ( numMismatches + smoothing );
         final double doubleObservations = (double) ( numObservations + smoothing );
         double empiricalQual = -10 * Math.log10(doubleMismatches / doubleObservations);
         if (empiricalQual > maxQual) { empiricalQual = maxQual; }
         return empiricalQual;
     }
-    public final double empiricalQualDouble() { return empiricalQualDouble( 0, QualityUtils.MAX_REASONABLE_Q_SCORE ); } // 'default' behavior is to use smoothing value of zero
 
     public final byte empiricalQualByte( final int smoothing ) {
+        return empiricalQualByte( numObservations, numMismatches, smoothing );
+    }
+
+    public static byte empiricalQualByte( final long numObservations, final long numMismatches, final int smoothing ) {
         final double doubleMismatches = (double) ( numMismatches + smoothing );
         final double doubleObservations = (double) ( numObservations + smoothing );
         return QualityUtils.probToQual( 1.0 - doubleMismatches / doubleObservations ); // This is capped at Q40
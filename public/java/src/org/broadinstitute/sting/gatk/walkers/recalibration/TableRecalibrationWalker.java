@@ -38,7 +38,7 @@ import org.broadinstitute.sting.utils.QualityUtils;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.baq.BAQ;
 import org.broadinstitute.sting.utils.classloader.PluginManager;
-import org.broadinstitute.sting.utils.collections.NestedHashMap;
+import org.broadinstitute.sting.utils.collections.IntTupleIndex;
 import org.broadinstitute.sting.utils.exceptions.DynamicClassResolutionException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
@@ -48,9 +48,11 @@ import org.broadinstitute.sting.utils.text.XReadLines;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -71,7 +73,7 @@ import java.util.regex.Pattern;
 @BAQMode(QualityMode = BAQ.QualityMode.ADD_TAG, ApplicationTime = BAQ.ApplicationTime.ON_OUTPUT)
 @WalkerName("TableRecalibration")
 @Requires({ DataSource.READS, DataSource.REFERENCE, DataSource.REFERENCE_BASES }) // This walker requires -I input.bam, it also requires -R reference.fasta
-public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWriter> {
+public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWriter> implements ThreadSafeMap {
 
     public static final String PROGRAM_RECORD_NAME = "GATK TableRecalibration";
 
@@ -119,18 +121,56 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
     /////////////////////////////
     // Private Member Variables
     /////////////////////////////
-    private RecalDataManager dataManager; // Holds the data HashMap, mostly used by TableRecalibrationWalker to create collapsed data hashmaps
+    private RecalDataManager dataManager; // Holds the collapsed data tables
     private final ArrayList<Covariate> requestedCovariates = new ArrayList<Covariate>(); // List of covariates to be used in this calculation
     private static final Pattern COMMENT_PATTERN = Pattern.compile("^#.*");
     private static final Pattern OLD_RECALIBRATOR_HEADER = Pattern.compile("^rg,.*");
     private static final Pattern COVARIATE_PATTERN = Pattern.compile("^ReadGroup,QualityScore,.*");
     public static final String EOF_MARKER = "EOF";
-    private long numReadsWithMalformedColorSpace = 0;
+    private final AtomicLong numReadsWithMalformedColorSpace = new AtomicLong(0);
 
     /////////////////////////////
     //  Optimization
     /////////////////////////////
-    private NestedHashMap qualityScoreByFullCovariateKey = new NestedHashMap(); // Caches the result of performSequentialQualityCalculation(..) for all sets of covariate values.
+    // Caches the result of performSequentialQualityCalculation(..) for all sets of covariate values.  One cache per thread, since map() may run in parallel.
+    private final ThreadLocal<QualityScoreCache> qualityScoreByFullCovariateKey = new ThreadLocal<QualityScoreCache>() {
+        @Override
+        protected QualityScoreCache initialValue() {
+            return new QualityScoreCache( requestedCovariates.size() );
+        }
+    };
+    // The covariate keys of the read being recalibrated, reused from read to read.  One per thread, for the same reason.
+    private final ThreadLocal<ReadCovariateKeys> readCovariateKeys = new ThreadLocal<ReadCovariateKeys>() {
+        @Override
+        protected ReadCovariateKeys initialValue() {
+            return new ReadCovariateKeys( requestedCovariates );
+        }
+    };
+
+    /**
+     * The recalibrated quality score for each full key of covariate keys seen so far.
+     */
+    private static class QualityScoreCache extends IntTupleIndex {
+        private byte[] qualityScores = new byte[0];
+
+        public QualityScoreCache( final int numCovariates ) {
+            super( numCovariates );
+        }
+
+        @Override
+        protected void ensureRowCapacity( final int rowCapacity ) {
+            qualityScores = Arrays.copyOf( qualityScores, rowCapacity );
+        }
+
+        public byte get( final int row ) {
+            return qualityScores[row];
+        }
+
+        public void put( final int[] keys, final int start, final byte qualityScore ) {
+            final int row = findOrAdd(keys, start); // may grow qualityScores
+            qualityScores[row] = qualityScore;
+        }
+    }
 
 
     //---------------------------------------------------------------------------------------------------------------
@@ -142,7 +182,7 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
     /**
      * Read in the recalibration table input file.
      * Parse the list of covariate classes used during CovariateCounterWalker.
-     * Parse the CSV data and populate the hashmap.
+     * Parse the CSV data and populate the collapsed tables.
      */
     public void initialize() {
 
@@ -166,7 +206,7 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
             Utils.warnUser("A dbSNP rod file was specified but TableRecalibrationWalker doesn't make use of it.");
         }
 
-        // Read in the data from the csv file and populate the data map and covariates list
+        // Read in the data from the csv file and populate the data tables and covariates list
         logger.info( "Reading in the data from input csv file..." );
 
         boolean sawEOF = false;
@@ -220,11 +260,11 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
                         for( Covariate cov : requestedCovariates ) {
                             cov.initialize( RAC );
                         }
-                        // Initialize the data hashMaps
+                        // Initialize the data tables
                         dataManager = new RecalDataManager( createCollapsedTables, requestedCovariates.size() );
 
                     }
-                    addCSVData(RECAL_FILE, line); // Parse the line and add the data to the HashMap
+                    addCSVData(RECAL_FILE, line); // Parse the line and add the data to the collapsed tables
                 }
             }
 
@@ -304,12 +344,12 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
                     " --Perhaps the read group string contains a comma and isn't being parsed correctly.");
         }
 
-        final Object[] key = new Object[requestedCovariates.size()];
+        final int[] key = new int[requestedCovariates.size()];
         Covariate cov;
         int iii;
         for( iii = 0; iii < requestedCovariates.size(); iii++ ) {
             cov = requestedCovariates.get( iii );
-            key[iii] = cov.getValue( vals[iii] );
+            key[iii] = cov.keyFromString( vals[iii] );
         }
 
         // Create a new datum using the number of observations, number of mismatches, and reported quality score
@@ -346,7 +386,7 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
             if( !(RAC.SOLID_NOCALL_STRATEGY == RecalDataManager.SOLID_NOCALL_STRATEGY.THROW_EXCEPTION) ) {
                 final boolean badColor = RecalDataManager.checkNoCallColorSpace( read );
                 if( badColor ) {
-                    numReadsWithMalformedColorSpace++;
+                    numReadsWithMalformedColorSpace.incrementAndGet();
                     if( RAC.SOLID_NOCALL_STRATEGY == RecalDataManager.SOLID_NOCALL_STRATEGY.LEAVE_READ_UNRECALIBRATED ) {
                         return read; // can't recalibrate a SOLiD read with no calls in the color space, and the user wants to skip over them
                     } else if ( RAC.SOLID_NOCALL_STRATEGY == RecalDataManager.SOLID_NOCALL_STRATEGY.PURGE_READ ) {
@@ -358,20 +398,25 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
             originalQuals = RecalDataManager.calcColorSpace( read, originalQuals, RAC.SOLID_RECAL_MODE, refBases == null ? null : refBases.getBases() );
         }
 
-        //compute all covariate values for this read
-        final Comparable[][] covariateValues_offset_x_covar =
-            RecalDataManager.computeCovariates((GATKSAMRecord) read, requestedCovariates);
+        //compute all covariate keys for this read
+        final ReadCovariateKeys readKeys = readCovariateKeys.get();
+        readKeys.computeKeys( read );
+        final int[] keys = readKeys.getKeys();
+
+        final QualityScoreCache qualityScoreCache = qualityScoreByFullCovariateKey.get();
 
         // For each base in the read
         for( int offset = 0; offset < read.getReadLength(); offset++ ) {
 
-            final Object[] fullCovariateKey = covariateValues_offset_x_covar[offset];
+            final int keyStart = readKeys.getKeyStart(offset);
 
-            Byte qualityScore = (Byte) qualityScoreByFullCovariateKey.get(fullCovariateKey);
-            if(qualityScore == null)
-            {
-                qualityScore = performSequentialQualityCalculation( fullCovariateKey );
-                qualityScoreByFullCovariateKey.put(qualityScore, fullCovariateKey);
+            final int cachedRow = qualityScoreCache.find(keys, keyStart);
+            final byte qualityScore;
+            if( cachedRow >= 0 ) {
+                qualityScore = qualityScoreCache.get(cachedRow);
+            } else {
+                qualityScore = performSequentialQualityCalculation( keys, keyStart );
+                qualityScoreCache.put(keys, keyStart, qualityScore);
             }
 
             recalQuals[offset] = qualityScore;
@@ -407,46 +452,45 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
      *   - The final shift equation is:
      *
      *      Qrecal = Qreported + DeltaQ + DeltaQ(pos) + DeltaQ(dinuc) + DeltaQ( ... any other covariate ... )
-     * @param key The list of Comparables that were calculated from the covariates
+     * @param keys An array holding the list of covariate keys that were calculated from the covariates
+     * @param start The index in keys of the read group key, the first in the list
      * @return A recalibrated quality score as a byte
      */
-    private byte performSequentialQualityCalculation( final Object... key ) {
+    private byte performSequentialQualityCalculation( final int[] keys, final int start ) {
 
-        final byte qualFromRead = (byte)Integer.parseInt(key[1].toString());
-        final Object[] readGroupCollapsedKey = new Object[1];
-        final Object[] qualityScoreCollapsedKey = new Object[2];
-        final Object[] covariateCollapsedKey = new Object[3];
+        final byte qualFromRead = (byte)keys[start + 1]; // The quality score covariate's key is the quality score itself
+        final int[] covariateCollapsedKey = new int[3];
 
         // The global quality shift (over the read group only)
-        readGroupCollapsedKey[0] = key[0];
-        final RecalDatum globalRecalDatum = ((RecalDatum)dataManager.getCollapsedTable(0).get( readGroupCollapsedKey ));
+        final CollapsedRecalDataTable globalTable = dataManager.getCollapsedTable(0);
+        final int globalRow = globalTable.find( keys, start ); // The collapsed keys are prefixes of the full key
         double globalDeltaQ = 0.0;
-        if( globalRecalDatum != null ) {
-            final double globalDeltaQEmpirical = globalRecalDatum.getEmpiricalQuality();
-            final double aggregrateQReported = globalRecalDatum.getEstimatedQReported();
+        if( globalRow >= 0 ) {
+            final double globalDeltaQEmpirical = globalTable.getEmpiricalQuality(globalRow);
+            final double aggregrateQReported = globalTable.getEstimatedQReported(globalRow);
             globalDeltaQ = globalDeltaQEmpirical - aggregrateQReported;
         }
 
         // The shift in quality between reported and empirical
-        qualityScoreCollapsedKey[0] = key[0];
-        qualityScoreCollapsedKey[1] = key[1];
-        final RecalDatum qReportedRecalDatum = ((RecalDatum)dataManager.getCollapsedTable(1).get( qualityScoreCollapsedKey ));
+        final CollapsedRecalDataTable qReportedTable = dataManager.getCollapsedTable(1);
+        final int qReportedRow = qReportedTable.find( keys, start );
         double deltaQReported = 0.0;
-        if( qReportedRecalDatum != null ) {
-            final double deltaQReportedEmpirical = qReportedRecalDatum.getEmpiricalQuality();
+        if( qReportedRow >= 0 ) {
+            final double deltaQReportedEmpirical = qReportedTable.getEmpiricalQuality(qReportedRow);
             deltaQReported = deltaQReportedEmpirical - qualFromRead - globalDeltaQ;
         }
 
         // The shift in quality due to each covariate by itself in turn
         double deltaQCovariates = 0.0;
         double deltaQCovariateEmpirical;
-        covariateCollapsedKey[0] = key[0];
-        covariateCollapsedKey[1] = key[1];
-        for( int iii = 2; iii < key.length; iii++ ) {
-            covariateCollapsedKey[2] =  key[iii]; // The given covariate
-            final RecalDatum covariateRecalDatum = ((RecalDatum)dataManager.getCollapsedTable(iii).get( covariateCollapsedKey ));
-            if( covariateRecalDatum != null ) {
-                deltaQCovariateEmpirical = covariateRecalDatum.getEmpiricalQuality();
+        covariateCollapsedKey[0] = keys[start];
+        covariateCollapsedKey[1] = keys[start + 1];
+        for( int iii = 2; iii < requestedCovariates.size(); iii++ ) {
+            covariateCollapsedKey[2] =  keys[start + iii]; // The given covariate
+            final CollapsedRecalDataTable covariateTable = dataManager.getCollapsedTable(iii);
+            final int covariateRow = covariateTable.find( covariateCollapsedKey );
+            if( covariateRow >= 0 ) {
+                deltaQCovariateEmpirical = covariateTable.getEmpiricalQuality(covariateRow);
                 deltaQCovariates += ( deltaQCovariateEmpirical - qualFromRead - (globalDeltaQ + deltaQReported) );
             }
         }
@@ -512,7 +556,7 @@ public class TableRecalibrationWalker extends ReadWalker<SAMRecord, SAMFileWrite
      * @param output The SAMFileWriter that outputs the bam file
      */
     public void onTraversalDone(SAMFileWriter output) {
-        if( numReadsWithMalformedColorSpace != 0 ) {
+        if( numReadsWithMalformedColorSpace.get() != 0 ) {
             if( RAC.SOLID_NOCALL_STRATEGY == RecalDataManager.SOLID_NOCALL_STRATEGY.LEAVE_READ_UNRECALIBRATED ) {
                 Utils.warnUser("Discovered " + numReadsWithMalformedColorSpace + " SOLiD reads with no calls in the color space. Unfortunately these reads cannot be recalibrated with this recalibration algorithm " +
                     "because we use reference mismatch rate as the only indication of a base's true quality. These reads have had reference bases inserted as a way of correcting " +
@@ -37,6 +37,9 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Factory class for creating GenomeLocs
  */
@@ -54,106 +57,60 @@ public class GenomeLocParser {
     private final MasterSequenceDictionary contigInfo;
 
     /**
-     * A wrapper class that provides efficient last used caching for the global
-     * SAMSequenceDictionary underlying all of the GATK engine capabilities
+     * An immutable copy of the global SAMSequenceDictionary underlying all of the GATK engine
+     * capabilities, indexed by both contig name and contig index.  Nothing is written after
+     * construction, so lookups need neither locks nor a last used cache, and the dictionary can
+     * be shared freely between threads.
      */
-    // todo -- enable when CoFoJa developers identify the problem (likely thread unsafe invariants)
-//    @Invariant({
-//            "dict != null",
-//            "dict.size() > 0",
-//            "lastSSR == null || dict.getSequence(lastContig).getSequenceIndex() == lastIndex",
-//            "lastSSR == null || dict.getSequence(lastContig).getSequenceName() == lastContig",
-//            "lastSSR == null || dict.getSequence(lastContig) == lastSSR"})
-    private final class MasterSequenceDictionary {
-        final private SAMSequenceDictionary dict;
-
-        // cache
-        SAMSequenceRecord lastSSR = null;
-        String lastContig = "";
-        int lastIndex = -1;
+    private static final class MasterSequenceDictionary {
+        final private SAMSequenceRecord[] sequences;
+        final private Map<String,SAMSequenceRecord> sequencesByName;
 
         @Requires({"dict != null", "dict.size() > 0"})
         public MasterSequenceDictionary(SAMSequenceDictionary dict) {
-            this.dict = dict;
+            sequences = dict.getSequences().toArray(new SAMSequenceRecord[dict.size()]);
+            sequencesByName = new HashMap<String,SAMSequenceRecord>(sequences.length * 2);
+            for ( SAMSequenceRecord rec : sequences )
+                sequencesByName.put(rec.getSequenceName(), rec);
         }
 
         @Ensures("result > 0")
         public final int getNSequences() {
-            return dict.size();
+            return sequences.length;
         }
 
         @Requires("contig != null")
-        public synchronized boolean hasContig(final String contig) {
-            return lastContig == contig || dict.getSequence(contig) != null;
+        public boolean hasContig(final String contig) {
+            return sequencesByName.containsKey(contig);
         }
 
         @Requires("index >= 0")
-        public synchronized boolean hasContig(final int index) {
-            return lastIndex == index|| dict.getSequence(index) != null;
+        public boolean hasContig(final int index) {
+            return index < sequences.length;
         }
 
         @Requires("contig != null")
         @Ensures("result != null")
-        public synchronized final SAMSequenceRecord getSequence(final String contig) {
-            if ( isCached(contig) )
-                return lastSSR;
-            else
-                return updateCache(contig, -1);
+        public final SAMSequenceRecord getSequence(final String contig) {
+            SAMSequenceRecord rec = sequencesByName.get(contig);
+            if ( rec == null )
+                throw new ReviewedStingException("BUG: requested unknown contig=" + contig + " index=-1");
+            return rec;
         }
 
         @Requires("index >= 0")
         @Ensures("result != null")
-        public synchronized final SAMSequenceRecord getSequence(final int index) {
-            if ( isCached(index) )
-                return lastSSR;
-            else
-                return updateCache(null, index);
-
+        public final SAMSequenceRecord getSequence(final int index) {
+            if ( index >= sequences.length )
+                throw new ReviewedStingException("BUG: requested unknown contig=null index=" + index);
+            return sequences[index];
         }
 
         @Requires("contig != null")
         @Ensures("result >= 0")
-        public synchronized final int getSequenceIndex(final String contig) {
-            if ( ! isCached(contig) ) {
-                updateCache(contig, -1);
-            }
-
-            return lastIndex;
-        }
-
-        @Requires({"contig != null", "lastContig != null"})
-        private synchronized boolean isCached(final String contig) {
-            return lastContig.equals(contig);
-        }
-
-        @Requires({"lastIndex != -1", "index >= 0"})
-        private synchronized boolean isCached(final int index) {
-            return lastIndex == index;
-        }
-
-        /**
-         * The key algorithm.  Given a new record, update the last used record, contig
-         * name, and index.
-         *
-         * @param contig
-         * @param index
-         * @return
-         */
-        @Requires("contig != null || index >= 0")
-        @Ensures("result != null")
-        private synchronized SAMSequenceRecord updateCache(final String contig, int index ) {
-            SAMSequenceRecord rec = contig == null ? dict.getSequence(index) : dict.getSequence(contig);
-            if ( rec == null ) {
-                throw new ReviewedStingException("BUG: requested unknown contig=" + contig + " index=" + index);
-            } else {
-                lastSSR = rec;
-                lastContig = rec.getSequenceName();
-                lastIndex = rec.getSequenceIndex();
-                return rec;
-            }
+        public final int getSequenceIndex(final String contig) {
+            return getSequence(contig).getSequenceIndex();
         }
-
-
     }
 
     /**
@@ -521,6 +478,71 @@ public class GenomeLocParser {
         return createGenomeLoc(loc.getContig(), loc.getContigIndex(), loc.start + by, loc.stop + by);
     }
 
+    // --------------------------------------------------------------------------------------------------------------
+    //
+    // Packed loci
+    //
+    // --------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Packs a single base locus into a long: the contig index in the high 32 bits and the position in the low 32
+     * bits.  Packed loci sort in the same order as the equivalent GenomeLocs, and let traversals step through the
+     * genome without allocating a GenomeLoc at every position.
+     *
+     * @param contigIndex the contig index, which must not be negative
+     * @param position    the position on the contig, which must not be negative
+     *
+     * @return the packed locus
+     */
+    @Requires({"contigIndex >= 0", "position >= 0"})
+    public static long packLocus(final int contigIndex, final int position) {
+        return ((long)contigIndex << 32) | position;
+    }
+
+    /**
+     * Packs the start of a GenomeLoc into a long.
+     *
+     * @param loc the location, which must be mapped
+     *
+     * @return the packed locus of loc's first base
+     */
+    @Requires({"loc != null", "! GenomeLoc.isUnmapped(loc)"})
+    public static long packLocus(final GenomeLoc loc) {
+        return packLocus(loc.getContigIndex(), loc.getStart());
+    }
+
+    /**
+     * @param locus a packed locus
+     * @return the contig index of the packed locus
+     */
+    public static int getPackedContigIndex(final long locus) {
+        return (int)(locus >>> 32);
+    }
+
+    /**
+     * @param locus a packed locus
+     * @return the position of the packed locus
+     */
+    public static int getPackedPosition(final long locus) {
+        return (int)locus;
+    }
+
+    /**
+     * Creates a single base genome loc from a packed locus.
+     *
+     * @param locus a packed locus
+     *
+     * @return a genome loc representing the single base at the packed locus
+     */
+    @Ensures("result != null")
+    public GenomeLoc createGenomeLoc(final long locus) {
+        final int contigIndex = getPackedContigIndex(locus);
+        if ( ! indexIsInDictionary(contigIndex) )
+            vglHelper(true, String.format("The contig index %d is greater than the stored sequence count (%d)", contigIndex, contigInfo.getNSequences()));
+        final int position = getPackedPosition(locus);
+        return new GenomeLoc(contigInfo.getSequence(contigIndex).getSequenceName(), contigIndex, position, position);
+    }
+
     /**
      * Creates a GenomeLoc than spans the entire contig.
      * @param contigName Name of the contig.
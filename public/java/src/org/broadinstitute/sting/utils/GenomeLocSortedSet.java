@@ -34,14 +34,29 @@ import java.util.*;
  *         will also remove a region from the list, if the region to remove is a
  *         partial interval of a region in the collection it will remove the region from
  *         that element.
+ *         <p/>
+ *         The locations are kept in start order in parallel arrays: the contig index, start
+ *         and stop of each location as primitives, which are binary searched, alongside the
+ *         GenomeLoc itself.  Adding or merging a location in order appends to the arrays, so
+ *         sets built from sorted interval lists load in linear time; out of order insertions
+ *         cost a binary search plus an array copy.
  */
 public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     private static Logger logger = Logger.getLogger(GenomeLocSortedSet.class);
 
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    /** The contig index of the unmapped location, which sorts after every real contig. */
+    private static final int UNMAPPED_CONTIG = Integer.MAX_VALUE;
+
     private GenomeLocParser genomeLocParser;
 
-    // our private storage for the GenomeLoc's
-    private List<GenomeLoc> mArray = new ArrayList<GenomeLoc>();
+    // our private storage for the GenomeLoc's, sorted by contig and start
+    private int size = 0;
+    private int[] contigs = new int[DEFAULT_INITIAL_CAPACITY];
+    private int[] starts = new int[DEFAULT_INITIAL_CAPACITY];
+    private int[] stops = new int[DEFAULT_INITIAL_CAPACITY];
+    private GenomeLoc[] locs = new GenomeLoc[DEFAULT_INITIAL_CAPACITY];
 
     /** default constructor */
     public GenomeLocSortedSet(GenomeLocParser parser) {
@@ -74,7 +89,29 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return an iterator<GenomeLoc>
      */
     public Iterator<GenomeLoc> iterator() {
-        return mArray.iterator();
+        return new Iterator<GenomeLoc>() {
+            private int next = 0;
+            private int last = -1;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public GenomeLoc next() {
+                if ( next >= size )
+                    throw new NoSuchElementException("No more locations in the set");
+                last = next++;
+                return locs[last];
+            }
+
+            public void remove() {
+                if ( last < 0 )
+                    throw new IllegalStateException("next() has not been called since the last remove()");
+                removeRange(last, last + 1);
+                next = last;
+                last = -1;
+            }
+        };
     }
 
     /**
@@ -83,7 +120,7 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return the size of the collection
      */
     public int size() {
-        return mArray.size();
+        return size;
     }
 
     /**
@@ -92,8 +129,8 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      */
     public long coveredSize() {
         long s = 0;
-        for ( GenomeLoc e : this )
-            s += e.size();
+        for ( int i = 0; i < size; i++ )
+            s += locs[i].size();
         return s;
     }
 
@@ -106,7 +143,8 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
     public long sizeBeforeLoc(GenomeLoc loc) {
         long s = 0;
 
-        for ( GenomeLoc e : this ) {
+        for ( int i = 0; i < size; i++ ) {
+            GenomeLoc e = locs[i];
             if ( e.isBefore(loc) )
                 s += e.size();
             else if ( e.isPast(loc) )
@@ -124,7 +162,19 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return true if we have no elements
      */
     public boolean isEmpty() {
-        return mArray.isEmpty();
+        return size == 0;
+    }
+
+    /**
+     * Is the given location, with the same start and stop, in the set?
+     *
+     * @param o the location to look for
+     *
+     * @return true if the location is in the set
+     */
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof GenomeLoc && indexOf((GenomeLoc)o) >= 0;
     }
 
     /**
@@ -135,24 +185,29 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      * @return true
      */
     public boolean add(GenomeLoc e) {
+        final int contig = contigOf(e);
+
         // assuming that the intervals coming arrive in order saves us a fair amount of time (and it's most likely true)
-        if (mArray.size() > 0 && e.isPast(mArray.get(mArray.size() - 1))) {
-            mArray.add(e);
+        if ( size == 0 || contig > contigs[size-1] || (contig == contigs[size-1] && e.getStart() > stops[size-1]) ) {
+            insert(size, e);
             return true;
-        } else {
-            int loc = Collections.binarySearch(mArray,e);
-            if (loc >= 0) {
-                throw new ReviewedStingException("Genome Loc Sorted Set already contains the GenomicLoc " + e.toString());
-            } else {
-                mArray.add((loc+1) * -1,e);
-                return true;
-            }
         }
+
+        // locs sharing a start are ordered by their stops, as GenomeLoc.compareTo() orders them
+        int loc = lowerBound(contig, e.getStart());
+        while ( loc < size && contigs[loc] == contig && starts[loc] == e.getStart() && stops[loc] < e.getStop() )
+            loc++;
+        if ( loc < size && contigs[loc] == contig && starts[loc] == e.getStart() && stops[loc] == e.getStop() )
+            throw new ReviewedStingException("Genome Loc Sorted Set already contains the GenomicLoc " + e.toString());
+        insert(loc, e);
+        return true;
     }
 
     /**
      * Adds a GenomeLoc to the collection, merging it if it overlaps another region.
-     * If it's not overlapping then we add it in sorted order.
+     * If it's not overlapping then we add it in sorted order.  Assumes the regions
+     * already in the set don't overlap one another, as is the case when they were
+     * all added through this method or came from merged interval lists.
      *
      * @param e the GenomeLoc to add to the collection
      *
@@ -162,151 +217,84 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
         if (e == null) {
             return false;
         }
-        // have we added it to the collection?
-        boolean haveAdded = false;
-
-        /**
-         * check if the specified element overlaps any current locations, if so
-         * we should merge the two.
-         */
-        for (GenomeLoc g : mArray) {
-            if (g.contiguousP(e)) {
-                GenomeLoc c = g.merge(e);
-                mArray.set(mArray.indexOf(g), c);
-                haveAdded = true;
-            } else if ((g.getContigIndex() == e.getContigIndex()) &&
-                    (e.getStart() < g.getStart()) && !haveAdded) {
-                mArray.add(mArray.indexOf(g), e);
-                return true;
-            } else if (haveAdded && ((e.getContigIndex() > e.getContigIndex()) ||
-                    (g.getContigIndex() == e.getContigIndex() && e.getStart() > g.getStart()))) {
-                return true;
-            }
-        }
-        /** we're at the end and we haven't found locations that should fall after it,
-         * so we'll put it at the end
-         */
-        if (!haveAdded) {
-            mArray.add(e);
+
+        final int contig = contigOf(e);
+
+        // every region contiguous with e starts before the base after e stops, and forms a run
+        // ending just before the first region which doesn't
+        final int end = lowerBound(contig, (long)e.getStop() + 2);
+        int first = end;
+        while ( first > 0 && contigs[first-1] == contig && stops[first-1] >= e.getStart() - 1 )
+            first--;
+
+        if ( first == end ) {
+            insert(end, e);
+        } else {
+            GenomeLoc merged = e;
+            for ( int i = first; i < end; i++ )
+                merged = merged.merge(locs[i]);
+            set(first, merged);
+            removeRange(first + 1, end);
         }
         return true;
     }
 
+    /**
+     * Removes the given regions from the regions in this set, trimming or splitting any
+     * region which is only partially covered.  Both sets are walked once, in order.
+     *
+     * @param toRemoveSet the regions to remove
+     *
+     * @return a new set of the remaining regions
+     */
     public GenomeLocSortedSet subtractRegions(GenomeLocSortedSet toRemoveSet) {
-        LinkedList<GenomeLoc> good = new LinkedList<GenomeLoc>();
-        Stack<GenomeLoc> toProcess = new Stack<GenomeLoc>();
-        Stack<GenomeLoc> toExclude = new Stack<GenomeLoc>();
-
-        // initialize the stacks
-        toProcess.addAll(mArray);
-        Collections.reverse(toProcess);
-        toExclude.addAll(toRemoveSet.mArray);
-        Collections.reverse(toExclude);
-
-        int i = 0;
-        while ( ! toProcess.empty() ) {    // while there's still stuff to process
-            if ( toExclude.empty() ) {
-                good.addAll(toProcess);         // no more excludes, all the processing stuff is good
-                break;
+        GenomeLocSortedSet good = new GenomeLocSortedSet(genomeLocParser);
+
+        int firstExclude = 0;
+        for ( int i = 0; i < size; i++ ) {
+            final int contig = contigs[i];
+            final int stop = stops[i];
+            int from = starts[i];
+
+            // excludes ending before this region also end before every later one
+            while ( firstExclude < toRemoveSet.size &&
+                    (toRemoveSet.contigs[firstExclude] < contig ||
+                     (toRemoveSet.contigs[firstExclude] == contig && toRemoveSet.stops[firstExclude] < from)) )
+                firstExclude++;
+
+            boolean trimmed = false;
+            for ( int j = firstExclude; j < toRemoveSet.size && from <= stop; j++ ) {
+                if ( toRemoveSet.contigs[j] != contig || toRemoveSet.starts[j] > stop )
+                    break;
+                if ( toRemoveSet.stops[j] < from )
+                    continue;
+
+                trimmed = true;
+                if ( toRemoveSet.starts[j] > from )
+                    good.add(createGenomeLoc(locs[i], from, toRemoveSet.starts[j] - 1));
+                from = toRemoveSet.stops[j] + 1;
             }
 
-            GenomeLoc p = toProcess.peek();
-            GenomeLoc e = toExclude.peek();
-
-            if ( p.overlapsP(e) ) {
-                toProcess.pop();
-                for ( GenomeLoc newP : subtractRegion(p, e) )
-                    toProcess.push(newP);
-            } else if ( p.compareContigs(e) < 0 ) {
-                good.add(toProcess.pop());         // p is now good
-            } else if ( p.compareContigs(e) > 0 ) {
-                toExclude.pop();                 // e can't effect anything
-            } else if ( p.getStop() < e.getStart() ) {
-                good.add(toProcess.pop());         // p stops before e starts, p is good
-            } else if ( e.getStop() < p.getStart() ) {
-                toExclude.pop();                 // p starts after e stops, e is done
-            } else {
-                throw new ReviewedStingException("BUG: unexpected condition: p=" + p + ", e=" + e);
-            }
+            if ( !trimmed )
+                good.add(locs[i]);
+            else if ( from <= stop )
+                good.add(createGenomeLoc(locs[i], from, stop));
 
-            if ( i++ % 10000 == 0 )
+            if ( i % 10000 == 0 )
                 logger.debug("removeRegions operation: i = " + i);
         }
 
-        return createSetFromList(genomeLocParser,good);
+        return good;
     }
 
-    private static final List<GenomeLoc> EMPTY_LIST = new ArrayList<GenomeLoc>();
-    private List<GenomeLoc> subtractRegion(GenomeLoc g, GenomeLoc e) {
-        if (g.equals(e)) {
-            return EMPTY_LIST;
-        } else if (g.containsP(e)) {
-            List<GenomeLoc> l = new ArrayList<GenomeLoc>();
-
-            /**
-             * we have to create two new region, one for the before part, one for the after
-             * The old region:
-             * |----------------- old region (g) -------------|
-             *        |----- to delete (e) ------|
-             *
-             * product (two new regions):
-             * |------|  + |--------|
-             *
-             */
-            int afterStop = g.getStop(), afterStart = e.getStop() + 1;
-            int beforeStop = e.getStart() - 1, beforeStart = g.getStart();
-            if (afterStop - afterStart >= 0) {
-                GenomeLoc after = genomeLocParser.createGenomeLoc(g.getContig(), afterStart, afterStop);
-                l.add(after);
-            }
-            if (beforeStop - beforeStart >= 0) {
-                GenomeLoc before = genomeLocParser.createGenomeLoc(g.getContig(), beforeStart, beforeStop);
-                l.add(before);
-            }
-
-            return l;
-        } else if (e.containsP(g)) {
-            /**
-             * e completely contains g, delete g, but keep looking, there may be more regions
-             * i.e.:
-             *   |--------------------- e --------------------|
-             *       |--- g ---|    |---- others ----|
-             */
-            return EMPTY_LIST;   // don't need to do anything
-        } else {
-            /**
-             * otherwise e overlaps some part of g
-             *
-             * figure out which region occurs first on the genome.  I.e., is it:
-             * |------------- g ----------|
-             *       |------------- e ----------|
-             *
-             * or:
-             *       |------------- g ----------|
-             * |------------ e -----------|
-             *
-             */
-
-            GenomeLoc n;
-            if (e.getStart() < g.getStart()) {
-                n = genomeLocParser.createGenomeLoc(g.getContig(), e.getStop() + 1, g.getStop());
-            } else {
-                n = genomeLocParser.createGenomeLoc(g.getContig(), g.getStart(), e.getStart() - 1);
-            }
-
-            // replace g with the new region
-            return Arrays.asList(n);
-        }
-    }
-
-
     /**
      * a simple removal of an interval contained in this list.  The interval must be identical to one in the list (no partial locations or overlapping)
      * @param location the GenomeLoc to remove
      */
     public void remove(GenomeLoc location) {
-        if (!mArray.contains(location)) throw new IllegalArgumentException("Unable to remove location: " + location + ", not in the list");
-        mArray.remove(location);
+        int loc = indexOf(location);
+        if (loc < 0) throw new IllegalArgumentException("Unable to remove location: " + location + ", not in the list");
+        removeRange(loc, loc + 1);
     }
 
     /**
@@ -346,19 +334,20 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
      */
     public GenomeLocSortedSet clone() {
         GenomeLocSortedSet ret = new GenomeLocSortedSet(genomeLocParser);
-        for (GenomeLoc loc : this.mArray) {
+        for ( int i = 0; i < size; i++ ) {
+            GenomeLoc loc = locs[i];
             // ensure a deep copy
-            ret.mArray.add(genomeLocParser.createGenomeLoc(loc.getContig(), loc.getStart(), loc.getStop()));
+            ret.insert(i, genomeLocParser.createGenomeLoc(loc.getContig(), loc.getStart(), loc.getStop()));
         }
         return ret;
     }
 
     /**
      * convert this object to a list
-     * @return the lists
+     * @return a new list of the locations, in order
      */
     public List<GenomeLoc> toList() {
-        return this.mArray;
+        return new ArrayList<GenomeLoc>(Arrays.asList(locs).subList(0, size));
     }
 
     public String toString() {
@@ -373,6 +362,87 @@ public class GenomeLocSortedSet extends AbstractSet<GenomeLoc> {
         return s.toString();
     }
 
+    /**
+     * The contig by which a location is sorted; the unmapped location sorts last.
+     */
+    private static int contigOf(GenomeLoc loc) {
+        return GenomeLoc.isUnmapped(loc) ? UNMAPPED_CONTIG : loc.getContigIndex();
+    }
+
+    /**
+     * Trims a location in this set down to the given bounds.
+     */
+    private GenomeLoc createGenomeLoc(GenomeLoc loc, int start, int stop) {
+        return genomeLocParser.createGenomeLoc(loc.getContig(), loc.getContigIndex(), start, stop);
+    }
+
+    /**
+     * Finds the first location which doesn't sort before the given contig and start.
+     *
+     * @return the index of that location, or size if every location sorts before
+     */
+    private int lowerBound(int contig, long start) {
+        int low = 0, high = size;
+        while ( low < high ) {
+            int mid = (low + high) >>> 1;
+            if ( contigs[mid] < contig || (contigs[mid] == contig && starts[mid] < start) )
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Finds a location with the same contig, start and stop as the given one.
+     *
+     * @return the index of that location, or -1 if there isn't one
+     */
+    private int indexOf(GenomeLoc loc) {
+        final int contig = contigOf(loc);
+        for ( int i = lowerBound(contig, loc.getStart()); i < size && contigs[i] == contig && starts[i] == loc.getStart(); i++ ) {
+            if ( stops[i] == loc.getStop() )
+                return i;
+        }
+        return -1;
+    }
+
+    private void insert(int i, GenomeLoc loc) {
+        if ( size == locs.length ) {
+            int capacity = Math.max(2 * locs.length, DEFAULT_INITIAL_CAPACITY);
+            contigs = Arrays.copyOf(contigs, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            locs = Arrays.copyOf(locs, capacity);
+        }
+        if ( i < size ) {
+            System.arraycopy(contigs, i, contigs, i + 1, size - i);
+            System.arraycopy(starts, i, starts, i + 1, size - i);
+            System.arraycopy(stops, i, stops, i + 1, size - i);
+            System.arraycopy(locs, i, locs, i + 1, size - i);
+        }
+        size++;
+        set(i, loc);
+    }
+
+    private void set(int i, GenomeLoc loc) {
+        contigs[i] = contigOf(loc);
+        starts[i] = loc.getStart();
+        stops[i] = loc.getStop();
+        locs[i] = loc;
+    }
+
+    private void removeRange(int from, int to) {
+        if ( to <= from )
+            return;
+        System.arraycopy(contigs, to, contigs, from, size - to);
+        System.arraycopy(starts, to, starts, from, size - to);
+        System.arraycopy(stops, to, stops, from, size - to);
+        System.arraycopy(locs, to, locs, from, size - to);
+        Arrays.fill(locs, size - (to - from), size, null);
+        size -= to - from;
+    }
+
      /**
      * Check to see whether two genomeLocSortedSets are equal.
      * Note that this implementation ignores the contigInfo object.
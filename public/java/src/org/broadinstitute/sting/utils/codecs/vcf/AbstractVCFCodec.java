@@ -6,7 +6,6 @@ import org.broad.tribble.FeatureCodec;
 import org.broad.tribble.NameAwareCodec;
 import org.broad.tribble.TribbleException;
 import org.broad.tribble.readers.LineReader;
-import org.broad.tribble.util.ParsingUtils;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
@@ -32,16 +31,20 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
     // for ParsingUtils.split
     protected String[] GTValueArray = new String[100];
     protected String[] genotypeKeyArray = new String[100];
-    protected String[] infoValueArray = new String[1000];
 
     // for performance testing purposes
     public static boolean validate = true;
 
     // a key optimization -- we need a per thread string parts array, so we don't allocate a big array over and over
     // todo: make this thread safe?
-    protected String[] parts = null;
     protected String[] genotypeParts = null;
 
+    // strings seen over and over again (contigs, alleles, filters, genotypes) are interned here
+    protected final VCFLineTokenizer.InternCache stringCache = new VCFLineTokenizer.InternCache();
+
+    // splits the standard columns of each line; genotypes are split by their own tokenizer since they're parsed later
+    private final VCFLineTokenizer lineTokenizer = new VCFLineTokenizer(stringCache);
+
     // for performance we cache the hashmap of filter encodings for quick lookup
     protected HashMap<String,LinkedHashSet<String>> filterHash = new HashMap<String,LinkedHashSet<String>>();
 
@@ -55,8 +58,6 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
 
     protected int lineNo = 0;
 
-    protected Map<String, String> stringCache = new HashMap<String, String>();
-
 
     /**
      * @param reader the line reader to take header lines from
@@ -170,10 +171,8 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
             // our header cannot be null, we need the genotype sample names and counts
             if (header == null) throw new ReviewedStingException("VCF Header cannot be null when decoding a record");
 
-            if (parts == null)
-                parts = new String[Math.min(header.getColumnCount(), NUM_STANDARD_FIELDS+1)];
-
-            int nParts = ParsingUtils.split(line, parts, VCFConstants.FIELD_SEPARATOR_CHAR, true);
+            lineTokenizer.load(line);
+            int nParts = lineTokenizer.split(VCFConstants.FIELD_SEPARATOR_CHAR, Math.min(header.getColumnCount(), NUM_STANDARD_FIELDS+1), true);
 
             // if we have don't have a header, or we have a header with no genotyping data check that we have eight columns.  Otherwise check that we have nine (normal colummns + genotyping data)
             if (( (header == null || (header != null && !header.hasGenotypingData())) && nParts != NUM_STANDARD_FIELDS) ||
@@ -181,7 +180,26 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
                 throw new UserException.MalformedVCF("there aren't enough columns for line " + line + " (we expected " + (header == null ? NUM_STANDARD_FIELDS : NUM_STANDARD_FIELDS + 1) +
                         " tokens, and saw " + nParts + " )", lineNo);
 
-            return parseVCFLine(parts);
+            return parseVCFLine(lineTokenizer, null);
+    }
+
+    /**
+     * decode a record whose INFO fields, and unparsed genotypes if it has any, are supplied separately rather
+     * than as text; used by readers of other representations of VCF files, such as VariantCacheFeatureSource
+     * @param sitesColumns the CHROM through FILTER columns of the record, tab separated
+     * @param attributes the INFO fields, holding the unparsed genotypes under UNPARSED_GENOTYPE_MAP_KEY if there are any
+     * @return a VariantContext
+     */
+    VariantContext decodeSites(String sitesColumns, LazyVCFInfoMap attributes) {
+        if (header == null) throw new ReviewedStingException("VCF Header cannot be null when decoding a record");
+
+        lineTokenizer.load(sitesColumns);
+        int nParts = lineTokenizer.split(VCFConstants.FIELD_SEPARATOR_CHAR, NUM_STANDARD_FIELDS, true);
+        if ( nParts != NUM_STANDARD_FIELDS - 1 )
+            throw new UserException.MalformedVCF("there aren't enough columns for record " + sitesColumns + " (we expected " + (NUM_STANDARD_FIELDS - 1) +
+                    " tokens, and saw " + nParts + " )", lineNo);
+
+        return parseVCFLine(lineTokenizer, attributes);
     }
 
     protected void generateException(String message) {
@@ -195,33 +213,40 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
     /**
      * parse out the VCF line
      *
-     * @param parts the parts split up
+     * @param parts the line, split up into its columns
+     * @param infoAttributes the INFO fields if they aren't among the columns, or null
      * @return a variant context object
      */
-    private VariantContext parseVCFLine(String[] parts) {
+    private VariantContext parseVCFLine(VCFLineTokenizer parts, LazyVCFInfoMap infoAttributes) {
         // increment the line count
         lineNo++;
 
         // parse out the required fields
-        String contig = getCachedString(parts[0]);
-        long pos = Long.valueOf(parts[1]);
+        String contig = parts.getCachedString(0);
+        long pos = parts.parseLong(1);
         String id = null;
-        if ( parts[2].length() == 0 )
+        if ( parts.getLength(2) == 0 )
             generateException("The VCF specification requires a valid ID field");
-        else if ( parts[2].equals(VCFConstants.EMPTY_ID_FIELD) )
+        else if ( parts.fieldEquals(2, VCFConstants.EMPTY_ID_FIELD) )
             id = VCFConstants.EMPTY_ID_FIELD;
         else
-            id = new String(parts[2]);
-        String ref = getCachedString(parts[3].toUpperCase());
-        String alts = getCachedString(parts[4].toUpperCase());
-        Double qual = parseQual(parts[5]);
-        String filter = getCachedString(parts[6]);
-        String info = new String(parts[7]);
+            id = parts.getString(2);
+        String ref = parts.getCachedUpperCaseString(3);
+        String alts = parts.getCachedUpperCaseString(4);
+        Double qual = parseQual(parts, 5);
+        String filter = parts.getCachedString(6);
+        String info = infoAttributes == null ? parts.getString(7) : null;
 
         // get our alleles, filters, and setup an attribute map
         List<Allele> alleles = parseAlleles(ref, alts, lineNo);
         Set<String> filters = parseFilters(filter);
-        Map<String, Object> attributes = parseInfo(info, id);
+        Map<String, Object> attributes;
+        if ( infoAttributes == null ) {
+            attributes = parseInfo(info, id);
+        } else {
+            attributes = infoAttributes;
+            attributes.put(VariantContext.ID_KEY, id);
+        }
 
         // find out our current location, and clip the alleles down to their minimum length
         long loc = pos;
@@ -235,8 +260,10 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
         }
 
         // do we have genotyping data
-        if (parts.length > NUM_STANDARD_FIELDS) {
-            attributes.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, new String(parts[8]));
+        if (parts.getNumFields() > NUM_STANDARD_FIELDS) {
+            attributes.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, parts.getString(8));
+            attributes.put(VariantContext.UNPARSED_GENOTYPE_PARSER_KEY, this);
+        } else if ( infoAttributes != null && attributes.containsKey(VariantContext.UNPARSED_GENOTYPE_MAP_KEY) ) {
             attributes.put(VariantContext.UNPARSED_GENOTYPE_PARSER_KEY, this);
         }
 
@@ -286,51 +313,20 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
      * @return interned string
      */
     protected String getCachedString(String str) {
-        String internedString = stringCache.get(str);
-        if ( internedString == null ) {
-            internedString = new String(str);
-            stringCache.put(internedString, internedString);
-        }
-        return internedString;
+        return stringCache.intern(str);
     }
 
     /**
-     * parse out the info fields
+     * set up the info fields.  The INFO column itself is only decoded when the attributes are used.
      * @param infoField the fields
      * @param id the indentifier
      * @return a mapping of keys to objects
      */
     private Map<String, Object> parseInfo(String infoField, String id) {
-        Map<String, Object> attributes = new HashMap<String, Object>();
-
         if ( infoField.length() == 0 )
             generateException("The VCF specification requires a valid info field");
 
-        if ( !infoField.equals(VCFConstants.EMPTY_INFO_FIELD) ) {
-            int infoValueSplitSize = ParsingUtils.split(infoField, infoValueArray, VCFConstants.INFO_FIELD_SEPARATOR_CHAR);
-            for (int i = 0; i < infoValueSplitSize; i++) {
-                String key;
-                Object value;
-
-                int eqI = infoValueArray[i].indexOf("=");
-                if ( eqI != -1 ) {
-                    key = infoValueArray[i].substring(0, eqI);
-                    String str = infoValueArray[i].substring(eqI+1, infoValueArray[i].length());
-
-                    // lets see if the string contains a , separator
-                    if ( str.contains(",") )
-                        value = Arrays.asList(str.split(","));
-                    else
-                        value = str;
-                } else {
-                    key = infoValueArray[i];
-                    value = true;
-                }
-
-                attributes.put(key, value);
-            }
-        }
-
+        Map<String, Object> attributes = new LazyVCFInfoMap(infoField);
         attributes.put(VariantContext.ID_KEY, id);
         return attributes;
     }
@@ -395,6 +391,27 @@ public abstract class AbstractVCFCodec implements FeatureCodec, NameAwareCodec,
         return val / 10.0;
     }
 
+    /**
+     * parse out the qual value without creating a string for it
+     * @param tokenizer the tokenizer holding the value
+     * @param field the field holding the value
+     * @return return a double
+     */
+    protected static Double parseQual(VCFLineTokenizer tokenizer, int field) {
+        // if we're the VCF 4 missing char, return immediately
+        if ( tokenizer.fieldEquals(field, VCFConstants.MISSING_VALUE_v4) )
+            return VariantContext.NO_NEG_LOG_10PERROR;
+
+        double val = tokenizer.parseDouble(field);
+
+        // check to see if they encoded the missing qual score in VCF 3 style, with either the -1 or -1.0.  check for val < 0 to save some CPU cycles
+        if ((val < 0) && (Math.abs(val - VCFConstants.MISSING_QUALITY_v3_DOUBLE) < VCFConstants.VCF_ENCODING_EPSILON))
+            return VariantContext.NO_NEG_LOG_10PERROR;
+
+        // scale and return the value
+        return val / 10.0;
+    }
+
     /**
      * parse out the alleles
      * @param ref the reference base
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.util.ParsingUtils;
+
+import java.util.*;
+
+/**
+ * The attribute map of a VCF record, backed by the record's raw INFO column.  Nothing is decoded when the record
+ * is read: looking up a single key scans the raw column for just that key, and the whole column is only split
+ * into a real map when the map is iterated, sized or has a key removed.
+ *
+ * Entries put into the map before it is decoded (the ID, the unparsed genotype data) are kept to one side and
+ * take precedence over the INFO column, exactly as if they had been put into a fully decoded map.
+ *
+ * Subclasses may keep the INFO fields in some other form, overriding canScan(), scanValue(), scanContainsKey()
+ * and decodeFields().
+ *
+ * A VariantContext can be handed to several threads at once (e.g. by the reference-ordered data of a parallel
+ * read walker), so reading the map is thread-safe: the raw fields are never changed or let go, and the decoded
+ * map is only published once it's complete.  Threads racing to decode each build an equal map, and whichever
+ * is published last wins.  Changing the map (put, remove) is not thread-safe.
+ */
+public class LazyVCFInfoMap extends AbstractMap<String, Object> {
+    /** The codec has only ever split INFO into this many fields; any more are dropped. */
+    private static final int MAX_INFO_FIELDS = 1000;
+
+    /** The raw INFO column, or null if the column was empty ('.'). */
+    private final String infoField;
+
+    /** Entries put before decoding. */
+    private final Map<String, Object> extraAttributes = new HashMap<String, Object>(4);
+
+    /** The decoded map, or null if the INFO column hasn't been decoded yet. */
+    private volatile Map<String, Object> decoded = null;
+
+    /**
+     * Create a map around the given INFO column.
+     * @param infoField the INFO column of a VCF record.
+     */
+    public LazyVCFInfoMap(String infoField) {
+        this.infoField = infoField.equals(VCFConstants.EMPTY_INFO_FIELD) ? null : infoField;
+    }
+
+    /**
+     * Create a map for a subclass which supplies the INFO fields itself.
+     */
+    protected LazyVCFInfoMap() {
+        this.infoField = null;
+    }
+
+    /**
+     * @return true if the INFO column has been split into a map.
+     */
+    public boolean isDecoded() {
+        return decoded != null;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Map<String, Object> decoded = this.decoded;
+        if ( decoded != null )
+            return decoded.get(key);
+        if ( extraAttributes.containsKey(key) )
+            return extraAttributes.get(key);
+        if ( !(key instanceof String) || !canScan() )
+            return decode().get(key);
+
+        return scanValue((String)key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, Object> decoded = this.decoded;
+        if ( decoded != null )
+            return decoded.containsKey(key);
+        if ( extraAttributes.containsKey(key) )
+            return true;
+        if ( !(key instanceof String) || !canScan() )
+            return decode().containsKey(key);
+
+        return scanContainsKey((String)key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = get(key);
+        if ( decoded != null ) // possibly decoded by get()
+            decoded.put(key, value);
+        else
+            extraAttributes.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        // removing a key which is also in the raw column must hide it there too
+        if ( decoded == null && !(key instanceof String && canScan() && !scanContainsKey((String)key)) )
+            decode();
+        if ( decoded != null )
+            return decoded.remove(key);
+        return extraAttributes.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return decode().size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return decode().entrySet();
+    }
+
+    /**
+     * Splits the INFO column into a map, if that hasn't been done already.
+     * @return the decoded map.
+     */
+    private Map<String, Object> decode() {
+        Map<String, Object> attributes = decoded;
+        if ( attributes == null ) {
+            attributes = new HashMap<String, Object>();
+            decodeFields(attributes);
+            attributes.putAll(extraAttributes);
+            decoded = attributes; // only publish the map once it's filled in
+        }
+        return attributes;
+    }
+
+    /**
+     * Puts every INFO field into the given map.
+     * @param attributes the map to fill.
+     */
+    protected void decodeFields(Map<String, Object> attributes) {
+        if ( infoField != null ) {
+            String[] infoValueArray = new String[Math.min(countFields(infoField), MAX_INFO_FIELDS)];
+            int infoValueSplitSize = ParsingUtils.split(infoField, infoValueArray, VCFConstants.INFO_FIELD_SEPARATOR_CHAR);
+            for (int i = 0; i < infoValueSplitSize; i++) {
+                int eqI = infoValueArray[i].indexOf("=");
+                if ( eqI != -1 )
+                    attributes.put(infoValueArray[i].substring(0, eqI), decodeValue(infoValueArray[i], eqI));
+                else
+                    attributes.put(infoValueArray[i], true);
+            }
+        }
+    }
+
+    /**
+     * Finds the value of a single INFO field without decoding the others.  Only called if canScan().
+     * @param key the key to look for.
+     * @return the value, decoded as decodeFields() would decode it, or null if the key isn't present.
+     */
+    protected Object scanValue(String key) {
+        String field = findField(key);
+        return field == null ? null : decodeValue(field, key.length());
+    }
+
+    /**
+     * Is the given key among the INFO fields?  Only called if canScan().
+     * @param key the key to look for.
+     * @return true if the key is present.
+     */
+    protected boolean scanContainsKey(String key) {
+        return findField(key) != null;
+    }
+
+    /**
+     * Can single keys be found by scanning the raw column?  ParsingUtils.split() treats a column starting with
+     * a separator, or with too many fields, specially; leave those to decode().
+     */
+    protected boolean canScan() {
+        return infoField == null || (infoField.length() > 0 && infoField.charAt(0) != VCFConstants.INFO_FIELD_SEPARATOR_CHAR && countFields(infoField) <= MAX_INFO_FIELDS);
+    }
+
+    /**
+     * Finds the last INFO field with the given key, as the last one wins when decoding.
+     * @param key the key to look for.
+     * @return the whole field (key, and =value if present), or null if the key isn't present.
+     */
+    private String findField(String key) {
+        // most lookups are for keys that aren't in the column at all (the codec's own keys, for one), and those
+        // can be ruled out without splitting it
+        if ( infoField == null || infoField.indexOf(key) == -1 )
+            return null;
+
+        String found = null;
+        int start = 0;
+        while ( start <= infoField.length() ) {
+            int end = infoField.indexOf(VCFConstants.INFO_FIELD_SEPARATOR_CHAR, start);
+            if ( end == -1 )
+                end = infoField.length();
+            int eqI = infoField.indexOf('=', start);
+            int keyEnd = eqI == -1 || eqI > end ? end : eqI;
+            if ( keyEnd - start == key.length() && infoField.regionMatches(start, key, 0, key.length()) )
+                found = infoField.substring(start, end);
+            start = end + 1;
+        }
+        return found;
+    }
+
+    /**
+     * Splits the INFO column into its raw values, exactly as the keys would be found by scanning it.
+     * @param infoField the INFO column of a VCF record.
+     * @return the raw value of each key (everything after the '='), or null for keys without a value; or null
+     *         if the column can't be scanned, and must be kept as a whole.
+     */
+    static Map<String, String> scanFields(String infoField) {
+        LazyVCFInfoMap map = new LazyVCFInfoMap(infoField);
+        if ( !map.canScan() )
+            return null;
+
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        infoField = map.infoField;
+        int start = 0;
+        while ( infoField != null && start <= infoField.length() ) {
+            int end = infoField.indexOf(VCFConstants.INFO_FIELD_SEPARATOR_CHAR, start);
+            if ( end == -1 )
+                end = infoField.length();
+            int eqI = infoField.indexOf('=', start);
+            int keyEnd = eqI == -1 || eqI > end ? end : eqI;
+            fields.put(infoField.substring(start, keyEnd), keyEnd == end ? null : infoField.substring(keyEnd + 1, end));
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    private static int countFields(String infoField) {
+        int fields = 1;
+        for ( int i = 0; i < infoField.length(); i++ ) {
+            if ( infoField.charAt(i) == VCFConstants.INFO_FIELD_SEPARATOR_CHAR )
+                fields++;
+        }
+        return fields;
+    }
+
+    /**
+     * Decodes the value of an INFO field: a list if it contains commas, a flag if there's no value at all.
+     * @param field the whole field.
+     * @param keyLength the length of the key, which is the index of the '=' if there is a value.
+     * @return the value.
+     */
+    private static Object decodeValue(String field, int keyLength) {
+        if ( keyLength == field.length() )
+            return true;
+
+        return decodeValue(field.substring(keyLength+1, field.length()));
+    }
+
+    /**
+     * Decodes the value of an INFO field which has one: a list if it contains commas.
+     * @param str the value, everything after the '='.
+     * @return the value.
+     */
+    protected static Object decodeValue(String str) {
+        // lets see if the string contains a , separator
+        if ( str.contains(",") )
+            return Arrays.asList(str.split(","));
+        else
+            return str;
+    }
+}
@@ -43,16 +43,32 @@ import java.util.*;
 
 /**
  * this class writes VCF files
+ *
+ * Records are encoded straight into a reusable byte buffer, FORMAT keys are worked out once for each distinct
+ * set of genotype attributes seen under the current header, and unless asked to flush every record the buffer
+ * is only written out once it holds a large block of records.
+ *
+ * Every writer holds its own buffer, 64KB to start with and grown to fit the largest record.  A writer that
+ * buffers records (one writing to a file) only writes out the last block on close(), so it must be closed even
+ * if the caller gives up part way.  A record that can't be encoded is dropped from the buffer whole, so the
+ * records before it are still written out intact.
  */
 public class StandardVCFWriter implements VCFWriter {
 
+    /** When not flushing every record, write the buffer out once it holds at least this many bytes. */
+    private static final int BUFFER_WRITE_THRESHOLD = 64 * 1024;
+
     // the VCF header we're storing
     protected VCFHeader mHeader = null;
 
-    // the print stream we're writing to
-    protected BufferedWriter mWriter;
+    // the stream we're writing to, and the buffer records are encoded into before being written to it
+    protected OutputStream mOutput;
+    private final VCFOutputBuffer buffer = new VCFOutputBuffer();
     protected PositionalStream positionalStream = null;
 
+    // should every record be flushed to the stream as soon as it's added?
+    protected boolean flushEveryRecord = true;
+
     // were filters applied?
     protected boolean filtersWereAppliedToContext = false;
 
@@ -64,6 +80,14 @@ public class StandardVCFWriter implements VCFWriter {
     LittleEndianOutputStream idxStream = null;
     File location = null;
 
+    // the FORMAT keys for each set of genotype attribute keys seen under the current header
+    private final Map<Set<String>, GenotypeFormat> genotypeFormatsWithGT = new HashMap<Set<String>, GenotypeFormat>();
+    private final Map<Set<String>, GenotypeFormat> genotypeFormatsWithoutGT = new HashMap<Set<String>, GenotypeFormat>();
+    private final Set<String> genotypeKeys = new HashSet<String>();
+
+    // scratch space for sorting the INFO fields of a record
+    private final List<Map.Entry<String, Object>> infoFields = new ArrayList<Map.Entry<String, Object>>();
+
     /**         
      * create a VCF writer, given a file to write to
      *
@@ -93,11 +117,28 @@ public class StandardVCFWriter implements VCFWriter {
      * @param doNotWriteGenotypes   do not write genotypes
      */
     public StandardVCFWriter(OutputStream output, boolean doNotWriteGenotypes) {
-        mWriter = new BufferedWriter(new OutputStreamWriter(output));
+        mOutput = output;
         this.doNotWriteGenotypes = doNotWriteGenotypes;
     }
 
+    /**
+     * create a VCF writer for the given file, writing through the given stream.  The writer owns the file, so
+     * records are buffered and written out in large blocks rather than flushed one by one.
+     */
     public StandardVCFWriter(File location, OutputStream output, boolean enableOnTheFlyIndexing, boolean doNotWriteGenotypes) {
+        this(location, output, enableOnTheFlyIndexing, doNotWriteGenotypes, false);
+    }
+
+    /**
+     * create a VCF writer for the given file, writing through the given stream
+     *
+     * @param location                the file being written to
+     * @param output                  the stream to write to
+     * @param enableOnTheFlyIndexing  should an index be written alongside the file?
+     * @param doNotWriteGenotypes     do not write genotypes
+     * @param flushEveryRecord        flush each record to the stream as soon as it's added, rather than buffering
+     */
+    public StandardVCFWriter(File location, OutputStream output, boolean enableOnTheFlyIndexing, boolean doNotWriteGenotypes, boolean flushEveryRecord) {
         this.location = location;
 
         if ( enableOnTheFlyIndexing ) {
@@ -114,17 +155,19 @@ public class StandardVCFWriter implements VCFWriter {
             }
         }
 
-        //mWriter = new BufferedWriter(new OutputStreamWriter(new PositionalStream(output)));
-        mWriter = new BufferedWriter(new OutputStreamWriter(output));
+        mOutput = output;
         this.doNotWriteGenotypes = doNotWriteGenotypes;
+        this.flushEveryRecord = flushEveryRecord;
     }
 
     public void writeHeader(VCFHeader header) {
         mHeader = doNotWriteGenotypes ? new VCFHeader(header.getMetaData()) : header;
+        genotypeFormatsWithGT.clear();
+        genotypeFormatsWithoutGT.clear();
         
         try {
             // the file format field needs to be written first
-            mWriter.write(VCFHeader.METADATA_INDICATOR + VCFHeaderVersion.VCF4_1.getFormatString() + "=" + VCFHeaderVersion.VCF4_1.getVersionString() + "\n");
+            buffer.write(VCFHeader.METADATA_INDICATOR + VCFHeaderVersion.VCF4_1.getFormatString() + "=" + VCFHeaderVersion.VCF4_1.getVersionString() + "\n");
 
             for ( VCFHeaderLine line : mHeader.getMetaData() ) {
                 if ( VCFHeaderVersion.isFormatString(line.getKey()) )
@@ -134,28 +177,28 @@ public class StandardVCFWriter implements VCFWriter {
                 if ( line instanceof VCFFilterHeaderLine)
                     filtersWereAppliedToContext = true;
 
-                mWriter.write(VCFHeader.METADATA_INDICATOR);
-                mWriter.write(line.toString());
-                mWriter.write("\n");
+                buffer.write(VCFHeader.METADATA_INDICATOR);
+                buffer.write(line.toString());
+                buffer.write('\n');
             }
 
             // write out the column line
-            mWriter.write(VCFHeader.HEADER_INDICATOR);
+            buffer.write(VCFHeader.HEADER_INDICATOR);
             for ( VCFHeader.HEADER_FIELDS field : mHeader.getHeaderFields() ) {
-                mWriter.write(field.toString());
-                mWriter.write(VCFConstants.FIELD_SEPARATOR);
+                buffer.write(field.toString());
+                buffer.write(VCFConstants.FIELD_SEPARATOR);
             }
 
             if ( mHeader.hasGenotypingData() ) {
-                mWriter.write("FORMAT");
+                buffer.write("FORMAT");
                 for ( String sample : mHeader.getGenotypeSamples() ) {
-                    mWriter.write(VCFConstants.FIELD_SEPARATOR);
-                    mWriter.write(sample);
+                    buffer.write(VCFConstants.FIELD_SEPARATOR);
+                    buffer.write(sample);
                 }
             }
 
-            mWriter.write("\n");
-            mWriter.flush();  // necessary so that writing to an output stream will work
+            buffer.write('\n');
+            flush();  // necessary so that writing to an output stream will work
         }
         catch (IOException e) {
             throw new TribbleException("IOException writing the VCF header to " + locationString(), e);
@@ -163,17 +206,28 @@ public class StandardVCFWriter implements VCFWriter {
     }
 
     private String locationString() {
-        return location == null ? mWriter.toString() : location.getAbsolutePath();
+        return location == null ? mOutput.toString() : location.getAbsolutePath();
+    }
+
+    /**
+     * Writes the buffered records to the stream and flushes it.
+     */
+    private void flush() throws IOException {
+        buffer.writeTo(mOutput);
+        mOutput.flush();
     }
 
     /**
      * attempt to close the VCF file
      */
     public void close() {
-        // try to close the vcf stream
+        // try to close the vcf stream, even if the buffered records can't be written out
         try {
-            mWriter.flush();
-            mWriter.close();
+            try {
+                flush();
+            } finally {
+                mOutput.close();
+            }
         } catch (IOException e) {
             throw new TribbleException("Unable to close " + locationString() + " because of " + e.getMessage());
         }
@@ -222,282 +276,354 @@ public class StandardVCFWriter implements VCFWriter {
         if ( doNotWriteGenotypes )
             vc = VariantContext.modifyGenotypes(vc, null);
 
+        // where this record starts in the buffer, so that it can be dropped if it can't be encoded
+        final int recordStart = buffer.size();
         try {
             vc = VariantContext.createVariantContextWithPaddedAlleles(vc, refBase, refBaseShouldBeAppliedToEndOfAlleles);
 
-            // if we are doing on the fly indexing, add the record ***before*** we write any bytes 
-            if ( indexer != null ) indexer.addFeature(vc, positionalStream.getPosition());
-
-            Map<Allele, String> alleleMap = new HashMap<Allele, String>(vc.getAlleles().size());
-            alleleMap.put(Allele.NO_CALL, VCFConstants.EMPTY_ALLELE); // convenience for lookup
-
             // CHROM
-            mWriter.write(vc.getChr());
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(vc.getChr());
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // POS
-            mWriter.write(String.valueOf(vc.getStart()));
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(vc.getStart());
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // ID
             String ID = vc.hasID() ? vc.getID() : VCFConstants.EMPTY_ID_FIELD;
-            mWriter.write(ID);
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(ID);
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // REF
-            alleleMap.put(vc.getReference(), "0");
             String refString = vc.getReference().getDisplayString();
-            mWriter.write(refString);
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(refString);
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // ALT
             if ( vc.isVariant() ) {
                 Allele altAllele = vc.getAlternateAllele(0);
-                alleleMap.put(altAllele, "1");
                 String alt = altAllele.getDisplayString();
-                mWriter.write(alt);
+                buffer.write(alt);
 
                 for (int i = 1; i < vc.getAlternateAlleles().size(); i++) {
                     altAllele = vc.getAlternateAllele(i);
-                    alleleMap.put(altAllele, String.valueOf(i+1));
                     alt = altAllele.getDisplayString();
-                    mWriter.write(",");
-                    mWriter.write(alt);
+                    buffer.write(',');
+                    buffer.write(alt);
                 }
             } else {
-                mWriter.write(VCFConstants.EMPTY_ALTERNATE_ALLELE_FIELD);
+                buffer.write(VCFConstants.EMPTY_ALTERNATE_ALLELE_FIELD);
             }
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // QUAL
             if ( !vc.hasNegLog10PError() )
-                mWriter.write(VCFConstants.MISSING_VALUE_v4);
+                buffer.write(VCFConstants.MISSING_VALUE_v4);
             else
-                mWriter.write(getQualValue(vc.getPhredScaledQual()));
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+                writeQualValue(vc.getPhredScaledQual());
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // FILTER
             String filters = vc.isFiltered() ? ParsingUtils.join(";", ParsingUtils.sortList(vc.getFilters())) : (filtersWereAppliedToContext || vc.filtersWereApplied() ? VCFConstants.PASSES_FILTERS_v4 : VCFConstants.UNFILTERED);
-            mWriter.write(filters);
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(filters);
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             // INFO
-            Map<String, String> infoFields = new TreeMap<String, String>();
-            for ( Map.Entry<String, Object> field : vc.getAttributes().entrySet() ) {
-                String key = field.getKey();
-                if ( key.equals(VariantContext.ID_KEY) || key.equals(VariantContext.REFERENCE_BASE_FOR_INDEL_KEY) || key.equals(VariantContext.UNPARSED_GENOTYPE_MAP_KEY) || key.equals(VariantContext.UNPARSED_GENOTYPE_PARSER_KEY) )
-                    continue;
-
-                String outputValue = formatVCFField(field.getValue());
-                if ( outputValue != null )
-                    infoFields.put(key, outputValue);
-            }
-            writeInfoString(infoFields);
+            writeInfoString(vc.getAttributes());
 
             // FORMAT
             if ( vc.hasAttribute(VariantContext.UNPARSED_GENOTYPE_MAP_KEY) ) {
-                mWriter.write(VCFConstants.FIELD_SEPARATOR);
-                mWriter.write(vc.getAttributeAsString(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, ""));
+                buffer.write(VCFConstants.FIELD_SEPARATOR);
+                buffer.write(vc.getAttribute(VariantContext.UNPARSED_GENOTYPE_MAP_KEY).toString());
             } else {
-                List<String> genotypeAttributeKeys = new ArrayList<String>();
+                GenotypeFormat format = null;
                 if ( vc.hasGenotypes() ) {
-                    genotypeAttributeKeys.addAll(calcVCFGenotypeKeys(vc));
+                    format = calcVCFGenotypeFormat(vc);
                 } else if ( mHeader.hasGenotypingData() ) {
                     // this needs to be done in case all samples are no-calls
-                    genotypeAttributeKeys.add(VCFConstants.GENOTYPE_KEY);
+                    format = getGenotypeFormat(Collections.<String>emptySet(), true);
                 }
 
-                if ( genotypeAttributeKeys.size() > 0 ) {
-                    String genotypeFormatString = ParsingUtils.join(VCFConstants.GENOTYPE_FIELD_SEPARATOR, genotypeAttributeKeys);
-                    mWriter.write(VCFConstants.FIELD_SEPARATOR);
-                    mWriter.write(genotypeFormatString);
+                if ( format != null && format.keys.length > 0 ) {
+                    buffer.write(VCFConstants.FIELD_SEPARATOR);
+                    buffer.write(format.formatString);
 
-                    addGenotypeData(vc, alleleMap, genotypeAttributeKeys);
+                    addGenotypeData(vc, format);
                 }
             }
             
-            mWriter.write("\n");
-            mWriter.flush();  // necessary so that writing to an output stream will work
+            buffer.write('\n');
+
+            // if we are doing on the fly indexing, add the record ***before*** any of its bytes reach the stream
+            if ( indexer != null ) indexer.addFeature(vc, positionalStream.getPosition() + recordStart);
+        } catch (RuntimeException e) {
+            buffer.truncate(recordStart);
+            throw e;
+        } catch (IOException e) {
+            buffer.truncate(recordStart);
+            throw new RuntimeException("Unable to write the VCF object to " + locationString());
+        }
+
+        try {
+            if ( flushEveryRecord )
+                flush();  // necessary so that writing to an output stream will work
+            else if ( buffer.size() >= BUFFER_WRITE_THRESHOLD )
+                buffer.writeTo(mOutput);
         } catch (IOException e) {
             throw new RuntimeException("Unable to write the VCF object to " + locationString());
         }
 
     }
 
-    private String getQualValue(double qual) {
-        String s = String.format(VCFConstants.DOUBLE_PRECISION_FORMAT_STRING, qual);
-        if ( s.endsWith(VCFConstants.DOUBLE_PRECISION_INT_SUFFIX) )
-            s = s.substring(0, s.length() - VCFConstants.DOUBLE_PRECISION_INT_SUFFIX.length());
-        return s;
+    /**
+     * write a quality score, dropping the decimal places if they're zero
+     */
+    private void writeQualValue(double qual) {
+        int start = buffer.size();
+        buffer.writeDouble(qual);
+        if ( buffer.endsWith(VCFConstants.DOUBLE_PRECISION_INT_SUFFIX, start) )
+            buffer.truncate(buffer.size() - VCFConstants.DOUBLE_PRECISION_INT_SUFFIX.length());
     }
 
     /**
-     * create the info string; assumes that no values are null
+     * write the info string, sorted by key
      *
-     * @param infoFields a map of info fields
-     * @throws IOException for writer
+     * @param attributes the attributes of the record
      */
-    private void writeInfoString(Map<String, String> infoFields) throws IOException {
-        if ( infoFields.isEmpty() ) {
-            mWriter.write(VCFConstants.EMPTY_INFO_FIELD);
-            return;
+    private void writeInfoString(Map<String, Object> attributes) {
+        infoFields.clear();
+        for ( Map.Entry<String, Object> field : attributes.entrySet() ) {
+            String key = field.getKey();
+            if ( key.equals(VariantContext.ID_KEY) || key.equals(VariantContext.REFERENCE_BASE_FOR_INDEL_KEY) || key.equals(VariantContext.UNPARSED_GENOTYPE_MAP_KEY) || key.equals(VariantContext.UNPARSED_GENOTYPE_PARSER_KEY) )
+                continue;
+            infoFields.add(field);
         }
+        Collections.sort(infoFields, INFO_FIELD_ORDER);
 
         boolean isFirst = true;
-        for ( Map.Entry<String, String> entry : infoFields.entrySet() ) {
-            if ( isFirst )
-                isFirst = false;
-            else
-                mWriter.write(VCFConstants.INFO_FIELD_SEPARATOR);
+        for ( Map.Entry<String, Object> entry : infoFields ) {
+            int fieldStart = buffer.size();
+            if ( !isFirst )
+                buffer.write(VCFConstants.INFO_FIELD_SEPARATOR);
 
             String key = entry.getKey();
-            mWriter.write(key);
+            buffer.write(key);
+            buffer.write('=');
 
-            if ( !entry.getValue().equals("") ) {
+            int valueStart = buffer.size();
+            if ( !writeVCFField(entry.getValue()) ) {
+                // false flags aren't written at all
+                buffer.truncate(fieldStart);
+                continue;
+            }
+            isFirst = false;
+
+            if ( buffer.size() == valueStart ) {
+                buffer.truncate(valueStart - 1);
+            } else {
                 VCFInfoHeaderLine metaData = mHeader.getInfoHeaderLine(key);
-                if ( metaData == null || metaData.getCountType() != VCFHeaderLineCount.INTEGER || metaData.getCount() != 0 ) {
-                    mWriter.write("=");
-                    mWriter.write(entry.getValue());
-                }
+                if ( metaData != null && metaData.getCountType() == VCFHeaderLineCount.INTEGER && metaData.getCount() == 0 )
+                    buffer.truncate(valueStart - 1);
             }
         }
+
+        if ( isFirst )
+            buffer.write(VCFConstants.EMPTY_INFO_FIELD);
     }
 
+    private static final Comparator<Map.Entry<String, Object>> INFO_FIELD_ORDER = new Comparator<Map.Entry<String, Object>>() {
+        public int compare(Map.Entry<String, Object> e1, Map.Entry<String, Object> e2) {
+            return e1.getKey().compareTo(e2.getKey());
+        }
+    };
+
     /**
      * add the genotype data
      *
      * @param vc                     the variant context
-     * @param genotypeFormatKeys  Genotype formatting string
-     * @param alleleMap              alleles for this context
+     * @param format                 the FORMAT keys
      * @throws IOException for writer
      */
-    private void addGenotypeData(VariantContext vc, Map<Allele, String> alleleMap, List<String> genotypeFormatKeys)
+    private void addGenotypeData(VariantContext vc, GenotypeFormat format)
     throws IOException {
+        final Allele refAllele = vc.getReference();
+        final List<Allele> altAlleles = new ArrayList<Allele>(vc.getAlternateAlleles());
+        final int numAltAlleles = altAlleles.size();
+
+        // how many values does each key need if it's missing?
+        final int[] numInFormatField = new int[format.keys.length];
+        for ( int k = 0; k < format.keys.length; k++ )
+            numInFormatField[k] = format.headerLines[k] == null ? 1 : format.headerLines[k].getCount(numAltAlleles);
 
         for ( String sample : mHeader.getGenotypeSamples() ) {
-            mWriter.write(VCFConstants.FIELD_SEPARATOR);
+            buffer.write(VCFConstants.FIELD_SEPARATOR);
 
             Genotype g = vc.getGenotype(sample);
             if ( g == null ) {
                 // TODO -- The VariantContext needs to know what the general ploidy is of the samples
                 // TODO -- We shouldn't be assuming diploid genotypes here!
-                mWriter.write(VCFConstants.EMPTY_GENOTYPE);
+                buffer.write(VCFConstants.EMPTY_GENOTYPE);
                 continue;
             }
 
-            List<String> attrs = new ArrayList<String>(genotypeFormatKeys.size());
-            for ( String key : genotypeFormatKeys ) {
+            // the end of the last value that isn't missing; trailing missing values are stripped off
+            int lastValueEnd = buffer.size();
+            int nAttributesWritten = 0;
+            for ( int k = 0; k < format.keys.length; k++ ) {
+                String key = format.keys[k];
 
                 if ( key.equals(VCFConstants.GENOTYPE_KEY) ) {
                     if ( !g.isAvailable() ) {
                         throw new ReviewedStingException("GTs cannot be missing for some samples if they are available for others in the record");
                     }
 
-                    writeAllele(g.getAllele(0), alleleMap);
+                    writeAllele(g.getAllele(0), refAllele, altAlleles);
                     for (int i = 1; i < g.getPloidy(); i++) {
-                        mWriter.write(g.isPhased() ? VCFConstants.PHASED : VCFConstants.UNPHASED);
-                        writeAllele(g.getAllele(i), alleleMap);
+                        buffer.write(g.isPhased() ? VCFConstants.PHASED : VCFConstants.UNPHASED);
+                        writeAllele(g.getAllele(i), refAllele, altAlleles);
                     }
 
+                    lastValueEnd = buffer.size();
                     continue;
                 }
 
-                Object val = g.hasAttribute(key) ? g.getAttribute(key) : VCFConstants.MISSING_VALUE_v4;
+                int attributeStart = buffer.size();
+                if ( nAttributesWritten > 0 || format.hasGT )
+                    buffer.write(VCFConstants.GENOTYPE_FIELD_SEPARATOR);
+                int valueStart = buffer.size();
 
                 // some exceptions
                 if ( key.equals(VCFConstants.GENOTYPE_QUALITY_KEY) ) {
                     if ( Math.abs(g.getNegLog10PError() - Genotype.NO_NEG_LOG_10PERROR) < 1e-6)
-                        val = VCFConstants.MISSING_VALUE_v4;
-                    else {
-                        val = getQualValue(Math.min(g.getPhredScaledQual(), VCFConstants.MAX_GENOTYPE_QUAL));
-                    }
+                        writeMissingValues(numInFormatField[k]);
+                    else
+                        writeQualValue(Math.min(g.getPhredScaledQual(), VCFConstants.MAX_GENOTYPE_QUAL));
                 } else if ( key.equals(VCFConstants.GENOTYPE_FILTER_KEY) ) {
-                    val = g.isFiltered() ? ParsingUtils.join(";", ParsingUtils.sortList(g.getFilters())) : (g.filtersWereApplied() ? VCFConstants.PASSES_FILTERS_v4 : VCFConstants.UNFILTERED);
-                }
-
-                VCFFormatHeaderLine metaData = mHeader.getFormatHeaderLine(key);
-                if ( metaData != null ) {
-                    int numInFormatField = metaData.getCount(vc.getAlternateAlleles().size());
-                    if ( numInFormatField > 1 && val.equals(VCFConstants.MISSING_VALUE_v4) ) {
-                        // If we have a missing field but multiple values are expected, we need to construct a new string with all fields.
+                    String filters = g.isFiltered() ? ParsingUtils.join(";", ParsingUtils.sortList(g.getFilters())) : (g.filtersWereApplied() ? VCFConstants.PASSES_FILTERS_v4 : VCFConstants.UNFILTERED);
+                    if ( filters.equals(VCFConstants.MISSING_VALUE_v4) )
+                        writeMissingValues(numInFormatField[k]);
+                    else
+                        buffer.write(filters);
+                } else {
+                    Object val = g.hasAttribute(key) ? g.getAttribute(key) : VCFConstants.MISSING_VALUE_v4;
+                    if ( VCFConstants.MISSING_VALUE_v4.equals(val) ) {
+                        // If we have a missing field but multiple values are expected, we need to write all fields.
                         // For example, if Number=2, the string has to be ".,."
-                        StringBuilder sb = new StringBuilder(VCFConstants.MISSING_VALUE_v4);
-                        for ( int i = 1; i < numInFormatField; i++ ) {
-                            sb.append(",");
-                            sb.append(VCFConstants.MISSING_VALUE_v4);
-                        }
-                        val = sb.toString();
+                        writeMissingValues(numInFormatField[k]);
+                    } else if ( !writeVCFField(val) ) {
+                        // assume that if key is absent, then the given string encoding suffices
+                        buffer.truncate(attributeStart);
+                        continue;
                     }
                 }
 
-                // assume that if key is absent, then the given string encoding suffices
-                String outputValue = formatVCFField(val);
-                if ( outputValue != null )
-                    attrs.add(outputValue);
+                nAttributesWritten++;
+                if ( !buffer.isMissingValue(valueStart) )
+                    lastValueEnd = buffer.size();
             }
 
-            // strip off trailing missing values
-            for (int i = attrs.size()-1; i >= 0; i--) {
-                if ( isMissingValue(attrs.get(i)) )
-                    attrs.remove(i);
-                else
-                    break;
-            }
-
-            for (int i = 0; i < attrs.size(); i++) {
-                if ( i > 0 || genotypeFormatKeys.contains(VCFConstants.GENOTYPE_KEY) )
-                    mWriter.write(VCFConstants.GENOTYPE_FIELD_SEPARATOR);
-                mWriter.write(attrs.get(i));
-            }
+            buffer.truncate(lastValueEnd);
         }
     }
 
-    private boolean isMissingValue(String s) {
-        // we need to deal with the case that it's a list of missing values
-        return (countOccurrences(VCFConstants.MISSING_VALUE_v4.charAt(0), s) + countOccurrences(',', s) == s.length());
+    private void writeMissingValues(int numInFormatField) {
+        buffer.write(VCFConstants.MISSING_VALUE_v4);
+        for ( int i = 1; i < numInFormatField; i++ ) {
+            buffer.write(',');
+            buffer.write(VCFConstants.MISSING_VALUE_v4);
+        }
     }
 
-    private void writeAllele(Allele allele, Map<Allele, String> alleleMap) throws IOException {
-        String encoding = alleleMap.get(allele);
-        if ( encoding == null )
-            throw new TribbleException.InternalCodecException("Allele " + allele + " is not an allele in the variant context");
-        mWriter.write(encoding);
+    /**
+     * write the index of the allele in the record (0 for the reference, 1 for the first alternate), or the no-call allele
+     */
+    private void writeAllele(Allele allele, Allele refAllele, List<Allele> altAlleles) {
+        // if an allele is listed twice, the later index wins
+        for ( int i = altAlleles.size() - 1; i >= 0; i-- ) {
+            if ( altAlleles.get(i).equals(allele) ) {
+                buffer.write(i + 1);
+                return;
+            }
+        }
+        if ( refAllele.equals(allele) ) {
+            buffer.write('0');
+            return;
+        }
+        if ( allele.equals(Allele.NO_CALL) ) {
+            buffer.write(VCFConstants.EMPTY_ALLELE);
+            return;
+        }
+        throw new TribbleException.InternalCodecException("Allele " + allele + " is not an allele in the variant context");
     }
 
-    private static String formatVCFField(Object val) {
-        String result;
+    /**
+     * write a value in VCF format
+     *
+     * @param val the value to write
+     * @return false if nothing was written because the value is a false flag
+     */
+    private boolean writeVCFField(Object val) {
         if ( val == null )
-            result = VCFConstants.MISSING_VALUE_v4;
+            buffer.write(VCFConstants.MISSING_VALUE_v4);
+        else if ( val instanceof String )
+            buffer.write((String)val);
+        else if ( val instanceof Integer )
+            buffer.write((Integer)val);
         else if ( val instanceof Double )
-            result = String.format(VCFConstants.DOUBLE_PRECISION_FORMAT_STRING, (Double)val);
+            buffer.writeDouble((Double)val);
         else if ( val instanceof Boolean )
-            result = (Boolean)val ? "" : null; // empty string for true, null for false
+            return (Boolean)val; // empty string for true, nothing for false
         else if ( val instanceof List ) {
-            result = formatVCFField(((List)val).toArray());
+            writeVCFFieldList(((List)val).toArray());
         } else if ( val.getClass().isArray() ) {
-            int length = Array.getLength(val);
-            if ( length == 0 )
-                return formatVCFField(null);
-            StringBuffer sb = new StringBuffer(formatVCFField(Array.get(val, 0)));
-            for ( int i = 1; i < length; i++) {
-                sb.append(",");
-                sb.append(formatVCFField(Array.get(val, i)));
-            }
-            result = sb.toString();
+            writeVCFFieldList(val);
         } else
-            result = val.toString();
+            buffer.write(val.toString());
+
+        return true;
+    }
+
+    private void writeVCFFieldList(Object array) {
+        int length = Array.getLength(array);
+        if ( length == 0 ) {
+            writeVCFField(null);
+            return;
+        }
+        for ( int i = 0; i < length; i++ ) {
+            if ( i > 0 )
+                buffer.write(',');
+            if ( !writeVCFField(Array.get(array, i)) )
+                buffer.write("null");
+        }
+    }
 
-        return result;
+    /**
+     * The FORMAT keys for a set of genotype attribute keys, in order, with their header lines.
+     */
+    private static final class GenotypeFormat {
+        final String[] keys;
+        final String formatString;
+        final boolean hasGT;
+        final VCFFormatHeaderLine[] headerLines;
+
+        GenotypeFormat(List<String> keys, VCFHeader header) {
+            this.keys = keys.toArray(new String[keys.size()]);
+            this.formatString = ParsingUtils.join(VCFConstants.GENOTYPE_FIELD_SEPARATOR, keys);
+            this.hasGT = keys.contains(VCFConstants.GENOTYPE_KEY);
+            this.headerLines = new VCFFormatHeaderLine[this.keys.length];
+            for ( int i = 0; i < this.keys.length; i++ )
+                headerLines[i] = header.getFormatHeaderLine(this.keys[i]);
+        }
     }
 
-    private static List<String> calcVCFGenotypeKeys(VariantContext vc) {
-        Set<String> keys = new HashSet<String>();
+    private GenotypeFormat calcVCFGenotypeFormat(VariantContext vc) {
+        genotypeKeys.clear();
 
         boolean sawGoodGT = false;
         boolean sawGoodQual = false;
         boolean sawGenotypeFilter = false;
         for ( Genotype g : vc.getGenotypes().values() ) {
-            keys.addAll(g.getAttributes().keySet());
+            genotypeKeys.addAll(g.getAttributes().keySet());
             if ( g.isAvailable() )
                 sawGoodGT = true;
             if ( g.hasNegLog10PError() )
@@ -507,22 +633,39 @@ public class StandardVCFWriter implements VCFWriter {
         }
 
         if ( sawGoodQual )
-            keys.add(VCFConstants.GENOTYPE_QUALITY_KEY);
+            genotypeKeys.add(VCFConstants.GENOTYPE_QUALITY_KEY);
 
         if (sawGenotypeFilter)
-            keys.add(VCFConstants.GENOTYPE_FILTER_KEY);
+            genotypeKeys.add(VCFConstants.GENOTYPE_FILTER_KEY);
 
-        List<String> sortedList = ParsingUtils.sortList(new ArrayList<String>(keys));
+        return getGenotypeFormat(genotypeKeys, sawGoodGT);
+    }
 
-        // make sure the GT is first
-        if ( sawGoodGT ) {
-            List<String> newList = new ArrayList<String>(sortedList.size()+1);
-            newList.add(VCFConstants.GENOTYPE_KEY);
-            newList.addAll(sortedList);
-            sortedList = newList;
-        }
+    /**
+     * get the FORMAT keys for the given genotype attribute keys, working them out if they haven't been seen before
+     *
+     * @param keys   the genotype attribute keys, including GQ and FT if present but not GT
+     * @param hasGT  should the GT key come first?
+     * @return the FORMAT keys
+     */
+    private GenotypeFormat getGenotypeFormat(Set<String> keys, boolean hasGT) {
+        Map<Set<String>, GenotypeFormat> formats = hasGT ? genotypeFormatsWithGT : genotypeFormatsWithoutGT;
+        GenotypeFormat format = formats.get(keys);
+        if ( format == null ) {
+            List<String> sortedList = ParsingUtils.sortList(new ArrayList<String>(keys));
+
+            // make sure the GT is first
+            if ( hasGT ) {
+                List<String> newList = new ArrayList<String>(sortedList.size()+1);
+                newList.add(VCFConstants.GENOTYPE_KEY);
+                newList.addAll(sortedList);
+                sortedList = newList;
+            }
 
-        return sortedList;
+            format = new GenotypeFormat(sortedList, mHeader);
+            formats.put(new HashSet<String>(keys), format);
+        }
+        return format;
     }
 
 
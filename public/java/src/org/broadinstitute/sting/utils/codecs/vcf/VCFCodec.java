@@ -2,7 +2,6 @@ package org.broadinstitute.sting.utils.codecs.vcf;
 
 import org.broad.tribble.TribbleException;
 import org.broad.tribble.readers.LineReader;
-import org.broad.tribble.util.ParsingUtils;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.Genotype;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
@@ -17,6 +16,12 @@ import java.util.*;
  */
 public class VCFCodec extends AbstractVCFCodec {
 
+    // genotypes are split up without creating a string for each field, and the FORMAT keys only once per distinct FORMAT
+    private final VCFLineTokenizer genotypeTokenizer = new VCFLineTokenizer(stringCache);
+    private int[] genotypeStarts = new int[0];
+    private int[] genotypeEnds = new int[0];
+    private final Map<String, String[]> genotypeKeyCache = new HashMap<String, String[]>();
+
     /**
      * @param reader the line reader to take header lines from
      * @return the number of header lines
@@ -109,12 +114,23 @@ public class VCFCodec extends AbstractVCFCodec {
         if (genotypeParts == null)
             genotypeParts = new String[header.getColumnCount() - NUM_STANDARD_FIELDS];
 
-        int nParts = ParsingUtils.split(str, genotypeParts, VCFConstants.FIELD_SEPARATOR_CHAR);
+        // split the line into one field per sample, after the format keys
+        genotypeTokenizer.load(str);
+        int nParts = genotypeTokenizer.split(VCFConstants.FIELD_SEPARATOR_CHAR, genotypeParts.length, false);
+        if ( genotypeStarts.length < nParts ) {
+            genotypeStarts = new int[nParts];
+            genotypeEnds = new int[nParts];
+        }
+        for ( int i = 0; i < nParts; i++ ) {
+            genotypeStarts[i] = genotypeTokenizer.getStart(i);
+            genotypeEnds[i] = genotypeTokenizer.getEnd(i);
+        }
 
         Map<String, Genotype> genotypes = new LinkedHashMap<String, Genotype>(nParts);
 
         // get the format keys
-        int nGTKeys = ParsingUtils.split(genotypeParts[0], genotypeKeyArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+        String[] genotypeKeys = getGenotypeKeys(genotypeStarts[0], genotypeEnds[0]);
+        int nGTKeys = genotypeKeys.length;
 
         // cycle through the sample names
         Iterator<String> sampleNameIterator = header.getGenotypeSamples().iterator();
@@ -124,7 +140,7 @@ public class VCFCodec extends AbstractVCFCodec {
 
         // cycle through the genotype strings
         for (int genotypeOffset = 1; genotypeOffset < nParts; genotypeOffset++) {
-            int GTValueSplitSize = ParsingUtils.split(genotypeParts[genotypeOffset], GTValueArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+            int GTValueSplitSize = genotypeTokenizer.split(genotypeStarts[genotypeOffset], genotypeEnds[genotypeOffset], VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, GTValueArray.length, false);
 
             double GTQual = VariantContext.NO_NEG_LOG_10PERROR;
             Set<String> genotypeFilters = null;
@@ -133,27 +149,28 @@ public class VCFCodec extends AbstractVCFCodec {
 
             // check to see if the value list is longer than the key list, which is a problem
             if (nGTKeys < GTValueSplitSize)
-                generateException("There are too many keys for the sample " + sampleName + ", keys = " + parts[8] + ", values = " + parts[genotypeOffset]);
+                generateException("There are too many keys for the sample " + sampleName + ", keys = " + str.substring(genotypeStarts[0], genotypeEnds[0]) +
+                        ", values = " + str.substring(genotypeStarts[genotypeOffset], genotypeEnds[genotypeOffset]));
 
             int genotypeAlleleLocation = -1;
             if (nGTKeys >= 1) {
                 gtAttributes = new HashMap<String, String>(nGTKeys - 1);
 
                 for (int i = 0; i < nGTKeys; i++) {
-                    final String gtKey = new String(genotypeKeyArray[i]);
+                    final String gtKey = genotypeKeys[i];
                     boolean missing = i >= GTValueSplitSize;
 
                     // todo -- all of these on the fly parsing of the missing value should be static constants
                     if (gtKey.equals(VCFConstants.GENOTYPE_KEY)) {
                         genotypeAlleleLocation = i;
                     } else if (gtKey.equals(VCFConstants.GENOTYPE_QUALITY_KEY)) {
-                        GTQual = missing ? parseQual(VCFConstants.MISSING_VALUE_v4) : parseQual(GTValueArray[i]);
+                        GTQual = missing ? parseQual(VCFConstants.MISSING_VALUE_v4) : parseQual(genotypeTokenizer, i);
                     } else if (gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
-                        genotypeFilters = missing ? parseFilters(VCFConstants.MISSING_VALUE_v4) : parseFilters(getCachedString(GTValueArray[i]));
+                        genotypeFilters = missing ? parseFilters(VCFConstants.MISSING_VALUE_v4) : parseFilters(genotypeTokenizer.getCachedString(i));
                     } else if ( missing ) {
                         gtAttributes.put(gtKey, VCFConstants.MISSING_VALUE_v4);
                     } else {
-                        gtAttributes.put(gtKey, new String(GTValueArray[i]));
+                        gtAttributes.put(gtKey, genotypeTokenizer.getString(i));
                     }
                 }
             }
@@ -164,8 +181,8 @@ public class VCFCodec extends AbstractVCFCodec {
             if ( genotypeAlleleLocation > 0 )
                 generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
 
-            List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? null : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, alleleMap));
-            boolean phased = genotypeAlleleLocation != -1 && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1;
+            List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? null : parseGenotypeAlleles(genotypeTokenizer.getCachedString(genotypeAlleleLocation), alleles, alleleMap));
+            boolean phased = genotypeAlleleLocation != -1 && genotypeTokenizer.fieldContains(genotypeAlleleLocation, VCFConstants.PHASED.charAt(0));
 
             // add it to the list
             try {
@@ -184,5 +201,22 @@ public class VCFCodec extends AbstractVCFCodec {
         return genotypes;
     }
 
-
+    /**
+     * get the keys of a FORMAT column, splitting each distinct column only once
+     * @param start the first character of the column in the genotype tokenizer
+     * @param end one past the last character of the column
+     * @return the keys
+     */
+    private String[] getGenotypeKeys(int start, int end) {
+        genotypeTokenizer.split(start, end, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, 1, true);
+        String format = genotypeTokenizer.getCachedString(0);
+        String[] keys = genotypeKeyCache.get(format);
+        if ( keys == null ) {
+            keys = new String[genotypeTokenizer.split(start, end, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR, genotypeKeyArray.length, false)];
+            for ( int i = 0; i < keys.length; i++ )
+                keys[i] = genotypeTokenizer.getCachedString(i);
+            genotypeKeyCache.put(format, keys);
+        }
+        return keys;
+    }
 }
@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Splits VCF text into fields without allocating a String per field.  Fields are ranges of the line; as fields are
+ * used, the line is copied into a reusable byte[] from which numbers are parsed directly and strings that repeat
+ * from line to line (contigs, alleles, filters, genotypes) are interned, so that only the first occurrence of each
+ * allocates.  Text that is never used (the genotypes of a line, say, until they are needed) is never copied.
+ * Other fields are extracted from the original String only when asked for.
+ *
+ * Splitting follows ParsingUtils.split() exactly, quirks included, so that the codecs accept and reject the same
+ * lines as they always have.
+ *
+ * Not thread-safe.
+ */
+public class VCFLineTokenizer {
+    /** Stands in for every non-ASCII character in the buffer; it can never match a separator. */
+    private static final byte NON_ASCII = (byte)0x80;
+
+    /** Powers of ten which are exactly representable as doubles. */
+    private static final double[] EXACT_POWERS_OF_TEN = new double[23];
+    static {
+        EXACT_POWERS_OF_TEN[0] = 1.0;
+        for ( int i = 1; i < EXACT_POWERS_OF_TEN.length; i++ )
+            EXACT_POWERS_OF_TEN[i] = EXACT_POWERS_OF_TEN[i-1] * 10.0;
+    }
+
+    /** Largest number of significant digits whose value is exactly representable as a double. */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private final InternCache cache;
+
+    private String source = null;
+    private byte[] bytes = new byte[1024];
+    private int length = 0;
+
+    /** How much of the line has been copied into bytes? */
+    private int loaded = 0;
+
+    /** Is all of the text loaded so far ASCII? */
+    private boolean ascii = true;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int nFields = 0;
+
+    /**
+     * Create a tokenizer sharing the given intern cache.
+     * @param cache where to intern strings.
+     */
+    public VCFLineTokenizer(InternCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Loads a new line, forgetting any fields of the previous one.
+     * @param line the text to split.
+     */
+    public void load(String line) {
+        source = line;
+        length = line.length();
+        loaded = 0;
+        ascii = true;
+        nFields = 0;
+    }
+
+    /**
+     * Copies the line into bytes up to the given position.
+     * @param end one past the last character which must be available as a byte.
+     */
+    private void ensureLoaded(int end) {
+        if ( end <= loaded )
+            return;
+        if ( bytes.length < end )
+            bytes = Arrays.copyOf(bytes, Math.max(end, 2*bytes.length));
+        for ( int i = loaded; i < end; i++ ) {
+            char c = source.charAt(i);
+            if ( c < 128 )
+                bytes[i] = (byte)c;
+            else {
+                bytes[i] = NON_ASCII;
+                ascii = false;
+            }
+        }
+        loaded = end;
+    }
+
+    /**
+     * @return the length of the loaded line.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Splits part of the line as ParsingUtils.split() would, replacing any fields found before.
+     * @param from the first character to split.
+     * @param to one past the last character to split.
+     * @param separator the field separator.
+     * @param maxFields the most fields to return; any text beyond them is dropped unless condense is set.
+     * @param condense if true and there are more than maxFields fields, the last field runs to the end.
+     * @return the number of fields.
+     */
+    public int split(int from, int to, char separator, int maxFields, boolean condense) {
+        ensureFieldCapacity(maxFields);
+        nFields = 0;
+
+        int start = from;
+        int next = indexOf(separator, start, to);
+        if ( next < 0 ) {
+            addField(from, to);
+            return nFields;
+        }
+
+        // a separator in the very first position stops the split, just as in ParsingUtils
+        while ( next > from && nFields < maxFields ) {
+            addField(start, next);
+            start = next + 1;
+            next = indexOf(separator, start, to);
+        }
+
+        if ( condense && nFields == maxFields )
+            ends[nFields-1] = to;
+        else if ( nFields < maxFields )
+            addField(start, to);
+
+        return nFields;
+    }
+
+    /**
+     * Splits the whole line; see split(int,int,char,int,boolean).
+     */
+    public int split(char separator, int maxFields, boolean condense) {
+        return split(0, length, separator, maxFields, condense);
+    }
+
+    /**
+     * @return the number of fields found by the last split.
+     */
+    public int getNumFields() {
+        return nFields;
+    }
+
+    public int getStart(int field) {
+        return starts[field];
+    }
+
+    public int getEnd(int field) {
+        return ends[field];
+    }
+
+    public int getLength(int field) {
+        return ends[field] - starts[field];
+    }
+
+    /**
+     * @param field the field to extract.
+     * @return a new String holding the field.
+     */
+    public String getString(int field) {
+        return source.substring(starts[field], ends[field]);
+    }
+
+    /**
+     * @param field the field to extract.
+     * @return the field, interned by its bytes.
+     */
+    public String getCachedString(int field) {
+        return getCachedString(starts[field], ends[field], false);
+    }
+
+    /**
+     * @param field the field to extract.
+     * @return the field converted to upper case, interned by its bytes.
+     */
+    public String getCachedUpperCaseString(int field) {
+        return getCachedString(starts[field], ends[field], true);
+    }
+
+    private String getCachedString(int start, int end, boolean toUpperCase) {
+        ensureLoaded(end);
+        if ( !ascii ) {
+            String str = source.substring(start, end);
+            return cache.intern(toUpperCase ? str.toUpperCase() : str);
+        }
+        if ( toUpperCase ) {
+            for ( int i = start; i < end; i++ ) {
+                if ( bytes[i] >= 'a' && bytes[i] <= 'z' )
+                    bytes[i] -= 'a' - 'A';
+            }
+        }
+        return cache.intern(bytes, start, end);
+    }
+
+    /**
+     * @param field the field to compare.
+     * @param str an ASCII string.
+     * @return true if the field is equal to str.
+     */
+    public boolean fieldEquals(int field, String str) {
+        final int start = starts[field];
+        if ( ends[field] - start != str.length() )
+            return false;
+        ensureLoaded(ends[field]);
+        for ( int i = 0; i < str.length(); i++ ) {
+            if ( bytes[start+i] != str.charAt(i) )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param field the field to search.
+     * @param c an ASCII character.
+     * @return true if the field contains c.
+     */
+    public boolean fieldContains(int field, char c) {
+        return indexOf(c, starts[field], ends[field]) != -1;
+    }
+
+    /**
+     * Parses a field exactly as Long.valueOf() would, including the exceptions thrown.
+     * @param field the field to parse.
+     * @return the value.
+     */
+    public long parseLong(int field) {
+        final int start = starts[field], end = ends[field];
+        // more than 18 digits might overflow
+        if ( end == start || end - start > 18 )
+            return Long.valueOf(getString(field));
+        ensureLoaded(end);
+        long value = 0;
+        for ( int i = start; i < end; i++ ) {
+            final int digit = bytes[i] - '0';
+            if ( digit < 0 || digit > 9 )
+                return Long.valueOf(getString(field));
+            value = 10*value + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a field exactly as Double.valueOf() would, including the exceptions thrown.  Plain decimals with
+     * few enough digits are parsed from the bytes: their digits and the power of ten to divide them by are both
+     * exact doubles, so the division rounds the same way Double.valueOf() does.  Anything else is handed to
+     * Double.valueOf().
+     * @param field the field to parse.
+     * @return the value.
+     */
+    public double parseDouble(int field) {
+        final int start = starts[field], end = ends[field];
+        ensureLoaded(end);
+        int i = start;
+        final boolean negative = i < end && bytes[i] == '-';
+        if ( negative || (i < end && bytes[i] == '+') )
+            i++;
+
+        long digits = 0;
+        int nDigits = 0, nFractionDigits = 0;
+        boolean seenPoint = false;
+        for ( ; i < end; i++ ) {
+            final byte b = bytes[i];
+            if ( b >= '0' && b <= '9' ) {
+                digits = 10*digits + (b - '0');
+                nDigits++;
+                if ( seenPoint )
+                    nFractionDigits++;
+            } else if ( b == '.' && !seenPoint ) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+
+        if ( i < end || nDigits == 0 || nDigits > MAX_EXACT_DIGITS || nFractionDigits >= EXACT_POWERS_OF_TEN.length )
+            return Double.valueOf(getString(field));
+
+        final double value = digits / EXACT_POWERS_OF_TEN[nFractionDigits];
+        return negative ? -value : value;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        // the rest of the line can be searched without copying it
+        if ( to == length )
+            return source.indexOf(c, from);
+
+        ensureLoaded(to);
+        final byte b = (byte)c;
+        for ( int i = from; i < to; i++ ) {
+            if ( bytes[i] == b )
+                return i;
+        }
+        return -1;
+    }
+
+    private void addField(int start, int end) {
+        starts[nFields] = start;
+        ends[nFields] = end;
+        nFields++;
+    }
+
+    private void ensureFieldCapacity(int maxFields) {
+        if ( starts.length < maxFields ) {
+            starts = Arrays.copyOf(starts, maxFields);
+            ends = Arrays.copyOf(ends, maxFields);
+        }
+    }
+
+    /**
+     * Interns strings, looking them up by their ASCII bytes so that a string that has been seen before can be
+     * found without allocating.
+     */
+    public static class InternCache {
+        private String[] strings = new String[64];
+        private int[] hashes = new int[64];
+        private int size = 0;
+
+        /**
+         * @param bytes ASCII text.
+         * @param start the first byte of the string.
+         * @param end one past the last byte of the string.
+         * @return the interned string.
+         */
+        public String intern(byte[] bytes, int start, int end) {
+            int hash = 0;
+            for ( int i = start; i < end; i++ )
+                hash = 31*hash + bytes[i];
+
+            final int mask = strings.length - 1;
+            int slot = spread(hash) & mask;
+            for ( ; strings[slot] != null; slot = (slot+1) & mask ) {
+                if ( hashes[slot] == hash && matches(strings[slot], bytes, start, end) )
+                    return strings[slot];
+            }
+
+            @SuppressWarnings("deprecation")
+            String str = new String(bytes, 0, start, end - start);
+            insert(slot, str, hash);
+            return str;
+        }
+
+        /**
+         * @param str the string to intern.
+         * @return the interned copy of str.
+         */
+        public String intern(String str) {
+            final int hash = str.hashCode();
+            final int mask = strings.length - 1;
+            int slot = spread(hash) & mask;
+            for ( ; strings[slot] != null; slot = (slot+1) & mask ) {
+                if ( hashes[slot] == hash && strings[slot].equals(str) )
+                    return strings[slot];
+            }
+            insert(slot, str, hash);
+            return str;
+        }
+
+        /**
+         * @return the number of distinct strings interned.
+         */
+        public int size() {
+            return size;
+        }
+
+        private void insert(int slot, String str, int hash) {
+            strings[slot] = str;
+            hashes[slot] = hash;
+            if ( ++size > strings.length / 2 )
+                rehash();
+        }
+
+        private void rehash() {
+            final String[] oldStrings = strings;
+            final int[] oldHashes = hashes;
+            strings = new String[2*oldStrings.length];
+            hashes = new int[2*oldStrings.length];
+            final int mask = strings.length - 1;
+            for ( int i = 0; i < oldStrings.length; i++ ) {
+                if ( oldStrings[i] != null ) {
+                    int slot = spread(oldHashes[i]) & mask;
+                    while ( strings[slot] != null )
+                        slot = (slot+1) & mask;
+                    strings[slot] = oldStrings[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+
+        private static boolean matches(String str, byte[] bytes, int start, int end) {
+            if ( str.length() != end - start )
+                return false;
+            for ( int i = 0; i < str.length(); i++ ) {
+                if ( str.charAt(i) != bytes[start+i] )
+                    return false;
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            hash ^= (hash >>> 16);
+            hash *= 0x85ebca6b;
+            return hash ^ (hash >>> 13);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * A growable byte buffer that VCF text is encoded into before being written out in large blocks.  Text is encoded
+ * exactly as an OutputStreamWriter in the platform's default charset would encode it, and doubles exactly as
+ * String.format(VCFConstants.DOUBLE_PRECISION_FORMAT_STRING) would format them, but without going through a
+ * Formatter for the common cases.
+ *
+ * Not thread-safe.
+ */
+final class VCFOutputBuffer {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /** Doubles larger than this always go through String.format(). */
+    private static final double MAX_FAST_DOUBLE = 1e9;
+
+    /**
+     * How close to a rounding tie (in hundredths) a double may be and still be formatted without String.format().
+     * Formatter rounds the shortest decimal representation of the double half-up, which can differ from rounding
+     * its exact binary value only this close to a tie; the error bound is far smaller, this is just margin.
+     */
+    private static final double TIE_MARGIN = 1e-4;
+
+    private final Charset charset = Charset.defaultCharset();
+
+    /** Can doubles be formatted by hand in the default locale, or do they need localized digits? */
+    private final boolean fastDoubles;
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int count = 0;
+
+    public VCFOutputBuffer() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault());
+        fastDoubles = symbols.getDecimalSeparator() == '.' && symbols.getZeroDigit() == '0';
+    }
+
+    /**
+     * @return the number of bytes in the buffer, which is also the position of the next byte written.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Drops everything written after the given position.
+     * @param position a position previously returned by size().
+     */
+    public void truncate(int position) {
+        count = position;
+    }
+
+    /**
+     * Is the text from the given position to the end of the buffer empty, or made entirely of missing
+     * values ('.') and the commas between them?
+     * @param from the position to check from.
+     * @return true if only missing values have been written since from.
+     */
+    public boolean isMissingValue(int from) {
+        for ( int i = from; i < count; i++ ) {
+            if ( buffer[i] != '.' && buffer[i] != ',' )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Does the buffer end with the given ASCII text?
+     * @param suffix the text to look for.
+     * @param from the earliest position the suffix may start at.
+     * @return true if the suffix was written at or after from and nothing has been written since.
+     */
+    public boolean endsWith(String suffix, int from) {
+        final int start = count - suffix.length();
+        if ( start < from )
+            return false;
+        for ( int i = 0; i < suffix.length(); i++ ) {
+            if ( buffer[start+i] != suffix.charAt(i) )
+                return false;
+        }
+        return true;
+    }
+
+    public void write(char c) {
+        if ( c >= 128 ) {
+            write(String.valueOf(c));
+            return;
+        }
+        ensureCapacity(1);
+        buffer[count++] = (byte)c;
+    }
+
+    public void write(String s) {
+        final int length = s.length();
+        ensureCapacity(length);
+        for ( int i = 0; i < length; i++ ) {
+            final char c = s.charAt(i);
+            if ( c >= 128 ) {
+                writeEncoded(s.substring(i));
+                return;
+            }
+            buffer[count++] = (byte)c;
+        }
+    }
+
+    private void writeEncoded(String s) {
+        final byte[] bytes = s.getBytes(charset);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Writes the decimal representation of the given number, as String.valueOf() would.
+     * @param value the number to write.
+     */
+    public void write(long value) {
+        if ( value == Long.MIN_VALUE ) {
+            write(String.valueOf(value));
+            return;
+        }
+
+        ensureCapacity(20);
+        if ( value < 0 ) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        final int start = count;
+        do {
+            buffer[count++] = (byte)('0' + value % 10);
+            value /= 10;
+        } while ( value != 0 );
+        reverse(start, count);
+    }
+
+    /**
+     * Writes the given double with two decimal places, exactly as String.format("%.2f") would.
+     * @param value the number to write.
+     */
+    public void writeDouble(double value) {
+        final double hundredths = Math.abs(value) * 100;
+        final long whole = (long)hundredths;
+        final double fraction = hundredths - whole;
+
+        if ( !fastDoubles || !(Math.abs(value) < MAX_FAST_DOUBLE) || Math.abs(fraction - 0.5) < TIE_MARGIN ) {
+            write(String.format(VCFConstants.DOUBLE_PRECISION_FORMAT_STRING, value));
+            return;
+        }
+
+        final long rounded = fraction > 0.5 ? whole + 1 : whole;
+        ensureCapacity(24);
+        if ( Double.doubleToRawLongBits(value) < 0 ) // negative, including -0.0 and anything rounding to it
+            buffer[count++] = '-';
+        write(rounded / 100);
+        buffer[count++] = '.';
+        buffer[count++] = (byte)('0' + (rounded % 100) / 10);
+        buffer[count++] = (byte)('0' + rounded % 10);
+    }
+
+    /**
+     * Writes everything in the buffer to the given stream and empties the buffer.
+     * @param out the stream to write to.
+     * @throws IOException if the stream does.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if ( count + extra > buffer.length ) {
+            byte[] newBuffer = new byte[Math.max(count + extra, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, newBuffer, 0, count);
+            buffer = newBuffer;
+        }
+    }
+
+    private void reverse(int from, int to) {
+        for ( int i = from, j = to - 1; i < j; i++, j-- ) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+}
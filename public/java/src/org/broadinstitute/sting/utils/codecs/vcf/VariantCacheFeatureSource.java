@@ -0,0 +1,530 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.FeatureSource;
+import org.broad.tribble.iterators.CloseableTribbleIterator;
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the records of a VCF file from its variant cache, as written by VariantCacheWriter, producing exactly the
+ * VariantContexts the VCFCodec would.  Columns are only read and inflated when first needed: iterating over records
+ * and looking at their positions and a couple of INFO fields never touches the other INFO fields or the genotypes.
+ *
+ * Like BasicFeatureSource, all iterators share one codec and so should be used from a single thread.
+ */
+public class VariantCacheFeatureSource implements FeatureSource<VariantContext> {
+    private final File cacheFile;
+    private final RandomAccessFile file;
+    private final VCFCodec codec;
+    private final Object header;
+
+    /** The blocks of each contig, in order, with the contigs in the order they appear in the file. */
+    private final Map<String, List<BlockEntry>> blocks = new LinkedHashMap<String, List<BlockEntry>>();
+
+    /** Number of bytes read from the cache so far. */
+    private long bytesRead = 0;
+
+    /**
+     * Is the given cache present, readable, and up to date with the given VCF?
+     * @param vcf the VCF file.
+     * @param cacheFile its cache.
+     * @return true if the cache can be used in place of the VCF.
+     */
+    public static boolean isCurrent(File vcf, File cacheFile) {
+        if ( !cacheFile.canRead() || cacheFile.lastModified() < vcf.lastModified() )
+            return false;
+
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(cacheFile));
+            try {
+                return in.readInt() == VariantCacheWriter.MAGIC && in.readInt() == VariantCacheWriter.VERSION && in.readLong() == vcf.length();
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch ( IOException e ) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a variant cache.
+     * @param cacheFile the cache, as written by VariantCacheWriter.
+     * @param codec the codec to decode records with, which reads its header from the cache.
+     * @throws IOException if the cache can't be read.
+     */
+    public VariantCacheFeatureSource(File cacheFile, VCFCodec codec) throws IOException {
+        this.cacheFile = cacheFile;
+        this.file = new RandomAccessFile(cacheFile, "r");
+
+        if ( file.readInt() != VariantCacheWriter.MAGIC )
+            throw new UserException.MalformedFile(cacheFile, "Not a variant cache");
+        if ( file.readInt() != VariantCacheWriter.VERSION )
+            throw new UserException.MalformedFile(cacheFile, "Unsupported variant cache version; please recreate it");
+        file.readLong();
+
+        byte[] headerLines = new byte[file.readInt()];
+        file.readFully(headerLines);
+        this.codec = codec;
+        header = codec.readHeader(new AsciiLineReader(new ByteArrayInputStream(headerLines)));
+
+        bytesRead = file.getFilePointer();
+
+        file.seek(file.length() - 8);
+        long indexOffset = file.readLong();
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(read(indexOffset, (int)(file.length() - 8 - indexOffset))));
+        int nBlocks = index.readInt();
+        for ( int i = 0; i < nBlocks; i++ ) {
+            BlockEntry entry = new BlockEntry(index.readUTF(), index.readInt(), index.readLong(), index.readLong(), index.readLong());
+            List<BlockEntry> contigBlocks = blocks.get(entry.contig);
+            if ( contigBlocks == null ) {
+                contigBlocks = new ArrayList<BlockEntry>();
+                blocks.put(entry.contig, contigBlocks);
+            }
+            contigBlocks.add(entry);
+        }
+    }
+
+    /**
+     * @return the number of bytes read from the cache so far, including its header and block index.
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    public CloseableTribbleIterator<VariantContext> query(String chr, int start, int end) {
+        List<BlockEntry> contigBlocks = blocks.get(chr);
+        return new RecordIterator(contigBlocks == null ? Collections.<BlockEntry>emptyList() : contigBlocks, start, end);
+    }
+
+    public CloseableTribbleIterator<VariantContext> iterator() {
+        List<BlockEntry> allBlocks = new ArrayList<BlockEntry>();
+        for ( List<BlockEntry> contigBlocks : blocks.values() )
+            allBlocks.addAll(contigBlocks);
+        return new RecordIterator(allBlocks, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public List<String> getSequenceNames() {
+        return new ArrayList<String>(blocks.keySet());
+    }
+
+    public Object getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads part of the cache.
+     * @param offset where to start reading.
+     * @param length how many bytes to read.
+     * @return the bytes.
+     */
+    private synchronized byte[] read(long offset, int length) {
+        try {
+            byte[] bytes = new byte[length];
+            file.seek(offset);
+            file.readFully(bytes);
+            bytesRead += length;
+            return bytes;
+        }
+        catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(cacheFile, e);
+        }
+    }
+
+    /**
+     * The records of the given blocks which overlap [start, end].
+     */
+    private class RecordIterator implements CloseableTribbleIterator<VariantContext> {
+        private final Iterator<BlockEntry> entries;
+        private final int start;
+        private final int end;
+
+        private Block block = null;
+        private int record = 0;
+        private VariantContext next = null;
+
+        RecordIterator(List<BlockEntry> entries, int start, int end) {
+            this.entries = entries.iterator();
+            this.start = start;
+            this.end = end;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while ( next == null ) {
+                if ( block == null || record == block.nRecords ) {
+                    if ( !nextBlock() )
+                        return;
+                }
+                VariantContext vc = block.decode(record++);
+                if ( vc.getStart() > end ) {
+                    // records within a contig are sorted by start
+                    block = null;
+                    return;
+                }
+                if ( vc.getEnd() >= start )
+                    next = vc;
+            }
+        }
+
+        private boolean nextBlock() {
+            while ( entries.hasNext() ) {
+                BlockEntry entry = entries.next();
+                if ( entry.start > end )
+                    break;
+                if ( entry.end >= start ) {
+                    block = new Block(entry);
+                    record = 0;
+                    return true;
+                }
+            }
+            block = null;
+            return false;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public VariantContext next() {
+            if ( next == null )
+                throw new NoSuchElementException();
+            VariantContext vc = next;
+            advance();
+            return vc;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove records from a variant cache");
+        }
+
+        public Iterator<VariantContext> iterator() {
+            return this;
+        }
+    }
+
+    /**
+     * A block of records, whose columns are read and inflated as they're needed.
+     */
+    private class Block {
+        final BlockEntry entry;
+        final int nRecords;
+
+        /** The location, lengths and number of values of each column. */
+        final Map<String, long[]> columns = new HashMap<String, long[]>();
+
+        /** The start of each record's POS through FILTER columns within sites. */
+        private byte[] sites = null;
+        private int[] siteOffsets = null;
+
+        /** The INFO columns read so far, by key. */
+        private final Map<String, InfoColumn> infoColumns = new HashMap<String, InfoColumn>();
+
+        private InfoColumn rawInfo = null;
+        private InfoColumn genotypes = null;
+
+        Block(BlockEntry entry) {
+            this.entry = entry;
+            try {
+                int directoryLength = new DataInputStream(new ByteArrayInputStream(read(entry.offset, 4))).readInt();
+                DataInputStream directory = new DataInputStream(new ByteArrayInputStream(read(entry.offset + 4, directoryLength)));
+                nRecords = directory.readInt();
+                int nColumns = directory.readInt();
+                long offset = entry.offset + 4 + directoryLength;
+                for ( int i = 0; i < nColumns; i++ ) {
+                    String name = directory.readUTF();
+                    int deflatedLength = directory.readInt();
+                    int inflatedLength = directory.readInt();
+                    int nValues = directory.readInt();
+                    columns.put(name, new long[] { offset, deflatedLength, inflatedLength, nValues });
+                    offset += deflatedLength;
+                }
+            }
+            catch ( IOException e ) {
+                throw new UserException.MalformedFile(cacheFile, "Unable to read a block directory", e);
+            }
+        }
+
+        /**
+         * Decodes a record of the block.
+         * @param record the index of the record within the block.
+         * @return the record.
+         */
+        VariantContext decode(int record) {
+            if ( sites == null ) {
+                sites = inflate(VariantCacheWriter.SITES_COLUMN);
+                siteOffsets = new int[nRecords + 1];
+                int offset = 0;
+                for ( int i = 0; i < nRecords; i++ ) {
+                    siteOffsets[i] = offset;
+                    offset = skipString(sites, offset);
+                }
+                siteOffsets[nRecords] = offset;
+            }
+            if ( rawInfo == null && columns.containsKey(VariantCacheWriter.RAW_INFO_COLUMN) )
+                rawInfo = new InfoColumn(VariantCacheWriter.RAW_INFO_COLUMN);
+
+            LazyVCFInfoMap attributes;
+            if ( rawInfo != null && rawInfo.has(record) )
+                attributes = new LazyVCFInfoMap(rawInfo.getValue(record));
+            else
+                attributes = new CachedInfoMap(this, record);
+            if ( hasGenotypes(record) )
+                attributes.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, new UnparsedGenotypes(this, record));
+
+            int valueStart = readLength(sites, siteOffsets[record]);
+            String sitesColumns = entry.contig + VCFConstants.FIELD_SEPARATOR + utf8(sites, valueStart, siteOffsets[record + 1] - valueStart);
+            return codec.decodeSites(sitesColumns, attributes);
+        }
+
+        /**
+         * @return the names of the INFO fields any record in the block has.
+         */
+        List<String> getInfoKeys() {
+            List<String> keys = new ArrayList<String>();
+            for ( String name : columns.keySet() ) {
+                if ( name.startsWith(VariantCacheWriter.INFO_COLUMN_PREFIX) )
+                    keys.add(name.substring(VariantCacheWriter.INFO_COLUMN_PREFIX.length()));
+            }
+            return keys;
+        }
+
+        /**
+         * @param key an INFO key.
+         * @return its column, or null if no record in the block has the key.
+         */
+        synchronized InfoColumn getInfoColumn(String key) {
+            InfoColumn column = infoColumns.get(key);
+            if ( column == null && !infoColumns.containsKey(key) ) {
+                String name = VariantCacheWriter.INFO_COLUMN_PREFIX + key;
+                column = columns.containsKey(name) ? new InfoColumn(name) : null;
+                infoColumns.put(key, column);
+            }
+            return column;
+        }
+
+        /**
+         * Does the record have FORMAT and sample columns?  Usually every record of a block does, or none do, and
+         * the genotypes needn't be read to find out.
+         */
+        boolean hasGenotypes(int record) {
+            long[] column = columns.get(VariantCacheWriter.GENOTYPES_COLUMN);
+            if ( column == null )
+                return false;
+            return column[3] == nRecords || getGenotypeColumn().has(record);
+        }
+
+        String getGenotypes(int record) {
+            return getGenotypeColumn().getValue(record);
+        }
+
+        private synchronized InfoColumn getGenotypeColumn() {
+            if ( genotypes == null )
+                genotypes = new InfoColumn(VariantCacheWriter.GENOTYPES_COLUMN);
+            return genotypes;
+        }
+
+        private byte[] inflate(String name) {
+            long[] column = columns.get(name);
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(read(column[0], (int)column[1]));
+                byte[] inflated = new byte[(int)column[2]];
+                int n = 0;
+                while ( n < inflated.length && !inflater.finished() )
+                    n += inflater.inflate(inflated, n, inflated.length - n);
+                if ( n != inflated.length )
+                    throw new UserException.MalformedFile(cacheFile, "Column " + name + " is truncated");
+                return inflated;
+            }
+            catch ( DataFormatException e ) {
+                throw new UserException.MalformedFile(cacheFile, "Column " + name + " is corrupt", e);
+            }
+            finally {
+                inflater.end();
+            }
+        }
+
+        /**
+         * A column holding, for each record, an optional value.
+         */
+        private class InfoColumn {
+            final byte[] bytes;
+
+            /** The offset of each record's tag. */
+            final int[] offsets;
+
+            InfoColumn(String name) {
+                bytes = inflate(name);
+                offsets = new int[nRecords];
+                int offset = 0;
+                for ( int i = 0; i < nRecords; i++ ) {
+                    offsets[i] = offset;
+                    offset = bytes[offset] == VariantCacheWriter.VALUE_PRESENT ? skipString(bytes, offset + 1) : offset + 1;
+                }
+            }
+
+            boolean has(int record) {
+                return bytes[offsets[record]] != VariantCacheWriter.VALUE_ABSENT;
+            }
+
+            boolean isFlag(int record) {
+                return bytes[offsets[record]] == VariantCacheWriter.VALUE_FLAG;
+            }
+
+            String getValue(int record) {
+                if ( bytes[offsets[record]] != VariantCacheWriter.VALUE_PRESENT )
+                    return null;
+                int lengthStart = offsets[record] + 1;
+                int valueStart = readLength(bytes, lengthStart);
+                return utf8(bytes, valueStart, skipString(bytes, lengthStart) - valueStart);
+            }
+        }
+    }
+
+    /**
+     * The INFO fields of a record, found in the INFO columns of its block.
+     */
+    private static class CachedInfoMap extends LazyVCFInfoMap {
+        private final Block block;
+        private final int record;
+
+        CachedInfoMap(Block block, int record) {
+            this.block = block;
+            this.record = record;
+        }
+
+        @Override
+        protected boolean canScan() {
+            return true;
+        }
+
+        @Override
+        protected Object scanValue(String key) {
+            Block.InfoColumn column = block.getInfoColumn(key);
+            if ( column == null || !column.has(record) )
+                return null;
+            return column.isFlag(record) ? Boolean.TRUE : decodeValue(column.getValue(record));
+        }
+
+        @Override
+        protected boolean scanContainsKey(String key) {
+            Block.InfoColumn column = block.getInfoColumn(key);
+            return column != null && column.has(record);
+        }
+
+        @Override
+        protected void decodeFields(Map<String, Object> attributes) {
+            for ( String key : block.getInfoKeys() ) {
+                Object value = scanValue(key);
+                if ( value != null )
+                    attributes.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * The FORMAT and sample columns of a record, which are only read when the genotypes are decoded.
+     */
+    private static class UnparsedGenotypes {
+        private final Block block;
+        private final int record;
+
+        UnparsedGenotypes(Block block, int record) {
+            this.block = block;
+            this.record = record;
+        }
+
+        @Override
+        public String toString() {
+            return block.getGenotypes(record);
+        }
+    }
+
+    private static class BlockEntry {
+        final String contig;
+        final int nRecords;
+        final long start;
+        final long end;
+        final long offset;
+
+        BlockEntry(String contig, int nRecords, long start, long end, long offset) {
+            this.contig = contig;
+            this.nRecords = nRecords;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * @return the offset of the first byte of the string at the given offset, past its length.
+     */
+    private static int readLength(byte[] bytes, int offset) {
+        while ( (bytes[offset] & 0x80) != 0 )
+            offset++;
+        return offset + 1;
+    }
+
+    /**
+     * @return the offset just past the string at the given offset.
+     */
+    private static int skipString(byte[] bytes, int offset) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[offset++];
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ( (b & 0x80) != 0 );
+        return offset + length;
+    }
+
+    private static String utf8(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        }
+        catch ( UnsupportedEncodingException e ) {
+            throw new ReviewedStingException("UTF-8 is not supported", e);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.apache.log4j.Logger;
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the variant cache of a VCF file: a binary sidecar holding the same records column by column, so that
+ * a reader needing only some of the columns (the positions and a couple of INFO fields, say) inflates only those.
+ *
+ * The file is laid out as follows, big-endian throughout:
+ * <pre>
+ *   int     MAGIC
+ *   int     VERSION
+ *   long    length of the VCF file the cache was made from
+ *   UTF-8   the VCF header lines, newline terminated (int length, then the bytes)
+ *   block*  the records, in blocks of up to MAX_RECORDS_PER_BLOCK records on a single contig
+ *   index   int number of blocks, then for each: UTF contig, int records, long first start, long last end, long offset
+ *   long    offset of the index
+ * </pre>
+ * Each block starts with the int length of its directory, which holds an int record count, an int column count and
+ * then the UTF name, int deflated length, int inflated length and int count of records with a value of each column;
+ * the deflated columns follow.  The columns are
+ * <ul>
+ *   <li>SITES_COLUMN: for each record, the POS through FILTER columns as text</li>
+ *   <li>INFO_COLUMN_PREFIX + key: for each record, whether it has the INFO key, and with which value</li>
+ *   <li>RAW_INFO_COLUMN: the whole INFO column of records whose INFO can't be split up into keys</li>
+ *   <li>GENOTYPES_COLUMN: for each record, the FORMAT and sample columns as text</li>
+ * </ul>
+ * Strings are written as a varint length followed by their UTF-8 bytes; optional values are preceded by one of
+ * the VALUE_ tags.
+ */
+public class VariantCacheWriter {
+    private final static Logger logger = Logger.getLogger(VariantCacheWriter.class);
+
+    public static final String CACHE_EXTENSION = ".vcache";
+
+    static final int MAGIC = 0x56434348; // "VCCH"
+    static final int VERSION = 1;
+
+    static final int MAX_RECORDS_PER_BLOCK = 1024;
+
+    static final String SITES_COLUMN = "#SITES";
+    static final String RAW_INFO_COLUMN = "#INFO";
+    static final String GENOTYPES_COLUMN = "#GENOTYPES";
+    static final String INFO_COLUMN_PREFIX = "INFO:";
+
+    /** The columns of a record: CHROM, POS through FILTER, INFO, and FORMAT onwards. */
+    private static final int INFO_FIELD = 7;
+    private static final int GENOTYPES_FIELD = 8;
+
+    static final byte VALUE_ABSENT = 0;
+    static final byte VALUE_FLAG = 1;
+    static final byte VALUE_PRESENT = 2;
+
+    private final File sourceFile;
+    private final DataOutputStream out;
+    private long position = 0;
+
+    private final List<BlockEntry> blockIndex = new ArrayList<BlockEntry>();
+    private Block block = null;
+
+    private final VCFLineTokenizer tokenizer = new VCFLineTokenizer(new VCFLineTokenizer.InternCache());
+    private final int maxColumns;
+
+    private final Set<String> contigs = new HashSet<String>();
+    private long lastStart = 0;
+    private final Deflater deflater = new Deflater();
+
+    /**
+     * The cache file for the given VCF.
+     * @param vcf the VCF file.
+     * @return the cache which sits alongside it.
+     */
+    public static File cacheFile(File vcf) {
+        return new File(vcf.getAbsolutePath() + CACHE_EXTENSION);
+    }
+
+    /**
+     * Writes the variant cache of the given VCF file.
+     * @param vcf the VCF file to cache, which must be version 4.
+     * @param cacheFile where to write the cache.
+     * @throws IOException if either file can't be read or written.
+     */
+    public static void createCache(File vcf, File cacheFile) throws IOException {
+        // decode every record, both to check it and to find its extent
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReader reader = new AsciiLineReader(new FileInputStream(vcf));
+        try {
+            StringBuilder headerLines = new StringBuilder();
+            String line;
+            while ( (line = reader.readLine()) != null && line.startsWith(VCFHeader.METADATA_INDICATOR) )
+                headerLines.append(line).append('\n');
+            if ( line == null || !line.startsWith(VCFHeader.HEADER_INDICATOR) )
+                throw new UserException.MalformedFile(vcf, "No #CHROM header line found");
+            headerLines.append(line).append('\n');
+            VCFHeader header = (VCFHeader)codec.readHeader(new AsciiLineReader(new ByteArrayInputStream(headerLines.toString().getBytes("UTF-8"))));
+
+            VariantCacheWriter writer = new VariantCacheWriter(vcf, cacheFile, headerLines.toString(), header.getColumnCount());
+            while ( (line = reader.readLine()) != null ) {
+                VariantContext vc = (VariantContext)codec.decode(line);
+                if ( vc != null )
+                    writer.add(vc.getChr(), vc.getStart(), vc.getEnd(), line);
+            }
+            writer.close();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Create a writer for the cache of the given VCF file.
+     * @param sourceFile the VCF file being cached.
+     * @param cacheFile where to write the cache.
+     * @param headerLines the header lines of the VCF file, newline terminated.
+     * @param columnCount the number of columns named in the header.
+     * @throws IOException if the cache can't be written.
+     */
+    VariantCacheWriter(File sourceFile, File cacheFile, String headerLines, int columnCount) throws IOException {
+        this.sourceFile = sourceFile;
+        // split records exactly as the codec does; without samples in the header, INFO runs to the end of the line
+        this.maxColumns = Math.min(columnCount, GENOTYPES_FIELD + 1);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile), 1024 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sourceFile.length());
+        byte[] header = headerLines.getBytes("UTF-8");
+        out.writeInt(header.length);
+        out.write(header);
+        position = 4 + 4 + 8 + 4 + header.length;
+    }
+
+    /**
+     * Adds a record to the cache.  Records must be added in the order they appear in the VCF file, which must be sorted.
+     * @param contig the contig of the record.
+     * @param start its start.
+     * @param end its end.
+     * @param line the record itself.
+     * @throws IOException if the cache can't be written.
+     */
+    void add(String contig, long start, long end, String line) throws IOException {
+        if ( block != null && block.contig.equals(contig) ? start < lastStart : contigs.contains(contig) )
+            throw new UserException.MalformedFile(sourceFile, "Records must be sorted by position within each contig, and each contig must be contiguous, to be cached; " + contig + ":" + start + " is out of order");
+        contigs.add(contig);
+        lastStart = start;
+
+        if ( block != null && (!block.contig.equals(contig) || block.nRecords == MAX_RECORDS_PER_BLOCK) )
+            writeBlock();
+        if ( block == null )
+            block = new Block(contig);
+        tokenizer.load(line);
+        tokenizer.split(VCFConstants.FIELD_SEPARATOR_CHAR, maxColumns, true);
+        block.add(start, end, tokenizer);
+    }
+
+    /**
+     * Writes the last block and the block index, and closes the cache.
+     * @throws IOException if the cache can't be written.
+     */
+    void close() throws IOException {
+        if ( block != null )
+            writeBlock();
+
+        long indexOffset = position;
+        out.writeInt(blockIndex.size());
+        for ( BlockEntry entry : blockIndex ) {
+            out.writeUTF(entry.contig);
+            out.writeInt(entry.nRecords);
+            out.writeLong(entry.start);
+            out.writeLong(entry.end);
+            out.writeLong(entry.offset);
+        }
+        out.writeLong(indexOffset);
+        out.close();
+        deflater.end();
+        logger.info(String.format("Wrote %d blocks of records from %s to its variant cache", blockIndex.size(), sourceFile));
+    }
+
+    private void writeBlock() throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<byte[]> columns = new ArrayList<byte[]>();
+        List<Integer> inflatedLengths = new ArrayList<Integer>();
+        List<Integer> valueCounts = new ArrayList<Integer>();
+
+        names.add(SITES_COLUMN);
+        names.addAll(block.info.keySet());
+        if ( block.rawInfo != null )
+            names.add(RAW_INFO_COLUMN);
+        if ( block.genotypes != null )
+            names.add(GENOTYPES_COLUMN);
+        for ( String name : names ) {
+            Column column = name.equals(SITES_COLUMN) ? block.sites : name.equals(RAW_INFO_COLUMN) ? block.rawInfo :
+                    name.equals(GENOTYPES_COLUMN) ? block.genotypes : block.info.get(name);
+            column.padTo(block.nRecords);
+            byte[] inflated = column.bytes.toByteArray();
+            inflatedLengths.add(inflated.length);
+            valueCounts.add(column.nValues);
+            columns.add(deflate(inflated));
+        }
+
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        directory.writeInt(block.nRecords);
+        directory.writeInt(names.size());
+        for ( int i = 0; i < names.size(); i++ ) {
+            directory.writeUTF(names.get(i));
+            directory.writeInt(columns.get(i).length);
+            directory.writeInt(inflatedLengths.get(i));
+            directory.writeInt(valueCounts.get(i));
+        }
+        directory.close();
+
+        blockIndex.add(new BlockEntry(block.contig, block.nRecords, block.start, block.end, position));
+        out.writeInt(directoryBytes.size());
+        out.write(directoryBytes.toByteArray());
+        position += 4 + directoryBytes.size();
+        for ( byte[] column : columns ) {
+            out.write(column);
+            position += column.length;
+        }
+        block = null;
+    }
+
+    private byte[] deflate(byte[] bytes) {
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while ( !deflater.finished() ) {
+            int n = deflater.deflate(buffer);
+            deflated.write(buffer, 0, n);
+        }
+        return deflated.toByteArray();
+    }
+
+    /**
+     * The records of a block, column by column, as they're added.
+     */
+    private static class Block {
+        final String contig;
+        int nRecords = 0;
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+
+        final Column sites = new Column();
+        final Map<String, Column> info = new TreeMap<String, Column>();
+        Column rawInfo = null;
+        Column genotypes = null;
+
+        Block(String contig) {
+            this.contig = contig;
+        }
+
+        void add(long start, long end, VCFLineTokenizer parts) throws IOException {
+            StringBuilder sitesColumns = new StringBuilder();
+            for ( int i = 1; i < INFO_FIELD; i++ )
+                sitesColumns.append(i == 1 ? "" : VCFConstants.FIELD_SEPARATOR).append(parts.getString(i));
+            sites.writeString(sitesColumns.toString());
+
+            String infoField = parts.getString(INFO_FIELD);
+            Map<String, String> fields = LazyVCFInfoMap.scanFields(infoField);
+            if ( fields == null ) {
+                if ( rawInfo == null )
+                    rawInfo = new Column();
+                rawInfo.padTo(nRecords);
+                rawInfo.writeValue(infoField);
+            } else {
+                for ( Map.Entry<String, String> field : fields.entrySet() ) {
+                    Column column = info.get(INFO_COLUMN_PREFIX + field.getKey());
+                    if ( column == null ) {
+                        column = new Column();
+                        info.put(INFO_COLUMN_PREFIX + field.getKey(), column);
+                    }
+                    column.padTo(nRecords);
+                    column.writeValue(field.getValue());
+                }
+            }
+
+            if ( parts.getNumFields() > GENOTYPES_FIELD ) {
+                if ( genotypes == null )
+                    genotypes = new Column();
+                genotypes.padTo(nRecords);
+                genotypes.writeValue(parts.getString(GENOTYPES_FIELD));
+            }
+
+            this.start = Math.min(this.start, start);
+            this.end = Math.max(this.end, end);
+            nRecords++;
+        }
+    }
+
+    /**
+     * The values of one column of a block.
+     */
+    private static class Column {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** Number of records written to the column so far. */
+        int nRecords = 0;
+
+        /** Number of those records which have a value. */
+        int nValues = 0;
+
+        /**
+         * Marks the records between the last one written and the given one as not having a value.
+         */
+        void padTo(int record) {
+            for ( ; nRecords < record; nRecords++ )
+                bytes.write(VALUE_ABSENT);
+        }
+
+        /**
+         * Writes a string which every record has.
+         */
+        void writeString(String value) throws IOException {
+            writeBytes(value.getBytes("UTF-8"));
+            nRecords++;
+            nValues++;
+        }
+
+        /**
+         * Writes the value of a record which has one, or null for a flag.
+         */
+        void writeValue(String value) throws IOException {
+            if ( value == null ) {
+                bytes.write(VALUE_FLAG);
+            } else {
+                bytes.write(VALUE_PRESENT);
+                writeBytes(value.getBytes("UTF-8"));
+            }
+            nRecords++;
+            nValues++;
+        }
+
+        private void writeBytes(byte[] value) {
+            int length = value.length;
+            while ( (length & ~0x7F) != 0 ) {
+                bytes.write((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            bytes.write(length);
+            bytes.write(value, 0, value.length);
+        }
+    }
+
+    private static class BlockEntry {
+        final String contig;
+        final int nRecords;
+        final long start;
+        final long end;
+        final long offset;
+
+        BlockEntry(String contig, int nRecords, long start, long end, long offset) {
+            this.contig = contig;
+            this.nRecords = nRecords;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.collections;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.Arrays;
+
+/**
+ * Assigns dense row numbers, starting at 0 and in order of insertion, to fixed-width tuples of ints.
+ * The tuples themselves are stored back to back in a single int[] and located through an open-addressing
+ * hash table, so lookups neither box nor allocate.  Subclasses can keep per-row data in parallel primitive
+ * arrays indexed by row number; they are told when to grow those arrays through ensureRowCapacity().
+ *
+ * Not thread-safe.
+ */
+public class IntTupleIndex {
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    /** Open addressing slots are never allowed to fill beyond this fraction. */
+    private static final double MAX_LOAD_FACTOR = 0.5;
+
+    /** Number of ints in each tuple. */
+    private final int tupleLength;
+
+    /** Number of rows to allocate space for when the first row is added. */
+    private final int initialRowCapacity;
+
+    /** The tuples, back to back, in row order. */
+    private int[] tuples;
+
+    /** Hash table of row+1 for each occupied slot; 0 marks an empty slot.  Length is always a power of two. */
+    private int[] slots;
+
+    /** Number of rows in the index. */
+    private int size = 0;
+
+    /**
+     * Create a new index of tuples of the given width.
+     * @param tupleLength Number of ints in every tuple.
+     */
+    public IntTupleIndex(final int tupleLength) {
+        this(tupleLength,DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create a new index of tuples of the given width with space for the given number of rows.
+     * @param tupleLength Number of ints in every tuple.
+     * @param initialCapacity Number of rows to allocate space for.
+     */
+    public IntTupleIndex(final int tupleLength, final int initialCapacity) {
+        if(tupleLength <= 0)
+            throw new ReviewedStingException("Tuple length must be positive; was " + tupleLength);
+        this.tupleLength = tupleLength;
+        this.initialRowCapacity = Math.max(initialCapacity,1);
+        tuples = new int[0];
+        slots = new int[slotCountFor(initialRowCapacity)];
+    }
+
+    /**
+     * Gets the number of ints in each tuple.
+     * @return Tuple width.
+     */
+    public int getTupleLength() {
+        return tupleLength;
+    }
+
+    /**
+     * Gets the number of rows in the index.
+     * @return Number of distinct tuples added.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row of the given tuple.
+     * @param tuple Tuple to find.  Only the first getTupleLength() entries are examined.
+     * @return The row of the tuple, or -1 if the tuple is not present.
+     */
+    public int find(final int[] tuple) {
+        return find(tuple,0);
+    }
+
+    /**
+     * Finds the row of the tuple stored at the given position of a larger array.
+     * @param tuples Array containing the tuple to find.
+     * @param start Index of the first element of the tuple.
+     * @return The row of the tuple, or -1 if the tuple is not present.
+     */
+    public int find(final int[] tuples, final int start) {
+        final int mask = slots.length-1;
+        for(int slot = hash(tuples,start) & mask; slots[slot] != 0; slot = (slot+1) & mask) {
+            final int row = slots[slot]-1;
+            if(rowEquals(row,tuples,start))
+                return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the row of the given tuple, adding a new row at the end of the index if the tuple isn't present.
+     * @param tuple Tuple to find.  Only the first getTupleLength() entries are examined, and they are copied.
+     * @return The row of the tuple.
+     */
+    public int findOrAdd(final int[] tuple) {
+        return findOrAdd(tuple,0);
+    }
+
+    /**
+     * Finds the row of the tuple stored at the given position of a larger array, adding a new row at the end
+     * of the index if the tuple isn't present.
+     * @param tuples Array containing the tuple to find.  The tuple is copied if added.
+     * @param start Index of the first element of the tuple.
+     * @return The row of the tuple.
+     */
+    public int findOrAdd(final int[] tuples, final int start) {
+        final int mask = slots.length-1;
+        int slot = hash(tuples,start) & mask;
+        for(; slots[slot] != 0; slot = (slot+1) & mask) {
+            final int row = slots[slot]-1;
+            if(rowEquals(row,tuples,start))
+                return row;
+        }
+
+        final int row = size;
+        if((row+1)*tupleLength > this.tuples.length) {
+            final int newRowCapacity = Math.max(Math.max(2*(this.tuples.length/tupleLength),initialRowCapacity),row+1);
+            this.tuples = Arrays.copyOf(this.tuples,newRowCapacity*tupleLength);
+            ensureRowCapacity(newRowCapacity);
+        }
+        System.arraycopy(tuples,start,this.tuples,row*tupleLength,tupleLength);
+        size++;
+
+        if(size > slots.length*MAX_LOAD_FACTOR)
+            rehash(slots.length*2);
+        else
+            slots[slot] = row+1;
+
+        return row;
+    }
+
+    /**
+     * Gets one element of the tuple stored in the given row.
+     * @param row Row to inspect.
+     * @param position Position within the tuple.
+     * @return The element at the given position.
+     */
+    public int get(final int row, final int position) {
+        return tuples[row*tupleLength+position];
+    }
+
+    /**
+     * Copies the tuple stored in the given row into the given array.
+     * @param row Row to inspect.
+     * @param tuple Destination for the tuple; must hold at least getTupleLength() elements.
+     * @return The destination array.
+     */
+    public int[] getTuple(final int row, final int[] tuple) {
+        System.arraycopy(tuples,row*tupleLength,tuple,0,tupleLength);
+        return tuple;
+    }
+
+    /**
+     * Called whenever the index grows, including before the first row is added.  Subclasses storing data
+     * in parallel arrays should grow them to at least the given capacity.
+     * @param rowCapacity Number of rows which must fit in any per-row array.
+     */
+    protected void ensureRowCapacity(final int rowCapacity) {
+    }
+
+    private boolean rowEquals(final int row, final int[] tuple, final int start) {
+        final int rowStart = row*tupleLength;
+        for(int i = 0; i < tupleLength; i++) {
+            if(tuples[rowStart+i] != tuple[start+i])
+                return false;
+        }
+        return true;
+    }
+
+    private int hash(final int[] tuple, final int start) {
+        int hash = 0;
+        for(int i = 0; i < tupleLength; i++)
+            hash = 31*hash + tuple[start+i];
+        // Spread the bits so that tuples differing only in their last element don't cluster.
+        hash ^= (hash >>> 16);
+        hash *= 0x85ebca6b;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+
+    private void rehash(final int slotCount) {
+        slots = new int[slotCount];
+        final int mask = slotCount-1;
+        for(int row = 0; row < size; row++) {
+            int slot = hash(tuples,row*tupleLength) & mask;
+            while(slots[slot] != 0)
+                slot = (slot+1) & mask;
+            slots[slot] = row+1;
+        }
+    }
+
+    private static int slotCountFor(final int rowCapacity) {
+        int slotCount = 2;
+        while(slotCount*MAX_LOAD_FACTOR < rowCapacity)
+            slotCount <<= 1;
+        return slotCount;
+    }
+}
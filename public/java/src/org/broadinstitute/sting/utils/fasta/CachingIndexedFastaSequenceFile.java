@@ -29,18 +29,24 @@ import net.sf.picard.reference.FastaSequenceIndex;
 import net.sf.picard.reference.IndexedFastaSequenceFile;
 import net.sf.picard.reference.ReferenceSequence;
 import net.sf.samtools.SAMSequenceRecord;
-import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A caching version of the IndexedFastaSequenceFile that avoids going to disk as often as the raw indexer.
  *
- * Thread-safe!  Uses a lock object to protect write and access to the cache.
+ * Reference bases are cached in fixed-size pages shared by all threads.  Pages are spread across a number
+ * of independently locked stripes, each of which evicts its least recently used page when full, so that
+ * threads working on different parts of the genome rarely contend for the same lock.
+ *
+ * Thread-safe!
  */
-public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
+public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile implements CachingIndexedFastaSequenceFileMBean {
     /** global enable flag */
     private static final boolean USE_CACHE = true;
 
@@ -50,37 +56,55 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     /** If we are printing efficiency info, what frequency should we do it at? */
     private static final int PRINT_FREQUENCY = 10000;
 
-    /** The default cache size in bp */
+    /** The default page size in bp */
     private static final long DEFAULT_CACHE_SIZE = 1000000;
 
+    /** The default number of pages to keep in memory at once */
+    private static final int DEFAULT_MAX_CACHED_PAGES = 16;
+
+    /** The maximum number of independently locked stripes */
+    private static final int MAX_STRIPES = 16;
+
     // information about checking efficiency
-    long cacheHits = 0;
-    long cacheMisses = 0;
+    private final AtomicLong cacheHits = new AtomicLong(0);
+    private final AtomicLong cacheMisses = new AtomicLong(0);
 
-    /** The cache size of this CachingIndexedFastaSequenceFile */
-    long cacheSize = DEFAULT_CACHE_SIZE;
+    /** The page size of this CachingIndexedFastaSequenceFile */
+    private long cacheSize = DEFAULT_CACHE_SIZE;
 
-    /** When we have a cache miss at position X, we load sequence from X - cacheMissBackup */
-    long cacheMissBackup = 100;
+    /** The stripes holding the cached pages.  The number of stripes is always a power of two. */
+    private CacheStripe[] stripes;
 
-    /** Represents a specific cached sequence, with a specific start and stop, as well as the bases */
-    private static class Cache {
-        long start = -1, stop = -1;
-        ReferenceSequence seq = null;
-    }
+    /**
+     * A least-recently-used collection of cached pages, keyed by contig index and page number.
+     * All access must be synchronized on the stripe itself.
+     */
+    private static class CacheStripe extends LinkedHashMap<Long,ReferenceSequence> {
+        private static final long serialVersionUID = 1L;
 
-    private ThreadLocal<Cache> cache;
+        private final int capacity;
 
-    {
-        resetThreadLocalCache();
+        public CacheStripe(final int capacity) {
+            super(capacity*2,0.75f,true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long,ReferenceSequence> eldest) {
+            return size() > capacity;
+        }
     }
 
-    protected void resetThreadLocalCache() {
-        cache = new ThreadLocal<Cache> () {
-            @Override protected Cache initialValue() {
-                return new Cache();
-            }
-        };
+    /**
+     * Same as general constructor but allows one to override the default page size and page count
+     * @param file
+     * @param index
+     * @param cacheSize the size of each cached page, in bp
+     * @param maxCachedPages the maximum number of pages to keep in memory at once
+     */
+    public CachingIndexedFastaSequenceFile(final File file, final FastaSequenceIndex index, long cacheSize, int maxCachedPages) {
+        super(file, index);
+        setCacheSize(cacheSize, maxCachedPages);
     }
 
     /**
@@ -90,13 +114,22 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      * @param cacheSize
      */
     public CachingIndexedFastaSequenceFile(final File file, final FastaSequenceIndex index, long cacheSize) {
-        super(file, index);
-        setCacheSize(cacheSize);
+        this(file, index, cacheSize, DEFAULT_MAX_CACHED_PAGES);
     }
 
-    private void setCacheSize(long cacheSize) {
+    private void setCacheSize(long cacheSize, int maxCachedPages) {
+        if ( maxCachedPages < 1 )
+            throw new IllegalArgumentException("Reference cache must hold at least one page; requested " + maxCachedPages);
         this.cacheSize = cacheSize;
-        this.cacheMissBackup = Math.max(cacheSize / 1000, 1);
+
+        int numStripes = 1;
+        while ( numStripes*2 <= Math.min(maxCachedPages, MAX_STRIPES) )
+            numStripes *= 2;
+        final int pagesPerStripe = (maxCachedPages + numStripes - 1) / numStripes;
+
+        stripes = new CacheStripe[numStripes];
+        for ( int i = 0; i < numStripes; i++ )
+            stripes[i] = new CacheStripe(pagesPerStripe);
     }
 
     /**
@@ -118,29 +151,50 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
     }
 
     public CachingIndexedFastaSequenceFile(final File file, long cacheSize ) throws FileNotFoundException {
+        this(file, cacheSize, DEFAULT_MAX_CACHED_PAGES);
+    }
+
+    public CachingIndexedFastaSequenceFile(final File file, long cacheSize, int maxCachedPages ) throws FileNotFoundException {
         super(file);
-        setCacheSize(cacheSize);
+        setCacheSize(cacheSize, maxCachedPages);
     }
 
     public void printEfficiency() {
         // comment out to disable tracking
-        if ( (cacheHits + cacheMisses) % PRINT_FREQUENCY == 0 ) {
-            System.out.printf("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%%n", cacheHits, cacheMisses, calcEfficiency());
+        if ( (getCacheHits() + getCacheMisses()) % PRINT_FREQUENCY == 0 ) {
+            System.out.printf("### CachingIndexedFastaReader: hits=%d misses=%d efficiency %.6f%%%n", getCacheHits(), getCacheMisses(), calcEfficiency());
         }
     }
 
     public double calcEfficiency() {
-        return 100.0 * cacheHits / (cacheMisses + cacheHits * 1.0);
+        return 100.0 * getCacheHits() / (getCacheMisses() + getCacheHits() * 1.0);
     }
 
     public long getCacheHits() {
-        return cacheHits;
+        return cacheHits.get();
     }
 
     public long getCacheMisses() {
-        return cacheMisses;
+        return cacheMisses.get();
+    }
+
+    public double getCacheEfficiency() {
+        return calcEfficiency();
+    }
+
+    public long getPageSize() {
+        return cacheSize;
     }
 
+    public int getCachedPageCount() {
+        int cachedPages = 0;
+        for ( CacheStripe stripe : stripes ) {
+            synchronized (stripe) {
+                cachedPages += stripe.size();
+            }
+        }
+        return cachedPages;
+    }
 
     /**
      * Gets the subsequence of the contig in the range [start,stop]
@@ -151,11 +205,10 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
      */
     public ReferenceSequence getSubsequenceAt( String contig, long start, long stop ) {
         ReferenceSequence result;
-        Cache myCache = cache.get();
-        //System.out.printf("getSubsequentAt cache=%s%n", myCache);
 
-        if ( ! USE_CACHE || (stop - start) >= cacheSize ) {
-            cacheMisses++;
+        // empty queries (stop == start-1) touch no page, so leave them to the uncached reader as well
+        if ( ! USE_CACHE || (stop - start) >= cacheSize || start < 1 || stop < start ) {
+            cacheMisses.incrementAndGet();
             result = super.getSubsequenceAt(contig, start, stop);
         } else {
             // todo -- potential optimization is to check if contig.name == contig, as this in generally will be true
@@ -164,26 +217,39 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
             if (stop > contigInfo.getSequenceLength())
                 throw new PicardException("Query asks for data past end of contig");
 
-            if ( start < myCache.start || stop > myCache.stop || myCache.seq == null || myCache.seq.getContigIndex() != contigInfo.getSequenceIndex() ) {
-                cacheMisses++;
-                myCache.start = Math.max(start - cacheMissBackup, 0);
-                myCache.stop  = Math.min(myCache.start + cacheSize, contigInfo.getSequenceLength());
-                myCache.seq   = super.getSubsequenceAt(contig, myCache.start, myCache.stop);
-                //System.out.printf("New cache at %s %d-%d%n", contig, cacheStart, cacheStop);
-            } else {
-                cacheHits++;
-            }
+            // the query is shorter than a page, so it touches at most two adjacent pages
+            final long firstPage = (start - 1) / cacheSize;
+            final long lastPage = (stop - 1) / cacheSize;
+            boolean hit = true;
 
-            // at this point we determine where in the cache we want to extract the requested subsequence
-            int cacheOffsetStart = (int)(start - myCache.start);
-            int cacheOffsetStop = (int)(stop - start + cacheOffsetStart + 1);
+            ReferenceSequence first = getCachedPage(contigInfo, firstPage);
+            if ( first == null ) {
+                hit = false;
+                first = loadPage(contigInfo, firstPage);
+            }
 
-            try {
-                result = new ReferenceSequence(myCache.seq.getName(), myCache.seq.getContigIndex(), Arrays.copyOfRange(myCache.seq.getBases(), cacheOffsetStart, cacheOffsetStop));
-            } catch ( ArrayIndexOutOfBoundsException e ) {
-                throw new ReviewedStingException(String.format("BUG: bad array indexing.  Cache start %d and end %d, request start %d end %d, offset start %d and end %d, base size %d",
-                        myCache.start, myCache.stop, start, stop, cacheOffsetStart, cacheOffsetStop, myCache.seq.getBases().length), e);
+            final int length = (int)(stop - start + 1);
+            final int firstOffset = (int)(start - 1 - firstPage * cacheSize);
+            if ( firstPage == lastPage ) {
+                result = new ReferenceSequence(first.getName(), first.getContigIndex(), Arrays.copyOfRange(first.getBases(), firstOffset, firstOffset + length));
+            } else {
+                ReferenceSequence last = getCachedPage(contigInfo, lastPage);
+                if ( last == null ) {
+                    hit = false;
+                    last = loadPage(contigInfo, lastPage);
+                }
+
+                final byte[] bases = new byte[length];
+                final int basesFromFirst = first.getBases().length - firstOffset;
+                System.arraycopy(first.getBases(), firstOffset, bases, 0, basesFromFirst);
+                System.arraycopy(last.getBases(), 0, bases, basesFromFirst, length - basesFromFirst);
+                result = new ReferenceSequence(first.getName(), first.getContigIndex(), bases);
             }
+
+            if ( hit )
+                cacheHits.incrementAndGet();
+            else
+                cacheMisses.incrementAndGet();
         }
 
 //        // comment out to disable testing
@@ -194,4 +260,53 @@ public class CachingIndexedFastaSequenceFile extends IndexedFastaSequenceFile {
         if ( PRINT_EFFICIENCY ) printEfficiency();
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Looks up the given page in the cache.
+     * @param contigInfo Contig to which the page belongs.
+     * @param page 0-based page number within the contig.
+     * @return The cached page, or null if it isn't present.
+     */
+    private ReferenceSequence getCachedPage( SAMSequenceRecord contigInfo, long page ) {
+        final long key = getPageKey(contigInfo, page);
+        final CacheStripe stripe = getStripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Reads the given page from disk and adds it to the cache.  The read happens outside of any lock, so two threads
+     * missing on the same page at the same time may both read it; the cache keeps whichever arrives last.
+     * @param contigInfo Contig to which the page belongs.
+     * @param page 0-based page number within the contig.
+     * @return The newly loaded page.
+     */
+    private ReferenceSequence loadPage( SAMSequenceRecord contigInfo, long page ) {
+        final long pageStart = page * cacheSize + 1;
+        final long pageStop = Math.min(pageStart + cacheSize - 1, contigInfo.getSequenceLength());
+        final ReferenceSequence bases = super.getSubsequenceAt(contigInfo.getSequenceName(), pageStart, pageStop);
+
+        final long key = getPageKey(contigInfo, page);
+        final CacheStripe stripe = getStripe(key);
+        synchronized (stripe) {
+            stripe.put(key, bases);
+        }
+        return bases;
+    }
+
+    private static long getPageKey( SAMSequenceRecord contigInfo, long page ) {
+        return ((long)contigInfo.getSequenceIndex() << 32) | page;
+    }
+
+    /**
+     * Neighboring pages are scrambled onto different stripes, so that threads working on nearby regions don't collide.
+     * @param key Page key.
+     * @return The stripe responsible for this key.
+     */
+    private CacheStripe getStripe( long key ) {
+        int hash = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        hash ^= (hash >>> 16);
+        return stripes[hash & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.broadinstitute.sting.utils.fasta;
+
+/**
+ * Exposes the reference cache's statistics through JMX.
+ */
+public interface CachingIndexedFastaSequenceFileMBean {
+    /**
+     * Gets the number of queries answered entirely from the cache.
+     * @return Number of cache hits.
+     */
+    public long getCacheHits();
+
+    /**
+     * Gets the number of queries which required a read from disk.
+     * @return Number of cache misses.
+     */
+    public long getCacheMisses();
+
+    /**
+     * Gets the percentage of queries answered entirely from the cache.
+     * @return Cache efficiency, as a percentage.
+     */
+    public double getCacheEfficiency();
+
+    /**
+     * Gets the size of each cached page.
+     * @return Page size, in bp.
+     */
+    public long getPageSize();
+
+    /**
+     * Gets the number of pages currently held in the cache.
+     * @return Number of cached pages.
+     */
+    public int getCachedPageCount();
+}
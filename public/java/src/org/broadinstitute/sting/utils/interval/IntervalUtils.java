@@ -180,12 +180,14 @@ public class IntervalUtils {
             return setOne;
         }
 
-        // else we're INTERSECTION, create two indexes into the lists
+        // else we're INTERSECTION, create two indexes into the lists, which must support fast random access
+        if (!(setOne instanceof RandomAccess)) setOne = new ArrayList<GenomeLoc>(setOne);
+        if (!(setTwo instanceof RandomAccess)) setTwo = new ArrayList<GenomeLoc>(setTwo);
         int iOne = 0;
         int iTwo = 0;
 
-        // our master list, since we can't guarantee removal time in a generic list
-        LinkedList<GenomeLoc> retList = new LinkedList<GenomeLoc>();
+        // our master list
+        List<GenomeLoc> retList = new ArrayList<GenomeLoc>();
 
         // merge the second into the first using the rule
         while (iTwo < setTwo.size() && iOne < setOne.size())
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.pileup2;
+
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.datasources.sample.Sample;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElementFilter;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+
+import java.util.*;
+
+/**
+ * A node in a tree-structured pileup.  Leaves (SamplePileup) hold the elements of a single sample; inner nodes
+ * (MultiSamplePileup) join any number of sub-pileups.  Pileups are immutable: filtering a pileup returns a view
+ * which shares the elements of the original and applies the filter on the fly, so creating a filtered pileup
+ * costs O(1) no matter how deep the pileup is.  Sizes and the other counts are computed on first use and cached,
+ * so that any pileup is scanned at most once to compute them.
+ *
+ * Everything which can be expressed in terms of iteration is implemented here.
+ */
+public abstract class AbstractTreePileup implements ReadBackedPileup {
+    protected final GenomeLoc loc;
+
+    /** Cached size of the pileup, or -1 if not yet computed. */
+    private int size = -1;
+
+    /** Cached number of deletions; valid only if size >= 0. */
+    private int nDeletions;
+
+    /** Cached number of MQ0 reads; valid only if size >= 0. */
+    private int nMQ0Reads;
+
+    protected AbstractTreePileup(GenomeLoc loc) {
+        this.loc = loc;
+    }
+
+    protected AbstractTreePileup(GenomeLoc loc, int size, int nDeletions, int nMQ0Reads) {
+        this.loc = loc;
+        this.size = size;
+        this.nDeletions = nDeletions;
+        this.nMQ0Reads = nMQ0Reads;
+    }
+
+    /**
+     * Creates a view of this pileup containing only those elements allowed by the filter.  Must not touch the elements.
+     * @param filter Filter to apply.
+     * @return A filtered view of this pileup.
+     */
+    protected abstract AbstractTreePileup createFilteredView(PileupElementFilter filter);
+
+    /**
+     * Creates a copy of this pileup containing only those elements whose positions are in the given set.  Positions
+     * count elements in leaf order, starting at firstPosition for the first element of this pileup.
+     * @param positions Positions of the elements to keep.
+     * @param firstPosition Position of the first element of this pileup.
+     * @return A pileup with the selected elements, or null if no element of this pileup was selected.
+     */
+    protected abstract AbstractTreePileup createSubsetPileup(NavigableSet<Integer> positions, int firstPosition);
+
+    /**
+     * Compute the size, number of deletions and number of MQ0 reads of this pileup.
+     * @return { size, nDeletions, nMQ0Reads }.
+     */
+    protected abstract int[] calculateCachedData();
+
+    private void ensureCachedData() {
+        if(size < 0) {
+            int[] cachedData = calculateCachedData();
+            nDeletions = cachedData[1];
+            nMQ0Reads = cachedData[2];
+            size = cachedData[0];
+        }
+    }
+
+    /**
+     * Counts the size, deletions and MQ0 reads of the given elements.
+     * @param elements Elements to count.
+     * @return { size, nDeletions, nMQ0Reads }.
+     */
+    protected static int[] countElements(Iterable<PileupElement> elements) {
+        int[] counts = new int[3];
+        for(PileupElement p: elements) {
+            counts[0]++;
+            if(p.isDeletion())
+                counts[1]++;
+            if(p.getRead().getMappingQuality() == 0)
+                counts[2]++;
+        }
+        return counts;
+    }
+
+    // Sample and read group selection depends on the shape of the tree, so is left to subclasses.
+
+    @Override
+    public abstract AbstractTreePileup getOverlappingFragmentFilteredPileup();
+
+    @Override
+    public abstract AbstractTreePileup getPileupForReadGroup(String readGroupId);
+
+    @Override
+    public abstract AbstractTreePileup getPileupForLane(String laneID);
+
+    @Override
+    public abstract AbstractTreePileup getPileupForSampleNames(Collection<String> sampleNames);
+
+    @Override
+    public abstract AbstractTreePileup getPileupForSampleName(String sampleName);
+
+    @Override
+    public abstract AbstractTreePileup getPileupForSample(Sample sample);
+
+    // --------------------------------------------------------
+    //
+    // Filtered views
+    //
+    // --------------------------------------------------------
+
+    @Override
+    public AbstractTreePileup getPileupWithoutDeletions() {
+        return createFilteredView(PileupElementFilters.NO_DELETIONS);
+    }
+
+    @Override
+    public AbstractTreePileup getPileupWithoutMappingQualityZeroReads() {
+        return createFilteredView(PileupElementFilters.NO_MAPPING_QUALITY_ZERO_READS);
+    }
+
+    @Override
+    public AbstractTreePileup getPositiveStrandPileup() {
+        return createFilteredView(PileupElementFilters.POSITIVE_STRAND);
+    }
+
+    @Override
+    public AbstractTreePileup getNegativeStrandPileup() {
+        return createFilteredView(PileupElementFilters.NEGATIVE_STRAND);
+    }
+
+    @Override
+    public AbstractTreePileup getFilteredPileup(PileupElementFilter filter) {
+        return createFilteredView(filter);
+    }
+
+    @Override
+    public AbstractTreePileup getBaseAndMappingFilteredPileup(int minBaseQ, int minMapQ) {
+        return createFilteredView(PileupElementFilters.baseAndMappingQuality(minBaseQ,minMapQ));
+    }
+
+    @Override
+    public AbstractTreePileup getBaseFilteredPileup(int minBaseQ) {
+        return getBaseAndMappingFilteredPileup(minBaseQ,-1);
+    }
+
+    @Override
+    public AbstractTreePileup getMappingFilteredPileup(int minMapQ) {
+        return getBaseAndMappingFilteredPileup(-1,minMapQ);
+    }
+
+    /**
+     * Returns a pileup randomly downsampled to the desiredCoverage.
+     * @param desiredCoverage Maximum number of elements to keep.
+     * @return This pileup if it is already small enough; otherwise a copy holding a random subset of the elements.
+     */
+    @Override
+    public AbstractTreePileup getDownsampledPileup(int desiredCoverage) {
+        if ( size() <= desiredCoverage )
+            return this;
+
+        // randomly choose numbers corresponding to positions in the reads list
+        TreeSet<Integer> positions = new TreeSet<Integer>();
+        for ( int i = 0; i < desiredCoverage; /* no update */ ) {
+            if ( positions.add(GenomeAnalysisEngine.getRandomGenerator().nextInt(size())) )
+                i++;
+        }
+
+        return createSubsetPileup(positions,0);
+    }
+
+    // --------------------------------------------------------
+    //
+    // Read group and sample queries
+    //
+    // --------------------------------------------------------
+
+    @Override
+    public Collection<String> getReadGroups() {
+        Set<String> readGroups = new HashSet<String>();
+        for(PileupElement pileupElement: this)
+            readGroups.add(pileupElement.getRead().getReadGroup().getReadGroupId());
+        return readGroups;
+    }
+
+    // --------------------------------------------------------
+    //
+    // Cached counts
+    //
+    // --------------------------------------------------------
+
+    @Override
+    public int getNumberOfDeletions() {
+        ensureCachedData();
+        return nDeletions;
+    }
+
+    @Override
+    public int getNumberOfMappingQualityZeroReads() {
+        ensureCachedData();
+        return nMQ0Reads;
+    }
+
+    @Override
+    public int size() {
+        ensureCachedData();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public GenomeLoc getLocation() {
+        return loc;
+    }
+
+    // --------------------------------------------------------
+    //
+    // Convenience functions that may be slow
+    //
+    // --------------------------------------------------------
+
+    @Override
+    public int[] getBaseCounts() {
+        int[] counts = new int[4];
+        for ( PileupElement pile : this ) {
+            // skip deletion sites
+            if ( ! pile.isDeletion() ) {
+                int index = BaseUtils.simpleBaseToBaseIndex(pile.getBase());
+                if (index != -1)
+                    counts[index]++;
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public String getPileupString(Character ref) {
+        return String.format("%s %s %c %s %s",
+                getLocation().getContig(), getLocation().getStart(),    // chromosome name and coordinate
+                ref,                                                     // reference base
+                new String(getBases()),
+                quals2String(getQuals()));
+    }
+
+    @Override
+    public List<SAMRecord> getReads() {
+        List<SAMRecord> reads = new ArrayList<SAMRecord>(size());
+        for ( PileupElement pile : this ) { reads.add(pile.getRead()); }
+        return reads;
+    }
+
+    @Override
+    public List<Integer> getOffsets() {
+        List<Integer> offsets = new ArrayList<Integer>(size());
+        for ( PileupElement pile : this ) { offsets.add(pile.getOffset()); }
+        return offsets;
+    }
+
+    @Override
+    public byte[] getBases() {
+        byte[] v = new byte[size()];
+        int pos = 0;
+        for ( PileupElement pile : this ) { v[pos++] = pile.getBase(); }
+        return v;
+    }
+
+    @Override
+    public byte[] getQuals() {
+        byte[] v = new byte[size()];
+        int pos = 0;
+        for ( PileupElement pile : this ) { v[pos++] = pile.getQual(); }
+        return v;
+    }
+
+    @Override
+    public byte[] getMappingQuals() {
+        byte[] v = new byte[size()];
+        int pos = 0;
+        for ( PileupElement pile : this ) { v[pos++] = (byte)pile.getRead().getMappingQuality(); }
+        return v;
+    }
+
+    private static String quals2String( byte[] quals ) {
+        StringBuilder qualStr = new StringBuilder();
+        for ( int qual : quals ) {
+            qual = Math.min(qual, 63);
+            qualStr.append((char) (33 + qual));
+        }
+        return qualStr.toString();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.pileup2;
+
+import net.sf.picard.util.PeekableIterator;
+import org.broadinstitute.sting.gatk.datasources.sample.Sample;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElementFilter;
+
+import java.util.*;
+
+/**
+ * An inner node of a tree-structured pileup, joining the pileups of several samples.  Filtered views share the
+ * children of the original and filter each child only when it is first asked for, so the cost of filtering is paid
+ * only for the samples which are actually examined.
+ */
+public class MultiSamplePileup extends AbstractTreePileup {
+    /** The sub-pileups of this node, before filtering.  Never modified. */
+    private final AbstractTreePileup[] children;
+
+    /** Filter through which the children are seen, or null to see them unfiltered. */
+    private final PileupElementFilter filter;
+
+    /** Filtered views of the children, created on demand.  Null if no filter is applied. */
+    private final AbstractTreePileup[] filteredChildren;
+
+    /** Index of the child holding each sample, created on demand. */
+    private Map<String,Integer> childIndicesBySampleName = null;
+
+    /**
+     * Create a new pileup joining the given sub-pileups.  Each sample must appear in at most one sub-pileup.
+     * @param loc Location of the pileup.
+     * @param children Sub-pileups, in the order in which they should be traversed.
+     */
+    public MultiSamplePileup(GenomeLoc loc, Collection<? extends AbstractTreePileup> children) {
+        this(loc,children.toArray(new AbstractTreePileup[children.size()]),null);
+    }
+
+    private MultiSamplePileup(GenomeLoc loc, AbstractTreePileup[] children, PileupElementFilter filter) {
+        super(loc);
+        for(AbstractTreePileup child: children) {
+            if(child == null)
+                throw new ReviewedStingException("Illegal null sub-pileup in MultiSamplePileup");
+        }
+        this.children = children;
+        this.filter = filter;
+        this.filteredChildren = filter != null ? new AbstractTreePileup[children.length] : null;
+    }
+
+    /**
+     * Gets the number of sub-pileups joined by this pileup.
+     * @return Number of children.
+     */
+    public int getNumberOfChildren() {
+        return children.length;
+    }
+
+    /**
+     * Gets the given sub-pileup, with this pileup's filter applied.
+     * @param index Index of the sub-pileup.
+     * @return The sub-pileup.
+     */
+    public AbstractTreePileup getChild(int index) {
+        if(filter == null)
+            return children[index];
+        if(filteredChildren[index] == null)
+            filteredChildren[index] = children[index].createFilteredView(filter);
+        return filteredChildren[index];
+    }
+
+    @Override
+    protected MultiSamplePileup createFilteredView(PileupElementFilter filter) {
+        return new MultiSamplePileup(loc,children,PileupElementFilters.and(this.filter,filter));
+    }
+
+    @Override
+    protected MultiSamplePileup createSubsetPileup(NavigableSet<Integer> positions, int firstPosition) {
+        List<AbstractTreePileup> subsets = new ArrayList<AbstractTreePileup>();
+        int position = firstPosition;
+        for(int i = 0; i < children.length; i++) {
+            AbstractTreePileup child = getChild(i);
+            AbstractTreePileup subset = child.createSubsetPileup(positions,position);
+            if(subset != null)
+                subsets.add(subset);
+            position += child.size();
+        }
+        return !subsets.isEmpty() ? new MultiSamplePileup(loc,subsets) : null;
+    }
+
+    @Override
+    protected int[] calculateCachedData() {
+        int[] counts = new int[3];
+        for(int i = 0; i < children.length; i++) {
+            AbstractTreePileup child = getChild(i);
+            counts[0] += child.size();
+            counts[1] += child.getNumberOfDeletions();
+            counts[2] += child.getNumberOfMappingQualityZeroReads();
+        }
+        return counts;
+    }
+
+    @Override
+    public MultiSamplePileup getOverlappingFragmentFilteredPileup() {
+        List<AbstractTreePileup> filtered = new ArrayList<AbstractTreePileup>(children.length);
+        for(int i = 0; i < children.length; i++)
+            filtered.add(getChild(i).getOverlappingFragmentFilteredPileup());
+        return new MultiSamplePileup(loc,filtered);
+    }
+
+    @Override
+    public MultiSamplePileup getPileupForReadGroup(String readGroupId) {
+        List<AbstractTreePileup> filtered = new ArrayList<AbstractTreePileup>();
+        for(int i = 0; i < children.length; i++) {
+            AbstractTreePileup pileup = getChild(i).getPileupForReadGroup(readGroupId);
+            if(pileup != null)
+                filtered.add(pileup);
+        }
+        return !filtered.isEmpty() ? new MultiSamplePileup(loc,filtered) : null;
+    }
+
+    @Override
+    public MultiSamplePileup getPileupForLane(String laneID) {
+        List<AbstractTreePileup> filtered = new ArrayList<AbstractTreePileup>();
+        for(int i = 0; i < children.length; i++) {
+            AbstractTreePileup pileup = getChild(i).getPileupForLane(laneID);
+            if(pileup != null)
+                filtered.add(pileup);
+        }
+        return !filtered.isEmpty() ? new MultiSamplePileup(loc,filtered) : null;
+    }
+
+    @Override
+    public Collection<Sample> getSamples() {
+        List<Sample> samples = new ArrayList<Sample>();
+        for(AbstractTreePileup child: children)
+            samples.addAll(child.getSamples());
+        return samples;
+    }
+
+    @Override
+    public Collection<String> getSampleNames() {
+        List<String> sampleNames = new ArrayList<String>();
+        for(AbstractTreePileup child: children)
+            sampleNames.addAll(child.getSampleNames());
+        return sampleNames;
+    }
+
+    @Override
+    public MultiSamplePileup getPileupForSampleNames(Collection<String> sampleNames) {
+        List<AbstractTreePileup> selected = new ArrayList<AbstractTreePileup>();
+        for(int i = 0; i < children.length; i++) {
+            AbstractTreePileup pileup = getChild(i).getPileupForSampleNames(sampleNames);
+            if(pileup != null)
+                selected.add(pileup);
+        }
+        return !selected.isEmpty() ? new MultiSamplePileup(loc,selected) : null;
+    }
+
+    @Override
+    public AbstractTreePileup getPileupForSampleName(String sampleName) {
+        Integer childIndex = getChildIndicesBySampleName().get(sampleName);
+        return childIndex != null ? getChild(childIndex).getPileupForSampleName(sampleName) : null;
+    }
+
+    @Override
+    public AbstractTreePileup getPileupForSample(Sample sample) {
+        // A null sample selects the reads with no sample, as in ReadBackedPileup
+        Integer childIndex = getChildIndicesBySampleName().get(sample != null ? sample.getId() : null);
+        return childIndex != null ? getChild(childIndex).getPileupForSample(sample) : null;
+    }
+
+    private Map<String,Integer> getChildIndicesBySampleName() {
+        if(childIndicesBySampleName == null) {
+            Map<String,Integer> childIndices = new HashMap<String,Integer>();
+            for(int i = 0; i < children.length; i++) {
+                for(String sampleName: children[i].getSampleNames())
+                    childIndices.put(sampleName,i);
+            }
+            childIndicesBySampleName = childIndices;
+        }
+        return childIndicesBySampleName;
+    }
+
+    /**
+     * Merges the elements of the children, ordered by decreasing offset into the read.
+     * @return An iterator over all elements of this pileup.
+     */
+    @Override
+    public Iterator<PileupElement> iterator() {
+        if(children.length == 1)
+            return getChild(0).iterator();
+
+        final PriorityQueue<PeekableIterator<PileupElement>> childIterators =
+                new PriorityQueue<PeekableIterator<PileupElement>>(Math.max(1,children.length),new PileupElementIteratorComparator());
+        for(int i = 0; i < children.length; i++) {
+            Iterator<PileupElement> childIterator = getChild(i).iterator();
+            if(childIterator.hasNext())
+                childIterators.add(new PeekableIterator<PileupElement>(childIterator));
+        }
+
+        return new Iterator<PileupElement>() {
+            public boolean hasNext() {
+                return !childIterators.isEmpty();
+            }
+
+            public PileupElement next() {
+                PeekableIterator<PileupElement> currentIterator = childIterators.remove();
+                PileupElement current = currentIterator.next();
+                if(currentIterator.hasNext())
+                    childIterators.add(currentIterator);
+                return current;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("Cannot remove from a merging iterator.");
+            }
+        };
+    }
+
+    /**
+     * Compares two peekable iterators consisting of pileup elements.
+     */
+    private static class PileupElementIteratorComparator implements Comparator<PeekableIterator<PileupElement>> {
+        public int compare(PeekableIterator<PileupElement> lhs, PeekableIterator<PileupElement> rhs) {
+            return rhs.peek().getOffset() - lhs.peek().getOffset();
+        }
+    }
+}
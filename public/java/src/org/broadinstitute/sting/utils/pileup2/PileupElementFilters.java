@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.pileup2;
+
+import net.sf.samtools.SAMReadGroupRecord;
+import org.broadinstitute.sting.utils.pileup.ExtendedEventPileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElementFilter;
+
+/**
+ * The filters applied by the standard ReadBackedPileup views, plus a way of chaining filters together so that
+ * filtering an already-filtered pileup never nests more than one level deep.
+ */
+public final class PileupElementFilters {
+    private PileupElementFilters() {}
+
+    /**
+     * Creates a filter which allows only those elements allowed by both of the given filters.  Either filter may be null,
+     * in which case the other is returned.
+     * @param first Filter to apply first.
+     * @param second Filter to apply second.
+     * @return A filter equivalent to applying first, then second.
+     */
+    public static PileupElementFilter and(final PileupElementFilter first, final PileupElementFilter second) {
+        if(first == null)
+            return second;
+        if(second == null)
+            return first;
+        return new PileupElementFilter() {
+            public boolean allow(final PileupElement pileupElement) {
+                return first.allow(pileupElement) && second.allow(pileupElement);
+            }
+        };
+    }
+
+    /**
+     * Allows everything but deletions.
+     */
+    public static final PileupElementFilter NO_DELETIONS = new PileupElementFilter() {
+        public boolean allow(final PileupElement pileupElement) {
+            return !pileupElement.isDeletion();
+        }
+    };
+
+    /**
+     * Allows everything but reads with mapping quality zero.
+     */
+    public static final PileupElementFilter NO_MAPPING_QUALITY_ZERO_READS = new PileupElementFilter() {
+        public boolean allow(final PileupElement pileupElement) {
+            return pileupElement.getRead().getMappingQuality() > 0;
+        }
+    };
+
+    /**
+     * Allows only reads on the positive strand.
+     */
+    public static final PileupElementFilter POSITIVE_STRAND = new PileupElementFilter() {
+        public boolean allow(final PileupElement pileupElement) {
+            return !pileupElement.getRead().getReadNegativeStrandFlag();
+        }
+    };
+
+    /**
+     * Allows only reads on the negative strand.
+     */
+    public static final PileupElementFilter NEGATIVE_STRAND = new PileupElementFilter() {
+        public boolean allow(final PileupElement pileupElement) {
+            return pileupElement.getRead().getReadNegativeStrandFlag();
+        }
+    };
+
+    /**
+     * Allows bases with quality >= minBaseQ from reads with mapping quality >= minMapQ.  Deletions and extended
+     * elements without an event pass regardless of base quality.
+     * @param minBaseQ Minimum base quality.
+     * @param minMapQ Minimum mapping quality.
+     * @return The filter.
+     */
+    public static PileupElementFilter baseAndMappingQuality(final int minBaseQ, final int minMapQ) {
+        return new PileupElementFilter() {
+            public boolean allow(final PileupElement p) {
+                return p.getRead().getMappingQuality() >= minMapQ &&
+                        (p.isDeletion() ||
+                                ((p instanceof ExtendedEventPileupElement) && ((ExtendedEventPileupElement)p).getType() == ExtendedEventPileupElement.Type.NOEVENT) ||
+                                p.getQual() >= minBaseQ);
+            }
+        };
+    }
+
+    /**
+     * Allows only reads from the given read group.
+     * @param readGroupId Read group to keep.  If null, keeps only reads without a read group.
+     * @return The filter.
+     */
+    public static PileupElementFilter readGroup(final String readGroupId) {
+        return new PileupElementFilter() {
+            public boolean allow(final PileupElement p) {
+                SAMReadGroupRecord readGroup = p.getRead().getReadGroup();
+                if(readGroupId != null)
+                    return readGroup != null && readGroupId.equals(readGroup.getReadGroupId());
+                else
+                    return readGroup == null || readGroup.getReadGroupId() == null;
+            }
+        };
+    }
+
+    /**
+     * Allows only reads from the given lane, i.e. reads whose read group is either the lane itself or lane.sample.
+     * @param laneID Lane to keep.  If null, keeps only reads without a read group.
+     * @return The filter.
+     */
+    public static PileupElementFilter lane(final String laneID) {
+        return new PileupElementFilter() {
+            public boolean allow(final PileupElement p) {
+                SAMReadGroupRecord readGroup = p.getRead().getReadGroup();
+                if(laneID != null)
+                    return readGroup != null && (readGroup.getReadGroupId().startsWith(laneID + ".") || readGroup.getReadGroupId().equals(laneID));
+                else
+                    return readGroup == null || readGroup.getReadGroupId() == null;
+            }
+        };
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.pileup2;
+
+import org.broadinstitute.sting.gatk.datasources.sample.Sample;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElementFilter;
+
+import java.util.*;
+
+/**
+ * A leaf of a tree-structured pileup: the elements of a single sample, optionally seen through a filter.
+ * The element list is shared with every view created from this pileup, and must not be changed.
+ */
+public class SamplePileup extends AbstractTreePileup {
+    private final Sample sample;
+
+    /** All elements of this sample, before filtering.  Never modified. */
+    private final List<PileupElement> elements;
+
+    /** Filter through which elements are seen, or null to see all elements. */
+    private final PileupElementFilter filter;
+
+    /**
+     * Create a new pileup for the given sample.  Keeps a pointer to elements rather than making a copy.
+     * @param loc Location of the pileup.
+     * @param sample Sample from which all elements came.
+     * @param elements The elements of this pileup.
+     */
+    public SamplePileup(GenomeLoc loc, Sample sample, List<PileupElement> elements) {
+        this(loc,sample,elements,null);
+    }
+
+    /**
+     * Optimization of above constructor where all of the cached data is provided.
+     * @param loc Location of the pileup.
+     * @param sample Sample from which all elements came.
+     * @param elements The elements of this pileup.
+     * @param size Number of elements.
+     * @param nDeletions Number of deletions among the elements.
+     * @param nMQ0Reads Number of elements from reads with mapping quality zero.
+     */
+    public SamplePileup(GenomeLoc loc, Sample sample, List<PileupElement> elements, int size, int nDeletions, int nMQ0Reads) {
+        super(loc,size,nDeletions,nMQ0Reads);
+        validate(sample,elements);
+        this.sample = sample;
+        this.elements = elements;
+        this.filter = null;
+    }
+
+    private SamplePileup(GenomeLoc loc, Sample sample, List<PileupElement> elements, PileupElementFilter filter) {
+        super(loc);
+        validate(sample,elements);
+        this.sample = sample;
+        this.elements = elements;
+        this.filter = filter;
+    }
+
+    private static void validate(Sample sample, List<PileupElement> elements) {
+        if ( sample == null ) throw new ReviewedStingException("Illegal null sample in SamplePileup");
+        if ( elements == null ) throw new ReviewedStingException("Illegal null pileup in SamplePileup");
+    }
+
+    /**
+     * Gets the sample from which all elements of this pileup came.
+     * @return The sample.
+     */
+    public Sample getSample() {
+        return sample;
+    }
+
+    @Override
+    protected SamplePileup createFilteredView(PileupElementFilter filter) {
+        return new SamplePileup(loc,sample,elements,PileupElementFilters.and(this.filter,filter));
+    }
+
+    @Override
+    protected SamplePileup createSubsetPileup(NavigableSet<Integer> positions, int firstPosition) {
+        List<PileupElement> subset = new ArrayList<PileupElement>();
+        int position = firstPosition;
+        for(PileupElement p: this) {
+            if(positions.contains(position++))
+                subset.add(p);
+        }
+        return !subset.isEmpty() ? new SamplePileup(loc,sample,subset) : null;
+    }
+
+    @Override
+    protected int[] calculateCachedData() {
+        return countElements(this);
+    }
+
+    /**
+     * Returns a new pileup where only one read from an overlapping read pair is retained.  If the two reads
+     * in question disagree to their basecall, neither read is retained.  If they agree on the base, the read
+     * with the higher quality observation is retained.
+     * @return the newly filtered pileup
+     */
+    @Override
+    public SamplePileup getOverlappingFragmentFilteredPileup() {
+        Map<String,PileupElement> filteredPileup = new HashMap<String,PileupElement>();
+
+        for ( PileupElement p : this ) {
+            String readName = p.getRead().getReadName();
+
+            // if we've never seen this read before, life is good
+            if (!filteredPileup.containsKey(readName)) {
+                filteredPileup.put(readName, p);
+            } else {
+                PileupElement existing = filteredPileup.get(readName);
+
+                // if the reads disagree at this position, throw them both out.  Otherwise
+                // keep the element with the higher quality score
+                if (existing.getBase() != p.getBase()) {
+                    filteredPileup.remove(readName);
+                } else {
+                    if (existing.getQual() < p.getQual()) {
+                        filteredPileup.put(readName, p);
+                    }
+                }
+            }
+        }
+
+        return new SamplePileup(loc,sample,new ArrayList<PileupElement>(filteredPileup.values()));
+    }
+
+    @Override
+    public SamplePileup getPileupForReadGroup(String readGroupId) {
+        SamplePileup pileup = createFilteredView(PileupElementFilters.readGroup(readGroupId));
+        return !pileup.isEmpty() ? pileup : null;
+    }
+
+    @Override
+    public SamplePileup getPileupForLane(String laneID) {
+        SamplePileup pileup = createFilteredView(PileupElementFilters.lane(laneID));
+        return !pileup.isEmpty() ? pileup : null;
+    }
+
+    @Override
+    public Collection<Sample> getSamples() {
+        return Collections.singletonList(sample);
+    }
+
+    @Override
+    public Collection<String> getSampleNames() {
+        return Collections.singletonList(sample.getId());
+    }
+
+    @Override
+    public SamplePileup getPileupForSampleNames(Collection<String> sampleNames) {
+        return sampleNames.contains(sample.getId()) ? this : null;
+    }
+
+    @Override
+    public SamplePileup getPileupForSampleName(String sampleName) {
+        return sampleName != null ? (sampleName.equals(sample.getId()) ? this : null) : (sample.getId() == null ? this : null);
+    }
+
+    @Override
+    public SamplePileup getPileupForSample(Sample sample) {
+        return sample != null ? (this.sample.equals(sample) ? this : null) : getPileupForSampleName(null);
+    }
+
+    @Override
+    public Iterator<PileupElement> iterator() {
+        final Iterator<PileupElement> wrappedIterator = elements.iterator();
+        if(filter == null) {
+            return new Iterator<PileupElement>() {
+                public boolean hasNext() { return wrappedIterator.hasNext(); }
+                public PileupElement next() { return wrappedIterator.next(); }
+                public void remove() { throw new UnsupportedOperationException("Cannot remove from a pileup element iterator"); }
+            };
+        }
+
+        return new Iterator<PileupElement>() {
+            private PileupElement next = advance();
+
+            private PileupElement advance() {
+                while(wrappedIterator.hasNext()) {
+                    PileupElement candidate = wrappedIterator.next();
+                    if(filter.allow(candidate))
+                        return candidate;
+                }
+                return null;
+            }
+
+            public boolean hasNext() { return next != null; }
+
+            public PileupElement next() {
+                if(next == null)
+                    throw new NoSuchElementException("No more elements in pileup");
+                PileupElement current = next;
+                next = advance();
+                return current;
+            }
+
+            public void remove() { throw new UnsupportedOperationException("Cannot remove from a pileup element iterator"); }
+        };
+    }
+}
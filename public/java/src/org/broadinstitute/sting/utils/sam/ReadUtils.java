@@ -158,7 +158,16 @@ public class ReadUtils {
         return state;
     }
 
-    private static Pair<Integer, Integer> getAdaptorBoundaries(SAMRecord rec, int adaptorLength) {
+    /**
+     * Finds the reference positions spanned by the adaptor sequence that a paired read would run into if its
+     * insert were shorter than the read.  The boundaries depend only on the read, so callers testing many
+     * positions of the same read can compute them once.
+     *
+     * @param rec  the read
+     * @param adaptorLength  length of adaptor sequence
+     * @return the first and last reference positions of the adaptor, or null for reads without an insert size
+     */
+    public static Pair<Integer, Integer> getAdaptorBoundaries(SAMRecord rec, int adaptorLength) {
         int isize = rec.getInferredInsertSize();
         if ( isize == 0 )
             return null; // don't worry about unmapped pairs
@@ -501,6 +510,10 @@ public class ReadUtils {
         return readPairBaseOverlapType(rec, basePos, DEFAULT_ADAPTOR_SIZE);
     }
 
+    public static Pair<Integer, Integer> getAdaptorBoundaries(final SAMRecord rec) {
+        return getAdaptorBoundaries(rec, DEFAULT_ADAPTOR_SIZE);
+    }
+
     public static boolean is454Read(SAMRecord read) {
         return isPlatformRead(read, "454");
     }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.threading;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a running account of how much wall-clock time each worker thread has spent
+ * doing useful work.  Idle time is everything else since the tracker was started.
+ */
+public class ThreadUtilizationTracker {
+    /**
+     * Busy time per thread, in the order in which the threads first reported.
+     */
+    private final Map<Thread,Long> busyTimeByThread = new LinkedHashMap<Thread,Long>();
+
+    /**
+     * When did the tracker start counting?
+     */
+    private long startTime = System.currentTimeMillis();
+
+    /**
+     * Reset all counters and start the idle clock from now.
+     */
+    public synchronized void start() {
+        busyTimeByThread.clear();
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Attribute the given amount of busy time to the calling thread.
+     * @param busyTimeMillis Elapsed time, in milliseconds, spent working.
+     */
+    public void addBusyTime(long busyTimeMillis) {
+        addBusyTime(Thread.currentThread(),busyTimeMillis);
+    }
+
+    /**
+     * Attribute the given amount of busy time to the given thread.
+     * @param thread Thread which performed the work.
+     * @param busyTimeMillis Elapsed time, in milliseconds, spent working.
+     */
+    public synchronized void addBusyTime(Thread thread, long busyTimeMillis) {
+        Long busyTime = busyTimeByThread.get(thread);
+        busyTimeByThread.put(thread,(busyTime != null ? busyTime : 0L) + busyTimeMillis);
+    }
+
+    /**
+     * Gets the names of all threads which have reported work, in the order they first reported.
+     * @return Names of the threads.  Indices match getBusyTimeMillis() and getIdleTimeMillis().
+     */
+    public synchronized String[] getThreadNames() {
+        String[] names = new String[busyTimeByThread.size()];
+        int i = 0;
+        for(Thread thread: busyTimeByThread.keySet())
+            names[i++] = thread.getName();
+        return names;
+    }
+
+    /**
+     * Gets the total busy time of each thread.
+     * @return Busy time per thread, in milliseconds.
+     */
+    public synchronized long[] getBusyTimeMillis() {
+        long[] busyTimes = new long[busyTimeByThread.size()];
+        int i = 0;
+        for(long busyTime: busyTimeByThread.values())
+            busyTimes[i++] = busyTime;
+        return busyTimes;
+    }
+
+    /**
+     * Gets the total idle time of each thread, computed as the time elapsed since start() less the busy time.
+     * @return Idle time per thread, in milliseconds.
+     */
+    public synchronized long[] getIdleTimeMillis() {
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        long[] idleTimes = new long[busyTimeByThread.size()];
+        int i = 0;
+        for(long busyTime: busyTimeByThread.values())
+            idleTimes[i++] = Math.max(elapsedTime-busyTime,0L);
+        return idleTimes;
+    }
+}
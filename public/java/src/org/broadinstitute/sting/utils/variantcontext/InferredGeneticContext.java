@@ -1,6 +1,8 @@
 package org.broadinstitute.sting.utils.variantcontext;
 
 
+import org.broadinstitute.sting.utils.codecs.vcf.LazyVCFInfoMap;
+
 import java.util.*;
 
 
@@ -34,7 +36,9 @@ public final class InferredGeneticContext {
         setNegLog10PError(negLog10PError);
         if ( filters != null )
             setFilters(filters);
-        if ( attributes != null )
+        if ( attributes instanceof LazyVCFInfoMap )
+            this.attributes = (LazyVCFInfoMap)attributes; // take over the codec's map; copying it would decode it
+        else if ( attributes != null )
             setAttributes(attributes);
     }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.providers;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.arguments.GATKArgumentCollection;
+import org.broadinstitute.sting.gatk.datasources.reads.SAMReaderID;
+import org.broadinstitute.sting.gatk.filters.ReadFilter;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
+import org.broadinstitute.sting.gatk.walkers.qc.CountRodByRefWalker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Times a CountRodByRef traversal of the whole reference with the given ROD bound under several track names, which
+ * is how the locus walkers that consult dbSNP, comps and masks at every locus see reference-ordered data.  The
+ * amortized per-locus cost of the ROD system is the difference between a run with tracks and the run with none,
+ * divided by the length of the reference.
+ */
+public class RodTraversalBenchmark extends SimpleBenchmark {
+    @Param
+    private String referenceFile;
+
+    @Param
+    private String rodFile;
+
+    @Param({"VCF"})
+    private String rodType;
+
+    @Param({"0", "1", "4"})
+    private int tracks;
+
+    public void timeCountRodByRef(final int reps) {
+        for(int i = 0; i < reps; i++) {
+            GenomeAnalysisEngine engine = new GenomeAnalysisEngine();
+
+            GATKArgumentCollection argCollection = new GATKArgumentCollection();
+            argCollection.referenceFile = new File(referenceFile);
+            engine.setArguments(argCollection);
+            engine.setSAMFileIDs(Collections.<SAMReaderID>emptyList());
+            engine.setFilters(Collections.<ReadFilter>emptyList());
+
+            List<RMDTriplet> triplets = new ArrayList<RMDTriplet>();
+            for(int track = 0; track < tracks; track++)
+                triplets.add(new RMDTriplet("rod"+track,rodType,rodFile,RMDTriplet.RMDStorageType.FILE,new Tags()));
+            engine.setReferenceMetaDataFiles(triplets);
+
+            engine.setWalker(new CountRodByRefWalker());
+            engine.execute();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import com.google.caliper.Param;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measures the cost of building and walking BAM schedules held in memory versus written to the temp directory.
+ */
+public class BAMScheduleBenchmark extends ReadProcessingBenchmark {
+    @Param
+    private String bamFile;
+
+    @Param
+    private Integer maxReads;
+
+    /**
+     * Number of readers to schedule simultaneously.  All readers share the same index.
+     */
+    @Param({"1","100"})
+    private int numReaders;
+
+    @Param
+    private ScheduleStorage storage;
+
+    @Override
+    public String getBAMFile() { return bamFile; }
+
+    @Override
+    public Integer getMaxReads() { return maxReads; }
+
+    private Map<SAMReaderID,GATKBAMIndex> indices;
+    private List<List<GenomeLoc>> intervalsByContig;
+
+    @Override
+    public void setUp() {
+        super.setUp();
+
+        SAMFileReader reader = new SAMFileReader(inputFile);
+        GenomeLocParser genomeLocParser = new GenomeLocParser(reader.getFileHeader().getSequenceDictionary());
+        intervalsByContig = new ArrayList<List<GenomeLoc>>();
+        for(SAMSequenceRecord sequence: reader.getFileHeader().getSequenceDictionary().getSequences())
+            intervalsByContig.add(Collections.singletonList(genomeLocParser.createGenomeLoc(sequence.getSequenceName(),1,sequence.getSequenceLength())));
+        reader.close();
+
+        // The temporary BAM's index is written alongside it, with the .bam extension replaced.
+        String inputPath = inputFile.getAbsolutePath();
+        GATKBAMIndex index = new GATKBAMIndex(new File(inputPath.substring(0,inputPath.length()-".bam".length())+".bai"));
+        indices = new HashMap<SAMReaderID,GATKBAMIndex>();
+        for(int i = 0; i < numReaders; i++)
+            indices.put(new SAMReaderID("reader"+i,new Tags()),index);
+    }
+
+    public void timeBuildAndIterateSchedule(int reps) {
+        for(int i = 0; i < reps; i++) {
+            for(List<GenomeLoc> intervals: intervalsByContig) {
+                BAMSchedule schedule = new BAMSchedule(indices,intervals,storage.getSpillThreshold());
+                while(schedule.hasNext())
+                    schedule.next();
+                schedule.close();
+            }
+        }
+    }
+
+    private enum ScheduleStorage {
+        IN_MEMORY {
+            @Override
+            long getSpillThreshold() { return Integer.MAX_VALUE; }
+        },
+        ON_DISK {
+            @Override
+            long getSpillThreshold() { return 0; }
+        };
+        abstract long getSpillThreshold();
+    }
+}
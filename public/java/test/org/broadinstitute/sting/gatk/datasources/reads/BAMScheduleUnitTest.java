@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.SAMFileReader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Tests that BAM schedules come out the same whether they're held in memory, on disk, or spilled partway through.
+ */
+public class BAMScheduleUnitTest extends BaseTest {
+    private static File bamFile = new File(testDir+"exampleBAM.bam");
+    private static File bamIndexFile = new File(testDir+"exampleBAM.bam.bai");
+
+    private Map<SAMReaderID,GATKBAMIndex> indices;
+    private List<GenomeLoc> intervals;
+
+    @BeforeClass
+    public void init() {
+        SAMFileReader reader = new SAMFileReader(bamFile);
+        GenomeLocParser genomeLocParser = new GenomeLocParser(reader.getFileHeader().getSequenceDictionary());
+        reader.close();
+
+        // Two readers sharing the same index, so that the schedule has to merge entries across readers.
+        GATKBAMIndex index = new GATKBAMIndex(bamIndexFile);
+        indices = new HashMap<SAMReaderID,GATKBAMIndex>();
+        indices.put(new SAMReaderID(bamFile,new Tags()),index);
+        indices.put(new SAMReaderID("second",new Tags()),index);
+
+        intervals = Arrays.asList(genomeLocParser.createGenomeLoc("chr1",1,20000),
+                                  genomeLocParser.createGenomeLoc("chr1",40000,100000));
+    }
+
+    @Test
+    public void testInMemorySchedule() {
+        BAMSchedule schedule = new BAMSchedule(indices,intervals);
+        Assert.assertFalse(schedule.isOnDisk(),"Small schedule should be held in memory");
+        Assert.assertEquals(readSchedule(schedule),readSchedule(new BAMSchedule(indices,intervals,0)));
+    }
+
+    @Test
+    public void testOnDiskSchedule() {
+        BAMSchedule schedule = new BAMSchedule(indices,intervals,0);
+        Assert.assertTrue(schedule.isOnDisk(),"Schedule with zero threshold should be written to disk");
+        Assert.assertFalse(readSchedule(schedule).isEmpty(),"Schedule should not be empty");
+    }
+
+    @Test
+    public void testScheduleSpilledWhileBuilding() {
+        // Small enough that only the first couple of entries fit in memory before the schedule spills.
+        BAMSchedule schedule = new BAMSchedule(indices,intervals,64);
+        Assert.assertTrue(schedule.isOnDisk(),"Schedule larger than the threshold should be spilled to disk");
+        Assert.assertEquals(readSchedule(schedule),readSchedule(new BAMSchedule(indices,intervals,0)));
+    }
+
+    /**
+     * Drains the given schedule, returning a printable representation of every entry.
+     * @param schedule Schedule to drain.  Will be closed.
+     * @return One string per entry containing its bounds and file spans.
+     */
+    private List<String> readSchedule(final BAMSchedule schedule) {
+        List<String> entries = new ArrayList<String>();
+        while(schedule.hasNext()) {
+            BAMScheduleEntry entry = schedule.next();
+            StringBuilder builder = new StringBuilder(String.format("%d-%d:",entry.start,entry.stop));
+            for(SAMReaderID reader: new TreeSet<SAMReaderID>(entry.fileSpans.keySet()))
+                builder.append(String.format(" %s=%s",reader.getSamFilePath(),entry.fileSpans.get(reader)));
+            entries.add(builder.toString());
+        }
+        schedule.close();
+        return entries;
+    }
+}
@@ -24,15 +24,23 @@
 
 package org.broadinstitute.sting.gatk.datasources.reads;
 
-import net.sf.samtools.SAMFileReader;
-import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.*;
 import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Test basic functionality in the GATK's implementation of the BAM index classes.
@@ -50,6 +58,12 @@ public class GATKBAMIndexUnitTest extends BaseTest {
      */
     private GATKBAMIndex bamIndex;
 
+    /**
+     * Small BAM used to compare the GATK's index against Picard's.
+     */
+    private static File exampleBAMFile = new File(testDir+"exampleBAM.bam");
+    private static File exampleBAMIndexFile = new File(testDir+"exampleBAM.bam.bai");
+
     
     @BeforeClass
     public void init() throws FileNotFoundException {
@@ -91,4 +105,134 @@ public class GATKBAMIndexUnitTest extends BaseTest {
         Assert.assertEquals(bamIndex.getLevelSize(5),37448-4681+1);
     }
 
+    @Test
+    public void testSpansMatchPicardIndex() {
+        SAMFileReader reader = new SAMFileReader(exampleBAMFile,exampleBAMIndexFile);
+        reader.enableIndexCaching(true);
+        BrowseableBAMIndex picardIndex = reader.getBrowseableIndex();
+        GATKBAMIndex gatkIndex = new GATKBAMIndex(exampleBAMIndexFile);
+
+        int spansCompared = 0;
+        for(SAMSequenceRecord sequence: reader.getFileHeader().getSequenceDictionary().getSequences()) {
+            GATKBAMIndexData indexData = gatkIndex.readReferenceSequence(sequence.getSequenceIndex());
+            for(Bin bin: picardIndex.getBinsOverlapping(sequence.getSequenceIndex(),1,sequence.getSequenceLength())) {
+                // Picard's spans hold Picard chunks, which never compare equal to GATK chunks; compare the coordinates instead.
+                Assert.assertEquals(formatChunks(indexData.getSpanOverlapping(bin)),String.valueOf(picardIndex.getSpanOverlapping(bin)),
+                                    "Span mismatch for bin " + new GATKBin(bin).getBinNumber());
+                spansCompared++;
+            }
+        }
+        reader.close();
+
+        Assert.assertTrue(spansCompared > 0,"No bins were compared");
+    }
+
+    @Test
+    public void testSharedIndexIsReused() {
+        GATKBAMIndex first = GATKBAMIndex.getSharedIndex(exampleBAMIndexFile);
+        GATKBAMIndex second = GATKBAMIndex.getSharedIndex(new File(exampleBAMIndexFile.getAbsolutePath()));
+        Assert.assertSame(first,second,"Same index file should map to the same shared index");
+        Assert.assertSame(first.readReferenceSequence(0),second.readReferenceSequence(0),"Reference sequence data should be decoded only once");
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void testSharedIndexIsReleasedByLastClose() {
+        GATKBAMIndex first = GATKBAMIndex.getSharedIndex(exampleBAMIndexFile);
+        GATKBAMIndex second = GATKBAMIndex.getSharedIndex(exampleBAMIndexFile);
+        first.close();
+
+        GATKBAMIndex third = GATKBAMIndex.getSharedIndex(exampleBAMIndexFile);
+        Assert.assertSame(third,second,"Index was released while still in use");
+        third.close();
+        second.close();
+
+        GATKBAMIndex fourth = GATKBAMIndex.getSharedIndex(exampleBAMIndexFile);
+        Assert.assertNotSame(fourth,second,"Index was not released by its last close");
+        fourth.close();
+    }
+
+    @Test(expectedExceptions=ReviewedStingException.class)
+    public void testClosedStreamedIndexCannotBeRead() {
+        GATKBAMIndex streamedIndex = new GATKBAMIndex(exampleBAMIndexFile,false);
+        streamedIndex.close();
+        streamedIndex.readReferenceSequence(0);
+    }
+
+    @Test
+    public void testInvalidStreamedIndexIsClosed() throws IOException {
+        File invalidIndexFile = createTempFile("invalid",".bai");
+        FileOutputStream stream = new FileOutputStream(invalidIndexFile);
+        stream.write("NOT A BAM INDEX".getBytes());
+        stream.close();
+
+        File openFiles = new File("/proc/self/fd");
+        int openFilesBefore = openFiles.isDirectory() ? openFiles.list().length : 0;
+        try {
+            new GATKBAMIndex(invalidIndexFile,false);
+            Assert.fail("Invalid index was opened");
+        }
+        catch(RuntimeException ex) {
+            // expected
+        }
+        if(openFiles.isDirectory())
+            Assert.assertEquals(openFiles.list().length,openFilesBefore,"Invalid index file was left open");
+    }
+
+    @Test
+    public void testStreamedIndexMatchesMappedIndex() {
+        GATKBAMIndex mappedIndex = new GATKBAMIndex(exampleBAMIndexFile,true);
+        GATKBAMIndex streamedIndex = new GATKBAMIndex(exampleBAMIndexFile,false);
+        final int lowestLevel = GATKBAMIndex.getNumIndexLevels()-1;
+        final int lastBin = GATKBAMIndex.getFirstBinInLevel(lowestLevel) + mappedIndex.getLevelSize(lowestLevel);
+        for(int bin = 0; bin < lastBin; bin++) {
+            Assert.assertEquals(formatChunks(streamedIndex.readReferenceSequence(0).getSpanOverlapping(new Bin(0,bin))),
+                                formatChunks(mappedIndex.readReferenceSequence(0).getSpanOverlapping(new Bin(0,bin))),
+                                "Span mismatch for bin " + bin);
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        final GATKBAMIndex sharedIndex = new GATKBAMIndex(exampleBAMIndexFile);
+        final int lowestLevel = GATKBAMIndex.getNumIndexLevels()-1;
+        final int firstBin = GATKBAMIndex.getFirstBinInLevel(lowestLevel);
+
+        final List<GATKBAMFileSpan> expected = new ArrayList<GATKBAMFileSpan>();
+        GATKBAMIndex referenceIndex = new GATKBAMIndex(exampleBAMIndexFile);
+        for(int bin = firstBin; bin < firstBin+16; bin++)
+            expected.add(referenceIndex.readReferenceSequence(0).getSpanOverlapping(new Bin(0,bin)));
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        List<Future<List<GATKBAMFileSpan>>> results = new ArrayList<Future<List<GATKBAMFileSpan>>>();
+        for(int i = 0; i < 8; i++) {
+            results.add(threadPool.submit(new Callable<List<GATKBAMFileSpan>>() {
+                public List<GATKBAMFileSpan> call() {
+                    List<GATKBAMFileSpan> spans = new ArrayList<GATKBAMFileSpan>();
+                    for(int bin = firstBin; bin < firstBin+16; bin++)
+                        spans.add(sharedIndex.readReferenceSequence(0).getSpanOverlapping(new Bin(0,bin)));
+                    return spans;
+                }
+            }));
+        }
+        for(Future<List<GATKBAMFileSpan>> result: results)
+            Assert.assertEquals(result.get(),expected);
+        threadPool.shutdown();
+    }
+
+    /**
+     * Formats the chunks in the given span the same way Picard does.
+     * @param span Span to format.
+     * @return Semicolon-separated list of chunks.
+     */
+    private static String formatChunks(final GATKBAMFileSpan span) {
+        StringBuilder builder = new StringBuilder();
+        for(GATKChunk chunk: span.getGATKChunks()) {
+            if(builder.length() > 0)
+                builder.append(';');
+            builder.append(chunk);
+        }
+        return builder.toString();
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.executive;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.arguments.GATKArgumentCollection;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
+import org.broadinstitute.sting.gatk.filters.ReadFilter;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
+import org.broadinstitute.sting.gatk.walkers.By;
+import org.broadinstitute.sting.gatk.walkers.DataSource;
+import org.broadinstitute.sting.gatk.walkers.LocusWalker;
+import org.broadinstitute.sting.gatk.walkers.Requires;
+import org.broadinstitute.sting.gatk.walkers.TreeReducible;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same walker through the ForkJoinMicroScheduler and the HierarchicalMicroScheduler it replaces.
+ */
+public class ForkJoinMicroSchedulerUnitTest extends BaseTest {
+    /** Intervals spread over the reference so that the traversal is split into many shards. */
+    private static final int INTERVAL_COUNT = 40;
+
+    private static List<String> intervals() {
+        List<String> intervals = new ArrayList<String>();
+        for(int i = 0; i < INTERVAL_COUNT; i++) {
+            int start = 1 + i * 2500;
+            intervals.add(String.format("chr1:%d-%d", start, start + 19));
+        }
+        return intervals;
+    }
+
+    private static void execute( LocusWalker<?,?> walker, int nThreads, boolean workStealing ) {
+        GenomeAnalysisEngine engine = new GenomeAnalysisEngine();
+
+        GATKArgumentCollection argCollection = new GATKArgumentCollection();
+        argCollection.referenceFile = new File(testDir + "exampleFASTA.fasta");
+        argCollection.intervals = intervals();
+        argCollection.numberOfThreads = nThreads;
+        argCollection.useWorkStealingScheduler = workStealing;
+
+        engine.setArguments(argCollection);
+        engine.setFilters(Collections.<ReadFilter>emptyList());
+        engine.setReferenceMetaDataFiles(Collections.<RMDTriplet>emptyList());
+        engine.setWalker(walker);
+
+        engine.execute();
+    }
+
+    @Test
+    public void testReducesMergeInShardOrder() {
+        OrderRecordingWalker linear = new OrderRecordingWalker();
+        OrderRecordingWalker hierarchical = new OrderRecordingWalker();
+        OrderRecordingWalker forkJoin = new OrderRecordingWalker();
+
+        execute(linear,1,false);
+        execute(hierarchical,4,false);
+        execute(forkJoin,4,true);
+
+        Assert.assertEquals(hierarchical.result,linear.result,"Hierarchical scheduler reduced out of order");
+        Assert.assertEquals(forkJoin.result,linear.result,"Fork/join scheduler reduced out of order");
+
+        Assert.assertEquals(linear.treeReduces.get(),0,"Linear traversal should not tree reduce");
+        Assert.assertNotNull(linear.result);
+        Assert.assertEquals(linear.result.split(",").length,INTERVAL_COUNT * 20,"Not every locus was traversed");
+        Assert.assertTrue(forkJoin.treeReduces.get() > 0,"Fork/join scheduler never called treeReduce");
+        Assert.assertEquals(forkJoin.treeReduces.get(),hierarchical.treeReduces.get(),"Both schedulers should tree reduce once per shard after the first");
+    }
+
+    @DataProvider(name = "schedulers")
+    public Object[][] createSchedulers() {
+        return new Object[][] { { false }, { true } };
+    }
+
+    @Test(dataProvider = "schedulers", timeOut=60000)
+    public void testWalkerExceptionStopsTraversal(boolean workStealing) {
+        FailingWalker walker = new FailingWalker();
+        try {
+            execute(walker,4,workStealing);
+            Assert.fail("The walker's exception was not propagated");
+        }
+        catch(ReviewedStingException ex) {
+            Throwable cause = ex;
+            while(cause != null && !(cause instanceof WalkerFailure))
+                cause = cause.getCause();
+            Assert.assertNotNull(cause,"The walker's exception was not the cause of the failure: " + ex);
+        }
+        Assert.assertTrue(walker.maps.get() < INTERVAL_COUNT * 20,"Traversal carried on after the walker failed");
+    }
+
+    /**
+     * Records every locus in the order reduced.  Reducing is not commutative, so the result
+     * is only correct if shards are combined in order.
+     */
+    @By(DataSource.REFERENCE)
+    @Requires(value={DataSource.REFERENCE})
+    private static class OrderRecordingWalker extends LocusWalker<Integer,String> implements TreeReducible<String> {
+        final AtomicInteger treeReduces = new AtomicInteger(0);
+        String result = null;
+
+        public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+            return context.getLocation().getStart();
+        }
+
+        public String reduceInit() { return ""; }
+
+        public String reduce(Integer value, String sum) { return sum + value + ","; }
+
+        public String treeReduce(String lhs, String rhs) {
+            treeReduces.incrementAndGet();
+            return lhs + rhs;
+        }
+
+        public void onTraversalDone(String result) {
+            this.result = result;
+        }
+    }
+
+    private static class WalkerFailure extends RuntimeException {
+        WalkerFailure() { super("Failing on purpose"); }
+    }
+
+    /**
+     * Fails on the first locus of the first interval.
+     */
+    @By(DataSource.REFERENCE)
+    @Requires(value={DataSource.REFERENCE})
+    private static class FailingWalker extends LocusWalker<Integer,Integer> implements TreeReducible<Integer> {
+        final AtomicInteger maps = new AtomicInteger(0);
+
+        public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+            maps.incrementAndGet();
+            if(context.getLocation().getStart() == 1)
+                throw new WalkerFailure();
+            return 1;
+        }
+
+        public Integer reduceInit() { return 0; }
+
+        public Integer reduce(Integer value, Integer sum) { return value + sum; }
+
+        public Integer treeReduce(Integer lhs, Integer rhs) { return lhs + rhs; }
+    }
+}
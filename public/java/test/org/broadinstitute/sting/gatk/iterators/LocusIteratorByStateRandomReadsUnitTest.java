@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.iterators;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.DownsampleType;
+import org.broadinstitute.sting.gatk.DownsamplingMethod;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.ReadProperties;
+import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.gatk.datasources.reads.SAMReaderID;
+import org.broadinstitute.sting.gatk.datasources.sample.SampleDataSource;
+import org.broadinstitute.sting.gatk.filters.ReadFilter;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.baq.BAQ;
+import org.broadinstitute.sting.utils.pileup.ExtendedEventPileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedExtendedEventPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Runs LocusIteratorByState over randomly generated reads with a mix of cigar operators, samples and pairings, and
+ * checks that everything a walker can see in the alignment contexts matches the expected pileups.  The expected
+ * pileups are recorded as the MD5 of their descriptions; they were produced by the list-based implementation
+ * LocusIteratorByState replaced.
+ */
+public class LocusIteratorByStateRandomReadsUnitTest extends BaseTest {
+    private static final int NUM_CONTIGS = 2;
+    private static final int CONTIG_LENGTH = 1000;
+    private static final List<String> READ_GROUPS = Arrays.asList("rg1","rg2","rg3");
+    private static final List<String> SAMPLES = Arrays.asList("sample1","sample2","sample3");
+    private static final byte[] BASES = { 'A','C','G','T','N' };
+
+    @DataProvider(name = "configurations")
+    public Object[][] createConfigurations() {
+        return new Object[][] {
+                // seed, extended events, reads with deletions, downsample to coverage, contexts, MD5 of the descriptions
+                { 1L, false, false, null, 776, "23558cf3de53c4fe5094c065bcef83fe" },
+                { 1L, false, false, 5, 725, "a0f53d7ad8d11f1b88599a968111cac4" },
+                { 1L, false, false, 25, 776, "d539b45ac197b522a421735df88887c4" },
+                { 1L, false, true, null, 776, "5e1aaa77ce029d45d36390dfcffeaaeb" },
+                { 1L, false, true, 5, 725, "9cbd4a5d6d87f339292bde8a7bd1473c" },
+                { 1L, false, true, 25, 776, "e95a41819611f44e47934c72e50a6436" },
+                { 1L, true, false, null, 1297, "772c813424dee589ffe14f454b70d740" },
+                { 1L, true, false, 5, 895, "716d69be6aa0638df6d683a8428bdae0" },
+                { 1L, true, false, 25, 1237, "175e87382e66231aa33378a314e4b77a" },
+                { 1L, true, true, null, 1297, "933b5b494ba68a66394f14423d9fc3e3" },
+                { 1L, true, true, 5, 895, "113eac6bf5dba2174687c7eb44a4fd97" },
+                { 1L, true, true, 25, 1237, "17d6c141ed91d8ea4078e699fa87823c" },
+                { 2L, false, false, null, 752, "200391c06e9dd77589c37bfe0d3b6b4c" },
+                { 2L, false, false, 5, 696, "a7bf62a3d9e5f898b95609b8da933724" },
+                { 2L, false, false, 25, 751, "e9d975e90f2061002f34a6f6cdeb0ac4" },
+                { 2L, false, true, null, 752, "73ff539a606eb8af62c7f14dc2c82f78" },
+                { 2L, false, true, 5, 696, "5cb7c48a91120db227d5949d6d61090c" },
+                { 2L, false, true, 25, 751, "9c37299453aed23b613668bcd91702bf" },
+                { 2L, true, false, null, 1281, "38ee9d6bfde14152efb8f2c31e7412af" },
+                { 2L, true, false, 5, 891, "5db176509fd52055a212954342ba3ddc" },
+                { 2L, true, false, 25, 1199, "dfea0dd4e11137789cb57e1f8ad2bf6d" },
+                { 2L, true, true, null, 1281, "5864731b7a9ec91268df54d942c9d057" },
+                { 2L, true, true, 5, 891, "0cecdc3eb6fa16780a9a4a5603e0a02e" },
+                { 2L, true, true, 25, 1199, "a27aec2a8c566fe78a007a22083e4ddb" },
+                { 3L, false, false, null, 711, "d09e1bdff55530666e240ef3de4c432a" },
+                { 3L, false, false, 5, 695, "794b997c3366acb9d7a5c6bfe6700315" },
+                { 3L, false, false, 25, 711, "08e41c9b0c66d9d7cbd5876be54d4eda" },
+                { 3L, false, true, null, 711, "78a3b67042b863728d1af96022c4dd83" },
+                { 3L, false, true, 5, 696, "c5763b47c8ecea1ac9794c74845406d7" },
+                { 3L, false, true, 25, 711, "71ca36283079c9a61f17c92df37d20e0" },
+                { 3L, true, false, null, 1229, "521a5cfe41de033a804681810a89fea3" },
+                { 3L, true, false, 5, 886, "efd7d18fd152275c1b0aa59292e7add2" },
+                { 3L, true, false, 25, 1168, "ff1004cb61d242fe49f944bf2cb1ec7e" },
+                { 3L, true, true, null, 1229, "142ed5467f2fbbf9f6f8df1afdb21ae8" },
+                { 3L, true, true, 5, 887, "db60ca34955398fbf2a3927d52756f2c" },
+                { 3L, true, true, 25, 1168, "1f3a98fec3e6332802175519871578a5" }
+        };
+    }
+
+    @Test(dataProvider = "configurations")
+    public void testExpectedPileups(long seed, boolean generateExtendedEvents, boolean includeReadsWithDeletionAtLoci, Integer downsampleToCoverage,
+                                    int expectedContexts, String expectedMD5) {
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(NUM_CONTIGS,0,CONTIG_LENGTH);
+        ArtificialSAMUtils.createEnumeratedReadGroups(header,READ_GROUPS,SAMPLES);
+        GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        List<SAMRecord> reads = createReads(header,new Random(seed),600);
+
+        DownsamplingMethod downsampling = downsampleToCoverage != null ? new DownsamplingMethod(DownsampleType.BY_SAMPLE,downsampleToCoverage,null) : null;
+        ReadProperties readProperties = new ReadProperties(Collections.<SAMReaderID>emptyList(),header,false,SAMFileReader.ValidationStringency.STRICT,
+                null,downsampling,new ValidationExclusion(),Collections.<ReadFilter>emptyList(),includeReadsWithDeletionAtLoci,generateExtendedEvents,
+                BAQ.CalculationMode.OFF,BAQ.QualityMode.DONT_MODIFY,null,(byte)-1);
+
+        GenomeAnalysisEngine.resetRandomGenerator(seed);
+        List<String> actual = describe(new LocusIteratorByState(reads.iterator(),readProperties,genomeLocParser,new SampleDataSource(header,Collections.<File>emptyList())));
+
+        Assert.assertEquals(actual.size(),expectedContexts,"Wrong number of alignment contexts");
+        Assert.assertEquals(md5(actual),expectedMD5,"Alignment contexts differ from the expected pileups");
+    }
+
+    /**
+     * Creates reads sorted by position, with a mix of cigar operators, mapping qualities, samples and insert sizes.
+     */
+    private static List<SAMRecord> createReads(SAMFileHeader header, Random random, int readsPerContig) {
+        List<SAMRecord> reads = new ArrayList<SAMRecord>();
+        for(int contig = 0; contig < NUM_CONTIGS; contig++) {
+            int[] starts = new int[readsPerContig];
+            for(int i = 0; i < starts.length; i++)
+                starts[i] = 1 + random.nextInt(CONTIG_LENGTH/4);
+            Arrays.sort(starts);
+
+            for(int start: starts) {
+                String cigar = createCigar(random);
+                int readLength = getReadLength(cigar);
+                byte[] bases = new byte[readLength];
+                byte[] quals = new byte[readLength];
+                for(int i = 0; i < readLength; i++) {
+                    bases[i] = BASES[random.nextInt(random.nextInt(20) == 0 ? BASES.length : BASES.length-1)];
+                    quals[i] = (byte)random.nextInt(41);
+                }
+
+                SAMRecord read = ArtificialSAMUtils.createArtificialRead(header,"read"+reads.size(),contig,start,bases,quals);
+                read.setCigarString(cigar);
+                read.setAttribute("RG",READ_GROUPS.get(random.nextInt(READ_GROUPS.size())));
+                read.setMappingQuality(random.nextInt(10) == 0 ? 0 : 60);
+                if(random.nextInt(3) == 0) {
+                    // Paired reads with short inserts have adaptor bases which are filtered out of the pileup
+                    read.setReadPairedFlag(true);
+                    read.setReadNegativeStrandFlag(random.nextBoolean());
+                    read.setInferredInsertSize(random.nextBoolean() ? 10+random.nextInt(60) : -(10+random.nextInt(60)));
+                    read.setMateReferenceIndex(contig);
+                    read.setMateAlignmentStart(start+random.nextInt(40));
+                }
+                reads.add(read);
+            }
+        }
+        return reads;
+    }
+
+    private static String createCigar(Random random) {
+        StringBuilder cigar = new StringBuilder();
+        if(random.nextInt(10) == 0)
+            cigar.append(1+random.nextInt(5)).append('H');
+        if(random.nextInt(5) == 0)
+            cigar.append(1+random.nextInt(5)).append('S');
+        if(random.nextInt(20) == 0)
+            cigar.append(1+random.nextInt(3)).append('I');
+
+        int numBlocks = 1+random.nextInt(4);
+        for(int block = 0; block < numBlocks; block++) {
+            if(block > 0) {
+                switch(random.nextInt(3)) {
+                    case 0: cigar.append(1+random.nextInt(4)).append('I'); break;
+                    case 1: cigar.append(1+random.nextInt(4)).append('D'); break;
+                    default: cigar.append(5+random.nextInt(40)).append('N'); break;
+                }
+            }
+            cigar.append(1+random.nextInt(30)).append('M');
+        }
+
+        if(random.nextInt(20) == 0)
+            cigar.append(1+random.nextInt(3)).append('I');
+        else if(random.nextInt(5) == 0)
+            cigar.append(1+random.nextInt(5)).append('S');
+        return cigar.toString();
+    }
+
+    private static int getReadLength(String cigar) {
+        int readLength = 0;
+        int length = 0;
+        for(char c: cigar.toCharArray()) {
+            if(Character.isDigit(c))
+                length = length*10 + (c-'0');
+            else {
+                if(c == 'M' || c == 'I' || c == 'S')
+                    readLength += length;
+                length = 0;
+            }
+        }
+        return readLength;
+    }
+
+    /**
+     * Computes the MD5 of the given descriptions, one per line.
+     */
+    private static String md5(List<String> descriptions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            for(String description: descriptions)
+                digest.update((description + "\n").getBytes());
+            return String.format("%032x",new BigInteger(1,digest.digest()));
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Describes everything a walker can see in each alignment context produced by the given iterator.
+     */
+    private static List<String> describe(LocusIterator iterator) {
+        List<String> descriptions = new ArrayList<String>();
+        while(iterator.hasNext()) {
+            AlignmentContext context = iterator.next();
+            StringBuilder description = new StringBuilder();
+            description.append(context.getLocation()).append(" downsampled=").append(context.hasPileupBeenDownsampled());
+            if(context.hasExtendedEventPileup()) {
+                ReadBackedExtendedEventPileup pileup = context.getExtendedEventPileup();
+                description.append(String.format(" extended size=%d nDeletions=%d nInsertions=%d maxDeletionLength=%d nMQ0=%d",
+                        pileup.size(),pileup.getNumberOfDeletions(),pileup.getNumberOfInsertions(),pileup.getMaxDeletionLength(),pileup.getNumberOfMappingQualityZeroReads()));
+                for(ExtendedEventPileupElement element: pileup.toExtendedIterable())
+                    description.append(String.format(" [%s %d %s %d %s]",element.getRead().getReadName(),element.getOffset(),element.getType(),element.getEventLength(),element.getEventBases()));
+            }
+            else {
+                ReadBackedPileup pileup = context.getBasePileup();
+                description.append(String.format(" base size=%d nDeletions=%d nMQ0=%d",pileup.size(),pileup.getNumberOfDeletions(),pileup.getNumberOfMappingQualityZeroReads()));
+                for(PileupElement element: pileup)
+                    description.append(String.format(" [%s %d]",element.getRead().getReadName(),element.getOffset()));
+            }
+            descriptions.add(description.toString());
+        }
+        return descriptions;
+    }
+}
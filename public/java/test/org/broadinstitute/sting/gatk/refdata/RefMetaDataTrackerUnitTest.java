@@ -0,0 +1,111 @@
+package org.broadinstitute.sting.gatk.refdata;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
+import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the lookups of the tracker, for trackers built binding by binding and for trackers built by the
+ * traversal system with all of their bindings at once.
+ */
+public class RefMetaDataTrackerUnitTest extends BaseTest {
+    private GenomeLocParser genomeLocParser;
+    private GenomeLoc locus;
+    private RODRecordList dbsnp;
+    private RODRecordList comp;
+
+    @BeforeMethod
+    public void setup() {
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        locus = genomeLocParser.createGenomeLoc(header.getSequenceDictionary().getSequence(0).getSequenceName(), 10);
+
+        dbsnp = new RODRecordListImpl("dbsnp", Arrays.<GATKFeature>asList(new TestFeature("dbsnp", locus, "rs1"), new TestFeature("dbsnp", locus, 2)), locus);
+        comp = new RODRecordListImpl("Comp", Arrays.<GATKFeature>asList(new TestFeature("Comp", locus, "comp1")), locus);
+    }
+
+    @Test
+    public void testBoundTracker() {
+        RefMetaDataTracker tracker = new RefMetaDataTracker(0);
+        tracker.bind("dbsnp", dbsnp);
+        tracker.bind("Comp", comp);
+        tracker.bind("empty", null);
+        assertLookups(tracker);
+
+        tracker.bind("COMP", dbsnp);
+        Assert.assertEquals(tracker.getReferenceMetaData("comp"), Arrays.<Object>asList("rs1", 2), "Rebinding a track should replace its records");
+        Assert.assertEquals(tracker.getNBoundRodTracks(), 2);
+    }
+
+    @Test
+    public void testPrebuiltTracker() {
+        String[] names = { "dbsnp", "comp", "empty" };
+        RefMetaDataTracker tracker = new RefMetaDataTracker(names, new RODRecordList[] { dbsnp, comp, null });
+        assertLookups(tracker);
+
+        // binding a new track must not touch the names shared with other trackers
+        tracker.bind("mask", comp);
+        Assert.assertTrue(tracker.hasROD("mask"));
+        Assert.assertEquals(names, new String[] { "dbsnp", "comp", "empty" });
+        Assert.assertEquals(tracker.getNBoundRodTracks(), 3);
+    }
+
+    private void assertLookups(RefMetaDataTracker tracker) {
+        Assert.assertTrue(tracker.hasROD("DBSNP"));
+        Assert.assertTrue(tracker.hasROD("comp"));
+        Assert.assertTrue(tracker.hasROD("empty"), "Tracks bound to nothing are still bound");
+        Assert.assertFalse(tracker.hasROD("mask"));
+
+        Assert.assertEquals(tracker.getReferenceMetaData("dbsnp"), Arrays.<Object>asList("rs1", 2));
+        Assert.assertEquals(tracker.getReferenceMetaData("comp", true), Collections.<Object>singletonList("comp1"));
+        Assert.assertEquals(tracker.getReferenceMetaData("co", false), Collections.<Object>singletonList("comp1"));
+        Assert.assertTrue(tracker.getReferenceMetaData("co", true).isEmpty());
+        Assert.assertTrue(tracker.getReferenceMetaData("empty").isEmpty());
+        Assert.assertTrue(tracker.getReferenceMetaData("mask").isEmpty());
+
+        List<String> rsIDs = tracker.getReferenceMetaData("dbsnp", String.class);
+        Assert.assertEquals(rsIDs, Collections.singletonList("rs1"), "Only records of the requested type should be returned");
+        Assert.assertEquals(tracker.getReferenceMetaData("comp", String.class), Collections.singletonList("comp1"));
+        Assert.assertTrue(tracker.getReferenceMetaData("mask", String.class).isEmpty());
+
+        Assert.assertEquals(tracker.getAllRods().size(), 3);
+        Assert.assertEquals(tracker.getBoundRodTracks().size(), 2);
+        Assert.assertEquals(tracker.getNBoundRodTracks(), 2);
+        Assert.assertEquals(tracker.getNBoundRodTracks("dbsnp"), 1);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testMetaDataIsReadOnly() {
+        RefMetaDataTracker tracker = new RefMetaDataTracker(1);
+        tracker.bind("dbsnp", dbsnp);
+        tracker.getReferenceMetaData("dbsnp").add("rs3");
+    }
+
+    private static class TestFeature extends GATKFeature {
+        private final GenomeLoc location;
+        private final Object underlyingObject;
+
+        public TestFeature(String name, GenomeLoc location, Object underlyingObject) {
+            super(name);
+            this.location = location;
+            this.underlyingObject = underlyingObject;
+        }
+
+        public GenomeLoc getLocation() { return location; }
+        public Object getUnderlyingObject() { return underlyingObject; }
+        public String getChr() { return location.getContig(); }
+        public int getStart() { return location.getStart(); }
+        public int getEnd() { return location.getStop(); }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.refdata.tracks.builders;
+
+import org.broad.tribble.index.Index;
+import org.broad.tribble.index.IndexFactory;
+import org.broad.tribble.util.LittleEndianOutputStream;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFCodec;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks that indexes built in parallel are identical to those Tribble builds on a single thread.
+ */
+public class ParallelIndexFactoryUnitTest extends BaseTest {
+    private static byte[] serialize(Index index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        LittleEndianOutputStream out = new LittleEndianOutputStream(bytes);
+        index.write(out);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a VCF with several contigs, dense and sparse stretches, and long deletions.
+     */
+    private static File makeVCF(int nRecords) throws IOException {
+        File vcf = createTempFile("parallelIndex", ".vcf");
+        PrintWriter out = new PrintWriter(new FileWriter(vcf));
+        out.println("##fileformat=VCFv4.0");
+        out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        Random random = new Random(7);
+        int contig = 1;
+        int position = 1;
+        for ( int i = 0; i < nRecords; i++ ) {
+            if ( random.nextInt(2000) == 0 ) {
+                contig++;
+                position = 1;
+            }
+            position += random.nextInt(20) == 0 ? random.nextInt(100000) : random.nextInt(10);
+            String ref = random.nextInt(50) == 0 ? "ACGTACGTACGTACGTACGTACGTACGTACGTACGT" : "A";
+            out.println(String.format("chr%d\t%d\t.\t%s\tA%s\t%d\tPASS\tDP=%d", contig, position, ref, ref.length() == 1 ? "C" : "", random.nextInt(100), random.nextInt(1000)));
+        }
+        out.close();
+        return vcf;
+    }
+
+    @DataProvider(name = "vcfs")
+    public Object[][] makeVCFs() throws IOException {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        // every chunk opens the file afresh, so tiny chunks are only tried on small files
+        for ( int chunkSize : Arrays.asList(1, 10, 100) ) {
+            tests.add(new Object[]{new File(testDir + "vcf/vcfWithGenotypes.vcf"), chunkSize});
+            tests.add(new Object[]{makeVCF(300), chunkSize});
+        }
+        for ( int chunkSize : Arrays.asList(4096, 1 << 20) ) {
+            tests.add(new Object[]{new File(testDir + "HiSeq.10000.vcf"), chunkSize});
+            tests.add(new Object[]{makeVCF(20000), chunkSize});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "vcfs")
+    public void testParallelIndexMatchesTribble(File vcf, int chunkSize) throws IOException {
+        Index expected = IndexFactory.createIndex(vcf, new VCFCodec(), IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME);
+        Index actual = ParallelIndexFactory.createIndex(vcf, new VCFCodec(), IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME, 4, chunkSize);
+        Assert.assertEquals(actual.getClass(), expected.getClass());
+        Assert.assertTrue(Arrays.equals(serialize(actual), serialize(expected)), "indexes differ");
+    }
+
+    @Test
+    public void testOnlyLargeVCFsAreIndexedInParallel() throws IOException {
+        File vcf = new File(testDir + "HiSeq.10000.vcf");
+        Assert.assertFalse(ParallelIndexFactory.canIndexInParallel(vcf, new VCFCodec(), 8));
+    }
+}
@@ -43,7 +43,13 @@ import org.testng.annotations.Test;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -173,6 +179,33 @@ public class RMDTrackBuilderUnitTest extends BaseTest {
         Assert.assertTrue(Tribble.indexFile(vcfFile).lastModified() >= indexTimeStamp,"Fail: index file was modified");
     }
 
+    // indexes are loaded once per file, no matter how many builders or threads ask for them
+    @Test
+    public void testIndexCacheIsShared() throws Exception {
+        final File vcfFile = createTempFile("RMDTrackBuilderIndexCache", ".vcf");
+        copyFile(new File(testDir + "vcf/vcfWithGenotypes.vcf"), vcfFile);
+        Tribble.indexFile(vcfFile).deleteOnExit();
+
+        final Index index = builder.loadIndex(vcfFile, new VCFCodec());
+        Assert.assertSame(new RMDTrackBuilder(seq.getSequenceDictionary(),genomeLocParser,null).loadIndex(vcfFile, new VCFCodec()), index);
+
+        // a file which has changed is indexed afresh, however many threads want it at once
+        vcfFile.setLastModified(vcfFile.lastModified() + 10000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Index>> loads = new ArrayList<Future<Index>>();
+        for (int i = 0; i < 16; i++)
+            loads.add(executor.submit(new Callable<Index>() {
+                public Index call() throws IOException {
+                    return builder.loadIndex(vcfFile, new VCFCodec());
+                }
+            }));
+        executor.shutdown();
+        Index reloaded = loads.get(0).get();
+        Assert.assertNotSame(reloaded, index);
+        for (Future<Index> load : loads)
+            Assert.assertSame(load.get(), reloaded);
+    }
+
     /**
      * create a temporary file and an associated out of date index file
      *
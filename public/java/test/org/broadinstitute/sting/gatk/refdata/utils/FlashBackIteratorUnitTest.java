@@ -142,6 +142,31 @@ public class FlashBackIteratorUnitTest extends BaseTest {
         }
         Assert.assertEquals(count, 6); // chr1:5, 6, 7, 8, 9, and 10
     }
+
+    @Test
+    public void testBoundedBuffer() {
+        GenomeLoc loc = genomeLocParser.createGenomeLoc(firstContig, 0, 0);
+        FlashBackIterator iter = new FlashBackIterator(new FakeSeekableRODIterator(genomeLocParser,loc), 3);
+        for (int x = 0; x < 10; x++)
+            iter.next();
+
+        // only the last three records, chr1:8 to chr1:10, are kept
+        Assert.assertTrue(iter.canFlashBackTo(genomeLocParser.createGenomeLoc(firstContig, 8)));
+        Assert.assertFalse(iter.canFlashBackTo(genomeLocParser.createGenomeLoc(firstContig, 7)));
+
+        iter.flashBackTo(genomeLocParser.createGenomeLoc(firstContig, 9));
+        Assert.assertEquals(iter.peekNextLocation(), genomeLocParser.createGenomeLoc(firstContig, 9));
+        Assert.assertEquals(iter.next().getLocation(), genomeLocParser.createGenomeLoc(firstContig, 9));
+
+        // flashing back again replays everything from the earlier location onwards
+        iter.flashBackTo(genomeLocParser.createGenomeLoc(firstContig, 8));
+        int count = 0;
+        while (iter.hasNext()) {
+            Assert.assertEquals(iter.next().getLocation(), genomeLocParser.createGenomeLoc(firstContig, 8 + count));
+            count++;
+        }
+        Assert.assertEquals(count, 3);
+    }
 }
 
 
@@ -0,0 +1,122 @@
+package org.broadinstitute.sting.gatk.refdata.utils;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.refdata.SeekableRODIterator;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the records found by a RODIntervalIndex against a brute-force scan of every record in the track.
+ */
+public class RODIntervalIndexUnitTest extends BaseTest {
+    private static final int CHROMOSOME_SIZE = 2000;
+
+    private SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, CHROMOSOME_SIZE);
+    private GenomeLocParser genomeLocParser;
+    private List<GATKFeature> features;
+
+    @BeforeMethod
+    public void setup() {
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+
+        // mostly short records with the odd long one, so that records span several windows
+        Random random = new Random(42);
+        features = new ArrayList<GATKFeature>();
+        for ( int contig = 0; contig < 2; contig++ ) {
+            String contigName = header.getSequenceDictionary().getSequence(contig).getSequenceName();
+            for ( int start = 1 + random.nextInt(10); start <= CHROMOSOME_SIZE; start += random.nextInt(10) ) {
+                int length = random.nextInt(20) == 0 ? 1 + random.nextInt(300) : 1 + random.nextInt(3);
+                GenomeLoc loc = genomeLocParser.createGenomeLoc(contigName, start, Math.min(start + length - 1, CHROMOSOME_SIZE));
+                features.add(new TestFeature("test", loc));
+            }
+        }
+    }
+
+    @Test
+    public void testEveryLocusMatchesBruteForce() {
+        for ( int windowSize : new int[] { 1, 37, 500, RODIntervalIndex.DEFAULT_WINDOW_SIZE } ) {
+            RODIntervalIndex index = new RODIntervalIndex(createIterator(), genomeLocParser, windowSize);
+            for ( int contig = 0; contig < 2; contig++ ) {
+                String contigName = header.getSequenceDictionary().getSequence(contig).getSequenceName();
+                for ( int position = 1; position <= CHROMOSOME_SIZE; position++ ) {
+                    GenomeLoc loc = genomeLocParser.createGenomeLoc(contigName, position);
+                    assertOverlapping(index.query(loc), loc);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExtendedQueries() {
+        RODIntervalIndex index = new RODIntervalIndex(createIterator(), genomeLocParser, 100);
+        String contigName = header.getSequenceDictionary().getSequence(0).getSequenceName();
+        for ( int position = 1; position + 49 <= CHROMOSOME_SIZE; position += 7 ) {
+            GenomeLoc loc = genomeLocParser.createGenomeLoc(contigName, position, position + 49);
+            assertOverlapping(index.query(loc), loc);
+        }
+    }
+
+    @Test
+    public void testBackwardQueriesWithinWindow() {
+        RODIntervalIndex index = new RODIntervalIndex(createIterator(), genomeLocParser, 1000);
+        String contigName = header.getSequenceDictionary().getSequence(0).getSequenceName();
+        assertOverlapping(index.query(genomeLocParser.createGenomeLoc(contigName, 1)), genomeLocParser.createGenomeLoc(contigName, 1));
+        for ( int position = 900; position >= 1; position -= 3 ) {
+            GenomeLoc loc = genomeLocParser.createGenomeLoc(contigName, position);
+            assertOverlapping(index.query(loc), loc);
+        }
+    }
+
+    private void assertOverlapping(RODRecordList found, GenomeLoc loc) {
+        List<GATKFeature> expected = new ArrayList<GATKFeature>();
+        for ( GATKFeature feature : features )
+            if ( feature.getLocation().overlapsP(loc) )
+                expected.add(feature);
+
+        if ( expected.isEmpty() ) {
+            Assert.assertNull(found, "Found records where there are none at " + loc);
+        }
+        else {
+            Assert.assertNotNull(found, "Found no records at " + loc);
+            Assert.assertEquals(found.getLocation(), loc, "Records are at the wrong location");
+            Assert.assertEquals(new ArrayList<GATKFeature>(found), expected, "Wrong records at " + loc);
+        }
+    }
+
+    private LocationAwareSeekableRODIterator createIterator() {
+        final Iterator<GATKFeature> it = features.iterator();
+        return new SeekableRODIterator(null, header.getSequenceDictionary(), header.getSequenceDictionary(), genomeLocParser,
+                new CloseableIterator<GATKFeature>() {
+                    public boolean hasNext() { return it.hasNext(); }
+                    public GATKFeature next() { return it.next(); }
+                    public void remove() { throw new UnsupportedOperationException(); }
+                    public void close() { }
+                });
+    }
+
+    private static class TestFeature extends GATKFeature {
+        private final GenomeLoc location;
+
+        public TestFeature(String name, GenomeLoc location) {
+            super(name);
+            this.location = location;
+        }
+
+        public GenomeLoc getLocation() { return location; }
+        public Object getUnderlyingObject() { return this; }
+        public String getChr() { return location.getContig(); }
+        public int getStart() { return location.getStart(); }
+        public int getEnd() { return location.getStop(); }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.annotator;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.QualityUtils;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SitePileupStatisticsUnitTest extends BaseTest {
+    private SAMFileHeader header;
+    private GenomeLoc loc;
+    private SitePileupStatistics statistics;
+
+    @BeforeMethod
+    public void setUp() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        loc = new GenomeLocParser(header.getSequenceDictionary()).createGenomeLoc("chr1", 10, 10);
+
+        Map<String, AlignmentContext> contexts = new HashMap<String, AlignmentContext>();
+        contexts.put("sample1", createContext(
+                createRead("read1", 'A', 30, 60, false),
+                createRead("read2", 'A', 30, 60, true),
+                createRead("read3", 'G', 30, 0, false),
+                createRead("read4", 'G', 10, 60, false)));
+        contexts.put("sample2", createContext(
+                createRead("read5", 'G', 30, 20, true),
+                createRead("read6", 'a', 30, 40, false),
+                createRead("read7", 'C', 30, QualityUtils.MAPPING_QUALITY_UNAVAILABLE, false)));
+        statistics = new SitePileupStatistics(contexts);
+    }
+
+    @Test
+    public void testCounts() {
+        Assert.assertEquals(statistics.getDepth(), 7);
+        Assert.assertEquals(statistics.getNumberOfDeletions(), 0);
+        Assert.assertEquals(statistics.getNumberOfMappingQualityZeroReads(), 1);
+    }
+
+    @Test
+    public void testRMSMappingQuality() {
+        // the read without a mapping quality still counts towards the depth
+        double expected = Math.sqrt((60*60 + 60*60 + 0 + 60*60 + 20*20 + 40*40) / 7.0);
+        Assert.assertEquals(statistics.getRMSMappingQuality(), expected, 1e-10);
+        Assert.assertEquals(new SitePileupStatistics(new HashMap<String, AlignmentContext>()).getRMSMappingQuality(), 0.0);
+    }
+
+    @Test
+    public void testSNPContingencyTable() {
+        // read3 has a mapping quality of zero and read4 a low base quality, so neither counts
+        int[][] table = statistics.getSNPContingencyTable(Allele.create((byte)'A', true), Allele.create((byte)'G', false));
+        Assert.assertEquals(table, new int[][]{{2, 1}, {0, 1}});
+
+        // a new table every time
+        table[0][0] = 100;
+        Assert.assertEquals(statistics.getSNPContingencyTable(Allele.create((byte)'A', true), Allele.create((byte)'G', false))[0][0], 2);
+    }
+
+    @Test
+    public void testUnsupportedAlleles() {
+        Assert.assertNull(statistics.getSNPContingencyTable(Allele.create((byte)'N', true), Allele.create((byte)'G', false)));
+        Assert.assertNull(statistics.getSNPContingencyTable(Allele.create("AT", true), Allele.create((byte)'G', false)));
+    }
+
+    private AlignmentContext createContext(SAMRecord... reads) {
+        List<PileupElement> elements = new ArrayList<PileupElement>();
+        for ( SAMRecord read : reads )
+            elements.add(new PileupElement(read, 0));
+        return new AlignmentContext(loc, new ReadBackedPileupImpl(loc, elements));
+    }
+
+    private SAMRecord createRead(String name, char base, int qual, int mappingQual, boolean negativeStrand) {
+        SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, name, 0, 10, new byte[]{(byte)base}, new byte[]{(byte)qual});
+        read.setMappingQuality(mappingQual);
+        read.setReadNegativeStrandFlag(negativeStrand);
+        return read;
+    }
+}
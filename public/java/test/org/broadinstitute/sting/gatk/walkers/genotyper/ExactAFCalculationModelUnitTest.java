@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.genotyper;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.MathUtils;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.GenotypeLikelihoods;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class ExactAFCalculationModelUnitTest extends BaseTest {
+    private static final int idxAA = 0, idxAB = 1, idxBB = 2;
+
+    @DataProvider(name = "cohorts")
+    public Object[][] makeCohorts() {
+        return new Object[][] {
+                // number of samples, fraction of non-ref chromosomes
+                { 300, 0.0 },
+                { 600, 0.01 },
+                { 1000, 0.1 },
+                { 1537, 0.5 },
+        };
+    }
+
+    @Test(dataProvider = "cohorts")
+    public void testBlockedMatchesLinearExact(int nSamples, double alleleFrequency) {
+        Map<String, Genotype> GLs = makeGLs(nSamples, alleleFrequency, new Random(nSamples));
+        ExactAFCalculationModel model = new ExactAFCalculationModel(new UnifiedArgumentCollection(), 2*nSamples, logger, null);
+        double[] priors = makePriors(2*nSamples);
+
+        double[] linear = makePosteriors(2*nSamples);
+        int linearLastK = model.linearExact(GLs, priors, linear, idxAA, idxAB, idxBB);
+
+        double[] blocked = makePosteriors(2*nSamples);
+        Assert.assertEquals(model.linearExactBlocked(GLs, priors, blocked, idxAA, idxAB, idxBB, null), linearLastK);
+        Assert.assertTrue(Arrays.equals(blocked, linear), "Blocked posteriors differ from linearExact()");
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for ( int i = 0; i < 5; i++ ) {
+                double[] parallel = makePosteriors(2*nSamples);
+                Assert.assertEquals(model.linearExactBlocked(GLs, priors, parallel, idxAA, idxAB, idxBB, pool), linearLastK);
+                Assert.assertTrue(Arrays.equals(parallel, linear), "Parallel blocked posteriors differ from linearExact()");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(dataProvider = "cohorts")
+    public void testBlockedMatchesGoldStandard(int nSamples, double alleleFrequency) {
+        Map<String, Genotype> GLs = makeGLs(nSamples, alleleFrequency, new Random(nSamples));
+        ExactAFCalculationModel model = new ExactAFCalculationModel(new UnifiedArgumentCollection(), 2*nSamples, logger, null);
+        double[] priors = makePriors(2*nSamples);
+
+        double[] goldStandard = makePosteriors(2*nSamples);
+        model.gdaN2GoldStandard(GLs, priors, goldStandard, idxAA, idxAB, idxBB);
+
+        double[] blocked = makePosteriors(2*nSamples);
+        int lastK = model.linearExactBlocked(GLs, priors, blocked, idxAA, idxAB, idxBB, null);
+
+        // the ACs beyond lastK hold nothing but the negligible tail
+        Assert.assertEquals(MathUtils.maxElementIndex(Arrays.copyOf(blocked, lastK+1)), MathUtils.maxElementIndex(goldStandard));
+        double[] normalizedBlocked = MathUtils.normalizeFromLog10(Arrays.copyOf(blocked, lastK+1));
+        double[] normalizedGoldStandard = MathUtils.normalizeFromLog10(goldStandard);
+        for ( int k = 0; k <= lastK; k++ )
+            Assert.assertEquals(normalizedBlocked[k], normalizedGoldStandard[k], 1e-3, "Posterior of AC " + k);
+    }
+
+    private static Map<String, Genotype> makeGLs(int nSamples, double alleleFrequency, Random random) {
+        Map<String, Genotype> GLs = new LinkedHashMap<String, Genotype>();
+        List<Allele> noCall = Arrays.asList(Allele.NO_CALL, Allele.NO_CALL);
+        for ( int i = 0; i < nSamples; i++ ) {
+            int nonRef = (random.nextDouble() < alleleFrequency ? 1 : 0) + (random.nextDouble() < alleleFrequency ? 1 : 0);
+            double[] gl = new double[3];
+            for ( int g = 0; g < 3; g++ )
+                gl[g] = g == nonRef ? 0.0 : -1.0 - 5.0 * random.nextDouble();
+            Map<String, Object> attributes = new HashMap<String, Object>();
+            attributes.put(VCFConstants.PHRED_GENOTYPE_LIKELIHOODS_KEY, GenotypeLikelihoods.fromLog10Likelihoods(gl));
+            String name = "sample" + i;
+            GLs.put(name, new Genotype(name, noCall, Genotype.NO_NEG_LOG_10PERROR, null, attributes, false));
+        }
+        return GLs;
+    }
+
+    private static double[] makePriors(int numChr) {
+        double[] priors = new double[numChr+1];
+        double sum = 0.0;
+        for ( int i = 1; i <= numChr; i++ ) {
+            priors[i] = Math.log10(1e-3 / i);
+            sum += 1e-3 / i;
+        }
+        priors[0] = Math.log10(1.0 - sum);
+        return priors;
+    }
+
+    private static double[] makePosteriors(int numChr) {
+        double[] posteriors = new double[numChr+1];
+        Arrays.fill(posteriors, AlleleFrequencyCalculationModel.VALUE_NOT_CALCULATED);
+        return posteriors;
+    }
+}
@@ -1,10 +1,19 @@
 package org.broadinstitute.sting.gatk.walkers.genotyper;
 
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
 import org.testng.Assert;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.genotype.DiploidGenotype;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
 import org.broadinstitute.sting.BaseTest;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.Math.log10;
 
@@ -107,4 +116,61 @@ public class GenotypeLikelihoodsUnitTest extends BaseTest {
             Assert.assertEquals(val, e, DELTA, String.format("%s should have p=%f but has p=%f", g, val, e));
         }
     }
+
+    @Test
+    public void testPileupLikelihoods() {
+        final double pcrErrorRate = 1e-3;
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        GenomeLoc loc = new GenomeLocParser(header.getSequenceDictionary()).createGenomeLoc("chr1", 10, 10);
+
+        // two single reads and one two-read fragment
+        List<PileupElement> elements = new ArrayList<PileupElement>();
+        elements.add(new PileupElement(createRead(header, "single1", (byte)'A', (byte)30), 0));
+        elements.add(new PileupElement(createRead(header, "single2", (byte)'C', (byte)20), 0));
+        elements.add(new PileupElement(createRead(header, "pair", (byte)'C', (byte)25), 0));
+        elements.add(new PileupElement(createRead(header, "pair", (byte)'G', (byte)15), 0));
+        ReadBackedPileupImpl pileup = new ReadBackedPileupImpl(loc, elements);
+
+        DiploidSNPGenotypeLikelihoods GL = new DiploidSNPGenotypeLikelihoods(new DiploidSNPGenotypePriors(), pcrErrorRate);
+        Assert.assertEquals(GL.add(pileup, true, false, 0), 3);
+
+        double[] likelihoods = new double[DiploidGenotype.values().length];
+        Assert.assertEquals(new DiploidSNPGenotypeLikelihoods(new DiploidSNPGenotypePriors(), pcrErrorRate).add(pileup, true, false, 0, likelihoods), 3);
+
+        for ( DiploidGenotype g : DiploidGenotype.values() ) {
+            double expected = fragmentLikelihood(g, pcrErrorRate, (byte)'A', 30, (byte)0, 0)
+                    + fragmentLikelihood(g, pcrErrorRate, (byte)'C', 20, (byte)0, 0)
+                    + fragmentLikelihood(g, pcrErrorRate, (byte)'C', 25, (byte)'G', 15);
+            Assert.assertEquals(GL.getLikelihood(g), expected, DELTA, "Likelihood of " + g);
+            Assert.assertEquals(likelihoods[g.ordinal()], expected, DELTA, "Likelihood of " + g + " added to a caller's array");
+        }
+    }
+
+    private static SAMRecord createRead(SAMFileHeader header, String name, byte base, byte qual) {
+        return ArtificialSAMUtils.createArtificialRead(header, name, 0, 10, new byte[]{base}, new byte[]{qual});
+    }
+
+    /**
+     * The likelihood of a fragment given the genotype, straight from the model: the fragment base is the
+     * chromosome base unless there was a PCR error, and each read then observes the fragment base unless
+     * there was a sequencing error.
+     */
+    private static double fragmentLikelihood(DiploidGenotype g, double pcrErrorRate, byte base1, int qual1, byte base2, int qual2) {
+        double p = 0.0;
+        for ( byte chromBase : new byte[]{g.base1, g.base2} ) {
+            for ( byte fragmentBase : new byte[]{'A', 'C', 'G', 'T'} ) {
+                double pFragment = fragmentBase == chromBase ? 1 - pcrErrorRate : pcrErrorRate / 3;
+                pFragment *= pObserved(base1, fragmentBase, qual1);
+                if ( qual2 > 0 )
+                    pFragment *= pObserved(base2, fragmentBase, qual2);
+                p += pFragment / 2;
+            }
+        }
+        return log10(p);
+    }
+
+    private static double pObserved(byte observed, byte fragmentBase, int qual) {
+        double e = Math.pow(10, qual / -10.0);
+        return observed == fragmentBase ? 1 - e : e / 3;
+    }
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.genotyper;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContextUtils;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class LocusStratificationUnitTest extends BaseTest {
+    private AlignmentContext rawContext;
+
+    @BeforeMethod
+    public void setUp() {
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        SAMReadGroupRecord readGroupOne = new SAMReadGroupRecord("rg1");
+        readGroupOne.setSample("sample1");
+        SAMReadGroupRecord readGroupTwo = new SAMReadGroupRecord("rg2");
+        readGroupTwo.setSample("sample2");
+        header.addReadGroup(readGroupOne);
+        header.addReadGroup(readGroupTwo);
+        GenomeLoc loc = new GenomeLocParser(header.getSequenceDictionary()).createGenomeLoc("chr1", 10, 10);
+
+        // sample1 has two forward reads, one of them with mapping quality 0, and a reverse one; sample2 only a reverse read
+        List<PileupElement> elements = new ArrayList<PileupElement>();
+        elements.add(new PileupElement(createRead(header, "read1", readGroupOne, false, 60), 0));
+        elements.add(new PileupElement(createRead(header, "read2", readGroupOne, false, 0), 0));
+        elements.add(new PileupElement(createRead(header, "read3", readGroupOne, true, 60), 0));
+        elements.add(new PileupElement(createRead(header, "read4", readGroupTwo, true, 60), 0));
+        rawContext = new AlignmentContext(loc, new ReadBackedPileupImpl(loc, elements));
+    }
+
+    @Test
+    public void testStrandContexts() {
+        Map<String, AlignmentContext> contexts = AlignmentContextUtils.splitContextBySampleName(rawContext.getBasePileup(), null);
+        LocusStratification stratification = new LocusStratification(rawContext, contexts, true, null);
+
+        Assert.assertSame(stratification.getContexts(AlignmentContextUtils.ReadOrientation.COMPLETE), contexts);
+
+        Map<String, AlignmentContext> forward = stratification.getContexts(AlignmentContextUtils.ReadOrientation.FORWARD);
+        Assert.assertEquals(forward.get("sample1").getBasePileup().size(), 2);
+        Assert.assertEquals(forward.get("sample2").getBasePileup().size(), 0);
+        Assert.assertSame(stratification.getContexts(AlignmentContextUtils.ReadOrientation.FORWARD), forward, "Strand contexts weren't reused");
+
+        Map<String, AlignmentContext> reverse = stratification.getContexts(AlignmentContextUtils.ReadOrientation.REVERSE);
+        Assert.assertEquals(reverse.get("sample1").getBasePileup().size(), 1);
+        Assert.assertEquals(reverse.get("sample2").getBasePileup().size(), 1);
+    }
+
+    @Test
+    public void testUnfilteredContexts() {
+        Map<String, AlignmentContext> unfiltered = AlignmentContextUtils.splitContextBySampleName(rawContext.getBasePileup(), null);
+        Assert.assertSame(new LocusStratification(rawContext, unfiltered, true, null).getUnfilteredContexts(), unfiltered);
+
+        ReadBackedPileup filteredPileup = rawContext.getBasePileup().getMappingFilteredPileup(20);
+        Map<String, AlignmentContext> filtered = AlignmentContextUtils.splitContextBySampleName(filteredPileup, null);
+        LocusStratification stratification = new LocusStratification(rawContext, filtered, false, null);
+        Assert.assertEquals(filtered.get("sample1").getBasePileup().size(), 2);
+
+        Map<String, AlignmentContext> annotationContexts = stratification.getUnfilteredContexts();
+        Assert.assertEquals(annotationContexts.get("sample1").getBasePileup().size(), 3);
+        Assert.assertEquals(annotationContexts.get("sample2").getBasePileup().size(), 1);
+        Assert.assertSame(stratification.getUnfilteredContexts(), annotationContexts, "Unfiltered contexts weren't reused");
+    }
+
+    @Test
+    public void testUncallableLocus() {
+        LocusStratification stratification = new LocusStratification(rawContext, null, true, null);
+        Assert.assertNull(stratification.getContexts());
+        Assert.assertNull(stratification.getContexts(AlignmentContextUtils.ReadOrientation.FORWARD));
+        Assert.assertEquals(stratification.getUnfilteredContexts().size(), 2);
+    }
+
+    private static SAMRecord createRead(SAMFileHeader header, String name, SAMReadGroupRecord readGroup, boolean negativeStrand, int mappingQuality) {
+        SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, name, 0, 10, new byte[]{'A'}, new byte[]{30});
+        read.setAttribute("RG", readGroup.getId());
+        read.setReadNegativeStrandFlag(negativeStrand);
+        read.setMappingQuality(mappingQuality);
+        return read;
+    }
+}
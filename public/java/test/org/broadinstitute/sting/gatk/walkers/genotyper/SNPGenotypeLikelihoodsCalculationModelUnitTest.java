@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.genotyper;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SNPGenotypeLikelihoodsCalculationModelUnitTest extends BaseTest {
+    private static final int MIN_BASE_QUAL = 17;
+
+    private SAMFileHeader header;
+    private GenomeLoc loc;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        loc = new GenomeLocParser(header.getSequenceDictionary()).createGenomeLoc("chr1", 10, 10);
+    }
+
+    @Test
+    public void testReferenceOnlyPileup() {
+        ReadBackedPileup pileup = createPileup("AAAA", new byte[]{30, 30, 30, 30});
+        Assert.assertFalse(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, false));
+        Assert.assertFalse(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, true));
+    }
+
+    @Test
+    public void testAlternateBase() {
+        ReadBackedPileup pileup = createPileup("AAGA", new byte[]{30, 30, MIN_BASE_QUAL, 30});
+        Assert.assertTrue(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, false));
+    }
+
+    @Test
+    public void testLowQualityAlternateBase() {
+        // too low a quality to count, unless BAQ might change it
+        ReadBackedPileup pileup = createPileup("AAGA", new byte[]{30, 30, MIN_BASE_QUAL - 1, 30});
+        Assert.assertFalse(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, false));
+        Assert.assertTrue(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, true));
+
+        // a zero quality adds nothing to the quality sums even when every base counts
+        Assert.assertFalse(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', createPileup("AG", new byte[]{30, 0}), 0, false));
+    }
+
+    @Test
+    public void testNonRegularBases() {
+        ReadBackedPileup pileup = createPileup("ANAN", new byte[]{30, 30, 30, 30});
+        Assert.assertFalse(SNPGenotypeLikelihoodsCalculationModel.hasAlternateAlleleEvidence((byte)'A', pileup, MIN_BASE_QUAL, true));
+    }
+
+    private ReadBackedPileup createPileup(String bases, byte[] quals) {
+        List<PileupElement> elements = new ArrayList<PileupElement>();
+        for ( int i = 0; i < bases.length(); i++ )
+            elements.add(new PileupElement(ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, 10, new byte[]{(byte)bases.charAt(i)}, new byte[]{quals[i]}), 0));
+        return new ReadBackedPileupImpl(loc, elements);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.indels;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.MathUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks PairHMM against straightforward implementations of the affine gap recurrences.
+ */
+public class PairHMMUnitTest extends BaseTest {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+    private static final double END_GAP_COST = -Math.log10(2.0);
+
+    private static class Case {
+        final byte[] haplotype, read, quals;
+        final double[] gapOpen, gapContinuation;
+
+        Case(Random random, int haplotypeLength, int readLength) {
+            haplotype = randomBases(random,haplotypeLength);
+            // the read is a mutated chunk of the haplotype
+            read = new byte[readLength];
+            final int offset = random.nextInt(Math.max(haplotypeLength-readLength,0)+1);
+            for (int i = 0; i < readLength; i++)
+                read[i] = offset+i < haplotypeLength && random.nextInt(10) > 0 ? haplotype[offset+i] : BASES[random.nextInt(4)];
+            quals = new byte[readLength];
+            for (int i = 0; i < readLength; i++)
+                quals[i] = (byte)random.nextInt(45);
+            gapOpen = new double[haplotypeLength];
+            gapContinuation = new double[haplotypeLength];
+            for (int i = 0; i < haplotypeLength; i++) {
+                gapOpen[i] = -4.5 + random.nextDouble();
+                gapContinuation[i] = -1.0 - random.nextDouble();
+            }
+        }
+
+        public String toString() {
+            return String.format("hap=%s read=%s", new String(haplotype), new String(read));
+        }
+    }
+
+    private static byte[] randomBases(Random random, int length) {
+        byte[] bases = new byte[length];
+        for (int i = 0; i < length; i++)
+            bases[i] = BASES[random.nextInt(4)];
+        return bases;
+    }
+
+    /**
+     * The recurrences as PairHMMIndelErrorModel has always computed them.
+     */
+    private static double legacyLikelihood(byte[] haplotype, byte[] read, byte[] quals, double[] gop, double[] gcp, boolean viterbi, boolean exact) {
+        final int rows = read.length+1, columns = haplotype.length+1;
+        double[][] M = new double[rows][columns], X = new double[rows][columns], Y = new double[rows][columns];
+        M[0][0] = END_GAP_COST;
+        for (int i = 1; i < rows; i++) {
+            M[i][0] = Y[i][0] = Double.NEGATIVE_INFINITY;
+            X[i][0] = END_GAP_COST*i;
+        }
+        for (int j = 1; j < columns; j++) {
+            M[0][j] = X[0][j] = Double.NEGATIVE_INFINITY;
+            Y[0][j] = END_GAP_COST*j;
+        }
+        for (int i = 1; i < rows; i++) {
+            for (int j = 1; j < columns; j++) {
+                int qual = Math.min(Math.max(quals[i-1],1),127);
+                double baseProb = Math.pow(10, -qual/10.);
+                double pBaseRead = read[i-1] == haplotype[j-1] ? Math.log10(1-baseProb) : Math.log10(baseProb);
+                double xc = j == columns-1 ? END_GAP_COST : gop[j-1], xd = j == columns-1 ? END_GAP_COST : gcp[j-1];
+                double yc = i == rows-1 ? END_GAP_COST : gop[j-1], yd = i == rows-1 ? END_GAP_COST : gcp[j-1];
+                M[i][j] = sum(viterbi,exact,M[i-1][j-1] + pBaseRead, X[i-1][j-1] + pBaseRead, Y[i-1][j-1] + pBaseRead);
+                X[i][j] = sum(viterbi,exact,M[i-1][j] + xc, X[i-1][j] + xd);
+                Y[i][j] = sum(viterbi,exact,M[i][j-1] + yc, Y[i][j-1] + yd);
+            }
+        }
+        return sum(viterbi,exact,M[rows-1][columns-1],X[rows-1][columns-1],Y[rows-1][columns-1]);
+    }
+
+    private static double sum(boolean viterbi, boolean exact, double... log10Values) {
+        if (viterbi)
+            return MathUtils.arrayMax(log10Values);
+        if (!exact)
+            return MathUtils.softMax(log10Values);
+        double max = MathUtils.arrayMax(log10Values);
+        if (Double.isInfinite(max))
+            return max;
+        double sum = 0.0;
+        for (double value: log10Values)
+            sum += Math.pow(10.0,value-max);
+        return max + Math.log10(sum);
+    }
+
+    @DataProvider(name = "cases")
+    public Object[][] makeCases() {
+        Random random = new Random(42);
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for (int haplotypeLength: Arrays.asList(1, 5, 20, 80)) {
+            for (int readLength: Arrays.asList(0, 1, 10, 50)) {
+                for (int rep = 0; rep < 3; rep++)
+                    tests.add(new Object[]{ new Case(random,haplotypeLength,readLength) });
+            }
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "cases")
+    public void testLogJacobianMatchesLegacy(Case test) {
+        for (boolean viterbi: Arrays.asList(false, true)) {
+            double expected = legacyLikelihood(test.haplotype, test.read, test.quals, test.gapOpen, test.gapContinuation, viterbi, false);
+            double actual = new PairHMM(PairHMM.Kernel.LOG_JACOBIAN,viterbi).computeReadLikelihoodGivenHaplotype(test.haplotype, 0, test.haplotype.length,
+                    test.read, test.quals, test.gapOpen, test.gapContinuation);
+            Assert.assertEquals(actual, expected, 0.0, "viterbi=" + viterbi);
+        }
+    }
+
+    @Test(dataProvider = "cases")
+    public void testScaledProbabilityMatchesExactSum(Case test) {
+        double expected = legacyLikelihood(test.haplotype, test.read, test.quals, test.gapOpen, test.gapContinuation, false, true);
+        double actual = new PairHMM(PairHMM.Kernel.SCALED_PROBABILITY,false).computeReadLikelihoodGivenHaplotype(test.haplotype, 0, test.haplotype.length,
+                test.read, test.quals, test.gapOpen, test.gapContinuation);
+        Assert.assertEquals(actual, expected, 1e-8);
+    }
+
+    @Test
+    public void testReuseAcrossHaplotypes() {
+        Random random = new Random(17);
+        for (PairHMM.Kernel kernel: PairHMM.Kernel.values()) {
+            PairHMM reused = new PairHMM(kernel,false);
+            for (int rep = 0; rep < 20; rep++) {
+                Case test = new Case(random,60,30);
+                // haplotypes sharing a prefix and scored as windows of a longer array, as the indel model does
+                List<byte[]> haplotypes = new ArrayList<byte[]>();
+                haplotypes.add(test.haplotype);
+                for (int k = 0; k < 4; k++) {
+                    byte[] variant = Arrays.copyOf(test.haplotype,test.haplotype.length);
+                    variant[20 + random.nextInt(40)] = BASES[random.nextInt(4)];
+                    haplotypes.add(variant);
+                }
+                haplotypes.add(Arrays.copyOf(test.haplotype,test.haplotype.length));
+                for (byte[] haplotype: haplotypes) {
+                    for (int start: Arrays.asList(0, 5)) {
+                        int stop = haplotype.length - random.nextInt(5);
+                        double expected = new PairHMM(kernel,false).computeReadLikelihoodGivenHaplotype(haplotype, start, stop,
+                                test.read, test.quals, test.gapOpen, test.gapContinuation);
+                        double actual = reused.computeReadLikelihoodGivenHaplotype(haplotype, start, stop,
+                                test.read, test.quals, test.gapOpen, test.gapContinuation);
+                        Assert.assertEquals(actual, expected, 0.0, kernel + " " + test);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScaledProbabilityFallsBackOnUnderflow() {
+        // a long read that matches nothing, scored against a short haplotype: even the end gap path is
+        // far too unlikely to represent with scaling
+        byte[] haplotype = "AAAA".getBytes();
+        byte[] read = new byte[2500];
+        Arrays.fill(read,(byte)'C');
+        byte[] quals = new byte[read.length];
+        Arrays.fill(quals,(byte)40);
+        double[] gop = new double[haplotype.length], gcp = new double[haplotype.length];
+        Arrays.fill(gop,-4.5);
+        Arrays.fill(gcp,-1.0);
+
+        double expected = legacyLikelihood(haplotype, read, quals, gop, gcp, false, false);
+        double actual = new PairHMM(PairHMM.Kernel.SCALED_PROBABILITY,false).computeReadLikelihoodGivenHaplotype(haplotype, 0, haplotype.length,
+                read, quals, gop, gcp);
+        Assert.assertTrue(expected < -700, "test read isn't unlikely enough to underflow: " + expected);
+        Assert.assertEquals(actual, expected, 0.0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMReadGroupRecord;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the int keys of every built-in covariate stand for exactly the values given by getValues().
+ */
+public class CovariateKeysUnitTest extends BaseTest {
+    private static final String READ_GROUP_ID = "rg1";
+
+    private static List<SAMRecord> createReads() {
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 0, 1000);
+        SAMReadGroupRecord readGroup = new SAMReadGroupRecord(READ_GROUP_ID);
+        readGroup.setPlatform("illumina");
+        header.addReadGroup(readGroup);
+
+        List<SAMRecord> reads = new ArrayList<SAMRecord>();
+        for(String bases: new String[] { "ACGTTNGGGCATNNCAAAG", "acgtTRYAaGcNnCTgkAC" }) {
+            for(boolean negativeStrand: new boolean[] { false, true }) {
+                SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + reads.size(), 0, 10,
+                        bases.getBytes(), new byte[] { 30,31,2,40,40,0,12,13,14,30,30,5,5,20,21,22,23,24,25 });
+                read.setReadNegativeStrandFlag(negativeStrand);
+                read.setMappingQuality(37);
+                read.setAttribute("RG", READ_GROUP_ID);
+                reads.add(new GATKSAMRecord(read, false, (byte)0));
+            }
+        }
+        return reads;
+    }
+
+    @DataProvider(name = "covariates")
+    public Object[][] createCovariates() {
+        Covariate[] covariates = { new ReadGroupCovariate(), new QualityScoreCovariate(), new CycleCovariate(), new DinucCovariate(),
+                new HomopolymerCovariate(), new GCContentCovariate(), new MappingQualityCovariate(), new MinimumNQSCovariate(),
+                new PositionCovariate(), new PrimerRoundCovariate() };
+        RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
+        RAC.DEFAULT_PLATFORM = "illumina";
+        Object[][] tests = new Object[covariates.length][];
+        for(int i = 0; i < covariates.length; i++) {
+            covariates[i].initialize(RAC);
+            tests[i] = new Object[] { covariates[i] };
+        }
+        return tests;
+    }
+
+    @Test(dataProvider = "covariates")
+    @SuppressWarnings("unchecked")
+    public void testKeysMatchValues(Covariate covariate) {
+        for(SAMRecord read: createReads()) {
+            Comparable<?>[] values = new Comparable<?>[read.getReadLength()];
+            int[] keys = new int[read.getReadLength()];
+            covariate.getValues(read, values);
+            covariate.getKeys(read, keys);
+
+            for(int offset = 0; offset < read.getReadLength(); offset++) {
+                String value = String.valueOf(values[offset]);
+                Assert.assertEquals(covariate.keyToString(keys[offset]), value, "Wrong value at offset " + offset);
+                if(covariate instanceof IntegerCovariate)
+                    Assert.assertEquals(((IntegerCovariate)covariate).getValue(read, offset), keys[offset], "Wrong single value at offset " + offset);
+                if(values[offset] == null)
+                    continue;
+
+                // keyFromString() must agree with getValue(String), which for instance reads dinucs of "NN" back as null
+                Assert.assertEquals(covariate.keyFromString(value), covariate.getValue(value) == null ? Covariate.NULL_KEY : keys[offset], "Wrong key for " + value);
+                for(int other = 0; other < read.getReadLength(); other++) {
+                    if(values[other] != null)
+                        Assert.assertEquals(Integer.signum(covariate.compareKeys(keys[offset], keys[other])), Integer.signum(((Comparable<Object>)values[offset]).compareTo(values[other])),
+                                "Keys ordered differently from " + values[offset] + " and " + values[other]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadCovariateKeysInterleavesCovariates() {
+        List<Covariate> covariates = new ArrayList<Covariate>();
+        for(Object[] test: createCovariates())
+            covariates.add((Covariate)test[0]);
+
+        ReadCovariateKeys readKeys = new ReadCovariateKeys(covariates);
+        for(SAMRecord read: createReads()) {
+            readKeys.computeKeys(read);
+            Assert.assertEquals(readKeys.getReadLength(), read.getReadLength());
+            for(int iii = 0; iii < covariates.size(); iii++) {
+                int[] keys = new int[read.getReadLength()];
+                covariates.get(iii).getKeys(read, keys);
+                for(int offset = 0; offset < read.getReadLength(); offset++)
+                    Assert.assertEquals(readKeys.getKeys()[readKeys.getKeyStart(offset) + iii], keys[offset]);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.recalibration;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the array-backed recalibration tables reproduce the arithmetic of RecalDatum.
+ */
+public class RecalDataTableUnitTest extends BaseTest {
+    private static final RecalDatum[] DATA = {
+            new RecalDatum(100, 3, 20.0, 0.0),
+            new RecalDatum(57, 12, 11.0, 0.0),
+            new RecalDatum(1000, 1, 35.0, 0.0),
+            new RecalDatum(4, 0, 2.0, 0.0) };
+
+    @Test
+    public void testCombineMatchesRecalDatum() {
+        CollapsedRecalDataTable table = new CollapsedRecalDataTable(1);
+        RecalDatum expected = new RecalDatum(DATA[0]);
+        table.combine(new int[] {7}, DATA[0]);
+        for(int i = 1; i < DATA.length; i++) {
+            expected.combine(DATA[i]);
+            table.combine(new int[] {7}, DATA[i]);
+        }
+        expected.calcCombinedEmpiricalQuality(1, 50);
+        table.calcCombinedEmpiricalQualities(1, 50);
+
+        Assert.assertEquals(table.size(), 1);
+        Assert.assertEquals(table.getNumObservations(0), expected.getNumObservations());
+        Assert.assertEquals(table.getNumMismatches(0), expected.getNumMismatches());
+        Assert.assertEquals(table.getEstimatedQReported(0), expected.getEstimatedQReported());
+        Assert.assertEquals(table.getEmpiricalQuality(0), expected.getEmpiricalQuality());
+    }
+
+    @Test
+    public void testIncrementKeepsFirstReportedQuality() {
+        CollapsedRecalDataTable table = new CollapsedRecalDataTable(2);
+        for(RecalDatum datum: DATA)
+            table.increment(new int[] {1,2}, datum);
+        Assert.assertEquals(table.getNumObservations(0), 1161L);
+        Assert.assertEquals(table.getNumMismatches(0), 16L);
+        Assert.assertEquals(table.getEstimatedQReported(0), 20.0);
+    }
+
+    @Test
+    public void testPerThreadTablesAreMerged() throws InterruptedException {
+        final RecalDataManager dataManager = new RecalDataManager(false, 3);
+        final int[] key = {0, 30, 5};
+        Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for(int j = 0; j < 1000; j++)
+                        dataManager.getDataTable().incrementBaseCounts(key, (byte)'A', j % 10 == 0 ? (byte)'C' : (byte)'A');
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread: threads)
+            thread.join();
+
+        RecalDataTable merged = dataManager.getMergedDataTable();
+        Assert.assertEquals(merged.size(), 1);
+        Assert.assertEquals(merged.getNumObservations(0), 4000L);
+        Assert.assertEquals(merged.getNumMismatches(0), 400L);
+        Assert.assertEquals(merged.outputToCSV(0), new RecalDatumOptimized(4000, 400).outputToCSV());
+        Assert.assertEquals(merged.getTuple(0, new int[3]), key);
+    }
+
+    @Test
+    public void testSingletonCovariateValuesAreDropped() {
+        RecalDataManager dataManager = new RecalDataManager(true, 3);
+        dataManager.addToAllTables(new int[] {0, 30, 1}, new RecalDatum(10, 1, 30.0, 0.0), 5);
+        dataManager.addToAllTables(new int[] {0, 30, 2}, new RecalDatum(10, 2, 30.0, 0.0), 5);
+        dataManager.addToAllTables(new int[] {0, 20, 1}, new RecalDatum(10, 3, 20.0, 0.0), 5);
+        dataManager.addToAllTables(new int[] {0, 4, 1}, new RecalDatum(10, 3, 4.0, 0.0), 5);
+        dataManager.generateEmpiricalQualities(1, 50);
+
+        Assert.assertEquals(dataManager.getCollapsedTable(0).size(), 1);
+        Assert.assertEquals(dataManager.getCollapsedTable(0).getNumObservations(0), 30L, "Qualities below the preserve threshold shouldn't count towards the read group");
+        Assert.assertEquals(dataManager.getCollapsedTable(1).size(), 3);
+
+        CollapsedRecalDataTable covariateTable = dataManager.getCollapsedTable(2);
+        Assert.assertEquals(covariateTable.size(), 2, "Only the quality 30 bins have more than one covariate value");
+        Assert.assertTrue(covariateTable.find(new int[] {0, 30, 2}) >= 0);
+        Assert.assertEquals(covariateTable.find(new int[] {0, 20, 1}), -1);
+    }
+}
@@ -191,4 +191,22 @@ public class GenomeLocParserUnitTest extends BaseTest {
         assertTrue(!genomeLocParser.isValidGenomeLoc("chr1",1,-2)); // bad stop
         assertTrue(!genomeLocParser.isValidGenomeLoc("chr1",10,11)); // bad start, past end
     }
+
+    @Test
+    public void testPackedLocus() {
+        GenomeLoc loc = genomeLocParser.createGenomeLoc("chr1", 7);
+        long locus = GenomeLocParser.packLocus(loc);
+        assertEquals(GenomeLocParser.getPackedContigIndex(locus), 0);
+        assertEquals(GenomeLocParser.getPackedPosition(locus), 7);
+        assertEquals(genomeLocParser.createGenomeLoc(locus), loc);
+        assertEquals(genomeLocParser.createGenomeLoc(locus + 1), genomeLocParser.createGenomeLoc("chr1", 8));
+
+        // packed loci sort like genome locs
+        assertTrue(GenomeLocParser.packLocus(0, Integer.MAX_VALUE) < GenomeLocParser.packLocus(1, 0));
+    }
+
+    @Test(expectedExceptions=UserException.MalformedGenomeLoc.class)
+    public void testPackedLocusUnknownContig() {
+        genomeLocParser.createGenomeLoc(GenomeLocParser.packLocus(1, 1));
+    }
 }
@@ -213,6 +213,73 @@ public class GenomeLocSortedSetUnitTest extends BaseTest {
         assertEquals(genomeLocParser.createGenomeLoc(contigOneName, 19, 20), p4);
     }
 
+    @Test
+    public void addRegionBridgingSeveralRegions() {
+        mSortedSet.addRegion(genomeLocParser.createGenomeLoc(contigOneName, 50, 60));
+        mSortedSet.addRegion(genomeLocParser.createGenomeLoc(contigOneName, 1, 10));
+        mSortedSet.addRegion(genomeLocParser.createGenomeLoc(contigOneName, 30, 40));
+        mSortedSet.addRegion(genomeLocParser.createGenomeLoc(contigOneName, 80, 90));
+        assertEquals(mSortedSet.size(), 4);
+
+        // abuts the first region and overlaps the next two
+        mSortedSet.addRegion(genomeLocParser.createGenomeLoc(contigOneName, 11, 55));
+        assertEquals(mSortedSet.size(), 2);
+        Iterator<GenomeLoc> it = mSortedSet.iterator();
+        assertEquals(it.next(), genomeLocParser.createGenomeLoc(contigOneName, 1, 60));
+        assertEquals(it.next(), genomeLocParser.createGenomeLoc(contigOneName, 80, 90));
+    }
+
+    @Test
+    public void containsAndIteratorRemove() {
+        GenomeLoc r1 = genomeLocParser.createGenomeLoc(contigOneName, 3, 5);
+        GenomeLoc r2 = genomeLocParser.createGenomeLoc(contigOneName, 10, 12);
+        mSortedSet.addAll(Arrays.asList(r2, r1));
+
+        assertTrue(mSortedSet.contains(r1));
+        assertTrue(!mSortedSet.contains(genomeLocParser.createGenomeLoc(contigOneName, 3, 4)));
+
+        Iterator<GenomeLoc> it = mSortedSet.iterator();
+        assertEquals(it.next(), r1);
+        it.remove();
+        assertEquals(it.next(), r2);
+        assertTrue(!it.hasNext());
+        assertEquals(mSortedSet.toList(), Arrays.asList(r2));
+    }
+
+    @Test
+    public void subtractOverlappingExcludes() {
+        mSortedSet.add(genomeLocParser.createGenomeLoc(contigOneName, 1, 100));
+        mSortedSet.add(genomeLocParser.createGenomeLoc(contigOneName, 200, 300));
+
+        GenomeLocSortedSet toExclude = new GenomeLocSortedSet(genomeLocParser);
+        toExclude.add(genomeLocParser.createGenomeLoc(contigOneName, 10, 250));
+        toExclude.add(genomeLocParser.createGenomeLoc(contigOneName, 20, 30));
+        toExclude.add(genomeLocParser.createGenomeLoc(contigOneName, 290, 400));
+
+        GenomeLocSortedSet remaining = mSortedSet.subtractRegions(toExclude);
+        assertEquals(remaining.toList(), Arrays.asList(genomeLocParser.createGenomeLoc(contigOneName, 1, 9),
+                                                       genomeLocParser.createGenomeLoc(contigOneName, 251, 289)));
+    }
+
+    @Test
+    public void addSameStart() {
+        GenomeLoc longer = genomeLocParser.createGenomeLoc(contigOneName, 10, 50);
+        GenomeLoc shorter = genomeLocParser.createGenomeLoc(contigOneName, 10, 20);
+        GenomeLoc after = genomeLocParser.createGenomeLoc(contigOneName, 10, 30);
+        mSortedSet.add(longer);
+        mSortedSet.add(shorter);
+        mSortedSet.add(after);
+        assertEquals(mSortedSet.toList(), Arrays.asList(shorter, after, longer));
+        assertTrue(mSortedSet.contains(after));
+    }
+
+    @Test(expectedExceptions=ReviewedStingException.class)
+    public void addDuplicate() {
+        mSortedSet.add(genomeLocParser.createGenomeLoc(contigOneName, 10, 50));
+        mSortedSet.add(genomeLocParser.createGenomeLoc(contigOneName, 10, 20));
+        mSortedSet.add(genomeLocParser.createGenomeLoc(contigOneName, 10, 50));
+    }
+
     private void testSizeBeforeLocX(int pos, int size) {
         GenomeLoc test = genomeLocParser.createGenomeLoc(contigOneName, pos, pos);
         assertEquals(mSortedSet.sizeBeforeLoc(test), size, String.format("X pos=%d size=%d", pos, size));
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that the lazily decoded INFO map behaves exactly like the map the codec used to build up front.
+ */
+public class LazyVCFInfoMapUnitTest extends BaseTest {
+    private static final List<String> KEYS_TO_TRY = Arrays.asList("AC", "AF", "DB", "DP", "MQ0", "ID", "", "A", "AC=1", "NOT_PRESENT");
+
+    /**
+     * The INFO decoding the codec has always done.
+     */
+    private static Map<String, Object> eagerlyDecode(String infoField) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        if ( !infoField.equals(VCFConstants.EMPTY_INFO_FIELD) ) {
+            String[] infoValueArray = new String[1000];
+            int infoValueSplitSize = org.broad.tribble.util.ParsingUtils.split(infoField, infoValueArray, VCFConstants.INFO_FIELD_SEPARATOR_CHAR);
+            for (int i = 0; i < infoValueSplitSize; i++) {
+                int eqI = infoValueArray[i].indexOf("=");
+                if ( eqI != -1 ) {
+                    String str = infoValueArray[i].substring(eqI+1, infoValueArray[i].length());
+                    attributes.put(infoValueArray[i].substring(0, eqI), str.contains(",") ? Arrays.asList(str.split(",")) : str);
+                } else {
+                    attributes.put(infoValueArray[i], true);
+                }
+            }
+        }
+        return attributes;
+    }
+
+    @DataProvider(name = "infoFields")
+    public Object[][] makeInfoFields() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( String info : Arrays.asList(".", "DB", "AC=1", "AC=1;AF=0.50;AN=2;DB;DP=1019", "AC=1,2;AF=0.25,0.5", "AC=1;AC=2",
+                "AC=;DB;A=B=C", "AC=1;;DP=3", "AC=1;", ";AC=1", "ID=rs1;AC=1", "AC==1", "A") )
+            tests.add(new Object[]{info});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "infoFields")
+    public void testSingleKeysWithoutDecoding(String info) {
+        Map<String, Object> expected = eagerlyDecode(info);
+        LazyVCFInfoMap map = new LazyVCFInfoMap(info);
+        for ( String key : KEYS_TO_TRY ) {
+            Assert.assertEquals(map.containsKey(key), expected.containsKey(key), "key " + key + " in " + info);
+            Assert.assertEquals(map.get(key), expected.get(key), "key " + key + " in " + info);
+        }
+        Assert.assertEquals(map.isDecoded(), info.startsWith(";"), "single key lookups shouldn't decode " + info);
+        Assert.assertEquals(map, expected);
+        Assert.assertTrue(map.isDecoded());
+    }
+
+    @Test(dataProvider = "infoFields")
+    public void testPutAndRemove(String info) {
+        Map<String, Object> expected = eagerlyDecode(info);
+        expected.put(VariantContext.ID_KEY, "rs123");
+        expected.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, "GT:DP");
+
+        LazyVCFInfoMap map = new LazyVCFInfoMap(info);
+        map.put(VariantContext.ID_KEY, "rs123");
+        map.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, "GT:DP");
+        Assert.assertEquals(map.get(VariantContext.ID_KEY), "rs123");
+
+        // removing keys that only exist outside of the INFO column doesn't need to decode it
+        Assert.assertEquals(map.remove(VariantContext.UNPARSED_GENOTYPE_MAP_KEY), expected.remove(VariantContext.UNPARSED_GENOTYPE_MAP_KEY));
+        Assert.assertEquals(map.isDecoded(), info.startsWith(";"));
+
+        for ( String key : KEYS_TO_TRY )
+            Assert.assertEquals(map.remove(key), expected.remove(key), "key " + key + " in " + info);
+        Assert.assertEquals(map, expected);
+    }
+
+    @Test(dataProvider = "infoFields")
+    public void testConcurrentReads(final String info) throws Exception {
+        final Map<String, Object> expected = eagerlyDecode(info);
+        expected.put(VariantContext.ID_KEY, "rs123");
+        for ( int trial = 0; trial < 50; trial++ ) {
+            final LazyVCFInfoMap map = new LazyVCFInfoMap(info);
+            map.put(VariantContext.ID_KEY, "rs123");
+
+            // half of the threads look up single keys while the other half decode the whole map
+            List<Callable<Boolean>> readers = new ArrayList<Callable<Boolean>>();
+            for ( int i = 0; i < 4; i++ ) {
+                final boolean decode = i % 2 == 0;
+                readers.add(new Callable<Boolean>() {
+                    public Boolean call() {
+                        if ( decode )
+                            return new HashMap<String, Object>(map).equals(expected);
+                        for ( String key : KEYS_TO_TRY ) {
+                            if ( map.containsKey(key) != expected.containsKey(key) || !equal(map.get(key), expected.get(key)) )
+                                return false;
+                        }
+                        return true;
+                    }
+                });
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(readers.size());
+            try {
+                for ( Future<Boolean> result : pool.invokeAll(readers) )
+                    Assert.assertTrue(result.get(), "concurrent read of " + info);
+            } finally {
+                pool.shutdown();
+            }
+            Assert.assertEquals(map, expected);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Test
+    public void testCodecAttributesMatchInfoColumn() throws IOException {
+        File vcf = new File(testDir + "HiSeq.10000.vcf");
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReader reader = new AsciiLineReader(new FileInputStream(vcf));
+        codec.readHeader(reader);
+        reader.close();
+
+        reader = new AsciiLineReader(new FileInputStream(vcf));
+        String line;
+        int records = 0;
+        while ( (line = reader.readLine()) != null ) {
+            if ( line.startsWith("#") )
+                continue;
+            String[] columns = line.split("\t");
+            VariantContext vc = (VariantContext)codec.decode(line);
+            Map<String, Object> expected = eagerlyDecode(columns[7]);
+            Assert.assertEquals(vc.getAttribute("DP"), expected.get("DP"));
+            Assert.assertEquals(vc.getID(), columns[2]);
+            Assert.assertEquals(vc.getNSamples(), 1);
+            Map<String, Object> attributes = new HashMap<String, Object>(vc.getAttributes());
+            attributes.remove(VariantContext.ID_KEY);
+            attributes.remove(VariantContext.REFERENCE_BASE_FOR_INDEL_KEY);
+            Assert.assertEquals(attributes, expected, "at " + vc.getChr() + ":" + vc.getStart());
+            records++;
+        }
+        reader.close();
+        Assert.assertEquals(records, 9965);
+    }
+}
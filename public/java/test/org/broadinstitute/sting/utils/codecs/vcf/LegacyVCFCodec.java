@@ -0,0 +1,771 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.apache.log4j.Logger;
+import org.broad.tribble.Feature;
+import org.broad.tribble.FeatureCodec;
+import org.broad.tribble.NameAwareCodec;
+import org.broad.tribble.TribbleException;
+import org.broad.tribble.readers.LineReader;
+import org.broad.tribble.util.ParsingUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.io.IOException;
+import java.util.*;
+
+
+/**
+ * A frozen copy of VCFCodec (and AbstractVCFCodec) as they were before VCFLineTokenizer, splitting every line into
+ * Strings.  Kept so that VCFCodecBenchmark can time the current codec against it.
+ */
+public class LegacyVCFCodec implements FeatureCodec, NameAwareCodec, VCFParser {
+
+    protected final static Logger log = Logger.getLogger(LegacyVCFCodec.class);
+    protected final static int NUM_STANDARD_FIELDS = 8;  // INFO is the 8th column
+
+    protected VCFHeaderVersion version;
+
+    // we have to store the list of strings that make up the header until they're needed
+    protected VCFHeader header = null;
+
+    // a mapping of the allele
+    protected Map<String, List<Allele>> alleleMap = new HashMap<String, List<Allele>>(3);
+
+    // for ParsingUtils.split
+    protected String[] GTValueArray = new String[100];
+    protected String[] genotypeKeyArray = new String[100];
+
+    // for performance testing purposes
+    public static boolean validate = true;
+
+    // a key optimization -- we need a per thread string parts array, so we don't allocate a big array over and over
+    // todo: make this thread safe?
+    protected String[] parts = null;
+    protected String[] genotypeParts = null;
+
+    // for performance we cache the hashmap of filter encodings for quick lookup
+    protected HashMap<String,LinkedHashSet<String>> filterHash = new HashMap<String,LinkedHashSet<String>>();
+
+    // a mapping of the VCF fields to their type, filter fields, and format fields, for quick lookup to validate against
+    TreeMap<String, VCFHeaderLineType> infoFields = new TreeMap<String, VCFHeaderLineType>();
+    TreeMap<String, VCFHeaderLineType> formatFields = new TreeMap<String, VCFHeaderLineType>();
+    Set<String> filterFields = new HashSet<String>();
+
+    // we store a name to give to each of the variant contexts we emit
+    protected String name = "Unknown";
+
+    protected int lineNo = 0;
+
+    protected Map<String, String> stringCache = new HashMap<String, String>();
+
+
+
+
+
+
+    /**
+     * create a VCF header
+     * @param headerStrings a list of strings that represent all the ## entries
+     * @param line the single # line (column names)
+     * @return the count of header lines
+     */
+    protected Object createHeader(List<String> headerStrings, String line) {
+
+        headerStrings.add(line);
+
+        Set<VCFHeaderLine> metaData = new TreeSet<VCFHeaderLine>();
+        Set<String> auxTags = new LinkedHashSet<String>();
+        // iterate over all the passed in strings
+        for ( String str : headerStrings ) {
+            if ( !str.startsWith(VCFHeader.METADATA_INDICATOR) ) {
+                String[] strings = str.substring(1).split(VCFConstants.FIELD_SEPARATOR);
+                if ( strings.length < VCFHeader.HEADER_FIELDS.values().length )
+                    throw new TribbleException.InvalidHeader("there are not enough columns present in the header line: " + str);
+
+                int arrayIndex = 0;
+                for (VCFHeader.HEADER_FIELDS field : VCFHeader.HEADER_FIELDS.values()) {
+                    try {
+                        if (field != VCFHeader.HEADER_FIELDS.valueOf(strings[arrayIndex]))
+                            throw new TribbleException.InvalidHeader("we were expecting column name '" + field + "' but we saw '" + strings[arrayIndex] + "'");
+                    } catch (IllegalArgumentException e) {
+                        throw new TribbleException.InvalidHeader("unknown column name '" + strings[arrayIndex] + "'; it does not match a legal column header name.");
+                    }
+                    arrayIndex++;
+                }
+                if ( arrayIndex < strings.length ) {
+                    if ( !strings[arrayIndex].equals("FORMAT") )
+                        throw new TribbleException.InvalidHeader("we were expecting column name 'FORMAT' but we saw '" + strings[arrayIndex] + "'");
+                    arrayIndex++;
+                }
+
+                while (arrayIndex < strings.length)
+                    auxTags.add(strings[arrayIndex++]);
+
+            } else {
+                if ( str.startsWith("##INFO=") ) {
+                    VCFInfoHeaderLine info = new VCFInfoHeaderLine(str.substring(7),version);
+                    metaData.add(info);
+                    infoFields.put(info.getName(), info.getType());
+                } else if ( str.startsWith("##FILTER=") ) {
+                    VCFFilterHeaderLine filter = new VCFFilterHeaderLine(str.substring(9),version);
+                    metaData.add(filter);
+                    filterFields.add(filter.getName());
+                } else if ( str.startsWith("##FORMAT=") ) {
+                    VCFFormatHeaderLine format = new VCFFormatHeaderLine(str.substring(9),version);
+                    metaData.add(format);
+                    formatFields.put(format.getName(), format.getType());
+                } else {
+                    int equals = str.indexOf("=");
+                    if ( equals != -1 )
+                        metaData.add(new VCFHeaderLine(str.substring(2, equals), str.substring(equals+1)));
+                }
+            }
+        }
+
+        header = new VCFHeader(metaData, auxTags);
+        return header;
+    }
+
+    /**
+     * the fast decode function
+     * @param line the line of text for the record
+     * @return a feature, (not guaranteed complete) that has the correct start and stop
+     */
+    public Feature decodeLoc(String line) {
+        return reallyDecode(line);
+    }
+
+    /**
+     * decode the line into a feature (VariantContext)
+     * @param line the line
+     * @return a VariantContext
+     */
+    public Feature decode(String line) {
+        return reallyDecode(line);
+    }
+
+    private Feature reallyDecode(String line) {
+            // the same line reader is not used for parsing the header and parsing lines, if we see a #, we've seen a header line
+            if (line.startsWith(VCFHeader.HEADER_INDICATOR)) return null;
+
+            // our header cannot be null, we need the genotype sample names and counts
+            if (header == null) throw new ReviewedStingException("VCF Header cannot be null when decoding a record");
+
+            if (parts == null)
+                parts = new String[Math.min(header.getColumnCount(), NUM_STANDARD_FIELDS+1)];
+
+            int nParts = ParsingUtils.split(line, parts, VCFConstants.FIELD_SEPARATOR_CHAR, true);
+
+            // if we have don't have a header, or we have a header with no genotyping data check that we have eight columns.  Otherwise check that we have nine (normal colummns + genotyping data)
+            if (( (header == null || (header != null && !header.hasGenotypingData())) && nParts != NUM_STANDARD_FIELDS) ||
+                 (header != null && header.hasGenotypingData() && nParts != (NUM_STANDARD_FIELDS + 1)) )
+                throw new UserException.MalformedVCF("there aren't enough columns for line " + line + " (we expected " + (header == null ? NUM_STANDARD_FIELDS : NUM_STANDARD_FIELDS + 1) +
+                        " tokens, and saw " + nParts + " )", lineNo);
+
+            return parseVCFLine(parts);
+    }
+
+    protected void generateException(String message) {
+        throw new UserException.MalformedVCF(message, lineNo);
+    }
+
+    private static void generateException(String message, int lineNo) {
+        throw new UserException.MalformedVCF(message, lineNo);
+    }
+
+    /**
+     * parse out the VCF line
+     *
+     * @param parts the parts split up
+     * @return a variant context object
+     */
+    private VariantContext parseVCFLine(String[] parts) {
+        // increment the line count
+        lineNo++;
+
+        // parse out the required fields
+        String contig = getCachedString(parts[0]);
+        long pos = Long.valueOf(parts[1]);
+        String id = null;
+        if ( parts[2].length() == 0 )
+            generateException("The VCF specification requires a valid ID field");
+        else if ( parts[2].equals(VCFConstants.EMPTY_ID_FIELD) )
+            id = VCFConstants.EMPTY_ID_FIELD;
+        else
+            id = new String(parts[2]);
+        String ref = getCachedString(parts[3].toUpperCase());
+        String alts = getCachedString(parts[4].toUpperCase());
+        Double qual = parseQual(parts[5]);
+        String filter = getCachedString(parts[6]);
+        String info = new String(parts[7]);
+
+        // get our alleles, filters, and setup an attribute map
+        List<Allele> alleles = parseAlleles(ref, alts, lineNo);
+        Set<String> filters = parseFilters(filter);
+        Map<String, Object> attributes = parseInfo(info, id);
+
+        // find out our current location, and clip the alleles down to their minimum length
+        long loc = pos;
+        // ref alleles don't need to be single bases for monomorphic sites
+        if ( alleles.size() == 1 ) {
+            loc = pos + alleles.get(0).length() - 1;
+        } else if ( !isSingleNucleotideEvent(alleles) ) {
+            ArrayList<Allele> newAlleles = new ArrayList<Allele>();
+            loc = clipAlleles(pos, ref, alleles, newAlleles, lineNo);
+            alleles = newAlleles;
+        }
+
+        // do we have genotyping data
+        if (parts.length > NUM_STANDARD_FIELDS) {
+            attributes.put(VariantContext.UNPARSED_GENOTYPE_MAP_KEY, new String(parts[8]));
+            attributes.put(VariantContext.UNPARSED_GENOTYPE_PARSER_KEY, this);
+        }
+
+        VariantContext vc = null;
+        try {
+            vc =  new VariantContext(name, contig, pos, loc, alleles, qual, filters, attributes);
+        } catch (Exception e) {
+            generateException(e.getMessage());
+        }
+
+        // did we resort the sample names?  If so, we need to load the genotype data
+        if ( !header.samplesWereAlreadySorted() )
+            vc.getGenotypes();
+
+        // Trim bases of all alleles if necessary
+        return createVariantContextWithTrimmedAlleles(vc);
+    }
+
+    /**
+     *
+     * @return the type of record
+     */
+    public Class getFeatureType() {
+        return VariantContext.class;
+    }
+
+    /**
+     * get the name of this codec
+     * @return our set name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * set the name of this codec
+     * @param name new name
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Return a cached copy of the supplied string.
+     *
+     * @param str string
+     * @return interned string
+     */
+    protected String getCachedString(String str) {
+        String internedString = stringCache.get(str);
+        if ( internedString == null ) {
+            internedString = new String(str);
+            stringCache.put(internedString, internedString);
+        }
+        return internedString;
+    }
+
+    /**
+     * set up the info fields.  The INFO column itself is only decoded when the attributes are used.
+     * @param infoField the fields
+     * @param id the indentifier
+     * @return a mapping of keys to objects
+     */
+    private Map<String, Object> parseInfo(String infoField, String id) {
+        if ( infoField.length() == 0 )
+            generateException("The VCF specification requires a valid info field");
+
+        Map<String, Object> attributes = new LazyVCFInfoMap(infoField);
+        attributes.put(VariantContext.ID_KEY, id);
+        return attributes;
+    }
+
+    /**
+     * create a an allele from an index and an array of alleles
+     * @param index the index
+     * @param alleles the alleles
+     * @return an Allele
+     */
+    protected static Allele oneAllele(String index, List<Allele> alleles) {
+        if ( index.equals(VCFConstants.EMPTY_ALLELE) )
+            return Allele.NO_CALL;
+        int i = Integer.valueOf(index);
+        if ( i >= alleles.size() )
+            throw new TribbleException.InternalCodecException("The allele with index " + index + " is not defined in the REF/ALT columns in the record");
+        return alleles.get(i);
+    }
+
+
+    /**
+     * parse genotype alleles from the genotype string
+     * @param GT         GT string
+     * @param alleles    list of possible alleles
+     * @param cache      cache of alleles for GT
+     * @return the allele list for the GT string
+     */
+    protected static List<Allele> parseGenotypeAlleles(String GT, List<Allele> alleles, Map<String, List<Allele>> cache) {
+        // cache results [since they are immutable] and return a single object for each genotype
+        List<Allele> GTAlleles = cache.get(GT);
+
+        if ( GTAlleles == null ) {
+            StringTokenizer st = new StringTokenizer(GT, VCFConstants.PHASING_TOKENS);
+            GTAlleles = new ArrayList<Allele>(st.countTokens());
+            while ( st.hasMoreTokens() ) {
+                String genotype = st.nextToken();
+                GTAlleles.add(oneAllele(genotype, alleles));
+            }
+            cache.put(GT, GTAlleles);
+        }
+
+        return GTAlleles;
+    }
+
+    /**
+     * parse out the qual value
+     * @param qualString the quality string
+     * @return return a double
+     */
+    protected static Double parseQual(String qualString) {
+        // if we're the VCF 4 missing char, return immediately
+        if ( qualString.equals(VCFConstants.MISSING_VALUE_v4))
+            return VariantContext.NO_NEG_LOG_10PERROR;
+
+        Double val = Double.valueOf(qualString);
+
+        // check to see if they encoded the missing qual score in VCF 3 style, with either the -1 or -1.0.  check for val < 0 to save some CPU cycles
+        if ((val < 0) && (Math.abs(val - VCFConstants.MISSING_QUALITY_v3_DOUBLE) < VCFConstants.VCF_ENCODING_EPSILON))
+            return VariantContext.NO_NEG_LOG_10PERROR;
+
+        // scale and return the value
+        return val / 10.0;
+    }
+
+    /**
+     * parse out the alleles
+     * @param ref the reference base
+     * @param alts a string of alternates to break into alleles
+     * @param lineNo  the line number for this record
+     * @return a list of alleles, and a pair of the shortest and longest sequence
+     */
+    protected static List<Allele> parseAlleles(String ref, String alts, int lineNo) {
+        List<Allele> alleles = new ArrayList<Allele>(2); // we are almost always biallelic
+        // ref
+        checkAllele(ref, true, lineNo);
+        Allele refAllele = Allele.create(ref, true);
+        alleles.add(refAllele);
+
+        if ( alts.indexOf(",") == -1 ) // only 1 alternatives, don't call string split
+            parseSingleAltAllele(alleles, alts, lineNo);
+        else
+            for ( String alt : alts.split(",") )
+                parseSingleAltAllele(alleles, alt, lineNo);
+
+        return alleles;
+    }
+
+    /**
+     * check to make sure the allele is an acceptable allele
+     * @param allele the allele to check
+     * @param isRef are we the reference allele?
+     * @param lineNo  the line number for this record
+     */
+    private static void checkAllele(String allele, boolean isRef, int lineNo) {
+	if ( allele == null || allele.length() == 0 )
+	    generateException("Empty alleles are not permitted in VCF records", lineNo);
+
+        if ( isSymbolicAllele(allele) ) {
+            if ( isRef ) {
+                generateException("Symbolic alleles not allowed as reference allele: " + allele, lineNo);
+            }
+        } else {
+            // check for VCF3 insertions or deletions
+            if ( (allele.charAt(0) == VCFConstants.DELETION_ALLELE_v3) || (allele.charAt(0) == VCFConstants.INSERTION_ALLELE_v3) )
+                generateException("Insertions/Deletions are not supported when reading 3.x VCF's. Please" +
+                        " convert your file to VCF4 using VCFTools, available at http://vcftools.sourceforge.net/index.html", lineNo);
+
+            if (!Allele.acceptableAlleleBases(allele))
+                generateException("Unparsable vcf record with allele " + allele, lineNo);
+
+            if ( isRef && allele.equals(VCFConstants.EMPTY_ALLELE) )
+                generateException("The reference allele cannot be missing", lineNo);
+        }
+    }
+
+    /**
+     * return true if this is a symbolic allele (e.g. <SOMETAG>) otherwise false
+     * @param allele the allele to check
+     * @return true if the allele is a symbolic allele, otherwise false
+     */
+    private static boolean isSymbolicAllele(String allele) {
+        return (allele != null && allele.startsWith("<") && allele.endsWith(">") && allele.length() > 2);
+    }
+
+    /**
+     * parse a single allele, given the allele list
+     * @param alleles the alleles available
+     * @param alt the allele to parse
+     * @param lineNo  the line number for this record
+     */
+    private static void parseSingleAltAllele(List<Allele> alleles, String alt, int lineNo) {
+        checkAllele(alt, false, lineNo);
+
+        Allele allele = Allele.create(alt, false);
+        if ( ! allele.isNoCall() )
+            alleles.add(allele);
+    }
+
+    protected static boolean isSingleNucleotideEvent(List<Allele> alleles) {
+        for ( Allele a : alleles ) {
+            if ( a.length() != 1 )
+                return false;
+        }
+        return true;
+    }
+
+    private static int computeForwardClipping(List<Allele> unclippedAlleles, String ref) {
+        boolean clipping = true;
+        // Note that the computation of forward clipping here is meant only to see whether there is a common
+        // base to all alleles, and to correctly compute reverse clipping,
+        // but it is not used for actually changing alleles - this is done in function
+        // createVariantContextWithTrimmedAlleles() below.
+
+        for (Allele a : unclippedAlleles) {
+            if (a.isSymbolic()) {
+                continue;
+            }
+            if (a.length() < 1 || (a.getBases()[0] != ref.getBytes()[0])) {
+                clipping = false;
+            }
+        }
+        return (clipping) ? 1 : 0;
+
+    }
+
+    /**
+     * clip the alleles, based on the reference
+     *
+     * @param position the unadjusted start position (pre-clipping)
+     * @param ref the reference string
+     * @param unclippedAlleles the list of unclipped alleles
+     * @param clippedAlleles output list of clipped alleles
+     * @return a list of alleles, clipped to the reference
+     */
+    protected static long clipAlleles(long position, String ref, List<Allele> unclippedAlleles, List<Allele> clippedAlleles, int lineNo) {
+
+        // Note that the computation of forward clipping here is meant only to see whether there is a common
+        // base to all alleles, and to correctly compute reverse clipping,
+        // but it is not used for actually changing alleles - this is done in function
+        // createVariantContextWithTrimmedAlleles() below.
+
+        int forwardClipping = computeForwardClipping(unclippedAlleles, ref);
+
+        int reverseClipped = 0;
+        boolean clipping = true;
+        while (clipping) {
+            for (Allele a : unclippedAlleles) {
+                if (a.isSymbolic()) {
+                    continue;
+                }
+                if (a.length() - reverseClipped <= forwardClipping || a.length() - forwardClipping == 0)
+                    clipping = false;
+                else if (ref.length() == reverseClipped)
+                    generateException("bad alleles encountered", lineNo);
+                else if (a.getBases()[a.length()-reverseClipped-1] != ref.getBytes()[ref.length()-reverseClipped-1])
+                    clipping = false;
+            }
+            if (clipping) reverseClipped++;
+        }
+
+        for (Allele a : unclippedAlleles) {
+            if (a.isSymbolic()) {
+                clippedAlleles.add(a);
+            } else {
+                clippedAlleles.add(Allele.create(Arrays.copyOfRange(a.getBases(),0,a.getBases().length-reverseClipped),a.isReference()));
+            }
+        }
+
+        // the new reference length
+        int refLength = ref.length() - reverseClipped;
+
+        return position+Math.max(refLength - 1,0);
+    }
+
+    public static VariantContext createVariantContextWithTrimmedAlleles(VariantContext inputVC) {
+        // see if we need to trim common reference base from all alleles
+        boolean trimVC;
+
+        // We need to trim common reference base from all alleles in all genotypes if a ref base is common to all alleles
+        Allele refAllele = inputVC.getReference();
+        if (!inputVC.isVariant())
+            trimVC = false;
+        else if (refAllele.isNull())
+            trimVC = false;
+        else {
+            trimVC = (computeForwardClipping(new ArrayList<Allele>(inputVC.getAlternateAlleles()),
+                    inputVC.getReference().getDisplayString()) > 0);
+         }
+
+        // nothing to do if we don't need to trim bases
+        if (trimVC) {
+            List<Allele> alleles = new ArrayList<Allele>();
+            Map<String, Genotype> genotypes = new TreeMap<String, Genotype>();
+
+            // set the reference base for indels in the attributes
+            Map<String,Object> attributes = new TreeMap<String,Object>(inputVC.getAttributes());
+            attributes.put(VariantContext.REFERENCE_BASE_FOR_INDEL_KEY, new Byte(inputVC.getReference().getBases()[0]));
+
+            Map<Allele, Allele> originalToTrimmedAlleleMap = new HashMap<Allele, Allele>();
+
+            for (Allele a : inputVC.getAlleles()) {
+                if (a.isSymbolic()) {
+                    alleles.add(a);
+                    originalToTrimmedAlleleMap.put(a, a);
+                } else {
+                    // get bases for current allele and create a new one with trimmed bases
+                    byte[] newBases = Arrays.copyOfRange(a.getBases(), 1, a.length());
+                    Allele trimmedAllele = Allele.create(newBases, a.isReference());
+                    alleles.add(trimmedAllele);
+                    originalToTrimmedAlleleMap.put(a, trimmedAllele);
+                }
+            }
+
+            // detect case where we're trimming bases but resulting vc doesn't have any null allele. In that case, we keep original representation
+            // example: mixed records such as {TA*,TGA,TG}
+            boolean hasNullAlleles = false;
+
+            for (Allele a: originalToTrimmedAlleleMap.values()) {
+                if (a.isNull())
+                    hasNullAlleles = true;
+                if (a.isReference())
+                    refAllele = a;
+             }
+
+             if (!hasNullAlleles)
+               return inputVC;
+           // now we can recreate new genotypes with trimmed alleles
+            for ( Map.Entry<String, Genotype> sample : inputVC.getGenotypes().entrySet() ) {
+
+                List<Allele> originalAlleles = sample.getValue().getAlleles();
+                List<Allele> trimmedAlleles = new ArrayList<Allele>();
+                for ( Allele a : originalAlleles ) {
+                    if ( a.isCalled() )
+                        trimmedAlleles.add(originalToTrimmedAlleleMap.get(a));
+                    else
+                        trimmedAlleles.add(Allele.NO_CALL);
+                }
+                genotypes.put(sample.getKey(), Genotype.modifyAlleles(sample.getValue(), trimmedAlleles));
+
+            }
+            return new VariantContext(inputVC.getSource(), inputVC.getChr(), inputVC.getStart(), inputVC.getEnd(), alleles, genotypes, inputVC.getNegLog10PError(), inputVC.filtersWereApplied() ? inputVC.getFilters() : null, attributes);
+
+        }
+
+        return inputVC;
+    }
+
+
+    /**
+     * @param reader the line reader to take header lines from
+     * @return the number of header lines
+     */
+    public Object readHeader(LineReader reader) {
+        List<String> headerStrings = new ArrayList<String>();
+
+        String line;
+        try {
+            boolean foundHeaderVersion = false;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.startsWith(VCFHeader.METADATA_INDICATOR)) {
+                    String[] lineFields = line.substring(2).split("=");
+                    if (lineFields.length == 2 && VCFHeaderVersion.isFormatString(lineFields[0]) ) {
+                        if ( !VCFHeaderVersion.isVersionString(lineFields[1]) )
+                            throw new TribbleException.InvalidHeader(lineFields[1] + " is not a supported version");
+                        foundHeaderVersion = true;
+                        version = VCFHeaderVersion.toHeaderVersion(lineFields[1]);
+                        if ( version == VCFHeaderVersion.VCF3_3 || version == VCFHeaderVersion.VCF3_2 )
+                            throw new TribbleException.InvalidHeader("This codec is strictly for VCFv4; please use the VCF3 codec for " + lineFields[1]);
+                        if ( version != VCFHeaderVersion.VCF4_0 && version != VCFHeaderVersion.VCF4_1 )
+                            throw new TribbleException.InvalidHeader("This codec is strictly for VCFv4 and does not support " + lineFields[1]);
+                    }
+                    headerStrings.add(line);
+                }
+                else if (line.startsWith(VCFHeader.HEADER_INDICATOR)) {
+                    if (!foundHeaderVersion) {
+                        throw new TribbleException.InvalidHeader("We never saw a header line specifying VCF version");
+                    }
+                    return createHeader(headerStrings, line);
+                }
+                else {
+                    throw new TribbleException.InvalidHeader("We never saw the required CHROM header line (starting with one #) for the input VCF file");
+                }
+
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception ", e);
+        }
+        throw new TribbleException.InvalidHeader("We never saw the required CHROM header line (starting with one #) for the input VCF file");
+    }
+
+
+    /**
+     * parse the filter string, first checking to see if we already have parsed it in a previous attempt
+     *
+     * @param filterString the string to parse
+     * @return a set of the filters applied or null if filters were not applied to the record (e.g. as per the missing value in a VCF)
+     */
+    protected Set<String> parseFilters(String filterString) {
+
+        // null for unfiltered
+        if ( filterString.equals(VCFConstants.UNFILTERED) )
+            return null;
+
+        // empty set for passes filters
+        LinkedHashSet<String> fFields = new LinkedHashSet<String>();
+
+        if ( filterString.equals(VCFConstants.PASSES_FILTERS_v4) )
+            return fFields;
+        if ( filterString.equals(VCFConstants.PASSES_FILTERS_v3) )
+            generateException(VCFConstants.PASSES_FILTERS_v3 + " is an invalid filter name in vcf4");
+        if ( filterString.length() == 0 )
+            generateException("The VCF specification requires a valid filter status");
+
+        // do we have the filter string cached?
+        if ( filterHash.containsKey(filterString) )
+            return filterHash.get(filterString);
+
+        // otherwise we have to parse and cache the value
+        if ( filterString.indexOf(VCFConstants.FILTER_CODE_SEPARATOR) == -1 )
+            fFields.add(filterString);
+        else
+            fFields.addAll(Arrays.asList(filterString.split(VCFConstants.FILTER_CODE_SEPARATOR)));
+
+        filterHash.put(filterString, fFields);
+
+        return fFields;
+    }
+
+
+    /**
+     * create a genotype map
+     * @param str the string
+     * @param alleles the list of alleles
+     * @return a mapping of sample name to genotype object
+     */
+    public Map<String, Genotype> createGenotypeMap(String str, List<Allele> alleles, String chr, int pos) {
+        if (genotypeParts == null)
+            genotypeParts = new String[header.getColumnCount() - NUM_STANDARD_FIELDS];
+
+        int nParts = ParsingUtils.split(str, genotypeParts, VCFConstants.FIELD_SEPARATOR_CHAR);
+
+        Map<String, Genotype> genotypes = new LinkedHashMap<String, Genotype>(nParts);
+
+        // get the format keys
+        int nGTKeys = ParsingUtils.split(genotypeParts[0], genotypeKeyArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+
+        // cycle through the sample names
+        Iterator<String> sampleNameIterator = header.getGenotypeSamples().iterator();
+
+        // clear out our allele mapping
+        alleleMap.clear();
+
+        // cycle through the genotype strings
+        for (int genotypeOffset = 1; genotypeOffset < nParts; genotypeOffset++) {
+            int GTValueSplitSize = ParsingUtils.split(genotypeParts[genotypeOffset], GTValueArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+
+            double GTQual = VariantContext.NO_NEG_LOG_10PERROR;
+            Set<String> genotypeFilters = null;
+            Map<String, String> gtAttributes = null;
+            String sampleName = sampleNameIterator.next();
+
+            // check to see if the value list is longer than the key list, which is a problem
+            if (nGTKeys < GTValueSplitSize)
+                generateException("There are too many keys for the sample " + sampleName + ", keys = " + parts[8] + ", values = " + parts[genotypeOffset]);
+
+            int genotypeAlleleLocation = -1;
+            if (nGTKeys >= 1) {
+                gtAttributes = new HashMap<String, String>(nGTKeys - 1);
+
+                for (int i = 0; i < nGTKeys; i++) {
+                    final String gtKey = new String(genotypeKeyArray[i]);
+                    boolean missing = i >= GTValueSplitSize;
+
+                    // todo -- all of these on the fly parsing of the missing value should be static constants
+                    if (gtKey.equals(VCFConstants.GENOTYPE_KEY)) {
+                        genotypeAlleleLocation = i;
+                    } else if (gtKey.equals(VCFConstants.GENOTYPE_QUALITY_KEY)) {
+                        GTQual = missing ? parseQual(VCFConstants.MISSING_VALUE_v4) : parseQual(GTValueArray[i]);
+                    } else if (gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
+                        genotypeFilters = missing ? parseFilters(VCFConstants.MISSING_VALUE_v4) : parseFilters(getCachedString(GTValueArray[i]));
+                    } else if ( missing ) {
+                        gtAttributes.put(gtKey, VCFConstants.MISSING_VALUE_v4);
+                    } else {
+                        gtAttributes.put(gtKey, new String(GTValueArray[i]));
+                    }
+                }
+            }
+
+            // check to make sure we found a genotype field if we are a VCF4.0 file
+            if ( version == VCFHeaderVersion.VCF4_0 && genotypeAlleleLocation == -1 )
+                generateException("Unable to find the GT field for the record; the GT field is required in VCF4.0");
+            if ( genotypeAlleleLocation > 0 )
+                generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
+
+            List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? null : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, alleleMap));
+            boolean phased = genotypeAlleleLocation != -1 && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1;
+
+            // add it to the list
+            try {
+                genotypes.put(sampleName,
+                        new Genotype(sampleName,
+                                GTalleles,
+                                GTQual,
+                                genotypeFilters,
+                                gtAttributes,
+                                phased));
+            } catch (TribbleException e) {
+                throw new TribbleException.InternalCodecException(e.getMessage() + ", at position " + chr+":"+pos);
+            }
+        }
+
+        return genotypes;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Checks that StandardVCFWriter writes exactly what the String-formatting writer it replaced did, byte for byte,
+ * by writing every record with both.
+ */
+public class StandardVCFWriterUnitTest extends BaseTest {
+    private static final byte REF_BASE = (byte)'A';
+
+    @DataProvider(name = "doubles")
+    public Object[][] makeDoubles() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( double d : new double[]{ 0.0, -0.0, 1.0, -1.0, 0.125, 1.005, 0.145, 2.675, 99.995, -0.001, -0.005, -0.006, 0.005,
+                1234.565, 0.994999, 1e-300, 999999999.994, 1e9, 1e20, -1e20, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY } )
+            tests.add(new Object[]{d});
+
+        Random random = new Random(3);
+        for ( int rep = 0; rep < 2000; rep++ ) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(14) - 4) * (random.nextBoolean() ? 1 : -1);
+            tests.add(new Object[]{value});
+            // values which are already rounded are the common case, and lie close to ties after scaling
+            tests.add(new Object[]{Math.round(value * 1000) / 1000.0});
+        }
+
+        // values on either side of a tie, both within and just outside the margin in which String.format() is used
+        for ( long hundredths : new long[]{ 0, 1, 14, 99, 267, 1234, 99999, 123456789, 99999999999L } ) {
+            for ( double offset : new double[]{ 0.0, 1e-12, 0.99e-4, 1.01e-4, 1e-3 } ) {
+                for ( int sign : new int[]{ 1, -1 } ) {
+                    double value = sign * (hundredths + 0.5 + offset) / 100;
+                    tests.add(new Object[]{value});
+                    tests.add(new Object[]{-value});
+                    tests.add(new Object[]{Math.nextUp(value)});
+                    tests.add(new Object[]{Math.nextAfter(value, Double.NEGATIVE_INFINITY)});
+                }
+            }
+        }
+
+        // either side of the largest value formatted without String.format()
+        for ( double value : new double[]{ 1e9, -1e9 } ) {
+            tests.add(new Object[]{Math.nextUp(value)});
+            tests.add(new Object[]{Math.nextAfter(value, 0)});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "doubles")
+    public void testWriteDoubleMatchesStringFormat(double value) throws IOException {
+        VCFOutputBuffer buffer = new VCFOutputBuffer();
+        buffer.writeDouble(value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        Assert.assertEquals(out.toString(), String.format(VCFConstants.DOUBLE_PRECISION_FORMAT_STRING, value), "formatting " + value);
+    }
+
+    @Test
+    public void testWriteLongAndText() throws IOException {
+        VCFOutputBuffer buffer = new VCFOutputBuffer();
+        for ( long value : new long[]{ 0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE } ) {
+            buffer.write(value);
+            buffer.write(' ');
+        }
+        buffer.write("séq");
+        buffer.write('è');
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        Assert.assertEquals(out.toByteArray(), ("0 7 -7 1234567890123 " + Long.MAX_VALUE + " " + Long.MIN_VALUE + " séqè").getBytes());
+        Assert.assertEquals(buffer.size(), 0);
+    }
+
+    /**
+     * Writes the same records with the String-formatting writer, with a writer that flushes every record and with
+     * one that buffers them.
+     */
+    private static class Output {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final ByteArrayOutputStream buffered = new ByteArrayOutputStream();
+        final VCFWriter legacyWriter;
+        final VCFWriter writer;
+        final VCFWriter bufferedWriter;
+
+        Output(VCFHeader header, boolean doNotWriteGenotypes) {
+            legacyWriter = new LegacyStandardVCFWriter(expected, doNotWriteGenotypes);
+            writer = new StandardVCFWriter(actual, doNotWriteGenotypes);
+            bufferedWriter = new StandardVCFWriter(new File("buffered.vcf"), buffered, false, doNotWriteGenotypes);
+            legacyWriter.writeHeader(header);
+            writer.writeHeader(header);
+            bufferedWriter.writeHeader(header);
+        }
+
+        void add(VariantContext vc) {
+            legacyWriter.add(vc, REF_BASE);
+            writer.add(vc, REF_BASE);
+            bufferedWriter.add(vc, REF_BASE);
+            // records are flushed as they're added, unless the writer was asked to buffer them
+            Assert.assertEquals(actual.toString(), expected.toString());
+        }
+
+        void check(String description) {
+            legacyWriter.close();
+            writer.close();
+            bufferedWriter.close();
+            Assert.assertEquals(actual.toByteArray(), expected.toByteArray(), description);
+            Assert.assertEquals(buffered.toByteArray(), expected.toByteArray(), description);
+        }
+    }
+
+    /**
+     * Turns strings which look like numbers into Integers and Doubles, to exercise the formatting of typed values.
+     */
+    private static Map<String, Object> typed(Map<String, Object> attributes) {
+        Map<String, Object> typed = new HashMap<String, Object>();
+        for ( Map.Entry<String, Object> attribute : attributes.entrySet() )
+            typed.put(attribute.getKey(), typed(attribute.getValue()));
+        return typed;
+    }
+
+    private static Object typed(Object value) {
+        if ( value instanceof List ) {
+            List<Object> typed = new ArrayList<Object>();
+            for ( Object element : (List)value )
+                typed.add(typed(element));
+            return typed;
+        }
+        if ( !(value instanceof String) )
+            return value;
+        try {
+            return Integer.valueOf((String)value);
+        } catch ( NumberFormatException e ) {
+            // not an integer
+        }
+        try {
+            return Double.valueOf((String)value);
+        } catch ( NumberFormatException e ) {
+            return value;
+        }
+    }
+
+    private static VariantContext typed(VariantContext vc) {
+        Map<String, Genotype> genotypes = new HashMap<String, Genotype>();
+        for ( Genotype g : vc.getGenotypes().values() )
+            genotypes.put(g.getSampleName(), Genotype.modifyAttributes(g, typed(g.getAttributes())));
+        return VariantContext.modifyGenotypes(VariantContext.modifyAttributes(vc, typed(vc.getAttributes())), genotypes);
+    }
+
+    @DataProvider(name = "vcfs")
+    public Object[][] makeVCFs() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( String vcf : Arrays.asList("HiSeq.10000.vcf", "diffTestMaster.vcf", "diffTestTest.vcf", "vcf/vcfWithGenotypes.vcf", "vcf/vcfWithoutGenotypes.vcf") )
+            for ( boolean doNotWriteGenotypes : Arrays.asList(false, true) )
+                tests.add(new Object[]{new File(testDir + vcf), doNotWriteGenotypes});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "vcfs")
+    public void testWriterMatchesLegacyWriter(File vcf, boolean doNotWriteGenotypes) throws IOException {
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReader reader = new AsciiLineReader(new FileInputStream(vcf));
+        VCFHeader header = (VCFHeader)codec.readHeader(reader);
+
+        // records as decoded, with their genotypes still unparsed; with parsed genotypes; and with typed values
+        Output unparsed = new Output(header, doNotWriteGenotypes);
+        Output parsed = new Output(header, doNotWriteGenotypes);
+        Output typed = new Output(header, doNotWriteGenotypes);
+
+        String line;
+        while ( (line = reader.readLine()) != null ) {
+            unparsed.add((VariantContext)codec.decode(line));
+            VariantContext vc = (VariantContext)codec.decode(line);
+            vc.getGenotypes();
+            parsed.add(vc);
+            typed.add(typed(vc));
+        }
+        reader.close();
+
+        unparsed.check("unparsed " + vcf);
+        parsed.check("parsed " + vcf);
+        typed.check("typed " + vcf);
+    }
+
+    @Test
+    public void testUnusualValues() {
+        Set<VCFHeaderLine> metaData = new HashSet<VCFHeaderLine>();
+        metaData.add(new VCFInfoHeaderLine("FLAG", 0, VCFHeaderLineType.Flag, "a flag"));
+        metaData.add(new VCFInfoHeaderLine("AF", VCFHeaderLineCount.A, VCFHeaderLineType.Float, "allele frequency"));
+        metaData.add(new VCFFilterHeaderLine("LowQual", "low quality"));
+        metaData.add(new VCFFormatHeaderLine("GQ", 1, VCFHeaderLineType.Float, "genotype quality"));
+        metaData.add(new VCFFormatHeaderLine("PAIR", 2, VCFHeaderLineType.Integer, "two values"));
+        metaData.add(new VCFFormatHeaderLine("PL", VCFHeaderLineCount.G, VCFHeaderLineType.Integer, "likelihoods"));
+        metaData.add(new VCFFormatHeaderLine("FT", VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String, "filters"));
+        VCFHeader header = new VCFHeader(metaData, new LinkedHashSet<String>(Arrays.asList("s1", "s2", "s3", "s4")));
+
+        Allele ref = Allele.create("A", true), alt1 = Allele.create("C"), alt2 = Allele.create("G");
+        List<Allele> alleles = Arrays.asList(ref, alt1, alt2);
+
+        Map<String, Object> info = new HashMap<String, Object>();
+        info.put("FLAG", true);
+        info.put("NOFLAG", false);
+        info.put("OTHERFLAG", true);
+        info.put("AF", Arrays.asList(0.5, 1.0 / 3));
+        info.put("ARRAY", new double[]{ 1.005, -2.5 });
+        info.put("EMPTY", new int[0]);
+        info.put("NESTED", Arrays.asList(Arrays.asList(1, 2), null, true, false));
+        info.put("MISSING", null);
+        info.put("EMPTYSTRING", "");
+        info.put(VariantContext.ID_KEY, "rs1");
+
+        Map<String, Genotype> genotypes = new HashMap<String, Genotype>();
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("PAIR", VCFConstants.MISSING_VALUE_v4);
+        attributes.put("DP", 12);
+        attributes.put("PL", new int[]{ 0, 10, 100, 20, 200, 300 });
+        genotypes.put("s1", new Genotype("s1", Arrays.asList(ref, alt2), 2.5, null, attributes, true));
+        attributes = new HashMap<String, Object>();
+        attributes.put("DP", VCFConstants.MISSING_VALUE_v4);
+        attributes.put("TRUE", true);
+        attributes.put("FALSE", false);
+        genotypes.put("s2", new Genotype("s2", Arrays.asList(Allele.NO_CALL, Allele.NO_CALL), Genotype.NO_NEG_LOG_10PERROR, new HashSet<String>(Arrays.asList("b", "a")), attributes, false));
+        attributes = new HashMap<String, Object>();
+        attributes.put("DP", 3.14159);
+        genotypes.put("s3", new Genotype("s3", Arrays.asList(alt1, alt1), 99.0, new HashSet<String>(), attributes, false));
+
+        Output output = new Output(header, false);
+        for ( int i = 0; i < 3; i++ ) {
+            output.add(new VariantContext("test", "chr1", 10 + i, 10 + i, alleles, genotypes, 3.456 * i, new HashSet<String>(Arrays.asList("LowQual")), info));
+            output.add(new VariantContext("test", "chr1", 20 + i, 20 + i, alleles, genotypes, VariantContext.NO_NEG_LOG_10PERROR, null, new HashMap<String, Object>()));
+            output.add(new VariantContext("test", "chr1", 30 + i, 30 + i, Arrays.asList(ref), (Map<String, Genotype>)null, 10, null, info));
+        }
+        output.check("unusual values");
+    }
+
+    @Test
+    public void testRecordThatCannotBeWrittenIsDropped() {
+        VCFHeader header = new VCFHeader(new HashSet<VCFHeaderLine>(), new LinkedHashSet<String>(Arrays.asList("s1", "s2")));
+        Allele ref = Allele.create("A", true), alt = Allele.create("C");
+        Map<String, Genotype> genotypes = new HashMap<String, Genotype>();
+        genotypes.put("s1", new Genotype("s1", Arrays.asList(ref, alt)));
+        genotypes.put("s2", new Genotype("s2", Arrays.asList(alt, alt)));
+        Map<String, Genotype> badGenotypes = new HashMap<String, Genotype>(genotypes);
+        badGenotypes.put("s2", new Genotype("s2", (List<Allele>)null));
+
+        // the second record fails part way through s2, once s1 has been written to the buffer; it's never
+        // given to the legacy writer, which the output is checked against
+        Output output = new Output(header, false);
+        output.add(new VariantContext("test", "chr1", 10, 10, Arrays.asList(ref, alt), genotypes.values()));
+        for ( VCFWriter writer : Arrays.asList(output.writer, output.bufferedWriter) ) {
+            try {
+                writer.add(new VariantContext("test", "chr1", 11, 11, Arrays.asList(ref, alt), badGenotypes.values()), REF_BASE);
+                Assert.fail("a record with a missing GT among available ones should be rejected");
+            } catch ( ReviewedStingException e ) {
+                // expected
+            }
+        }
+        output.add(new VariantContext("test", "chr1", 12, 12, Arrays.asList(ref, alt), genotypes.values()));
+        output.check("records around a rejected one");
+    }
+}
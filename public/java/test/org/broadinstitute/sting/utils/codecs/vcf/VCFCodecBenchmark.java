@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import org.broad.tribble.FeatureCodec;
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broad.tribble.readers.LineReader;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares how quickly VCFCodec and the String-splitting codec it replaced decode records held in memory.
+ * The records of the given VCF are widened to the requested number of samples by repeating each sample's
+ * genotype, to mimic population-scale files.
+ */
+public class VCFCodecBenchmark extends SimpleBenchmark {
+    @Param({"public/testdata/HiSeq.10000.vcf"})
+    private String vcfFile;
+
+    @Param({"1", "100", "1000"})
+    private int samples;
+
+    @Param({"1000"})
+    private int maxRecords;
+
+    @Param
+    private Decoding decoding;
+
+    private List<String> headerLines = new ArrayList<String>();
+    private List<String> records = new ArrayList<String>();
+
+    @Override
+    protected void setUp() {
+        headerLines.clear();
+        records.clear();
+        try {
+            AsciiLineReader reader = new AsciiLineReader(new FileInputStream(vcfFile));
+            String line;
+            while ( (line = reader.readLine()) != null && records.size() < maxRecords ) {
+                if ( line.startsWith(VCFHeader.METADATA_INDICATOR) )
+                    headerLines.add(line);
+                else if ( line.startsWith(VCFHeader.HEADER_INDICATOR) )
+                    headerLines.add(widen(line, "SAMPLE"));
+                else
+                    records.add(widen(line, null));
+            }
+            reader.close();
+        }
+        catch ( IOException e ) {
+            throw new ReviewedStingException("Unable to read " + vcfFile, e);
+        }
+    }
+
+    /**
+     * Repeats the first sample column of a line the requested number of times.
+     * @param line a header or record line with at least one sample.
+     * @param sampleNamePrefix if not null, the repeated columns are given sample names with this prefix.
+     * @return the widened line.
+     */
+    private String widen(String line, String sampleNamePrefix) {
+        String[] columns = line.split("\t");
+        if ( columns.length <= 9 )
+            return line;
+        StringBuilder widened = new StringBuilder();
+        for ( int i = 0; i < 9; i++ )
+            widened.append(columns[i]).append('\t');
+        for ( int i = 0; i < samples; i++ ) {
+            if ( i > 0 )
+                widened.append('\t');
+            widened.append(sampleNamePrefix != null ? String.format("%s%05d", sampleNamePrefix, i) : columns[9]);
+        }
+        return widened.toString();
+    }
+
+    private long decodeAll(FeatureCodec codec, int reps) {
+        long sum = 0;
+        for ( int i = 0; i < reps; i++ ) {
+            codec.readHeader(new ListLineReader(headerLines));
+            for ( String record : records ) {
+                VariantContext vc = (VariantContext)codec.decode(record);
+                sum += decoding.touch(vc);
+            }
+        }
+        return sum;
+    }
+
+    public long timeLegacyVCFCodec(int reps) {
+        return decodeAll(new LegacyVCFCodec(), reps);
+    }
+
+    public long timeVCFCodec(int reps) {
+        return decodeAll(new VCFCodec(), reps);
+    }
+
+    /**
+     * How much of each record to decode.
+     */
+    private enum Decoding {
+        SITES {
+            long touch(VariantContext vc) { return vc.getStart() + (vc.isFiltered() ? 1 : 0); }
+        },
+        INFO {
+            long touch(VariantContext vc) { return vc.getStart() + vc.getAttributes().size(); }
+        },
+        GENOTYPES {
+            long touch(VariantContext vc) { return vc.getStart() + vc.getNSamples() + vc.getAttributes().size(); }
+        };
+        abstract long touch(VariantContext vc);
+    }
+
+    private static class ListLineReader implements LineReader {
+        private final List<String> lines;
+        private int next = 0;
+
+        public ListLineReader(List<String> lines) {
+            this.lines = lines;
+        }
+
+        public String readLine() {
+            return next < lines.size() ? lines.get(next++) : null;
+        }
+
+        public void close() {}
+    }
+
+    public static void main(String[] args) {
+        Runner.main(VCFCodecBenchmark.class, args);
+    }
+}
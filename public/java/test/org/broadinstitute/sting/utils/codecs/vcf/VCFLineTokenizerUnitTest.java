@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broad.tribble.util.ParsingUtils;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Checks the byte-level tokenizer against the String-based parsing it replaced, and the codec built on it against
+ * the records the old codec decoded.
+ */
+public class VCFLineTokenizerUnitTest extends BaseTest {
+    private static final String ALPHABET = "ab;:\t";
+
+    private static String describeSplit(String[] fields, int n) {
+        return Arrays.asList(Arrays.copyOf(fields, n)).toString();
+    }
+
+    @Test
+    public void testSplitMatchesParsingUtils() {
+        Random random = new Random(1);
+        VCFLineTokenizer tokenizer = new VCFLineTokenizer(new VCFLineTokenizer.InternCache());
+        for ( int rep = 0; rep < 5000; rep++ ) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(12);
+            for ( int i = 0; i < length; i++ )
+                line.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            char separator = random.nextBoolean() ? ';' : '\t';
+            int maxFields = 1 + random.nextInt(5);
+            boolean condense = random.nextBoolean();
+
+            String[] expected = new String[maxFields];
+            int nExpected = ParsingUtils.split(line.toString(), expected, separator, condense);
+
+            tokenizer.load(line.toString());
+            int n = tokenizer.split(separator, maxFields, condense);
+            String[] actual = new String[n];
+            for ( int i = 0; i < n; i++ )
+                actual[i] = tokenizer.getString(i);
+
+            Assert.assertEquals(describeSplit(actual, n), describeSplit(expected, nExpected),
+                    String.format("'%s' split on '%s' into %d condense=%b", line, separator, maxFields, condense));
+        }
+    }
+
+    @DataProvider(name = "numbers")
+    public Object[][] makeNumbers() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( String number : Arrays.asList("0", "1", "-1", "+1", "123", "007", "1.5", "-0", "-0.0", ".5", "5.", "-.5", "0.1", "0.3",
+                "3.14159265358979", "3.141592653589793", "1e3", "1E-3", "99.99", "1019.12", "-1042.18", "123456789012345678",
+                "1234567890123456789", "", "-", ".", "1.2.3", "abc", "1a", " 5", "NaN", "Infinity", "1.0f", "١") )
+            tests.add(new Object[]{number});
+
+        Random random = new Random(2);
+        for ( int rep = 0; rep < 500; rep++ ) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(10) - 3) * (random.nextBoolean() ? 1 : -1);
+            tests.add(new Object[]{String.format("%." + random.nextInt(8) + "f", value)});
+            tests.add(new Object[]{Double.toString(value)});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "numbers")
+    public void testParseDoubleMatchesDoubleValueOf(String number) {
+        Object expected, actual;
+        try { expected = Double.valueOf(number); } catch ( NumberFormatException e ) { expected = e.getClass(); }
+        VCFLineTokenizer tokenizer = new VCFLineTokenizer(new VCFLineTokenizer.InternCache());
+        tokenizer.load("x\t" + number);
+        tokenizer.split('\t', 2, false);
+        try { actual = tokenizer.parseDouble(1); } catch ( NumberFormatException e ) { actual = e.getClass(); }
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test(dataProvider = "numbers")
+    public void testParseLongMatchesLongValueOf(String number) {
+        Object expected, actual;
+        try { expected = Long.valueOf(number); } catch ( NumberFormatException e ) { expected = e.getClass(); }
+        VCFLineTokenizer tokenizer = new VCFLineTokenizer(new VCFLineTokenizer.InternCache());
+        tokenizer.load(number);
+        tokenizer.split('\t', 1, false);
+        try { actual = tokenizer.parseLong(0); } catch ( NumberFormatException e ) { actual = e.getClass(); }
+        Assert.assertEquals(actual, expected);
+    }
+
+    @Test
+    public void testInterning() {
+        VCFLineTokenizer.InternCache cache = new VCFLineTokenizer.InternCache();
+        VCFLineTokenizer tokenizer = new VCFLineTokenizer(cache);
+        List<String> seen = new ArrayList<String>();
+        for ( int i = 0; i < 200; i++ ) {
+            tokenizer.load("chr" + i + "\tact\t0/1");
+            tokenizer.split('\t', 3, false);
+            String contig = tokenizer.getCachedString(0);
+            Assert.assertEquals(contig, "chr" + i);
+            Assert.assertSame(cache.intern(new String("chr" + i)), contig);
+            Assert.assertEquals(tokenizer.getCachedUpperCaseString(1), "ACT");
+            seen.add(tokenizer.getCachedString(2));
+        }
+        for ( String genotype : seen )
+            Assert.assertSame(genotype, seen.get(0));
+        Assert.assertEquals(cache.size(), 202);
+
+        // non-ASCII characters mustn't be confused with one another
+        tokenizer.load("é\tè");
+        tokenizer.split('\t', 2, false);
+        Assert.assertEquals(tokenizer.getCachedString(0), "é");
+        Assert.assertEquals(tokenizer.getCachedString(1), "è");
+    }
+
+    private static String describe(VariantContext vc) {
+        // genotypes first, as loading them drops the unparsed genotypes (and the codec) from the attributes
+        StringBuilder genotypes = new StringBuilder();
+        for ( Genotype g : vc.getGenotypes().values() )
+            genotypes.append(String.format(" [%s %s %b qual=%s filters=%s attr=%s]", g.getSampleName(), g.getAlleles(), g.isPhased(),
+                    g.getNegLog10PError(), g.filtersWereApplied() ? g.getFilters() : null, new TreeMap<String, Object>(g.getAttributes())));
+        return String.format("%s:%d-%d %s qual=%s filters=%s attr=%s", vc.getChr(), vc.getStart(), vc.getEnd(), vc.getAlleles(),
+                vc.getNegLog10PError(), vc.filtersWereApplied() ? vc.getFilters() : null, new TreeMap<String, Object>(vc.getAttributes())) + genotypes;
+    }
+
+    /**
+     * Computes the MD5 of the given descriptions, one per line.
+     */
+    private static String md5(List<String> descriptions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            for ( String description : descriptions )
+                digest.update((description + "\n").getBytes());
+            return String.format("%032x", new BigInteger(1, digest.digest()));
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The expected descriptions were produced by the String-splitting codec this one replaced.
+     */
+    @DataProvider(name = "vcfs")
+    public Object[][] makeVCFs() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        tests.add(new Object[]{"HiSeq.10000.vcf", 9965, "0a8b04de2cfb4b1caf3903ea2199393a"});
+        tests.add(new Object[]{"diffTestMaster.vcf", 9, "4f82f0815b570c618035d3fcdea1710a"});
+        tests.add(new Object[]{"diffTestTest.vcf", 9, "b8c1096201e8d766af679a3c4b53c9f9"});
+        tests.add(new Object[]{"vcf/vcfWithGenotypes.vcf", 7, "0a478107dc7461c36c09ae104692365a"});
+        tests.add(new Object[]{"vcf/vcfWithoutGenotypes.vcf", 6, "ad3fac8f1f1d6d5b5b64941269ad4384"});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "vcfs")
+    public void testCodecMatchesExpectedRecords(String vcf, int expectedRecords, String expectedMD5) throws IOException {
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReader reader = new AsciiLineReader(new FileInputStream(new File(testDir + vcf)));
+        codec.readHeader(reader);
+        reader.close();
+
+        reader = new AsciiLineReader(new FileInputStream(new File(testDir + vcf)));
+        List<String> descriptions = new ArrayList<String>();
+        String line;
+        while ( (line = reader.readLine()) != null ) {
+            VariantContext vc = (VariantContext)codec.decode(line);
+            if ( vc != null )
+                descriptions.add(describe(vc));
+        }
+        reader.close();
+        Assert.assertEquals(descriptions.size(), expectedRecords, "records in " + vcf);
+        Assert.assertEquals(md5(descriptions), expectedMD5, "records decoded from " + vcf);
+    }
+}
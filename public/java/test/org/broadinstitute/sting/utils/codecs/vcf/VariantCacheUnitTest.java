@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.codecs.vcf;
+
+import org.broad.tribble.readers.AsciiLineReader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Checks that records read back from a variant cache are exactly those the codec decodes from the VCF itself.
+ */
+public class VariantCacheUnitTest extends BaseTest {
+    private static final String[] INFO_FIELDS = { "A=1", "B=x,y", "C", "D=", "A=2", "E=" + "é", "" };
+
+    private static String describe(VariantContext vc) {
+        // genotypes first, as loading them drops the unparsed genotypes (and the codec) from the attributes
+        StringBuilder genotypes = new StringBuilder();
+        for ( Genotype g : vc.getGenotypes().values() )
+            genotypes.append(String.format(" [%s %s %b qual=%s filters=%s attr=%s]", g.getSampleName(), g.getAlleles(), g.isPhased(),
+                    g.getNegLog10PError(), g.filtersWereApplied() ? g.getFilters() : null, new TreeMap<String, Object>(g.getAttributes())));
+        return String.format("%s %s:%d-%d %s qual=%s filters=%s attr=%s", vc.getSource(), vc.getChr(), vc.getStart(), vc.getEnd(), vc.getAlleles(),
+                vc.getNegLog10PError(), vc.filtersWereApplied() ? vc.getFilters() : null, new TreeMap<String, Object>(vc.getAttributes())) + genotypes;
+    }
+
+    /**
+     * Writes a VCF with several contigs, overlapping deletions and INFO columns of every shape the codec accepts.
+     */
+    private static File makeVCF(int nRecords, boolean withGenotypes) throws IOException {
+        File vcf = createTempFile("variantCache", ".vcf");
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(vcf), "UTF-8"));
+        out.println("##fileformat=VCFv4.0");
+        out.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+        out.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+        out.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO" + (withGenotypes ? "\tFORMAT\ts1\ts2" : ""));
+
+        Random random = new Random(5);
+        int position = 1;
+        String contig = "chr1";
+        for ( int i = 0; i < nRecords; i++ ) {
+            if ( random.nextInt(700) == 0 && !contig.equals("chrX") ) {
+                contig = contig.equals("chr1") ? "chr2" : "chrX";
+                position = 1;
+            }
+            position += random.nextInt(4);
+            StringBuilder info = new StringBuilder();
+            switch ( random.nextInt(10) ) {
+                case 0: info.append(VCFConstants.EMPTY_INFO_FIELD); break;
+                case 1: info.append(";A=0"); break;
+                default:
+                    int nFields = 1 + random.nextInt(4);
+                    for ( int j = 0; j < nFields; j++ )
+                        info.append(j == 0 ? "" : ";").append(INFO_FIELDS[random.nextInt(INFO_FIELDS.length)]);
+                    if ( info.length() == 0 )
+                        info.append("F");
+            }
+            boolean deletion = random.nextInt(5) == 0;
+            out.print(String.format("%s\t%d\t%s\t%s\t%s\t%s\t%s\t%s", contig, position, random.nextBoolean() ? "." : "rs" + i,
+                    deletion ? "ACGTA" : "A", deletion ? "A" : "C", random.nextBoolean() ? "." : String.valueOf(random.nextInt(100)),
+                    random.nextBoolean() ? "PASS" : "q10", info));
+            if ( withGenotypes )
+                out.print(String.format("\tGT:DP\t0/1:%d\t1|1:%d", random.nextInt(50), random.nextInt(50)));
+            out.println();
+        }
+        out.close();
+        return vcf;
+    }
+
+    private static List<VariantContext> decodeVCF(File vcf) throws IOException {
+        VCFCodec codec = new VCFCodec();
+        codec.setName("test");
+        AsciiLineReader reader = new AsciiLineReader(new FileInputStream(vcf));
+        codec.readHeader(reader);
+        reader.close();
+
+        List<VariantContext> vcs = new ArrayList<VariantContext>();
+        reader = new AsciiLineReader(new FileInputStream(vcf));
+        String line;
+        while ( (line = reader.readLine()) != null ) {
+            VariantContext vc = (VariantContext)codec.decode(line);
+            if ( vc != null )
+                vcs.add(vc);
+        }
+        reader.close();
+        return vcs;
+    }
+
+    private static VariantCacheFeatureSource openCache(File vcf) throws IOException {
+        File cacheFile = createTempFile("variantCache", VariantCacheWriter.CACHE_EXTENSION);
+        VariantCacheWriter.createCache(vcf, cacheFile);
+        VCFCodec codec = new VCFCodec();
+        codec.setName("test");
+        return new VariantCacheFeatureSource(cacheFile, codec);
+    }
+
+    private static List<VariantContext> toList(Iterator<VariantContext> it) {
+        List<VariantContext> vcs = new ArrayList<VariantContext>();
+        while ( it.hasNext() )
+            vcs.add(it.next());
+        return vcs;
+    }
+
+    private static String write(VCFHeader header, List<VariantContext> vcs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StandardVCFWriter writer = new StandardVCFWriter(out);
+        writer.writeHeader(header);
+        for ( VariantContext vc : vcs )
+            writer.add(vc, vc.getReferenceBaseForIndel());
+        writer.close();
+        return out.toString();
+    }
+
+    @DataProvider(name = "vcfs")
+    public Object[][] makeVCFs() throws IOException {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( String vcf : Arrays.asList("HiSeq.10000.vcf", "diffTestMaster.vcf", "vcf/vcfWithGenotypes.vcf", "vcf/vcfWithoutGenotypes.vcf") )
+            tests.add(new Object[]{new File(testDir + vcf)});
+        tests.add(new Object[]{makeVCF(3000, true)});
+        tests.add(new Object[]{makeVCF(3000, false)});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "vcfs")
+    public void testCacheMatchesCodec(File vcf) throws IOException {
+        VariantCacheFeatureSource cache = openCache(vcf);
+        List<VariantContext> expected = decodeVCF(vcf);
+        List<VariantContext> actual = toList(cache.iterator());
+        Assert.assertEquals(actual.size(), expected.size());
+
+        // the writer copies the unparsed genotypes of both straight through
+        VCFHeader header = (VCFHeader)cache.getHeader();
+        Assert.assertEquals(write(header, actual), write(header, expected));
+
+        actual = toList(cache.iterator());
+        for ( int i = 0; i < expected.size(); i++ )
+            Assert.assertEquals(describe(actual.get(i)), describe(expected.get(i)));
+        cache.close();
+    }
+
+    @Test
+    public void testQueryMatchesLinearScan() throws IOException {
+        File vcf = makeVCF(5000, false);
+        VariantCacheFeatureSource cache = openCache(vcf);
+        List<VariantContext> all = decodeVCF(vcf);
+        Assert.assertEquals(cache.getSequenceNames(), Arrays.asList("chr1", "chr2", "chrX"));
+
+        Random random = new Random(6);
+        for ( int rep = 0; rep < 500; rep++ ) {
+            String contig = cache.getSequenceNames().get(random.nextInt(3));
+            int start = 1 + random.nextInt(4000);
+            int end = start + random.nextInt(rep % 10 == 0 ? 4000 : 20);
+
+            List<String> expected = new ArrayList<String>();
+            for ( VariantContext vc : all ) {
+                if ( vc.getChr().equals(contig) && vc.getStart() <= end && vc.getEnd() >= start )
+                    expected.add(describe(vc));
+            }
+            List<String> actual = new ArrayList<String>();
+            for ( VariantContext vc : toList(cache.query(contig, start, end)) )
+                actual.add(describe(vc));
+            Assert.assertEquals(actual, expected, String.format("%s:%d-%d", contig, start, end));
+        }
+        Assert.assertFalse(cache.query("chr3", 1, 100).hasNext());
+        cache.close();
+    }
+
+    @Test
+    public void testReadsOnlyTheColumnsUsed() throws IOException {
+        File vcf = new File(testDir + "HiSeq.10000.vcf");
+
+        VariantCacheFeatureSource cache = openCache(vcf);
+        long opened = cache.getBytesRead();
+        double totalDepth = 0;
+        for ( VariantContext vc : toList(cache.iterator()) )
+            totalDepth += Double.valueOf(vc.getAttributeAsString("DP", "0"));
+        long oneField = cache.getBytesRead() - opened;
+        cache.close();
+
+        cache = openCache(vcf);
+        int nGenotypes = 0;
+        for ( VariantContext vc : toList(cache.iterator()) ) {
+            vc.getAttributes().size();
+            nGenotypes += vc.getNSamples();
+        }
+        long everything = cache.getBytesRead() - opened;
+        cache.close();
+
+        Assert.assertTrue(totalDepth > 0 && nGenotypes > 0);
+        Assert.assertTrue(oneField * 3 < everything, String.format("read %d bytes for one INFO field, %d for everything", oneField, everything));
+    }
+
+    @Test
+    public void testIsCurrent() throws IOException {
+        File vcf = makeVCF(10, true);
+        File cacheFile = VariantCacheWriter.cacheFile(vcf);
+        cacheFile.deleteOnExit();
+        Assert.assertFalse(VariantCacheFeatureSource.isCurrent(vcf, cacheFile));
+
+        VariantCacheWriter.createCache(vcf, cacheFile);
+        Assert.assertTrue(VariantCacheFeatureSource.isCurrent(vcf, cacheFile));
+
+        // a different file of the same name
+        FileWriter out = new FileWriter(vcf, true);
+        out.write("chr1\t100\t.\tA\tC\t.\tPASS\t.\tGT:DP\t0/0:1\t0/0:1\n");
+        out.close();
+        cacheFile.setLastModified(vcf.lastModified());
+        Assert.assertFalse(VariantCacheFeatureSource.isCurrent(vcf, cacheFile));
+    }
+}
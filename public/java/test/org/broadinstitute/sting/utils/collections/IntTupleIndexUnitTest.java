@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.collections;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the open-addressing tuple index.
+ */
+public class IntTupleIndexUnitTest extends BaseTest {
+    @Test
+    public void testRowsAreAssignedInInsertionOrder() {
+        IntTupleIndex index = new IntTupleIndex(3);
+        Assert.assertEquals(index.size(), 0);
+        Assert.assertEquals(index.find(new int[] {1,2,3}), -1);
+
+        Assert.assertEquals(index.findOrAdd(new int[] {1,2,3}), 0);
+        Assert.assertEquals(index.findOrAdd(new int[] {3,2,1}), 1);
+        Assert.assertEquals(index.findOrAdd(new int[] {1,2,3}), 0);
+        Assert.assertEquals(index.findOrAdd(new int[] {-1,0,Integer.MAX_VALUE}), 2);
+
+        Assert.assertEquals(index.size(), 3);
+        Assert.assertEquals(index.find(new int[] {3,2,1}), 1);
+        Assert.assertEquals(index.find(new int[] {3,2,2}), -1);
+        Assert.assertEquals(index.getTuple(2,new int[3]), new int[] {-1,0,Integer.MAX_VALUE});
+        Assert.assertEquals(index.get(1,0), 3);
+    }
+
+    @Test
+    public void testGrowthMatchesHashMap() {
+        final int tupleLength = 4;
+        TrackingIndex index = new TrackingIndex(tupleLength);
+        Map<List<Integer>,Integer> expectedRows = new HashMap<List<Integer>,Integer>();
+        Random random = new Random(17);
+
+        for(int i = 0; i < 20000; i++) {
+            int[] tuple = new int[tupleLength];
+            for(int j = 0; j < tupleLength; j++)
+                tuple[j] = random.nextInt(12) - 2;
+            List<Integer> key = toList(tuple);
+            Integer expectedRow = expectedRows.get(key);
+            if(expectedRow == null) {
+                expectedRow = expectedRows.size();
+                expectedRows.put(key,expectedRow);
+            }
+            Assert.assertEquals(index.findOrAdd(tuple),(int)expectedRow,"Wrong row for " + key);
+        }
+
+        Assert.assertEquals(index.size(),expectedRows.size());
+        Assert.assertTrue(index.rowCapacity >= index.size(),"Subclass wasn't told to grow its per-row arrays");
+        for(Map.Entry<List<Integer>,Integer> entry: expectedRows.entrySet()) {
+            Assert.assertEquals(index.find(toArray(entry.getKey())),(int)entry.getValue());
+            Assert.assertEquals(toList(index.getTuple(entry.getValue(),new int[tupleLength])),entry.getKey());
+        }
+    }
+
+    private static class TrackingIndex extends IntTupleIndex {
+        private int rowCapacity = 0;
+
+        public TrackingIndex(int tupleLength) {
+            super(tupleLength,1);
+        }
+
+        @Override
+        protected void ensureRowCapacity(int rowCapacity) {
+            Assert.assertTrue(rowCapacity > this.rowCapacity,"Row capacity should only ever grow");
+            this.rowCapacity = rowCapacity;
+        }
+    }
+
+    private static List<Integer> toList(int[] tuple) {
+        List<Integer> list = new ArrayList<Integer>();
+        for(int value: tuple)
+            list.add(value);
+        return list;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] tuple = new int[list.size()];
+        for(int i = 0; i < tuple.length; i++)
+            tuple[i] = list.get(i);
+        return tuple;
+    }
+}
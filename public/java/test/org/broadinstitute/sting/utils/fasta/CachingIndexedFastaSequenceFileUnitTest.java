@@ -18,6 +18,11 @@ import java.io.FileNotFoundException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.picard.reference.IndexedFastaSequenceFile;
 import net.sf.picard.reference.ReferenceSequence;
@@ -110,4 +115,90 @@ public class CachingIndexedFastaSequenceFileUnitTest extends BaseTest {
             }
         }
     }
+
+    // Tests random queries against a cache too small to hold the whole contig, including queries spanning two pages.
+    @Test
+    public void testCachingIndexedFastaReaderRandomAccess() throws FileNotFoundException {
+        IndexedFastaSequenceFile uncached = new IndexedFastaSequenceFile(simpleFasta);
+        CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 1000, 4);
+
+        SAMSequenceRecord contig = uncached.getSequenceDictionary().getSequence(0);
+        Random random = new Random(42);
+        for ( int i = 0; i < 10000; i++ ) {
+            int start = random.nextInt(contig.getSequenceLength()) + 1;
+            int stop = Math.min(start + random.nextInt(500), contig.getSequenceLength());
+            Assert.assertEquals(caching.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases(),
+                                uncached.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases(),
+                                String.format("Mismatch at %d-%d", start, stop));
+        }
+
+        Assert.assertEquals(caching.getCacheHits() + caching.getCacheMisses(), 10000);
+        Assert.assertTrue(caching.getCachedPageCount() <= 4, "Cache holds more pages than allowed");
+    }
+
+    // Empty queries, including ones starting on the first base of a page, must return no bases.
+    @Test
+    public void testEmptyQueries() throws FileNotFoundException {
+        IndexedFastaSequenceFile uncached = new IndexedFastaSequenceFile(simpleFasta);
+        CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 1000, 4);
+        SAMSequenceRecord contig = uncached.getSequenceDictionary().getSequence(0);
+
+        for ( int start : Arrays.asList(1, 500, 1001, 2001, contig.getSequenceLength(), contig.getSequenceLength() + 1) ) {
+            ReferenceSequence cachedVal = caching.getSubsequenceAt(contig.getSequenceName(), start, start - 1);
+            ReferenceSequence uncachedVal = uncached.getSubsequenceAt(contig.getSequenceName(), start, start - 1);
+
+            Assert.assertEquals(cachedVal.getName(), uncachedVal.getName());
+            Assert.assertEquals(cachedVal.getContigIndex(), uncachedVal.getContigIndex());
+            Assert.assertEquals(cachedVal.getBases().length, 0, "Empty query at " + start + " returned bases");
+        }
+    }
+
+    @Test
+    public void testCacheHitsAndMisses() throws FileNotFoundException {
+        CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 1000, 4);
+        String contig = caching.getSequenceDictionary().getSequence(0).getSequenceName();
+
+        caching.getSubsequenceAt(contig, 1, 10);        // miss: loads page 0
+        caching.getSubsequenceAt(contig, 500, 600);     // hit
+        caching.getSubsequenceAt(contig, 990, 1010);    // miss: loads page 1
+        caching.getSubsequenceAt(contig, 995, 1005);    // hit: both pages are cached
+
+        Assert.assertEquals(caching.getCacheHits(), 2);
+        Assert.assertEquals(caching.getCacheMisses(), 2);
+        Assert.assertEquals(caching.getCachedPageCount(), 2);
+    }
+
+    // Many threads sharing one reader must all see the same bases as a private uncached reader.
+    @Test
+    public void testCachingIndexedFastaReaderConcurrentAccess() throws Exception {
+        final CachingIndexedFastaSequenceFile caching = new CachingIndexedFastaSequenceFile(simpleFasta, 1000, 8);
+        final SAMSequenceRecord contig = caching.getSequenceDictionary().getSequence(0);
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for ( int thread = 0; thread < 8; thread++ ) {
+            final long seed = thread;
+            results.add(threadPool.submit(new Callable<Integer>() {
+                public Integer call() throws FileNotFoundException {
+                    IndexedFastaSequenceFile uncached = new IndexedFastaSequenceFile(simpleFasta);
+                    Random random = new Random(seed);
+                    int mismatches = 0;
+                    for ( int i = 0; i < 2000; i++ ) {
+                        int start = random.nextInt(contig.getSequenceLength()) + 1;
+                        int stop = Math.min(start + random.nextInt(100), contig.getSequenceLength());
+                        if ( ! Arrays.equals(caching.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases(),
+                                             uncached.getSubsequenceAt(contig.getSequenceName(), start, stop).getBases()) )
+                            mismatches++;
+                    }
+                    return mismatches;
+                }
+            }));
+        }
+
+        for ( Future<Integer> result : results )
+            Assert.assertEquals(result.get().intValue(), 0, "Cached reads differed from uncached reads");
+        threadPool.shutdown();
+
+        Assert.assertEquals(caching.getCacheHits() + caching.getCacheMisses(), 8 * 2000);
+    }
 }
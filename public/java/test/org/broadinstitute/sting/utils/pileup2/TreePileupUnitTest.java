@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2011, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.pileup2;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.datasources.sample.Sample;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.PileupElementFilter;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Checks that tree-structured pileups behave exactly like the list-based ReadBackedPileupImpl.
+ */
+public class TreePileupUnitTest extends BaseTest {
+    private static final List<String> READ_GROUPS = Arrays.asList("rg1","rg2","rg3","rg4");
+    private static final List<String> SAMPLES = Arrays.asList("sample1","sample2","sample3","sample4");
+
+    private GenomeLoc loc;
+    private ReadBackedPileup expected;
+    private MultiSamplePileup actual;
+
+    @BeforeClass
+    public void createPileups() {
+        SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1,1,1000);
+        ArtificialSAMUtils.createEnumeratedReadGroups(header,READ_GROUPS,SAMPLES);
+        loc = new GenomeLocParser(header.getSequenceDictionary()).createGenomeLoc("chr1",50);
+
+        Random random = new Random(42);
+        Map<Sample,ReadBackedPileupImpl> expectedBySample = new HashMap<Sample,ReadBackedPileupImpl>();
+        Map<Sample,SamplePileup> actualBySample = new HashMap<Sample,SamplePileup>();
+        for(int sampleIndex = 0; sampleIndex < SAMPLES.size(); sampleIndex++) {
+            List<PileupElement> elements = new ArrayList<PileupElement>();
+            for(int i = 0; i < 50; i++) {
+                byte[] bases = new byte[20];
+                byte[] quals = new byte[20];
+                for(int j = 0; j < bases.length; j++) {
+                    bases[j] = (byte)"ACGT".charAt(random.nextInt(4));
+                    quals[j] = (byte)random.nextInt(40);
+                }
+                // Some reads share a name, so that overlapping fragments can be found.
+                SAMRecord read = ArtificialSAMUtils.createArtificialRead(header,"read"+sampleIndex+"."+random.nextInt(40),0,31+random.nextInt(20),bases,quals);
+                read.setAttribute("RG",READ_GROUPS.get(sampleIndex));
+                read.setMappingQuality(random.nextInt(4) == 0 ? 0 : 10+random.nextInt(50));
+                read.setReadNegativeStrandFlag(random.nextBoolean());
+                elements.add(new PileupElement(read,random.nextInt(8) == 0 ? -1 : random.nextInt(bases.length)));
+            }
+            Sample sample = new Sample(SAMPLES.get(sampleIndex));
+            expectedBySample.put(sample,new ReadBackedPileupImpl(loc,elements));
+            actualBySample.put(sample,new SamplePileup(loc,sample,elements));
+        }
+
+        expected = new ReadBackedPileupImpl(loc,expectedBySample);
+        actual = new MultiSamplePileup(loc,actualBySample.values());
+    }
+
+    @Test
+    public void testUnfilteredPileup() {
+        assertPileupsEqual(actual,expected);
+        Assert.assertEquals(actual.getBaseCounts(),expected.getBaseCounts());
+        Assert.assertEquals(new HashSet<String>(actual.getSampleNames()),new HashSet<String>(expected.getSampleNames()));
+        Assert.assertEquals(new HashSet<Sample>(actual.getSamples()),new HashSet<Sample>(expected.getSamples()));
+        Assert.assertEquals(actual.getReadGroups(),expected.getReadGroups());
+        Assert.assertEquals(actual.getPileupString('A'),expected.getPileupString('A'));
+    }
+
+    @Test
+    public void testFilteredViews() {
+        assertPileupsEqual(actual.getPileupWithoutDeletions(),expected.getPileupWithoutDeletions());
+        assertPileupsEqual(actual.getPileupWithoutMappingQualityZeroReads(),expected.getPileupWithoutMappingQualityZeroReads());
+        assertPileupsEqual(actual.getPositiveStrandPileup(),expected.getPositiveStrandPileup());
+        assertPileupsEqual(actual.getNegativeStrandPileup(),expected.getNegativeStrandPileup());
+        assertPileupsEqual(actual.getBaseFilteredPileup(20),expected.getBaseFilteredPileup(20));
+        assertPileupsEqual(actual.getMappingFilteredPileup(30),expected.getMappingFilteredPileup(30));
+        assertPileupsEqual(actual.getBaseAndMappingFilteredPileup(20,30),expected.getBaseAndMappingFilteredPileup(20,30));
+        assertPileupsEqual(actual.getOverlappingFragmentFilteredPileup(),expected.getOverlappingFragmentFilteredPileup());
+
+        PileupElementFilter evenOffsets = new PileupElementFilter() {
+            public boolean allow(PileupElement pileupElement) {
+                return pileupElement.getOffset() % 2 == 0;
+            }
+        };
+        assertPileupsEqual(actual.getFilteredPileup(evenOffsets),expected.getFilteredPileup(evenOffsets));
+    }
+
+    @Test
+    public void testChainedFilters() {
+        assertPileupsEqual(actual.getMappingFilteredPileup(30).getPileupWithoutDeletions().getNegativeStrandPileup(),
+                           expected.getMappingFilteredPileup(30).getPileupWithoutDeletions().getNegativeStrandPileup());
+        assertPileupsEqual(actual.getBaseFilteredPileup(10).getPileupForSampleName("sample3").getPositiveStrandPileup(),
+                           expected.getBaseFilteredPileup(10).getPileupForSampleName("sample3").getPositiveStrandPileup());
+    }
+
+    @Test
+    public void testNullSampleSelectsReadsWithoutSample() {
+        Sample unknownSample = new Sample(null);
+        SamplePileup unknownSamplePileup = new SamplePileup(loc,unknownSample,Collections.<PileupElement>emptyList());
+        List<AbstractTreePileup> children = new ArrayList<AbstractTreePileup>();
+        children.add(actual);
+        children.add(unknownSamplePileup);
+        MultiSamplePileup withUnknownSample = new MultiSamplePileup(loc,children);
+        Assert.assertSame(withUnknownSample.getPileupForSample(null),unknownSamplePileup);
+        Assert.assertSame(withUnknownSample.getPileupForSampleName(null),unknownSamplePileup);
+    }
+
+    @Test
+    public void testFilteringIsLazy() {
+        final int[] calls = new int[1];
+        PileupElementFilter countingFilter = new PileupElementFilter() {
+            public boolean allow(PileupElement pileupElement) {
+                calls[0]++;
+                return true;
+            }
+        };
+        AbstractTreePileup filtered = actual.getFilteredPileup(countingFilter);
+        Assert.assertEquals(calls[0],0,"Creating a filtered view should not examine any elements");
+
+        int sampleSize = filtered.getPileupForSampleName("sample2").size();
+        Assert.assertEquals(calls[0],sampleSize,"Only the requested sample should have been filtered");
+
+        filtered.getPileupForSampleName("sample2").size();
+        Assert.assertEquals(calls[0],sampleSize,"Sizes should be cached");
+    }
+
+    @Test
+    public void testSampleSelection() {
+        for(String sampleName: SAMPLES)
+            assertPileupsEqual(actual.getPileupForSampleName(sampleName),expected.getPileupForSampleName(sampleName));
+        for(Sample sample: expected.getSamples())
+            assertPileupsEqual(actual.getPileupForSample(sample),expected.getPileupForSample(sample));
+        Assert.assertNull(actual.getPileupForSampleName("nonexistent"));
+        Assert.assertNull(actual.getPileupForSample(null));
+        Assert.assertNull(expected.getPileupForSample(null));
+
+        List<String> sampleNames = Arrays.asList("sample1","sample4");
+        Assert.assertEquals(actual.getPileupForSampleNames(sampleNames).size(),expected.getPileupForSampleNames(sampleNames).size());
+        Assert.assertEquals(new HashSet<String>(actual.getPileupForSampleNames(sampleNames).getSampleNames()),new HashSet<String>(sampleNames));
+    }
+
+    @Test
+    public void testReadGroupSelection() {
+        for(String readGroup: READ_GROUPS) {
+            assertPileupsEqual(actual.getPileupForReadGroup(readGroup),expected.getPileupForReadGroup(readGroup));
+            assertPileupsEqual(actual.getPileupForLane(readGroup),expected.getPileupForLane(readGroup));
+        }
+        Assert.assertNull(actual.getPileupForReadGroup("nonexistent"));
+    }
+
+    @Test
+    public void testDownsampling() {
+        GenomeAnalysisEngine.resetRandomGenerator();
+        ReadBackedPileup downsampled = actual.getDownsampledPileup(37);
+        Assert.assertEquals(downsampled.size(),37);
+        Set<PileupElement> elements = new HashSet<PileupElement>();
+        for(PileupElement p: actual)
+            elements.add(p);
+        for(PileupElement p: downsampled)
+            Assert.assertTrue(elements.contains(p),"Downsampled pileup contains an element not in the original pileup");
+        Assert.assertSame(actual.getDownsampledPileup(actual.size()),actual);
+
+        // A single sample should be downsampled exactly as the list-based implementation would do it.
+        GenomeAnalysisEngine.resetRandomGenerator();
+        ReadBackedPileup expectedSample = expected.getPileupForSampleName("sample2").getDownsampledPileup(10);
+        GenomeAnalysisEngine.resetRandomGenerator();
+        assertPileupsEqual(actual.getPileupForSampleName("sample2").getDownsampledPileup(10),expectedSample);
+    }
+
+    private static void assertPileupsEqual(ReadBackedPileup actual, ReadBackedPileup expected) {
+        Assert.assertEquals(actual.size(),expected.size(),"Wrong pileup size");
+        Assert.assertEquals(actual.getNumberOfDeletions(),expected.getNumberOfDeletions(),"Wrong number of deletions");
+        Assert.assertEquals(actual.getNumberOfMappingQualityZeroReads(),expected.getNumberOfMappingQualityZeroReads(),"Wrong number of MQ0 reads");
+
+        Iterator<PileupElement> actualIterator = actual.iterator();
+        Iterator<PileupElement> expectedIterator = expected.iterator();
+        while(expectedIterator.hasNext()) {
+            Assert.assertTrue(actualIterator.hasNext(),"Pileup is missing elements");
+            Assert.assertSame(actualIterator.next(),expectedIterator.next(),"Pileup elements differ");
+        }
+        Assert.assertFalse(actualIterator.hasNext(),"Pileup has extra elements");
+    }
+}
@@ -0,0 +1,42 @@
+package org.broadinstitute.sting.utils.threading;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the per-thread busy/idle time accounting.
+ */
+public class ThreadUtilizationTrackerUnitTest extends BaseTest {
+    @Test
+    public void testBusyTimeAccumulatesPerThread() throws InterruptedException {
+        final ThreadUtilizationTracker tracker = new ThreadUtilizationTracker();
+        tracker.start();
+
+        tracker.addBusyTime(5);
+        tracker.addBusyTime(7);
+
+        Thread worker = new Thread(new Runnable() {
+            public void run() {
+                tracker.addBusyTime(3);
+            }
+        }, "ThreadUtilizationTrackerUnitTest-worker");
+        worker.start();
+        worker.join();
+
+        Assert.assertEquals(tracker.getThreadNames(), new String[] { Thread.currentThread().getName(), "ThreadUtilizationTrackerUnitTest-worker" });
+        Assert.assertEquals(tracker.getBusyTimeMillis(), new long[] { 12, 3 });
+        Assert.assertEquals(tracker.getIdleTimeMillis().length, 2);
+        for(long idleTime: tracker.getIdleTimeMillis())
+            Assert.assertTrue(idleTime >= 0, "Idle time should never be negative");
+    }
+
+    @Test
+    public void testStartResetsCounters() {
+        ThreadUtilizationTracker tracker = new ThreadUtilizationTracker();
+        tracker.addBusyTime(10);
+        tracker.start();
+        Assert.assertEquals(tracker.getThreadNames().length, 0);
+        Assert.assertEquals(tracker.getBusyTimeMillis().length, 0);
+    }
+}